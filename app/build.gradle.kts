@@ -46,6 +46,11 @@ android {
     composeOptions {
         kotlinCompilerExtensionVersion = "1.5.4"
     }
+
+    testOptions {
+        // JVM单元测试中android.util.Log等返回默认值, 不抛出"not mocked"
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 kotlin {
@@ -83,13 +88,15 @@ dependencies {
     implementation("org.jetbrains.kotlinx:kotlinx-coroutines-core:1.7.3")
 
     // ONNX Runtime (for Silero VAD)
-    implementation("com.microsoft.onnxruntime:onnxruntime-android:1.16.3")
+    implementation("com.microsoft.onnxruntime:onnxruntime-android:1.17.3")
 
     // Gson for JSON
     implementation("com.google.code.gson:gson:2.10.1")
 
     // Testing
     testImplementation("junit:junit:4.13.2")
+    // 桌面版ORT提供JVM单元测试所需的本地库(Android版只含.so)
+    testImplementation("com.microsoft.onnxruntime:onnxruntime:1.17.3")
     testImplementation("org.jetbrains.kotlinx:kotlinx-coroutines-test:1.7.3")
     testImplementation("io.mockk:mockk:1.13.8")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
@@ -5,14 +5,18 @@ import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
 import com.voicelife.assistant.data.model.Recording
 import com.voicelife.assistant.data.model.Transcription
+import com.voicelife.assistant.data.model.TranscriptionCacheEntry
+import com.voicelife.assistant.data.model.TranscriptionJob
 
 @Database(
-    entities = [Recording::class, Transcription::class],
-    version = 1,
+    entities = [Recording::class, Transcription::class, TranscriptionJob::class, TranscriptionCacheEntry::class],
+    version = 7,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
 abstract class AppDatabase : RoomDatabase() {
     abstract fun recordingDao(): RecordingDao
     abstract fun transcriptionDao(): TranscriptionDao
+    abstract fun transcriptionJobDao(): TranscriptionJobDao
+    abstract fun transcriptionCacheDao(): TranscriptionCacheDao
 }
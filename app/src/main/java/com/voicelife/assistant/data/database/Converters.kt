@@ -1,6 +1,7 @@
 package com.voicelife.assistant.data.database
 
 import androidx.room.TypeConverter
+import com.voicelife.assistant.data.model.JobState
 import com.voicelife.assistant.data.model.TranscriptionStatus
 
 class Converters {
@@ -13,4 +14,14 @@ class Converters {
     fun toTranscriptionStatus(value: String): TranscriptionStatus {
         return TranscriptionStatus.valueOf(value)
     }
+
+    @TypeConverter
+    fun fromJobState(value: JobState): String {
+        return value.name
+    }
+
+    @TypeConverter
+    fun toJobState(value: String): JobState {
+        return JobState.valueOf(value)
+    }
 }
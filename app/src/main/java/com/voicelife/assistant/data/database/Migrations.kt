@@ -0,0 +1,117 @@
+package com.voicelife.assistant.data.database
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * 数据库迁移
+ * 每次修改实体都在这里追加一个迁移, 并加入ALL
+ */
+object Migrations {
+
+    /**
+     * 1 -> 2: recordings增加样本数和采样率
+     * 旧记录都是16kHz WAV, 样本数按已有的时长回填
+     */
+    val MIGRATION_1_2 = object : Migration(1, 2) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE recordings ADD COLUMN sampleCount INTEGER NOT NULL DEFAULT 0")
+            db.execSQL("ALTER TABLE recordings ADD COLUMN sampleRate INTEGER NOT NULL DEFAULT 16000")
+            db.execSQL("UPDATE recordings SET sampleCount = duration * 16000")
+        }
+    }
+
+    /**
+     * 2 -> 3: recordings增加归档信息
+     */
+    val MIGRATION_2_3 = object : Migration(2, 3) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE recordings ADD COLUMN originalFileSize INTEGER NOT NULL DEFAULT 0")
+            db.execSQL("ALTER TABLE recordings ADD COLUMN archivedAt INTEGER")
+        }
+    }
+
+    /**
+     * 3 -> 4: recordings增加会话分块信息
+     * 旧记录都是不分块的单个录音, sessionId保持为NULL
+     */
+    val MIGRATION_3_4 = object : Migration(3, 4) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE recordings ADD COLUMN sessionId TEXT")
+            db.execSQL("ALTER TABLE recordings ADD COLUMN chunkIndex INTEGER NOT NULL DEFAULT 0")
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_recordings_sessionId ON recordings (sessionId)")
+        }
+    }
+
+    /**
+     * 4 -> 5: 增加转写任务表
+     * 上次中断在PROCESSING的录音改回PENDING; 不在这里入队, 由服务启动时按是否配置了转写引擎补入
+     */
+    val MIGRATION_4_5 = object : Migration(4, 5) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS transcription_jobs (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                        "recordingId INTEGER NOT NULL, " +
+                        "state TEXT NOT NULL, " +
+                        "priority INTEGER NOT NULL, " +
+                        "attempts INTEGER NOT NULL, " +
+                        "maxAttempts INTEGER NOT NULL, " +
+                        "notBefore INTEGER NOT NULL, " +
+                        "leaseOwner TEXT, " +
+                        "leaseExpiresAt INTEGER, " +
+                        "lastError TEXT, " +
+                        "createdAt INTEGER NOT NULL, " +
+                        "updatedAt INTEGER NOT NULL, " +
+                        "FOREIGN KEY(recordingId) REFERENCES recordings(id) ON UPDATE NO ACTION ON DELETE CASCADE)"
+            )
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS index_transcription_jobs_recordingId ON transcription_jobs (recordingId)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_transcription_jobs_state_notBefore ON transcription_jobs (state, notBefore)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_transcription_jobs_leaseOwner ON transcription_jobs (leaseOwner)")
+
+            db.execSQL("UPDATE recordings SET transcriptionStatus = 'PENDING' WHERE transcriptionStatus = 'PROCESSING'")
+        }
+    }
+
+    /**
+     * 5 -> 6: transcriptions增加isFinal(流式转写的部分结果为0)
+     * 旧记录都是完整结果
+     */
+    val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE transcriptions ADD COLUMN isFinal INTEGER NOT NULL DEFAULT 1")
+        }
+    }
+
+    /**
+     * 6 -> 7: recordings增加内容哈希, 增加转写结果缓存表
+     * 旧录音的哈希为NULL, 转写前由调度器读取文件补算
+     */
+    val MIGRATION_6_7 = object : Migration(6, 7) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE recordings ADD COLUMN contentHash TEXT")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS transcription_cache (" +
+                        "contentHash TEXT NOT NULL, " +
+                        "sampleCount INTEGER NOT NULL, " +
+                        "sampleRate INTEGER NOT NULL, " +
+                        "text TEXT NOT NULL, " +
+                        "language TEXT, " +
+                        "segments TEXT NOT NULL, " +
+                        "createdAt INTEGER NOT NULL, " +
+                        "lastUsedAt INTEGER NOT NULL, " +
+                        "PRIMARY KEY(contentHash))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_transcription_cache_lastUsedAt ON transcription_cache (lastUsedAt)")
+        }
+    }
+
+    val ALL: Array<Migration> = arrayOf(
+        MIGRATION_1_2,
+        MIGRATION_2_3,
+        MIGRATION_3_4,
+        MIGRATION_4_5,
+        MIGRATION_5_6,
+        MIGRATION_6_7
+    )
+}
@@ -10,6 +10,12 @@ interface RecordingDao {
     @Insert
     suspend fun insert(recording: Recording): Long
 
+    /**
+     * 批量插入(一个事务)
+     */
+    @Insert
+    suspend fun insertAll(recordings: List<Recording>): List<Long>
+
     @Update
     suspend fun update(recording: Recording)
 
@@ -19,6 +25,15 @@ interface RecordingDao {
     @Query("SELECT * FROM recordings WHERE id = :id")
     suspend fun getById(id: Long): Recording?
 
+    /**
+     * 已登记的路径; 流式转写中的记录(STREAMING)是临时的, 不算已登记
+     */
+    @Query("SELECT filePath FROM recordings WHERE filePath IN (:paths) AND transcriptionStatus != 'STREAMING'")
+    suspend fun getExistingPaths(paths: List<String>): List<String>
+
+    @Query("SELECT * FROM recordings WHERE sessionId = :sessionId ORDER BY chunkIndex ASC")
+    suspend fun getBySession(sessionId: String): List<Recording>
+
     @Query("SELECT * FROM recordings ORDER BY createdAt DESC")
     fun getAllFlow(): Flow<List<Recording>>
 
@@ -30,4 +45,61 @@ interface RecordingDao {
 
     @Query("DELETE FROM recordings WHERE deleteAt < :timestamp")
     suspend fun deleteExpired(timestamp: Long): Int
+
+    /**
+     * 只删除记录, 不涉及文件
+     */
+    @Query("DELETE FROM recordings WHERE transcriptionStatus = :status")
+    suspend fun deleteByStatus(status: TranscriptionStatus): Int
+
+    /**
+     * 录音结束后更新样本数、时长、大小、内容哈希和状态
+     */
+    @Query(
+        "UPDATE recordings SET sampleCount = :sampleCount, duration = :duration, fileSize = :fileSize, " +
+                "contentHash = :contentHash, transcriptionStatus = :status, transcribedAt = :transcribedAt " +
+                "WHERE id = :id"
+    )
+    suspend fun updateRecorded(
+        id: Long,
+        sampleCount: Long,
+        duration: Int,
+        fileSize: Long,
+        contentHash: String?,
+        status: TranscriptionStatus,
+        transcribedAt: Long?
+    ): Int
+
+    @Query("UPDATE recordings SET contentHash = :contentHash WHERE id = :id")
+    suspend fun updateContentHash(id: Long, contentHash: String): Int
+
+    @Query(
+        "SELECT * FROM recordings WHERE transcriptionStatus = :status AND archivedAt IS NULL " +
+                "ORDER BY createdAt ASC LIMIT :limit"
+    )
+    suspend fun getArchiveCandidates(status: TranscriptionStatus, limit: Int): List<Recording>
+
+    /**
+     * 以原路径为条件替换文件, 录音已被删除或移动时不更新
+     * @return 更新的行数(0或1)
+     */
+    @Query(
+        "UPDATE recordings SET filePath = :newPath, fileSize = :newSize, " +
+                "originalFileSize = fileSize, archivedAt = :archivedAt " +
+                "WHERE id = :id AND filePath = :oldPath AND archivedAt IS NULL"
+    )
+    suspend fun replaceWithArchive(id: Long, oldPath: String, newPath: String, newSize: Long, archivedAt: Long): Int
+
+    /**
+     * 以原路径为条件更新路径(文件在状态目录之间移动)
+     * @return 更新的行数(0或1)
+     */
+    @Query("UPDATE recordings SET filePath = :newPath WHERE id = :id AND filePath = :oldPath")
+    suspend fun updateFilePath(id: Long, oldPath: String, newPath: String): Int
+
+    @Query("SELECT COUNT(*) FROM recordings WHERE archivedAt IS NOT NULL")
+    suspend fun getArchivedCount(): Int
+
+    @Query("SELECT COALESCE(SUM(originalFileSize - fileSize), 0) FROM recordings WHERE archivedAt IS NOT NULL")
+    suspend fun getArchiveSavedBytes(): Long
 }
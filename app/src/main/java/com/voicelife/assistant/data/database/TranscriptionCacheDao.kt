@@ -0,0 +1,40 @@
+package com.voicelife.assistant.data.database
+
+import androidx.room.*
+import com.voicelife.assistant.data.model.TranscriptionCacheEntry
+
+@Dao
+interface TranscriptionCacheDao {
+    @Upsert
+    suspend fun upsert(entry: TranscriptionCacheEntry)
+
+    @Query(
+        "SELECT * FROM transcription_cache " +
+                "WHERE contentHash = :contentHash AND sampleCount = :sampleCount AND sampleRate = :sampleRate"
+    )
+    suspend fun get(contentHash: String, sampleCount: Long, sampleRate: Int): TranscriptionCacheEntry?
+
+    @Query("UPDATE transcription_cache SET lastUsedAt = :now WHERE contentHash = :contentHash")
+    suspend fun touch(contentHash: String, now: Long): Int
+
+    @Query("DELETE FROM transcription_cache WHERE contentHash = :contentHash")
+    suspend fun delete(contentHash: String): Int
+
+    /**
+     * 删除lastUsedAt早于指定时间的条目
+     */
+    @Query("DELETE FROM transcription_cache WHERE lastUsedAt < :timestamp")
+    suspend fun deleteUnusedSince(timestamp: Long): Int
+
+    /**
+     * 只保留最近使用的keep个条目
+     */
+    @Query(
+        "DELETE FROM transcription_cache WHERE contentHash NOT IN " +
+                "(SELECT contentHash FROM transcription_cache ORDER BY lastUsedAt DESC LIMIT :keep)"
+    )
+    suspend fun trimTo(keep: Int): Int
+
+    @Query("SELECT COUNT(*) FROM transcription_cache")
+    suspend fun count(): Int
+}
@@ -2,6 +2,7 @@ package com.voicelife.assistant.data.database
 
 import androidx.room.*
 import com.voicelife.assistant.data.model.Transcription
+import com.voicelife.assistant.data.model.TranscriptionStatus
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -9,6 +10,25 @@ interface TranscriptionDao {
     @Insert
     suspend fun insert(transcription: Transcription): Long
 
+    /**
+     * 插入或按id更新
+     * @return 插入时为新id, 更新时为-1
+     */
+    @Upsert
+    suspend fun upsert(transcription: Transcription): Long
+
+    @Query("DELETE FROM transcriptions WHERE recordingId = :recordingId AND isFinal = 0")
+    suspend fun deletePartial(recordingId: Long): Int
+
+    /**
+     * 删除指定状态录音的转写(与RecordingDao.deleteByStatus配合)
+     */
+    @Query(
+        "DELETE FROM transcriptions WHERE recordingId IN " +
+                "(SELECT id FROM recordings WHERE transcriptionStatus = :status)"
+    )
+    suspend fun deleteByRecordingStatus(status: TranscriptionStatus): Int
+
     @Query("SELECT * FROM transcriptions WHERE recordingId = :recordingId")
     suspend fun getByRecordingId(recordingId: Long): Transcription?
 
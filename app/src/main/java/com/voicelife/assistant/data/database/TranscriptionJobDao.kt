@@ -0,0 +1,88 @@
+package com.voicelife.assistant.data.database
+
+import androidx.room.*
+import com.voicelife.assistant.data.model.JobState
+import com.voicelife.assistant.data.model.TranscriptionJob
+
+/**
+ * 转写任务队列
+ * 状态转换都以leaseOwner为条件, 租约已被回收的执行者无法再修改任务
+ */
+@Dao
+interface TranscriptionJobDao {
+    /**
+     * 入队, 录音已有任务时忽略
+     * @return 任务ID, 已存在时为-1
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insert(job: TranscriptionJob): Long
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertAll(jobs: List<TranscriptionJob>): List<Long>
+
+    /**
+     * 还没有任务的待转换录音
+     */
+    @Query(
+        "SELECT id FROM recordings WHERE transcriptionStatus = 'PENDING' " +
+                "AND id NOT IN (SELECT recordingId FROM transcription_jobs)"
+    )
+    suspend fun getUnscheduledRecordingIds(): List<Long>
+
+    /**
+     * 领取下一个任务
+     * 一条UPDATE完成选择和占用(最高优先级、最早入队、退避已到期), 多个执行者并发领取不会拿到同一个任务;
+     * 之后用getByLease读回(SQLite 3.35之前没有RETURNING)
+     * @return 领取到的任务数(0或1)
+     */
+    @Query(
+        "UPDATE transcription_jobs SET state = 'RUNNING', leaseOwner = :leaseOwner, " +
+                "leaseExpiresAt = :leaseExpiresAt, attempts = attempts + 1, updatedAt = :now " +
+                "WHERE id = (SELECT id FROM transcription_jobs WHERE state = 'QUEUED' AND notBefore <= :now " +
+                "ORDER BY priority DESC, createdAt ASC, id ASC LIMIT 1)"
+    )
+    suspend fun claimNext(leaseOwner: String, leaseExpiresAt: Long, now: Long): Int
+
+    @Query("SELECT * FROM transcription_jobs WHERE leaseOwner = :leaseOwner")
+    suspend fun getByLease(leaseOwner: String): TranscriptionJob?
+
+    @Query(
+        "UPDATE transcription_jobs SET leaseExpiresAt = :leaseExpiresAt, updatedAt = :now " +
+                "WHERE id = :id AND leaseOwner = :leaseOwner AND state = 'RUNNING'"
+    )
+    suspend fun renewLease(id: Long, leaseOwner: String, leaseExpiresAt: Long, now: Long): Int
+
+    /**
+     * 结束租约并转到新状态
+     * @param attemptsDelta 释放(不计入尝试)时为-1
+     */
+    @Query(
+        "UPDATE transcription_jobs SET state = :state, notBefore = :notBefore, lastError = :error, " +
+                "attempts = attempts + :attemptsDelta, leaseOwner = NULL, leaseExpiresAt = NULL, updatedAt = :now " +
+                "WHERE id = :id AND leaseOwner = :leaseOwner AND state = 'RUNNING'"
+    )
+    suspend fun finish(
+        id: Long,
+        leaseOwner: String,
+        state: JobState,
+        notBefore: Long,
+        error: String?,
+        attemptsDelta: Int,
+        now: Long
+    ): Int
+
+    /**
+     * 租约在expiredBefore之前到期的RUNNING任务
+     */
+    @Query("SELECT * FROM transcription_jobs WHERE state = 'RUNNING' AND leaseExpiresAt < :expiredBefore")
+    suspend fun getExpiredLeases(expiredBefore: Long): List<TranscriptionJob>
+
+    @Query("SELECT MIN(notBefore) FROM transcription_jobs WHERE state = 'QUEUED'")
+    suspend fun getNextAttemptAt(): Long?
+
+    @Query("SELECT COUNT(*) FROM transcription_jobs WHERE state IN (:states)")
+    suspend fun getCount(states: List<JobState>): Int
+
+    @Query("SELECT * FROM transcription_jobs WHERE recordingId = :recordingId")
+    suspend fun getByRecordingId(recordingId: Long): TranscriptionJob?
+}
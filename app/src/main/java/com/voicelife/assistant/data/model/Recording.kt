@@ -1,9 +1,14 @@
 package com.voicelife.assistant.data.model
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
 
-@Entity(tableName = "recordings")
+@Entity(
+    tableName = "recordings",
+    indices = [Index(value = ["sessionId"])]
+)
 data class Recording(
     @PrimaryKey(autoGenerate = true)
     val id: Long = 0,
@@ -13,12 +18,25 @@ data class Recording(
     val createdAt: Long,  // Unix timestamp
     val transcriptionStatus: TranscriptionStatus = TranscriptionStatus.PENDING,
     val transcribedAt: Long? = null,
-    val deleteAt: Long  // 7天后删除
+    val deleteAt: Long,  // 7天后删除
+    @ColumnInfo(defaultValue = "0")
+    val sampleCount: Long = 0,  // 样本数(单声道)
+    @ColumnInfo(defaultValue = "16000")
+    val sampleRate: Int = 16000,
+    @ColumnInfo(defaultValue = "0")
+    val originalFileSize: Long = 0,  // 归档前的文件大小(字节), 未归档为0
+    val archivedAt: Long? = null,  // 归档时间, 未归档为null
+    val sessionId: String? = null,  // 所属录音会话, 同一会话的分块相同(分块功能之前的录音为null)
+    @ColumnInfo(defaultValue = "0")
+    val chunkIndex: Int = 0,  // 分块在会话中的序号
+    val contentHash: String? = null  // PCM内容哈希(PcmContentHash), 转写缓存的键; 未计算为null
 )
 
 enum class TranscriptionStatus {
     PENDING,
     PROCESSING,
     COMPLETED,
-    FAILED
+    FAILED,
+    /** 录音进行中, 流式转写已写入部分结果; 录音结束时转为COMPLETED或PENDING */
+    STREAMING
 }
@@ -1,5 +1,6 @@
 package com.voicelife.assistant.data.model
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.ForeignKey
 import androidx.room.Index
@@ -24,5 +25,7 @@ data class Transcription(
     val text: String,
     val language: String?,
     val segments: String,  // JSON格式
-    val createdAt: Long
+    val createdAt: Long,
+    @ColumnInfo(defaultValue = "1")
+    val isFinal: Boolean = true  // false为录音进行中的流式部分结果
 )
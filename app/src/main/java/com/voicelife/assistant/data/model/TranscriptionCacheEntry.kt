@@ -0,0 +1,28 @@
+package com.voicelife.assistant.data.model
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 转写结果缓存
+ * 按录音的PCM内容哈希(Recording.contentHash)保存转写结果, 与录音记录相互独立:
+ * 录音删除后条目仍保留, 同一段音频从备份恢复、重新导入时可以直接复用; 条目由TranscriptionCache淘汰
+ *
+ * 哈希相同时还要求样本数和采样率相同才算命中
+ */
+@Entity(
+    tableName = "transcription_cache",
+    indices = [Index(value = ["lastUsedAt"])]
+)
+data class TranscriptionCacheEntry(
+    @PrimaryKey
+    val contentHash: String,
+    val sampleCount: Long,
+    val sampleRate: Int,
+    val text: String,
+    val language: String?,
+    val segments: String,  // JSON格式, 同Transcription.segments
+    val createdAt: Long,
+    val lastUsedAt: Long  // 写入或最近一次命中的时间, 按此淘汰
+)
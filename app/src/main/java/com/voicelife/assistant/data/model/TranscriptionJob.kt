@@ -0,0 +1,58 @@
+package com.voicelife.assistant.data.model
+
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * 转写任务
+ * 每个录音最多一个任务, 录音删除时级联删除
+ *
+ * 租约: 领取任务时写入leaseOwner(每次领取唯一)和leaseExpiresAt, 执行期间定期续期;
+ * 进程崩溃后RUNNING任务的租约不再续期, 由调度器回收
+ */
+@Entity(
+    tableName = "transcription_jobs",
+    foreignKeys = [
+        ForeignKey(
+            entity = Recording::class,
+            parentColumns = ["id"],
+            childColumns = ["recordingId"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ],
+    indices = [
+        Index(value = ["recordingId"], unique = true),
+        Index(value = ["state", "notBefore"]),
+        Index(value = ["leaseOwner"])
+    ]
+)
+data class TranscriptionJob(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val recordingId: Long,
+    val state: JobState = JobState.QUEUED,
+    val priority: Int = 0,  // 越大越先执行, 相同时先入队的优先
+    val attempts: Int = 0,  // 已领取次数(含崩溃中断的)
+    val maxAttempts: Int = DEFAULT_MAX_ATTEMPTS,
+    val notBefore: Long = 0,  // 最早可领取时间(退避)
+    val leaseOwner: String? = null,
+    val leaseExpiresAt: Long? = null,
+    val lastError: String? = null,
+    val createdAt: Long,
+    val updatedAt: Long
+) {
+    companion object {
+        const val DEFAULT_MAX_ATTEMPTS = 5
+    }
+
+    fun hasAttemptsLeft(): Boolean = attempts < maxAttempts
+}
+
+enum class JobState {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
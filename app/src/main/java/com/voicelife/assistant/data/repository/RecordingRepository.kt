@@ -5,6 +5,7 @@ import com.voicelife.assistant.data.database.TranscriptionDao
 import com.voicelife.assistant.data.model.Recording
 import com.voicelife.assistant.data.model.Transcription
 import com.voicelife.assistant.data.model.TranscriptionStatus
+import com.voicelife.assistant.recorder.CompletedRecording
 import kotlinx.coroutines.flow.Flow
 import java.io.File
 import java.util.concurrent.TimeUnit
@@ -24,24 +25,139 @@ class RecordingRepository @Inject constructor(
     /**
      * 保存新录音记录
      * @param file 录音文件
+     * @param sampleCount 样本数(由写入器统计)
+     * @param sampleRate 采样率
+     * @param sessionId 所属录音会话
+     * @param chunkIndex 分块在会话中的序号
+     * @param contentHash 内容哈希(由写入器计算)
      * @return 录音ID
      */
-    suspend fun saveRecording(file: File): Long {
-        val now = System.currentTimeMillis()
-        val deleteAt = now + TimeUnit.DAYS.toMillis(7)  // 7天后删除
+    suspend fun saveRecording(
+        file: File,
+        sampleCount: Long,
+        sampleRate: Int = 16000,
+        sessionId: String? = null,
+        chunkIndex: Int = 0,
+        contentHash: String? = null
+    ): Long {
+        val recording = newRecording(file, sampleCount, sampleRate, sessionId, chunkIndex, System.currentTimeMillis())
+        return recordingDao.insert(recording.copy(contentHash = contentHash))
+    }
 
-        val recording = Recording(
-            filePath = file.absolutePath,
-            duration = calculateDuration(file),
+    /**
+     * 批量登记启动扫描找回的录音(一个事务)
+     * 创建时间取文件的修改时间, 保留期从该时间起算
+     * @return 录音ID
+     */
+    suspend fun saveRecoveredRecordings(recordings: List<CompletedRecording>): List<Long> {
+        if (recordings.isEmpty()) return emptyList()
+        return recordingDao.insertAll(recordings.map {
+            newRecording(it.file, it.sampleCount, it.sampleRate, it.sessionId, it.chunkIndex, it.file.lastModified())
+                .copy(contentHash = it.contentHash)
+        })
+    }
+
+    /**
+     * 登记流式转写中的录音(录音尚未结束, 状态为STREAMING)
+     * 样本数为目前已写入的部分, 录音结束时由finishStreamingRecording更新
+     * @return 录音ID
+     */
+    suspend fun saveStreamingRecording(
+        file: File,
+        sampleCount: Long,
+        sampleRate: Int,
+        sessionId: String?,
+        chunkIndex: Int
+    ): Long {
+        val recording = newRecording(file, sampleCount, sampleRate, sessionId, chunkIndex, System.currentTimeMillis())
+        return recordingDao.insert(recording.copy(transcriptionStatus = TranscriptionStatus.STREAMING))
+    }
+
+    /**
+     * 流式转写的录音结束: 更新样本数、时长、大小和内容哈希
+     * @param transcribed 流式转写是否完整覆盖了录音; true时标记COMPLETED,
+     *                    否则删除部分结果并转为PENDING, 由调度器批量转写
+     */
+    suspend fun finishStreamingRecording(
+        recordingId: Long,
+        file: File,
+        sampleCount: Long,
+        sampleRate: Int,
+        contentHash: String?,
+        transcribed: Boolean
+    ) {
+        if (!transcribed) {
+            transcriptionDao.deletePartial(recordingId)
+        }
+        recordingDao.updateRecorded(
+            id = recordingId,
+            sampleCount = sampleCount,
+            duration = calculateDuration(sampleCount, sampleRate),
             fileSize = file.length(),
-            createdAt = now,
-            transcriptionStatus = TranscriptionStatus.PENDING,
-            deleteAt = deleteAt
+            contentHash = contentHash,
+            status = if (transcribed) TranscriptionStatus.COMPLETED else TranscriptionStatus.PENDING,
+            transcribedAt = if (transcribed) System.currentTimeMillis() else null
         )
+    }
+
+    /**
+     * 丢弃一个流式转写中的录音记录和部分结果(不删除文件)
+     */
+    suspend fun discardStreamingRecording(recordingId: Long) {
+        val recording = recordingDao.getById(recordingId) ?: return
+        if (recording.transcriptionStatus != TranscriptionStatus.STREAMING) return
+        transcriptionDao.deletePartial(recordingId)
+        recordingDao.delete(recording)
+    }
+
+    /**
+     * 丢弃上次进程遗留的STREAMING记录和部分结果(不删除文件, 由启动扫描或录音结束时重新登记)
+     * @return 丢弃的录音数
+     */
+    suspend fun discardStreamingRecordings(): Int {
+        transcriptionDao.deleteByRecordingStatus(TranscriptionStatus.STREAMING)
+        return recordingDao.deleteByStatus(TranscriptionStatus.STREAMING)
+    }
+
+    /**
+     * 补充内容哈希(写入时没有计算的录音)
+     */
+    suspend fun updateContentHash(recordingId: Long, contentHash: String) {
+        recordingDao.updateContentHash(recordingId, contentHash)
+    }
 
-        return recordingDao.insert(recording)
+    /**
+     * 在数据库中已有记录的文件路径
+     */
+    suspend fun getRegisteredPaths(paths: List<String>): Set<String> {
+        val registered = HashSet<String>()
+        // SQLite限制单条语句的参数个数
+        for (batch in paths.chunked(500)) {
+            registered.addAll(recordingDao.getExistingPaths(batch))
+        }
+        return registered
     }
 
+    private fun newRecording(
+        file: File,
+        sampleCount: Long,
+        sampleRate: Int,
+        sessionId: String?,
+        chunkIndex: Int,
+        createdAt: Long
+    ): Recording = Recording(
+        filePath = file.absolutePath,
+        duration = calculateDuration(sampleCount, sampleRate),
+        fileSize = file.length(),
+        createdAt = createdAt,
+        transcriptionStatus = TranscriptionStatus.PENDING,
+        deleteAt = createdAt + TimeUnit.DAYS.toMillis(7),  // 7天后删除
+        sampleCount = sampleCount,
+        sampleRate = sampleRate,
+        sessionId = sessionId,
+        chunkIndex = chunkIndex
+    )
+
     /**
      * 更新录音记录
      */
@@ -67,6 +183,13 @@ class RecordingRepository @Inject constructor(
         return recordingDao.getById(id)
     }
 
+    /**
+     * 获取一次录音会话的全部分块(按序号)
+     */
+    suspend fun getSessionChunks(sessionId: String): List<Recording> {
+        return recordingDao.getBySession(sessionId)
+    }
+
     /**
      * 获取所有录音(Flow)
      */
@@ -123,6 +246,8 @@ class RecordingRepository @Inject constructor(
             createdAt = System.currentTimeMillis()
         )
 
+        // 流式转写失败后留下的部分结果由完整结果替代
+        transcriptionDao.deletePartial(recordingId)
         val id = transcriptionDao.insert(transcription)
 
         // 更新录音状态
@@ -135,6 +260,15 @@ class RecordingRepository @Inject constructor(
         return id
     }
 
+    /**
+     * 写入或更新转写(流式转写的部分结果和最终结果)
+     * @return 转写ID
+     */
+    suspend fun upsertTranscription(transcription: Transcription): Long {
+        val id = transcriptionDao.upsert(transcription)
+        return if (id > 0) id else transcription.id
+    }
+
     /**
      * 根据录音ID获取转写
      */
@@ -183,15 +317,54 @@ class RecordingRepository @Inject constructor(
         return recordingDao.deleteExpired(now)
     }
 
+    /**
+     * 获取待归档的录音(已转写且尚未归档, 最早的优先)
+     */
+    suspend fun getArchiveCandidates(limit: Int): List<Recording> {
+        return recordingDao.getArchiveCandidates(TranscriptionStatus.COMPLETED, limit)
+    }
+
+    /**
+     * 把录音指向归档文件
+     * 单条UPDATE完成路径、大小和归档信息的替换, 原路径已变化时不更新
+     * @return 是否更新成功
+     */
+    suspend fun replaceWithArchive(recording: Recording, archiveFile: File): Boolean {
+        return recordingDao.replaceWithArchive(
+            id = recording.id,
+            oldPath = recording.filePath,
+            newPath = archiveFile.absolutePath,
+            newSize = archiveFile.length(),
+            archivedAt = System.currentTimeMillis()
+        ) == 1
+    }
+
+    /**
+     * 把录音指向移动后的文件
+     * 以原路径为条件, 录音已被删除或路径已变化时不更新
+     * @return 是否更新成功
+     */
+    suspend fun moveRecordingFile(recording: Recording, newFile: File): Boolean {
+        return recordingDao.updateFilePath(recording.id, recording.filePath, newFile.absolutePath) == 1
+    }
+
+    /**
+     * 获取归档统计
+     */
+    suspend fun getArchiveStatistics(): ArchiveStatistics {
+        return ArchiveStatistics(
+            archivedCount = recordingDao.getArchivedCount(),
+            savedBytes = recordingDao.getArchiveSavedBytes()
+        )
+    }
+
     /**
      * 计算录音时长(秒)
+     * 按写入器统计的样本数计算, 与文件格式无关(FLAC等压缩格式无法用文件大小推算)
      */
-    private fun calculateDuration(file: File): Int {
-        // WAV文件大小 = 44字节头 + 数据
-        // 数据大小 = 采样率 * 声道数 * 位深度/8 * 时长
-        // 时长 = (文件大小 - 44) / (16000 * 1 * 2)
-        val dataSize = file.length() - 44
-        return (dataSize / (16000 * 2)).toInt().coerceAtLeast(0)
+    private fun calculateDuration(sampleCount: Long, sampleRate: Int): Int {
+        if (sampleRate <= 0) return 0
+        return (sampleCount / sampleRate).toInt().coerceAtLeast(0)
     }
 
     /**
@@ -229,3 +402,11 @@ data class RecordingStatistics(
     fun getTotalDurationMinutes(): Int = totalDurationSeconds / 60
     fun getTotalSizeMB(): Long = totalSizeBytes / (1024 * 1024)
 }
+
+/**
+ * 归档统计信息
+ */
+data class ArchiveStatistics(
+    val archivedCount: Int,
+    val savedBytes: Long
+)
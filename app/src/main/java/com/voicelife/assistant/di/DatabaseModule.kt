@@ -3,8 +3,11 @@ package com.voicelife.assistant.di
 import android.content.Context
 import androidx.room.Room
 import com.voicelife.assistant.data.database.AppDatabase
+import com.voicelife.assistant.data.database.Migrations
 import com.voicelife.assistant.data.database.RecordingDao
+import com.voicelife.assistant.data.database.TranscriptionCacheDao
 import com.voicelife.assistant.data.database.TranscriptionDao
+import com.voicelife.assistant.data.database.TranscriptionJobDao
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
@@ -25,7 +28,9 @@ object DatabaseModule {
             context,
             AppDatabase::class.java,
             "voice_assistant_db"
-        ).build()
+        )
+            .addMigrations(*Migrations.ALL)
+            .build()
     }
 
     @Provides
@@ -37,4 +42,14 @@ object DatabaseModule {
     fun provideTranscriptionDao(database: AppDatabase): TranscriptionDao {
         return database.transcriptionDao()
     }
+
+    @Provides
+    fun provideTranscriptionJobDao(database: AppDatabase): TranscriptionJobDao {
+        return database.transcriptionJobDao()
+    }
+
+    @Provides
+    fun provideTranscriptionCacheDao(database: AppDatabase): TranscriptionCacheDao {
+        return database.transcriptionCacheDao()
+    }
 }
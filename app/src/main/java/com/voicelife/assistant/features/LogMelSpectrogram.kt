@@ -0,0 +1,277 @@
+package com.voicelife.assistant.features
+
+import com.voicelife.assistant.recorder.AudioFileReader
+import com.voicelife.assistant.recorder.PcmSink
+import com.voicelife.assistant.recorder.WavFileReader
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.log10
+
+/**
+ * 对数梅尔谱参数
+ * 默认值与Whisper一致: 16kHz, 25ms窗(400点), 10ms帧移, 80个梅尔滤波器
+ *
+ * @param trailingZeros finish时在末尾补的零样本数; Whisper转写时在音频后补30秒静音再计算特征
+ */
+data class LogMelConfig(
+    val sampleRate: Int = 16000,
+    val fftSize: Int = 400,
+    val hopLength: Int = 160,
+    val melBins: Int = 80,
+    val trailingZeros: Int = 0
+) {
+    companion object {
+        /** Whisper tiny/base/small/medium/large-v2 */
+        val WHISPER = LogMelConfig()
+
+        /** Whisper large-v3 */
+        val WHISPER_V3 = LogMelConfig(melBins = 128)
+    }
+
+    init {
+        require(hopLength in 1 until fftSize / 2) { "hopLength must be in 1 until fftSize/2" }
+        require(trailingZeros >= 0) { "trailingZeros must be non-negative" }
+    }
+}
+
+/**
+ * 梅尔帧输出
+ */
+fun interface MelFrameSink {
+    /**
+     * @param index 帧序号(从0开始), 第index帧的中心在第index·hopLength个样本
+     * @param mel log10梅尔能量, 长度为melBins; 数组在回调返回后被复用, 需要保留时自行复制
+     */
+    fun onFrame(index: Long, mel: FloatArray)
+}
+
+/**
+ * 流式对数梅尔谱特征提取
+ * 与Whisper的log_mel_spectrogram逐帧一致(归一化之前):
+ * 样本/32768、周期Hann窗、两端各反射填充fftSize/2(center=True)、丢弃最后一帧、
+ * 梅尔能量取log10(max(x, 1e-10))
+ *
+ * 实现PcmSink, 可以直接挂在录音写入链路上边录边算, 也可以用processFile处理已有文件
+ * (16bit单声道PCM WAV通过内存映射读取, 其他格式经AudioFileReader解码);
+ * 每帧的FFT、滤波器组、缓冲区都是预先分配的, 处理过程中不分配内存
+ *
+ * 帧按时间顺序输出(frame-major), Whisper的输入布局是[melBins][frames], 转置由调用方完成;
+ * 归一化需要整段的最大值, 见normalizeWhisper
+ *
+ * 不是线程安全的, 多线程时每个线程使用独立实例
+ */
+class LogMelSpectrogram(
+    val config: LogMelConfig = LogMelConfig.WHISPER,
+    private val sink: MelFrameSink
+) : PcmSink {
+    companion object {
+        private const val LOG_FLOOR = 1e-10f
+        private const val READ_FRAME_SIZE = 4096
+
+        /**
+         * Whisper的归一化: max(x, 全局最大值 - 8), 再(x + 4) / 4
+         * @param mel 连续存放的log10梅尔能量
+         */
+        fun normalizeWhisper(mel: FloatArray, offset: Int = 0, length: Int = mel.size - offset) {
+            var max = Float.NEGATIVE_INFINITY
+            for (i in offset until offset + length) {
+                if (mel[i] > max) max = mel[i]
+            }
+            val floor = max - 8f
+            for (i in offset until offset + length) {
+                mel[i] = (maxOf(mel[i], floor) + 4f) / 4f
+            }
+        }
+
+        /**
+         * 计算整段音频的特征(未归一化)
+         * @return 帧数×melBins, 按帧连续存放
+         */
+        fun compute(samples: ShortArray, config: LogMelConfig = LogMelConfig.WHISPER): FloatArray {
+            val frames = (samples.size.toLong() + config.trailingZeros) / config.hopLength
+            val output = FloatArray((frames * config.melBins).toInt())
+            val extractor = LogMelSpectrogram(config) { index, mel ->
+                System.arraycopy(mel, 0, output, (index * config.melBins).toInt(), config.melBins)
+            }
+            extractor.write(samples, 0, samples.size)
+            extractor.finish()
+            return output
+        }
+    }
+
+    private val fftSize = config.fftSize
+    private val hop = config.hopLength
+    private val pad = fftSize / 2
+
+    private val fft = MixedRadixFft(fftSize)
+    private val filterbank = MelFilterbank(config.sampleRate, fftSize, config.melBins)
+    private val window = FloatArray(fftSize) { (0.5 - 0.5 * cos(2 * PI * it / fftSize)).toFloat() }
+
+    // 填充后的信号, 攒满fftSize个样本输出一帧, 然后前移hop
+    private val buffer = FloatArray(fftSize)
+    private var fill = 0
+
+    // 开头的pad+1个样本, 到齐后才能生成左侧的反射填充
+    private val head = FloatArray(pad + 1)
+    private var headCount = 0
+
+    private val frame = FloatArray(fftSize)
+    private val power = FloatArray(fft.bins)
+    private val mel = FloatArray(config.melBins)
+    private val reflected = FloatArray(pad)
+    private val zeros = ShortArray(READ_FRAME_SIZE)
+
+    private var totalSamples = 0L
+    private var frameIndex = 0L
+    private var frameLimit = Long.MAX_VALUE
+
+    /** 已输出的帧数 */
+    val frameCount: Long get() = frameIndex
+
+    override fun write(audioData: ShortArray, offset: Int, length: Int) {
+        for (i in offset until offset + length) {
+            val sample = audioData[i] / 32768f
+            if (headCount <= pad) {
+                head[headCount++] = sample
+                if (headCount == pad + 1) {
+                    // padded[i] = x[pad - i], i < pad
+                    for (j in pad downTo 1) push(head[j])
+                    for (j in 0..pad) push(head[j])
+                }
+            } else {
+                push(sample)
+            }
+        }
+        totalSamples += length
+    }
+
+    /**
+     * 输入结束: 补trailingZeros个零, 加右侧反射填充, 输出剩余的帧
+     * 之后需要reset才能处理下一段音频
+     */
+    fun finish() {
+        var zerosLeft = config.trailingZeros.toLong()
+        while (zerosLeft > 0) {
+            val n = minOf(zerosLeft, READ_FRAME_SIZE.toLong()).toInt()
+            write(zeros, 0, n)
+            zerosLeft -= n
+        }
+        if (totalSamples == 0L) return
+
+        // Whisper去掉STFT的最后一帧
+        frameLimit = totalSamples / hop
+        if (headCount <= pad) {
+            finishShort()
+            return
+        }
+        // padded[pad + L + j] = x[L - 2 - j]
+        for (j in 0 until pad) {
+            reflected[j] = buffer[fill - 2 - j]
+        }
+        for (j in 0 until pad) {
+            push(reflected[j])
+        }
+    }
+
+    /**
+     * 清空状态, 开始新的一段音频
+     */
+    fun reset() {
+        fill = 0
+        headCount = 0
+        totalSamples = 0
+        frameIndex = 0
+        frameLimit = Long.MAX_VALUE
+    }
+
+    /**
+     * 处理整个录音文件(先reset, 结束时finish)
+     * @return 输出的帧数
+     */
+    fun processFile(file: File): Long {
+        reset()
+        val scratch = ShortArray(READ_FRAME_SIZE)
+        val mapped = if (!isWav(file)) null else WavFileReader(file).use { reader ->
+            require(reader.sampleRate == config.sampleRate) {
+                "${file.name}: expected ${config.sampleRate}Hz, got ${reader.sampleRate}Hz"
+            }
+            if (reader.isPcm && reader.channels == 1) reader.dataOffset to reader.totalSamples else null
+        }
+
+        if (mapped != null) {
+            val (dataOffset, samples) = mapped
+            RandomAccessFile(file, "r").use { raf ->
+                val shorts = raf.channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, samples * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asShortBuffer()
+                while (shorts.hasRemaining()) {
+                    val n = minOf(scratch.size, shorts.remaining())
+                    shorts.get(scratch, 0, n)
+                    write(scratch, 0, n)
+                }
+            }
+        } else {
+            AudioFileReader.open(file).use { reader ->
+                require(reader.sampleRate == config.sampleRate) {
+                    "${file.name}: expected ${config.sampleRate}Hz, got ${reader.sampleRate}Hz"
+                }
+                while (true) {
+                    val n = reader.read(scratch)
+                    if (n <= 0) break
+                    write(scratch, 0, n)
+                }
+            }
+        }
+        finish()
+        return frameIndex
+    }
+
+    private fun isWav(file: File): Boolean {
+        val magic = ByteArray(4)
+        val read = file.inputStream().use { it.read(magic) }
+        return read == 4 && String(magic, Charsets.US_ASCII) == "RIFF"
+    }
+
+    private fun push(sample: Float) {
+        buffer[fill++] = sample
+        if (fill == fftSize) {
+            emitFrame()
+            System.arraycopy(buffer, hop, buffer, 0, fftSize - hop)
+            fill = fftSize - hop
+        }
+    }
+
+    private fun emitFrame() {
+        if (frameIndex >= frameLimit) return
+        for (i in 0 until fftSize) {
+            frame[i] = buffer[i] * window[i]
+        }
+        fft.powerSpectrum(frame, power)
+        filterbank.apply(power, mel)
+        for (m in mel.indices) {
+            mel[m] = log10(maxOf(mel[m], LOG_FLOOR))
+        }
+        sink.onFrame(frameIndex++, mel)
+    }
+
+    /**
+     * 音频不足pad+1个样本: 按numpy的reflect规则(可多次反射)一次性填充
+     */
+    private fun finishShort() {
+        val length = headCount
+        for (p in 0 until length + 2 * pad) {
+            push(head[reflectIndex(p - pad, length)])
+        }
+    }
+
+    private fun reflectIndex(index: Int, length: Int): Int {
+        if (length == 1) return 0
+        val period = 2 * (length - 1)
+        val i = Math.floorMod(index, period)
+        return if (i < length) i else period - i
+    }
+}
@@ -0,0 +1,117 @@
+package com.voicelife.assistant.features
+
+import kotlin.math.exp
+import kotlin.math.ln
+
+/**
+ * 稀疏梅尔滤波器组
+ * 与librosa.filters.mel(htk=False, norm="slaney")一致, 即Whisper的mel_filters
+ *
+ * 每个三角滤波器只在相邻两个中心频率之间非零, 只保存起始频点和非零权重;
+ * 80个滤波器、201个频点时约有400个非零权重, 比稠密矩阵乘法少约40倍运算
+ *
+ * @param sampleRate 采样率
+ * @param fftSize FFT长度
+ * @param melBins 滤波器个数
+ * @param minHz 最低频率
+ * @param maxHz 最高频率, 默认为奈奎斯特频率
+ */
+class MelFilterbank(
+    val sampleRate: Int,
+    val fftSize: Int,
+    val melBins: Int,
+    minHz: Double = 0.0,
+    maxHz: Double = sampleRate / 2.0
+) {
+    companion object {
+        // Slaney梅尔刻度: 1000Hz以下线性, 以上对数
+        private const val F_SP = 200.0 / 3
+        private const val MIN_LOG_HZ = 1000.0
+        private const val MIN_LOG_MEL = MIN_LOG_HZ / F_SP
+        private val LOG_STEP = ln(6.4) / 27.0
+
+        fun hzToMel(hz: Double): Double =
+            if (hz >= MIN_LOG_HZ) MIN_LOG_MEL + ln(hz / MIN_LOG_HZ) / LOG_STEP else hz / F_SP
+
+        fun melToHz(mel: Double): Double =
+            if (mel >= MIN_LOG_MEL) MIN_LOG_HZ * exp(LOG_STEP * (mel - MIN_LOG_MEL)) else F_SP * mel
+    }
+
+    /** 频点数(fftSize/2+1) */
+    val fftBins = fftSize / 2 + 1
+
+    // 各滤波器的起始频点和在weights中的起止位置
+    private val startBin = IntArray(melBins)
+    private val weightStart = IntArray(melBins + 1)
+    private val weights: FloatArray
+
+    init {
+        require(melBins > 0 && fftSize > 0) { "melBins and fftSize must be positive" }
+
+        val minMel = hzToMel(minHz)
+        val maxMel = hzToMel(maxHz)
+        val melHz = DoubleArray(melBins + 2) { melToHz(minMel + (maxMel - minMel) * it / (melBins + 1)) }
+        val dense = buildDense(melHz)
+
+        val packed = ArrayList<Float>()
+        for (m in 0 until melBins) {
+            val row = dense[m]
+            var first = row.indexOfFirst { it > 0f }
+            val last = row.indexOfLast { it > 0f }
+            // 滤波器窄于频点间隔时没有非零权重, 输出恒为0
+            if (first < 0) first = 0
+            startBin[m] = first
+            weightStart[m] = packed.size
+            for (k in first..last) {
+                packed.add(row[k])
+            }
+        }
+        weightStart[melBins] = packed.size
+        weights = packed.toFloatArray()
+    }
+
+    /** 非零权重个数 */
+    val nonZeroWeights: Int get() = weights.size
+
+    /**
+     * mel[m] = Σ_k weight[m][k]·power[k]
+     * @param power 功率谱, 长度至少为fftBins
+     * @param mel 输出, 长度至少为melBins
+     */
+    fun apply(power: FloatArray, mel: FloatArray) {
+        for (m in 0 until melBins) {
+            var sum = 0f
+            var k = startBin[m]
+            for (w in weightStart[m] until weightStart[m + 1]) {
+                sum += weights[w] * power[k]
+                k++
+            }
+            mel[m] = sum
+        }
+    }
+
+    /**
+     * 稠密权重矩阵[melBins][fftBins], 用于与参考实现对比
+     */
+    fun toDense(): Array<FloatArray> = Array(melBins) { m ->
+        FloatArray(fftBins).also { row ->
+            var k = startBin[m]
+            for (w in weightStart[m] until weightStart[m + 1]) {
+                row[k++] = weights[w]
+            }
+        }
+    }
+
+    private fun buildDense(melHz: DoubleArray): Array<FloatArray> = Array(melBins) { m ->
+        val lowerWidth = melHz[m + 1] - melHz[m]
+        val upperWidth = melHz[m + 2] - melHz[m + 1]
+        // Slaney归一化: 每个滤波器的面积相等
+        val norm = 2.0 / (melHz[m + 2] - melHz[m])
+        FloatArray(fftBins) { k ->
+            val hz = k.toDouble() * sampleRate / fftSize
+            val lower = (hz - melHz[m]) / lowerWidth
+            val upper = (melHz[m + 2] - hz) / upperWidth
+            (maxOf(0.0, minOf(lower, upper)) * norm).toFloat()
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.voicelife.assistant.features
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 混合基实数FFT
+ * 长度N的实数序列打包成N/2点复数序列, 做Stockham自动排序FFT(不需要位反转), 再拆分出N/2+1个频点
+ *
+ * N/2按4、2、3、5分解, 2的幂长度只用基4/基2蝶形; Whisper的400点窗(N/2 = 200 = 4·2·5·5)需要基5
+ * recorder.RealFft只支持2的幂, 用于降噪; 本类用于特征提取
+ *
+ * 各级旋转因子和拆分旋转因子在创建时预计算, forward/powerSpectrum不分配内存
+ * 同一实例不是线程安全的(内部有工作缓冲区)
+ *
+ * @param size FFT长度, 偶数, N/2只含因子2、3、5
+ */
+class MixedRadixFft(val size: Int) {
+    private val half = size / 2
+    private val radices: IntArray
+
+    // 各级旋转因子 exp(-2πi·j·r/n), 按级连续存放
+    private val twiddleRe: FloatArray
+    private val twiddleIm: FloatArray
+
+    // 拆分用的旋转因子 exp(-2πik/N), k = 0..N/2
+    private val splitCos = FloatArray(size / 2 + 1) { cos(2 * PI * it / size).toFloat() }
+    private val splitSin = FloatArray(size / 2 + 1) { -sin(2 * PI * it / size).toFloat() }
+
+    // 基5蝶形常数
+    private val cos72 = cos(2 * PI / 5).toFloat()
+    private val cos144 = cos(4 * PI / 5).toFloat()
+    private val sin72 = sin(2 * PI / 5).toFloat()
+    private val sin144 = sin(4 * PI / 5).toFloat()
+
+    // Stockham乒乓缓冲区
+    private val bufferARe = FloatArray(half)
+    private val bufferAIm = FloatArray(half)
+    private val bufferBRe = FloatArray(half)
+    private val bufferBIm = FloatArray(half)
+    private var resultInA = true
+
+    /** 频点数(N/2+1) */
+    val bins: Int get() = half + 1
+
+    init {
+        require(size >= 4 && size % 2 == 0) { "FFT size must be even and >= 4, got $size" }
+
+        val factors = ArrayList<Int>()
+        var remaining = half
+        for (radix in intArrayOf(4, 2, 3, 5)) {
+            while (remaining % radix == 0) {
+                factors.add(radix)
+                remaining /= radix
+            }
+        }
+        require(remaining == 1) { "FFT size/2 must only have factors 2, 3 and 5, got $size" }
+        radices = factors.toIntArray()
+
+        var count = 0
+        var n = half
+        for (radix in radices) {
+            count += n / radix * (radix - 1)
+            n /= radix
+        }
+        twiddleRe = FloatArray(count)
+        twiddleIm = FloatArray(count)
+
+        var index = 0
+        n = half
+        for (radix in radices) {
+            val m = n / radix
+            for (j in 0 until m) {
+                for (r in 1 until radix) {
+                    val angle = 2 * PI * j * r / n
+                    twiddleRe[index] = cos(angle).toFloat()
+                    twiddleIm[index] = -sin(angle).toFloat()
+                    index++
+                }
+            }
+            n = m
+        }
+    }
+
+    /**
+     * 正变换
+     * @param input 长度至少为size的实数序列
+     * @param re 输出实部, 长度至少为bins
+     * @param im 输出虚部, 长度至少为bins
+     */
+    fun forward(input: FloatArray, re: FloatArray, im: FloatArray) {
+        transformPacked(input)
+        val zRe = if (resultInA) bufferARe else bufferBRe
+        val zIm = if (resultInA) bufferAIm else bufferBIm
+
+        // X[k] = (Z[k] + conj(Z[M-k]))/2 + W^k·(Z[k] - conj(Z[M-k]))/(2i)
+        for (k in 0..half) {
+            val a = if (k == half) 0 else k
+            val b = if (k == 0) 0 else half - k
+            val zr = zRe[a]
+            val zi = zIm[a]
+            val cr = zRe[b]
+            val ci = -zIm[b]
+
+            val evenRe = 0.5f * (zr + cr)
+            val evenIm = 0.5f * (zi + ci)
+            val oddRe = 0.5f * (zi - ci)
+            val oddIm = -0.5f * (zr - cr)
+
+            val wr = splitCos[k]
+            val wi = splitSin[k]
+            re[k] = evenRe + wr * oddRe - wi * oddIm
+            im[k] = evenIm + wr * oddIm + wi * oddRe
+        }
+    }
+
+    /**
+     * 功率谱 |X[k]|², 不输出复数频谱
+     * @param input 长度至少为size的实数序列
+     * @param power 长度至少为bins
+     */
+    fun powerSpectrum(input: FloatArray, power: FloatArray) {
+        transformPacked(input)
+        val zRe = if (resultInA) bufferARe else bufferBRe
+        val zIm = if (resultInA) bufferAIm else bufferBIm
+
+        for (k in 0..half) {
+            val a = if (k == half) 0 else k
+            val b = if (k == 0) 0 else half - k
+            val zr = zRe[a]
+            val zi = zIm[a]
+            val cr = zRe[b]
+            val ci = -zIm[b]
+
+            val evenRe = 0.5f * (zr + cr)
+            val evenIm = 0.5f * (zi + ci)
+            val oddRe = 0.5f * (zi - ci)
+            val oddIm = -0.5f * (zr - cr)
+
+            val wr = splitCos[k]
+            val wi = splitSin[k]
+            val xr = evenRe + wr * oddRe - wi * oddIm
+            val xi = evenIm + wr * oddIm + wi * oddRe
+            power[k] = xr * xr + xi * xi
+        }
+    }
+
+    /**
+     * z[n] = x[2n] + i·x[2n+1], 做N/2点复数FFT
+     */
+    private fun transformPacked(input: FloatArray) {
+        for (n in 0 until half) {
+            bufferARe[n] = input[2 * n]
+            bufferAIm[n] = input[2 * n + 1]
+        }
+
+        var srcRe = bufferARe
+        var srcIm = bufferAIm
+        var dstRe = bufferBRe
+        var dstIm = bufferBIm
+        var n = half
+        var stride = 1
+        var twiddle = 0
+        for (radix in radices) {
+            val m = n / radix
+            when (radix) {
+                4 -> radix4(srcRe, srcIm, dstRe, dstIm, m, stride, twiddle)
+                2 -> radix2(srcRe, srcIm, dstRe, dstIm, m, stride, twiddle)
+                3 -> radix3(srcRe, srcIm, dstRe, dstIm, m, stride, twiddle)
+                else -> radix5(srcRe, srcIm, dstRe, dstIm, m, stride, twiddle)
+            }
+            twiddle += m * (radix - 1)
+            n = m
+            stride *= radix
+
+            val tempRe = srcRe
+            val tempIm = srcIm
+            srcRe = dstRe
+            srcIm = dstIm
+            dstRe = tempRe
+            dstIm = tempIm
+        }
+        resultInA = srcRe === bufferARe
+    }
+
+    /*
+     * Stockham DIF一级: 输入 x[q + s·(j + m·k)], k = 0..p-1
+     * 输出 y[q + s·(p·j + r)] = (Σ_k x_k·ω_p^(rk))·w^(jr)
+     */
+
+    private fun radix2(
+        xr: FloatArray, xi: FloatArray, yr: FloatArray, yi: FloatArray,
+        m: Int, s: Int, twiddle: Int
+    ) {
+        for (j in 0 until m) {
+            val w1r = twiddleRe[twiddle + j]
+            val w1i = twiddleIm[twiddle + j]
+            for (q in 0 until s) {
+                val i0 = q + s * j
+                val i1 = i0 + s * m
+                val o0 = q + s * 2 * j
+                val o1 = o0 + s
+
+                val ar = xr[i0]
+                val ai = xi[i0]
+                val br = xr[i1]
+                val bi = xi[i1]
+                yr[o0] = ar + br
+                yi[o0] = ai + bi
+                val dr = ar - br
+                val di = ai - bi
+                yr[o1] = dr * w1r - di * w1i
+                yi[o1] = dr * w1i + di * w1r
+            }
+        }
+    }
+
+    private fun radix4(
+        xr: FloatArray, xi: FloatArray, yr: FloatArray, yi: FloatArray,
+        m: Int, s: Int, twiddle: Int
+    ) {
+        for (j in 0 until m) {
+            val t = twiddle + 3 * j
+            val w1r = twiddleRe[t]
+            val w1i = twiddleIm[t]
+            val w2r = twiddleRe[t + 1]
+            val w2i = twiddleIm[t + 1]
+            val w3r = twiddleRe[t + 2]
+            val w3i = twiddleIm[t + 2]
+            for (q in 0 until s) {
+                val i0 = q + s * j
+                val i1 = i0 + s * m
+                val i2 = i1 + s * m
+                val i3 = i2 + s * m
+                val o0 = q + s * 4 * j
+
+                val s02r = xr[i0] + xr[i2]
+                val s02i = xi[i0] + xi[i2]
+                val d02r = xr[i0] - xr[i2]
+                val d02i = xi[i0] - xi[i2]
+                val s13r = xr[i1] + xr[i3]
+                val s13i = xi[i1] + xi[i3]
+                // -i·(x1 - x3)
+                val d13r = xi[i1] - xi[i3]
+                val d13i = xr[i3] - xr[i1]
+
+                yr[o0] = s02r + s13r
+                yi[o0] = s02i + s13i
+
+                val y1r = d02r + d13r
+                val y1i = d02i + d13i
+                yr[o0 + s] = y1r * w1r - y1i * w1i
+                yi[o0 + s] = y1r * w1i + y1i * w1r
+
+                val y2r = s02r - s13r
+                val y2i = s02i - s13i
+                yr[o0 + 2 * s] = y2r * w2r - y2i * w2i
+                yi[o0 + 2 * s] = y2r * w2i + y2i * w2r
+
+                val y3r = d02r - d13r
+                val y3i = d02i - d13i
+                yr[o0 + 3 * s] = y3r * w3r - y3i * w3i
+                yi[o0 + 3 * s] = y3r * w3i + y3i * w3r
+            }
+        }
+    }
+
+    private fun radix3(
+        xr: FloatArray, xi: FloatArray, yr: FloatArray, yi: FloatArray,
+        m: Int, s: Int, twiddle: Int
+    ) {
+        val sin60 = (sqrt(3.0) / 2).toFloat()
+        for (j in 0 until m) {
+            val t = twiddle + 2 * j
+            val w1r = twiddleRe[t]
+            val w1i = twiddleIm[t]
+            val w2r = twiddleRe[t + 1]
+            val w2i = twiddleIm[t + 1]
+            for (q in 0 until s) {
+                val i0 = q + s * j
+                val i1 = i0 + s * m
+                val i2 = i1 + s * m
+                val o0 = q + s * 3 * j
+
+                val sr = xr[i1] + xr[i2]
+                val si = xi[i1] + xi[i2]
+                yr[o0] = xr[i0] + sr
+                yi[o0] = xi[i0] + si
+
+                val mr = xr[i0] - 0.5f * sr
+                val mi = xi[i0] - 0.5f * si
+                // -i·sin60·(x1 - x2)
+                val nr = sin60 * (xi[i1] - xi[i2])
+                val ni = -sin60 * (xr[i1] - xr[i2])
+
+                val y1r = mr + nr
+                val y1i = mi + ni
+                yr[o0 + s] = y1r * w1r - y1i * w1i
+                yi[o0 + s] = y1r * w1i + y1i * w1r
+
+                val y2r = mr - nr
+                val y2i = mi - ni
+                yr[o0 + 2 * s] = y2r * w2r - y2i * w2i
+                yi[o0 + 2 * s] = y2r * w2i + y2i * w2r
+            }
+        }
+    }
+
+    private fun radix5(
+        xr: FloatArray, xi: FloatArray, yr: FloatArray, yi: FloatArray,
+        m: Int, s: Int, twiddle: Int
+    ) {
+        for (j in 0 until m) {
+            val t = twiddle + 4 * j
+            val w1r = twiddleRe[t]
+            val w1i = twiddleIm[t]
+            val w2r = twiddleRe[t + 1]
+            val w2i = twiddleIm[t + 1]
+            val w3r = twiddleRe[t + 2]
+            val w3i = twiddleIm[t + 2]
+            val w4r = twiddleRe[t + 3]
+            val w4i = twiddleIm[t + 3]
+            for (q in 0 until s) {
+                val i0 = q + s * j
+                val i1 = i0 + s * m
+                val i2 = i1 + s * m
+                val i3 = i2 + s * m
+                val i4 = i3 + s * m
+                val o0 = q + s * 5 * j
+
+                // x1与x4、x2与x3成对合并, 只需4次实数乘法计算每个输出的实部和虚部
+                val t1r = xr[i1] + xr[i4]
+                val t1i = xi[i1] + xi[i4]
+                val t2r = xr[i2] + xr[i3]
+                val t2i = xi[i2] + xi[i3]
+                val t3r = xr[i1] - xr[i4]
+                val t3i = xi[i1] - xi[i4]
+                val t4r = xr[i2] - xr[i3]
+                val t4i = xi[i2] - xi[i3]
+
+                yr[o0] = xr[i0] + t1r + t2r
+                yi[o0] = xi[i0] + t1i + t2i
+
+                val a1r = xr[i0] + cos72 * t1r + cos144 * t2r
+                val a1i = xi[i0] + cos72 * t1i + cos144 * t2i
+                val a2r = xr[i0] + cos144 * t1r + cos72 * t2r
+                val a2i = xi[i0] + cos144 * t1i + cos72 * t2i
+                val b1r = sin72 * t3r + sin144 * t4r
+                val b1i = sin72 * t3i + sin144 * t4i
+                val b2r = sin144 * t3r - sin72 * t4r
+                val b2i = sin144 * t3i - sin72 * t4i
+
+                // y1 = a1 - i·b1, y4 = a1 + i·b1, y2 = a2 - i·b2, y3 = a2 + i·b2
+                val y1r = a1r + b1i
+                val y1i = a1i - b1r
+                yr[o0 + s] = y1r * w1r - y1i * w1i
+                yi[o0 + s] = y1r * w1i + y1i * w1r
+
+                val y2r = a2r + b2i
+                val y2i = a2i - b2r
+                yr[o0 + 2 * s] = y2r * w2r - y2i * w2i
+                yi[o0 + 2 * s] = y2r * w2i + y2i * w2r
+
+                val y3r = a2r - b2i
+                val y3i = a2i + b2r
+                yr[o0 + 3 * s] = y3r * w3r - y3i * w3i
+                yi[o0 + 3 * s] = y3r * w3i + y3i * w3r
+
+                val y4r = a1r - b1i
+                val y4i = a1i + b1r
+                yr[o0 + 4 * s] = y4r * w4r - y4i * w4i
+                yi[o0 + 4 * s] = y4r * w4i + y4i * w4r
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.voicelife.assistant.recorder
+
+import java.io.Closeable
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+
+/**
+ * 录音文件读取器
+ * 按帧流式读取16bit样本, 与具体文件格式无关
+ */
+interface AudioFileReader : Closeable {
+    /** 采样率 */
+    val sampleRate: Int
+
+    /** 声道数 */
+    val channels: Int
+
+    /** 样本总数(单声道样本), 文件头未记录时为0 */
+    val totalSamples: Long
+
+    /**
+     * 读取一帧样本
+     * @param frame 目标数组
+     * @return 实际读取的样本数, 文件结束时返回0
+     */
+    fun read(frame: ShortArray, offset: Int = 0, length: Int = frame.size - offset): Int
+
+    companion object {
+        /**
+         * 按文件头的标记选择读取器(WAV或FLAC)
+         */
+        fun open(file: File): AudioFileReader {
+            val magic = ByteArray(4)
+            val read = FileInputStream(file).use { it.read(magic) }
+            if (read < 4) throw IOException("File too short: ${file.name}")
+
+            return when (String(magic, Charsets.US_ASCII)) {
+                "RIFF" -> WavFileReader(file)
+                "fLaC" -> FlacFileReader(file)
+                else -> throw IOException("Unknown audio format: ${file.name}")
+            }
+        }
+    }
+}
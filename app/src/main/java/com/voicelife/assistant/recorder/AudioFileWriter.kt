@@ -0,0 +1,72 @@
+package com.voicelife.assistant.recorder
+
+import java.io.File
+
+/**
+ * 录音文件写入器
+ * RecordingSession只通过该接口写入音频, 不关心具体文件格式
+ *
+ * 调用顺序: start() -> write()... -> stop()
+ */
+interface AudioFileWriter : PcmSink {
+    /**
+     * 创建文件并写入文件头
+     */
+    fun start()
+
+    /**
+     * 写入剩余数据, 更新文件头并关闭文件
+     */
+    fun stop()
+
+    /**
+     * 已接收的样本数(单声道即帧数)
+     */
+    fun getSampleCount(): Long
+
+    /**
+     * 检查是否正在写入
+     */
+    fun isWriting(): Boolean
+
+    /**
+     * 推迟写盘(处理线程过载时调用)
+     * 推迟期间多攒一些数据再写, 并暂停文件头刷新; 恢复时超过正常间隔的数据立即写出
+     */
+    fun setFlushDeferred(deferred: Boolean) {}
+
+    /**
+     * 代替start(): 打开已有文件继续追加(服务被杀后恢复录音), 先修复未正确结束的文件头
+     * @return 格式不支持追加或文件无法修复时返回false, 此时不应再写入
+     */
+    fun resume(): Boolean = false
+
+    /**
+     * 已写入样本的内容哈希(PcmContentHash, 与文件格式无关), 不支持时返回null
+     */
+    fun getContentHash(): String? = null
+}
+
+/**
+ * 录音文件格式
+ *
+ * - WAV: 原始PCM, 约1.9MB/分钟, 写入开销最低
+ * - FLAC: 无损压缩, 语音通常只有WAV的40%~60%, 支持按seek table跳转
+ * - IMA_ADPCM: 有损4:1(WAV容器), 用于已转写录音的归档
+ *
+ * @param lossless 解码结果是否与原始样本逐一相同
+ */
+enum class RecordingFormat(val extension: String, val lossless: Boolean) {
+    WAV("wav", true),
+    FLAC("flac", true),
+    IMA_ADPCM("ima.wav", false);
+
+    /**
+     * 创建对应格式的写入器
+     */
+    fun createWriter(outputFile: File): AudioFileWriter = when (this) {
+        WAV -> WavFileWriter(outputFile)
+        FLAC -> FlacFileWriter(outputFile)
+        IMA_ADPCM -> ImaAdpcmWavWriter(outputFile)
+    }
+}
@@ -0,0 +1,148 @@
+package com.voicelife.assistant.recorder
+
+/**
+ * 音频帧
+ * 在AudioPipeline各阶段之间传递, 由帧队列或FramePool预分配并循环复用
+ *
+ * samples是权威数据; floats()按需从samples转换并缓存,
+ * 修改samples的阶段调用samplesChanged(), 在float上处理的阶段调用commitFloats()写回
+ */
+class AudioFrame(val capacity: Int) {
+    /** 16bit PCM样本, 有效部分为[0, length) */
+    val samples = ShortArray(capacity)
+
+    /** 有效样本数 */
+    var length = 0
+
+    /** 采样率 */
+    var sampleRate = 16000
+
+    /** 第一个样本在采样时钟上的位置 */
+    var sampleIndex = 0L
+
+    /** VAD阶段写入的人声概率, 未经过VAD时为NaN */
+    var vadProbability = Float.NaN
+
+    private var floatBuffer: FloatArray? = null
+    private var floatsValid = false
+
+    /**
+     * 归一化到[-1, 1]的float样本(首次调用时分配)
+     */
+    fun floats(): FloatArray {
+        val buffer = floatBuffer ?: FloatArray(capacity).also { floatBuffer = it }
+        if (!floatsValid) {
+            for (i in 0 until length) {
+                buffer[i] = samples[i] / 32768.0f
+            }
+            floatsValid = true
+        }
+        return buffer
+    }
+
+    /**
+     * samples被修改后调用, 下次floats()重新转换
+     */
+    fun samplesChanged() {
+        floatsValid = false
+    }
+
+    /**
+     * 把floats()中修改过的数据写回samples
+     */
+    fun commitFloats() {
+        val buffer = floatBuffer ?: return
+        for (i in 0 until length) {
+            val value = (buffer[i] * 32768.0f).toInt()
+            samples[i] = value.coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt()).toShort()
+        }
+        floatsValid = true
+    }
+
+    /**
+     * 复制另一帧的数据和元信息
+     */
+    fun copyFrom(other: AudioFrame) {
+        require(other.length <= capacity) { "Frame too large: ${other.length} > $capacity" }
+        System.arraycopy(other.samples, 0, samples, 0, other.length)
+        length = other.length
+        sampleRate = other.sampleRate
+        sampleIndex = other.sampleIndex
+        vadProbability = other.vadProbability
+        floatsValid = false
+    }
+
+    /**
+     * 清空数据, 归还帧池之前调用
+     */
+    fun clear() {
+        length = 0
+        sampleIndex = 0L
+        vadProbability = Float.NaN
+        floatsValid = false
+    }
+}
+
+/**
+ * 帧格式
+ * 每个阶段声明接受的输入格式和产生的输出格式, AudioPipeline创建时逐级校验
+ *
+ * @param frameSize 每帧最大样本数
+ */
+data class FrameFormat(
+    val sampleRate: Int,
+    val frameSize: Int
+)
+
+/**
+ * 帧池
+ * 供产生新帧的阶段(如重采样)使用, 稳定运行后不再分配
+ *
+ * 取得帧的阶段负责在emit返回后归还(emit是同步的, 返回时下游已处理完)
+ */
+class FramePool(private val maxPooled: Int = 32) {
+    private val free = ArrayDeque<AudioFrame>()
+
+    @Volatile
+    private var allocations = 0L
+
+    /**
+     * 取得容量不小于minCapacity的帧
+     */
+    fun acquire(minCapacity: Int): AudioFrame {
+        synchronized(free) {
+            val iterator = free.iterator()
+            while (iterator.hasNext()) {
+                val frame = iterator.next()
+                if (frame.capacity >= minCapacity) {
+                    iterator.remove()
+                    return frame
+                }
+            }
+        }
+        allocations++
+        return AudioFrame(minCapacity)
+    }
+
+    /**
+     * 归还帧
+     */
+    fun release(frame: AudioFrame) {
+        frame.clear()
+        synchronized(free) {
+            if (free.size < maxPooled) {
+                free.addLast(frame)
+            }
+        }
+    }
+
+    /**
+     * 池中空闲的帧数
+     */
+    fun size(): Int = synchronized(free) { free.size }
+
+    /**
+     * 累计分配的帧数
+     */
+    fun getAllocations(): Long = allocations
+}
@@ -0,0 +1,343 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+
+/**
+ * 音频处理流水线
+ * 输入帧队列 -> 阶段1 -> 阶段2 -> ... , 各阶段之间同步传递帧
+ *
+ * 线程模型:
+ * - 生产者(如采集线程)通过acquireInput()/publishInput()写入输入队列
+ * - 每个队列(输入队列和QueueStage)由一个独立线程消费, 运行到下一个QueueStage为止
+ * - 需要和实时路径隔离的阶段(如较慢的磁盘写入)放在QueueStage之后
+ *
+ * 统计:
+ * - 每个阶段记录自身耗时的直方图(不含下游阶段的耗时)和异常次数
+ * - 每个队列记录深度、历史最大深度和丢弃的帧数
+ * - 每段记录处理线程的累计忙碌时间, 用于计算相对实时的负载
+ *
+ * 阶段在创建时按顺序校验帧格式, 不匹配时抛出IllegalArgumentException
+ *
+ * @param inputFormat 输入帧格式
+ * @param inputQueueCapacity 输入队列容量(帧)
+ * @param inputPolicy 输入队列满时的策略
+ */
+class AudioPipeline(
+    val name: String,
+    val inputFormat: FrameFormat,
+    inputQueueCapacity: Int,
+    inputPolicy: OverflowPolicy,
+    stages: List<AudioStage>,
+    private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null
+) {
+    companion object {
+        private const val TAG = "AudioPipeline"
+        private const val CONSUMER_WAIT_NANOS = 50_000_000L  // 50ms
+        private const val THREAD_JOIN_TIMEOUT_MS = 2000L
+    }
+
+    private val pool = FramePool()
+    private val inputQueue = QueueStage(inputQueueCapacity, inputPolicy, "input")
+    private val segments = ArrayList<Segment>()
+    private val nodes = ArrayList<StageNode>()
+
+    /** 最后一个阶段的输出格式 */
+    val outputFormat: FrameFormat
+
+    @Volatile
+    private var running = false
+
+    init {
+        var format = inputQueue.configure(inputFormat, pool)
+        val queues = arrayListOf(inputQueue)
+        val chains = arrayListOf(ArrayList<AudioStage>())
+
+        for (stage in stages) {
+            format = try {
+                stage.configure(format, pool)
+            } catch (e: IllegalArgumentException) {
+                throw IllegalArgumentException("Stage ${stage.name} rejects $format: ${e.message}", e)
+            }
+            chains.last().add(stage)
+            if (stage is QueueStage) {
+                queues.add(stage)
+                chains.add(ArrayList())
+            }
+        }
+        outputFormat = format
+
+        // 从后往前连接, 每段的最后一个阶段没有下游(或是下一段的QueueStage)
+        for (i in queues.indices) {
+            var next: FrameSink = FrameSink { }
+            val chainNodes = ArrayList<StageNode>()
+            for (stage in chains[i].asReversed()) {
+                val node = StageNode(stage, next)
+                chainNodes.add(0, node)
+                next = node
+            }
+            nodes.addAll(chainNodes)
+            segments.add(Segment(queues[i], next, if (i == 0) "AudioProcessing" else "$name-${queues[i].name}"))
+        }
+    }
+
+    /**
+     * 启动各段的处理线程
+     */
+    fun start() {
+        if (running) return
+        running = true
+        for (segment in segments) {
+            segment.queue.queue.clear()
+            segment.start()
+        }
+        Log.d(TAG, "Pipeline $name started: ${nodes.joinToString(" -> ") { it.stage.name }}")
+    }
+
+    /**
+     * 生产者: 取得输入帧
+     * @return 输入队列已满(DROP_NEWEST)时返回null, 该帧应丢弃
+     */
+    fun acquireInput(): AudioFrame? = inputQueue.queue.acquire()
+
+    /**
+     * 生产者: 发布acquireInput()取得的帧
+     */
+    fun publishInput() {
+        inputQueue.queue.publish()
+    }
+
+    /**
+     * 停止流水线
+     * 生产者应先停止; 各段处理完队列中剩余的帧后依次退出, 然后重置各阶段
+     */
+    fun stop() {
+        if (!running) return
+        running = false
+
+        for (segment in segments) {
+            segment.join(THREAD_JOIN_TIMEOUT_MS)
+        }
+        for (node in nodes) {
+            try {
+                node.stage.reset()
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to reset stage ${node.stage.name}", e)
+            }
+        }
+
+        Log.d(TAG, "Pipeline $name stopped")
+        debugLogger?.i(TAG, "音频处理已停止，共处理 ${segments.first().processedFrames} 帧，丢弃 ${inputQueue.queue.getDroppedFrames()} 帧")
+    }
+
+    /**
+     * 获取统计
+     */
+    fun getStats(): PipelineStats = PipelineStats(
+        stages = nodes.map { it.getStats() },
+        queues = segments.map { it.queue.getStats() },
+        pooledFrames = pool.size(),
+        frameAllocations = pool.getAllocations()
+    )
+
+    /**
+     * 获取输入队列统计
+     */
+    fun getInputQueueStats(): QueueStats = inputQueue.getStats()
+
+    /**
+     * 实时段(消费输入队列的线程)累计处理耗时(纳秒)
+     * QueueStage之后的段与实时路径隔离, 不计入
+     */
+    fun getProcessingNanos(): Long = segments.first().busyNanos
+
+    /**
+     * 把降级级别通知所有阶段
+     */
+    fun setDegradation(level: DegradationLevel) {
+        for (node in nodes) {
+            node.stage.setDegradation(level)
+        }
+    }
+
+    /**
+     * 一个队列及其消费线程
+     */
+    private inner class Segment(
+        val queue: QueueStage,
+        private val head: FrameSink,
+        private val threadName: String
+    ) {
+        private var thread: Thread? = null
+
+        @Volatile
+        var finished = false
+            private set
+
+        @Volatile
+        var processedFrames = 0L
+            private set
+
+        @Volatile
+        var busyNanos = 0L
+            private set
+
+        private var upstream: Segment? = null
+
+        fun start() {
+            upstream = segments.getOrNull(segments.indexOf(this) - 1)
+            finished = false
+            processedFrames = 0
+            busyNanos = 0
+            thread = Thread(::run, threadName).apply { start() }
+        }
+
+        private fun run() {
+            val frames = queue.queue
+            try {
+                while (true) {
+                    val frame = frames.poll()
+                    if (frame == null) {
+                        // 生产者(或上一段)结束且队列已空时退出
+                        val upstreamDone = upstream?.finished ?: !running
+                        if (upstreamDone && frames.size() == 0) break
+                        frames.awaitFrame(CONSUMER_WAIT_NANOS)
+                        continue
+                    }
+
+                    val start = System.nanoTime()
+                    try {
+                        head.emit(frame)
+                    } finally {
+                        frames.release()
+                    }
+                    busyNanos += System.nanoTime() - start
+                    processedFrames++
+                }
+            } finally {
+                frames.close()
+                finished = true
+            }
+        }
+
+        fun join(timeoutMs: Long) {
+            thread?.join(timeoutMs)
+            thread = null
+        }
+    }
+
+    /**
+     * 阶段节点, 负责计时和异常隔离
+     */
+    private class StageNode(val stage: AudioStage, private val next: FrameSink) : FrameSink {
+        private val histogram = LatencyHistogram()
+        private var inclusiveNanos = 0L
+
+        @Volatile
+        private var errors = 0L
+
+        override fun emit(frame: AudioFrame) {
+            val downstream = next as? StageNode
+            val downstreamBefore = downstream?.inclusiveNanos ?: 0L
+            val start = System.nanoTime()
+
+            try {
+                stage.process(frame, next)
+            } catch (e: Exception) {
+                errors++
+                if (errors % 100 == 1L) {
+                    Log.e(TAG, "Stage ${stage.name} failed ($errors errors)", e)
+                }
+            }
+
+            val elapsed = System.nanoTime() - start
+            inclusiveNanos += elapsed
+            val downstreamNanos = (downstream?.inclusiveNanos ?: 0L) - downstreamBefore
+            histogram.record(elapsed - downstreamNanos)
+        }
+
+        fun getStats(): StageStats = StageStats(
+            name = stage.name,
+            frames = histogram.getCount(),
+            errors = errors,
+            meanMicros = histogram.getMeanMicros(),
+            p50Micros = histogram.getPercentileMicros(50.0),
+            p99Micros = histogram.getPercentileMicros(99.0),
+            maxMicros = histogram.getMaxMicros()
+        )
+    }
+}
+
+/**
+ * 队列阶段
+ * 把帧复制进有界队列, 之后的阶段在独立线程中运行
+ *
+ * @param capacity 队列容量(帧)
+ * @param policy 队列满时的策略
+ */
+class QueueStage(
+    private val capacity: Int,
+    private val policy: OverflowPolicy = OverflowPolicy.DROP_NEWEST,
+    override val name: String = "queue"
+) : AudioStage {
+    lateinit var queue: SpscFrameQueue
+        private set
+
+    override fun configure(input: FrameFormat, pool: FramePool): FrameFormat {
+        queue = SpscFrameQueue(capacity, input.frameSize, policy)
+        return input
+    }
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        val slot = queue.acquire() ?: return
+        slot.copyFrom(frame)
+        queue.publish()
+    }
+
+    fun getStats(): QueueStats = QueueStats(
+        name = name,
+        policy = policy,
+        depth = queue.size(),
+        capacity = queue.capacity,
+        highWatermark = queue.getHighWatermark(),
+        droppedFrames = queue.getDroppedFrames()
+    )
+}
+
+/**
+ * 阶段统计
+ * @param meanMicros 平均自身耗时(不含下游阶段)
+ * @param p99Micros 99分位自身耗时(直方图桶上界)
+ */
+data class StageStats(
+    val name: String,
+    val frames: Long,
+    val errors: Long,
+    val meanMicros: Long,
+    val p50Micros: Long,
+    val p99Micros: Long,
+    val maxMicros: Long
+)
+
+/**
+ * 队列统计
+ * @param droppedFrames 队列满时丢弃的帧数(BLOCK策略始终为0)
+ */
+data class QueueStats(
+    val name: String,
+    val policy: OverflowPolicy,
+    val depth: Int,
+    val capacity: Int,
+    val highWatermark: Int,
+    val droppedFrames: Long
+)
+
+/**
+ * 流水线统计
+ * @param frameAllocations FramePool累计分配的帧数, 稳定运行后不应增长
+ */
+data class PipelineStats(
+    val stages: List<StageStats>,
+    val queues: List<QueueStats>,
+    val pooledFrames: Int,
+    val frameAllocations: Long
+)
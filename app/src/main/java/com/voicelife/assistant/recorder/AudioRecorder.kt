@@ -2,13 +2,19 @@ package com.voicelife.assistant.recorder
 
 import android.content.Context
 import android.media.AudioFormat
+import android.media.AudioManager
 import android.media.AudioRecord
+import android.media.AudioTimestamp
 import android.media.MediaRecorder
+import android.os.Process
 import android.util.Log
+import com.voicelife.assistant.vad.DutyCycleStats
 import com.voicelife.assistant.vad.VadCallback
 import com.voicelife.assistant.vad.VadDetector
-import kotlinx.coroutines.*
+import com.voicelife.assistant.vad.VadEngineType
+import com.voicelife.assistant.vad.VadPowerProfile
 import java.io.File
+import java.util.concurrent.locks.LockSupport
 
 /**
  * 音频录制器
@@ -17,11 +23,46 @@ import java.io.File
  * 工作流程:
  * 1. 启动VAD检测器监听麦克风
  * 2. VAD检测到人声 -> 触发录音会话
- * 3. 持续录制音频并写入WAV文件
+ * 3. 持续录制音频并写入录音文件(WAV或FLAC)
  * 4. VAD检测到静音 -> 智能合并判断是否停止
- * 5. 录音完成 -> 通知回调
+ * 5. 录音完成 -> 通知回调(超过最大时长的会话按分块逐个回调)
+ *
+ * 线程模型:
+ * - 采集线程(URGENT_AUDIO优先级): 只做AudioRecord.read, 写入AudioPipeline的输入队列
+ * - 处理线程: AudioPipeline从队列取帧, 依次执行各阶段
+ * - 推理变慢或磁盘卡顿只会让队列变深, 不会推迟下一次read; 队列满时丢帧并计数
+ *
+ * 过载监控(CaptureHealthMonitor, 在采集线程中每秒评估一次):
+ * - 记录每次read的耗时, 用HAL时间戳比较已采集和已读取的帧数, 检测AudioRecord缓冲区溢出丢失的音频
+ * - 处理线程负载过高、队列积压或丢失音频时逐级降级(跳过诊断 -> VAD隔帧推理 -> 推迟写盘), 负载下降后逐级恢复
+ * - 统计通过getCaptureHealth()获取
+ *
+ * 音频服务断开(ERROR_DEAD_OBJECT)时采集线程退避重建AudioRecord, 流水线和录音会话不中断;
+ * 多次重建失败后停止录制(isRecording()变为false), 之后可以再次start()
+ *
+ * 默认流水线: [重采样] -> [preprocessStages] -> VAD -> 录音会话 -> [时光机]
+ *
+ * 采集采样率(captureSampleRate):
+ * - 16000(默认): AudioRecord直接输出16kHz, 由系统HAL重采样, 质量和开销因设备而异
+ * - 原生采样率(见getNativeSampleRate): 以设备原生采样率采集, 由ResamplerStage降到16kHz
+ * 降噪(SpeechPreprocessStage)、电平表等通过preprocessStages插入, 不需要修改处理循环
+ *
+ * 功耗档位(vadPowerProfile):
+ * - 长时间静音后VAD降低推理频率, 人声开始最多晚maxOnsetDelayMs被检测到
+ * - 预缓冲相应加长, 检测延迟期间的音频仍然完整进入录音
+ *
+ * 时光机模式(timeMachineHours > 0):
+ * - 处理线程额外把每一帧写入CaptureRingFile, 保留最近N小时的全部音频
+ * - 可通过getCaptureRing()按时间段回溯导出, 不依赖VAD是否触发了录音
+ *
+ * 流式转写(spanListener): 录音会话在每次人声结束时把这段人声交给监听器, 不必等录音结束
+ *
+ * 服务重启恢复:
+ * - 录音会话定期把进行中的分块写入检查点(session.checkpoint)
+ * - start()时如果有检查点, 静音间隔未满就接着录同一个文件, 否则修复文件头后留给启动扫描登记
  *
  * 存储结构:
+ * - session.checkpoint 进行中录音的检查点
  * - pending/    待转换的音频
  * - processing/ 转换中的音频
  * - completed/  已转换(保留7天)
@@ -30,14 +71,26 @@ import java.io.File
 class AudioRecorder(
     private val context: Context,
     private val recordingsDir: File,
-    private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null
+    private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null,
+    private val vadEngineType: VadEngineType = VadEngineType.SILERO,
+    private val recordingFormat: RecordingFormat = RecordingFormat.WAV,
+    private val timeMachineHours: Int = 0,
+    private val maxChunkMs: Long = RecordingSession.DEFAULT_MAX_CHUNK_MS,
+    private val preprocessStages: List<AudioStage> = emptyList(),
+    private val captureSampleRate: Int = 16000,
+    private val vadPowerProfile: VadPowerProfile = VadPowerProfile.PERFORMANCE,
+    private val spanListener: SpeechSpanListener? = null
 ) {
     private var vadDetector: VadDetector? = null
     private var recordingSession: RecordingSession? = null
+    @Volatile
     private var audioRecord: AudioRecord? = null
+    private var captureRing: CaptureRingFile? = null
 
+    @Volatile
     private var isRecording = false
-    private var audioRecordJob: Job? = null
+    private var captureThread: Thread? = null
+    private var pipeline: AudioPipeline? = null
 
     // 音频参数
     private val sampleRate = 16000
@@ -45,17 +98,46 @@ class AudioRecorder(
     private val audioFormat = AudioFormat.ENCODING_PCM_16BIT
     private val frameSize = 512  // 与VAD一致
 
+    // 采集帧与16kHz下的一帧时长相同(48kHz时为1536样本)
+    private val captureFrameSize = (frameSize.toLong() * captureSampleRate / sampleRate).toInt()
+
     private val bufferSize = AudioRecord.getMinBufferSize(
-        sampleRate,
+        captureSampleRate,
         channelConfig,
         audioFormat
-    ).coerceAtLeast(frameSize * 4)
+    ).coerceAtLeast(captureFrameSize * 4)
+
+    // 采集统计(只由采集线程写入)
+    @Volatile
+    private var capturedFrames = 0L
+    @Volatile
+    private var readErrors = 0L
+    @Volatile
+    private var healthMonitor: CaptureHealthMonitor? = null
 
     // 录音完成回调
-    private var onRecordingComplete: ((File) -> Unit)? = null
+    private var onRecordingComplete: ((CompletedRecording) -> Unit)? = null
 
     companion object {
         private const val TAG = "AudioRecorder"
+        private const val FRAME_QUEUE_CAPACITY = 128  // 约4秒
+        private const val PRE_ROLL_MS = 1000L
+        private const val CHECKPOINT_FILE = "session.checkpoint"
+        private const val THREAD_JOIN_TIMEOUT_MS = 2000L
+        private const val READ_ERROR_BACKOFF_AFTER = 5  // 连续失败这么多次后才短暂退避, 避免空转
+        private const val READ_ERROR_BACKOFF_NANOS = 2_000_000L  // 2ms
+        private const val RESTART_BACKOFF_INITIAL_MS = 100L
+        private const val RESTART_BACKOFF_MAX_MS = 2000L  // 不超过stop()等待采集线程的时间
+        private const val MAX_RESTART_ATTEMPTS = 10  // 约13秒
+
+        /**
+         * 设备原生采样率
+         * 系统只公开输出流的原生采样率, 输入在绝大多数设备上与其相同; 读取失败时返回16000
+         */
+        fun getNativeSampleRate(context: Context): Int {
+            val audioManager = context.getSystemService(Context.AUDIO_SERVICE) as? AudioManager
+            return audioManager?.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE)?.toIntOrNull() ?: 16000
+        }
     }
 
     /**
@@ -96,9 +178,17 @@ class AudioRecorder(
             // 初始化VAD检测器
             debugLogger?.d(TAG, "开始初始化VAD检测器...")
             try {
-                vadDetector = VadDetector(context, vadCallback)
+                vadDetector = VadDetector(context, vadCallback, vadEngineType, powerProfile = vadPowerProfile)
                 vadDetector?.init()
-                debugLogger?.i(TAG, "✅ VAD检测器初始化成功")
+                debugLogger?.i(TAG, "✅ VAD检测器初始化成功 (引擎: $vadEngineType, 档位: $vadPowerProfile)")
+                vadDetector?.getEngineInitStats()?.let { stats ->
+                    debugLogger?.d(
+                        TAG,
+                        "VAD启动耗时: ${stats.totalMs}ms (模型${stats.modelPrepareMs}ms, " +
+                                "校准${stats.calibrationMs}ms, 会话${stats.sessionCreateMs}ms, " +
+                                "缓存: ${stats.usedOptimizedCache}, 后端: ${stats.executionProvider})"
+                    )
+                }
             } catch (e: Exception) {
                 debugLogger?.e(TAG, "❌ VAD初始化失败: ${e.javaClass.simpleName}: ${e.message}")
                 debugLogger?.e(TAG, "堆栈: ${e.stackTraceToString().take(200)}")
@@ -107,20 +197,24 @@ class AudioRecorder(
 
             // 初始化AudioRecord
             debugLogger?.d(TAG, "开始初始化AudioRecord...")
-            audioRecord = AudioRecord(
-                MediaRecorder.AudioSource.VOICE_RECOGNITION,
-                sampleRate,
-                channelConfig,
-                audioFormat,
-                bufferSize
-            )
-
-            if (audioRecord?.state != AudioRecord.STATE_INITIALIZED) {
-                throw IllegalStateException("AudioRecord initialization failed")
+            audioRecord = createAudioRecord()
+
+            // 时光机环形文件(可选), 打开失败不影响正常录音
+            if (timeMachineHours > 0) {
+                try {
+                    captureRing = CaptureRingFile(File(context.filesDir, "time_machine"), timeMachineHours)
+                        .also { it.open() }
+                    debugLogger?.i(TAG, "✅ 时光机已开启 (保留${timeMachineHours}小时)")
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to open capture ring", e)
+                    debugLogger?.e(TAG, "时光机开启失败: ${e.message}")
+                    captureRing?.close()
+                    captureRing = null
+                }
             }
 
             Log.d(TAG, "Audio recorder initialized")
-            debugLogger?.i(TAG, "✅ 录制器初始化成功 (16kHz, MONO)")
+            debugLogger?.i(TAG, "✅ 录制器初始化成功 (${captureSampleRate}Hz, MONO)")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to initialize audio recorder", e)
             debugLogger?.e(TAG, "录制器初始化失败: ${e.message}")
@@ -128,11 +222,30 @@ class AudioRecorder(
         }
     }
 
+    /**
+     * 创建AudioRecord
+     * @throws IllegalStateException 初始化失败(已释放)
+     */
+    private fun createAudioRecord(): AudioRecord {
+        val record = AudioRecord(
+            MediaRecorder.AudioSource.VOICE_RECOGNITION,
+            captureSampleRate,
+            channelConfig,
+            audioFormat,
+            bufferSize
+        )
+        if (record.state != AudioRecord.STATE_INITIALIZED) {
+            record.release()
+            throw IllegalStateException("AudioRecord initialization failed")
+        }
+        return record
+    }
+
     /**
      * 开始录制
      * @param onComplete 录音完成回调
      */
-    fun start(onComplete: (File) -> Unit) {
+    fun start(onComplete: (CompletedRecording) -> Unit) {
         if (isRecording) {
             Log.w(TAG, "Audio recorder already running")
             debugLogger?.w(TAG, "录制器已在运行")
@@ -144,19 +257,53 @@ class AudioRecorder(
             this.onRecordingComplete = onComplete
 
             // 创建录音会话
-            recordingSession = RecordingSession(recordingsDir, debugLogger) { file ->
-                onRecordingComplete?.invoke(file)
+            recordingSession = RecordingSession(
+                recordingsDir,
+                debugLogger,
+                preRollMs = PRE_ROLL_MS + vadPowerProfile.maxOnsetDelayMs,
+                format = recordingFormat,
+                maxChunkMs = maxChunkMs,
+                checkpointStore = SessionCheckpointStore(File(recordingsDir, CHECKPOINT_FILE)),
+                spanListener = spanListener
+            ) { recording ->
+                onRecordingComplete?.invoke(recording)
+            }
+
+            // 上次服务被杀时未结束的录音
+            recordingSession?.restore()?.let { file ->
+                debugLogger?.i(TAG, "已恢复上次的录音: ${file.name}")
             }
 
-            // 启动音频录制
-            audioRecord?.startRecording()
+            // 创建处理流水线
+            val session = recordingSession!!
+            val stages = ArrayList<AudioStage>()
+            if (captureSampleRate != sampleRate) {
+                stages.add(ResamplerStage(captureSampleRate, sampleRate, frameSize))
+            }
+            stages.addAll(preprocessStages)
+            vadDetector?.let { stages.add(VadStage(it, debugLogger)) }
+            stages.add(RecordingSessionStage(session))
+            captureRing?.let { stages.add(CaptureRingStage(it)) }
+            val audioPipeline = AudioPipeline(
+                name = "capture",
+                inputFormat = FrameFormat(captureSampleRate, captureFrameSize),
+                inputQueueCapacity = FRAME_QUEUE_CAPACITY,
+                inputPolicy = OverflowPolicy.DROP_NEWEST,
+                stages = stages,
+                debugLogger = debugLogger
+            )
+            pipeline = audioPipeline
+
+            // 启动音频录制(上次采集中断且重建失败时AudioRecord已释放, 重新创建)
+            captureRing?.resume()
+            val record = audioRecord ?: createAudioRecord().also { audioRecord = it }
+            record.startRecording()
             isRecording = true
             debugLogger?.d(TAG, "AudioRecord已启动")
 
-            // 启动音频读取协程
-            audioRecordJob = CoroutineScope(Dispatchers.IO).launch {
-                readAudioData()
-            }
+            // 启动处理线程和采集线程
+            audioPipeline.start()
+            captureThread = Thread({ captureAudio(audioPipeline) }, "AudioCapture").apply { start() }
 
             debugLogger?.i(TAG, "VAD检测已启动，监听中...")
             Log.d(TAG, "Audio recorder started")
@@ -169,75 +316,135 @@ class AudioRecorder(
     }
 
     /**
-     * 读取音频数据
-     * 同时送给VAD检测和录音会话
+     * 采集线程
+     * 只负责从AudioRecord读取数据并放入流水线的输入队列, 不做任何可能阻塞的处理
+     *
+     * read失败或读到0个样本时立即重试(等待只会让AudioRecord缓冲区积压更多), 连续失败才短暂退避;
+     * 音频服务已断开(ERROR_DEAD_OBJECT)时重建AudioRecord, 重建失败则停止录制
      */
-    private suspend fun readAudioData() {
-        val audioBuffer = ShortArray(frameSize)
-        val floatBuffer = FloatArray(frameSize)
-        var frameCount = 0
+    private fun captureAudio(audioPipeline: AudioPipeline) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO)
+        // 队列满时读入此缓冲区后丢弃, 保证AudioRecord内部缓冲不溢出
+        val scratch = ShortArray(captureFrameSize)
+        var sampleIndex = 0L
+        var consecutiveErrors = 0
+
+        var record = audioRecord ?: return
+        val timestamp = AudioTimestamp()
+        val monitor = CaptureHealthMonitor(captureSampleRate, record.bufferSizeInFrames) { level, reason ->
+            audioPipeline.setDegradation(level)
+            Log.w(TAG, "Degradation level -> $level ($reason)")
+            debugLogger?.w(TAG, "处理负载变化, 降级级别: $level ($reason)")
+        }
+        healthMonitor = monitor
+        monitor.start(System.nanoTime())
 
         debugLogger?.d(TAG, "开始读取音频数据...")
 
-        while (isRecording && audioRecord != null) {
-            try {
-                // 读取音频数据
-                val readSize = audioRecord!!.read(audioBuffer, 0, frameSize)
-                if (readSize <= 0) {
-                    Log.w(TAG, "AudioRecord read returned: $readSize")
-                    debugLogger?.w(TAG, "音频读取失败: $readSize")
-                    delay(10)
+        while (isRecording) {
+            val slot = audioPipeline.acquireInput()
+            val target = slot?.samples ?: scratch
+
+            val readStart = System.nanoTime()
+            val readSize = record.read(target, 0, captureFrameSize)
+            val readEnd = System.nanoTime()
+            if (readSize <= 0) {
+                consecutiveErrors++
+                if (readSize == AudioRecord.ERROR_DEAD_OBJECT) {
+                    readErrors++
+                    record = recoverCapture(record, monitor) ?: break
+                    consecutiveErrors = 0
                     continue
                 }
-
-                frameCount++
-                
-                // 每100帧输出一次日志
-                if (frameCount % 100 == 0) {
-                    debugLogger?.d(TAG, "已处理 $frameCount 帧音频")
+                if (readSize < 0) {
+                    readErrors++
+                    if (readErrors % 100 == 1L) {
+                        Log.w(TAG, "AudioRecord read returned: $readSize ($readErrors errors)")
+                        debugLogger?.w(TAG, "音频读取失败: $readSize (共${readErrors}次)")
+                    }
                 }
-
-                // 转换为float给VAD使用
-                for (i in 0 until readSize) {
-                    floatBuffer[i] = audioBuffer[i] / 32768.0f
+                if (consecutiveErrors >= READ_ERROR_BACKOFF_AFTER) {
+                    LockSupport.parkNanos(READ_ERROR_BACKOFF_NANOS)
                 }
-                
-                // 诊断：检查原始音频数据
-                if (frameCount % 100 == 0) {
-                    val maxShort = audioBuffer.maxOrNull() ?: 0
-                    val minShort = audioBuffer.minOrNull() ?: 0
-                    val avgShort = audioBuffer.average()
-                    val maxFloat = floatBuffer.maxOrNull() ?: 0f
-                    val minFloat = floatBuffer.minOrNull() ?: 0f
-                    debugLogger?.d(TAG, "原始音频 - Short范围: [$minShort, $maxShort], 平均: $avgShort")
-                    debugLogger?.d(TAG, "Float音频 - 范围: [$minFloat, $maxFloat]")
+                continue
+            }
+            consecutiveErrors = 0
+            monitor.onRead(readStart, readEnd, readSize)
+
+            capturedFrames++
+            if (slot != null) {
+                slot.length = readSize
+                slot.sampleRate = captureSampleRate
+                slot.sampleIndex = sampleIndex
+                slot.vadProbability = Float.NaN
+                slot.samplesChanged()
+                audioPipeline.publishInput()
+            } else {
+                val dropped = audioPipeline.getInputQueueStats().droppedFrames
+                if (dropped % 100 == 1L) {
+                    debugLogger?.w(TAG, "处理跟不上采集, 已丢弃 $dropped 帧")
                 }
+            }
+            sampleIndex += readSize
+
+            if (monitor.isEvaluationDue(readEnd)) {
+                val hasTimestamp = record.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS
+                monitor.evaluate(
+                    nowNanos = System.nanoTime(),
+                    halFramePosition = if (hasTimestamp) timestamp.framePosition else -1,
+                    halNanoTime = timestamp.nanoTime,
+                    processingBusyNanos = audioPipeline.getProcessingNanos(),
+                    pipelineStats = audioPipeline.getStats()
+                )
+            }
+        }
 
-                // 送给VAD检测
-                val probability = vadDetector?.processFrame(floatBuffer) ?: 0f
-                
-                // 每50帧输出一次VAD概率
-                if (frameCount % 50 == 0) {
-                    debugLogger?.d(TAG, "VAD概率: ${String.format("%.3f", probability)}")
-                }
-                
-                // 根据VAD结果触发回调
-                vadDetector?.handleVadResult(probability)
+        if (isRecording) {
+            // 放弃重建: 停止流水线并结束当前录音, 调用方可以稍后再次start()
+            Log.e(TAG, "Capture lost, recorder stopped")
+            debugLogger?.e(TAG, "音频采集无法恢复, 录制器已停止")
+            stop()
+        }
+        Log.d(TAG, "Audio capture stopped")
+    }
 
-                // 写入录音会话(始终写入,用于预缓冲)
-                recordingSession?.writeAudioData(audioBuffer)
+    /**
+     * 音频服务断开后重建AudioRecord
+     * 指数退避重试, 期间调用stop()会立即结束等待
+     * @return 已开始采集的新AudioRecord; 已停止录制或重试用尽时返回null
+     */
+    private fun recoverCapture(dead: AudioRecord, monitor: CaptureHealthMonitor): AudioRecord? {
+        Log.e(TAG, "AudioRecord died, recreating")
+        debugLogger?.e(TAG, "音频服务已断开, 重新创建AudioRecord...")
+        monitor.onCaptureLost(System.nanoTime())
+        audioRecord = null
+        try {
+            dead.release()
+        } catch (e: Exception) {
+            Log.w(TAG, "Error releasing dead AudioRecord", e)
+        }
 
-            } catch (e: CancellationException) {
-                break
+        var backoffMs = RESTART_BACKOFF_INITIAL_MS
+        for (attempt in 1..MAX_RESTART_ATTEMPTS) {
+            LockSupport.parkNanos(backoffMs * 1_000_000L)
+            if (!isRecording) return null
+            var record: AudioRecord? = null
+            try {
+                record = createAudioRecord()
+                record.startRecording()
+                audioRecord = record
+                monitor.onCaptureRestored(System.nanoTime())
+                Log.i(TAG, "AudioRecord recreated after $attempt attempts")
+                debugLogger?.i(TAG, "✅ 音频采集已恢复 (第${attempt}次重试)")
+                return record
             } catch (e: Exception) {
-                Log.e(TAG, "Error reading audio data", e)
-                debugLogger?.e(TAG, "读取音频错误: ${e.message}")
-                delay(100)
+                record?.release()
+                Log.w(TAG, "Failed to recreate AudioRecord (attempt $attempt)", e)
+                debugLogger?.w(TAG, "重新创建AudioRecord失败 (第${attempt}次): ${e.message}")
             }
+            backoffMs = (backoffMs * 2).coerceAtMost(RESTART_BACKOFF_MAX_MS)
         }
-
-        Log.d(TAG, "Audio reading stopped")
-        debugLogger?.i(TAG, "音频读取已停止，共处理 $frameCount 帧")
+        return null
     }
 
     /**
@@ -250,18 +457,22 @@ class AudioRecorder(
 
         isRecording = false
 
-        // 停止音频读取
-        audioRecordJob?.cancel()
-
-        // 停止AudioRecord
+        // 停止AudioRecord, 使阻塞中的read返回
         try {
             audioRecord?.stop()
         } catch (e: Exception) {
             Log.e(TAG, "Error stopping AudioRecord", e)
         }
 
-        // 重置VAD状态
-        vadDetector?.reset()
+        // 等待采集线程退出(唤醒重建AudioRecord的退避等待; 采集线程放弃重建时自己调用stop, 不等待自己),
+        // 流水线处理完队列中剩余的帧后退出并重置各阶段(VAD状态、时光机暂存区)
+        val thread = captureThread
+        if (thread != null && thread !== Thread.currentThread()) {
+            LockSupport.unpark(thread)
+            thread.join(THREAD_JOIN_TIMEOUT_MS)
+        }
+        captureThread = null
+        pipeline?.stop()
 
         // 强制停止当前录音
         recordingSession?.forceStop()
@@ -282,6 +493,9 @@ class AudioRecorder(
 
             vadDetector?.release()
             vadDetector = null
+
+            captureRing?.close()
+            captureRing = null
         } catch (e: Exception) {
             Log.e(TAG, "Error releasing audio recorder", e)
         }
@@ -298,4 +512,58 @@ class AudioRecorder(
      * 获取当前录音会话状态
      */
     fun isSessionActive(): Boolean = recordingSession?.isRecording() ?: false
+
+    /**
+     * 正在写入的录音文件, 未录音时为null
+     */
+    fun getActiveRecordingFile(): File? = recordingSession?.getCurrentFile()
+
+    /**
+     * 获取时光机环形文件, 未开启时返回null
+     */
+    fun getCaptureRing(): CaptureRingFile? = captureRing
+
+    /**
+     * 获取采集统计
+     */
+    fun getCaptureStats(): CaptureStats {
+        val queue = pipeline?.getInputQueueStats()
+        return CaptureStats(
+            capturedFrames = capturedFrames,
+            droppedFrames = queue?.droppedFrames ?: 0,
+            readErrors = readErrors,
+            queueDepth = queue?.depth ?: 0,
+            queueHighWatermark = queue?.highWatermark ?: 0,
+            queueCapacity = queue?.capacity ?: 0
+        )
+    }
+
+    /**
+     * 获取采集健康状况(降级级别、丢失音频、各环节耗时), 未启动过时返回null
+     */
+    fun getCaptureHealth(): CaptureHealth? = healthMonitor?.getHealth()
+
+    /**
+     * 获取VAD占空比统计(PERFORMANCE档位时返回null)
+     */
+    fun getDutyCycleStats(): DutyCycleStats? = vadDetector?.getDutyCycleStats()
+
+    /**
+     * 获取流水线各阶段和队列的统计(未启动过时返回null)
+     */
+    fun getPipelineStats(): PipelineStats? = pipeline?.getStats()
 }
+
+/**
+ * 采集统计
+ * @param droppedFrames 因处理线程跟不上、队列已满而丢弃的帧数
+ * @param queueHighWatermark 帧队列历史最大深度
+ */
+data class CaptureStats(
+    val capturedFrames: Long,
+    val droppedFrames: Long,
+    val readErrors: Long,
+    val queueDepth: Int,
+    val queueHighWatermark: Int,
+    val queueCapacity: Int
+)
@@ -0,0 +1,178 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+import com.voicelife.assistant.vad.VadDetector
+
+/**
+ * 音频处理阶段
+ * AudioPipeline按顺序调用各阶段, 阶段之间通过FrameSink同步传递帧
+ *
+ * - 原地处理(增益、降噪): 修改frame后emit同一帧
+ * - 只观察(VAD、写文件、电平表): 读取后emit同一帧
+ * - 产生新帧(重采样): 从FramePool取帧, emit之后归还; 输入帧由上游负责
+ * - 不emit表示丢弃该帧
+ */
+interface AudioStage {
+    /** 名称, 用于统计和日志 */
+    val name: String
+
+    /**
+     * 校验输入格式并返回输出格式, 在AudioPipeline创建时按顺序调用一次
+     * 不支持输入格式时抛出IllegalArgumentException
+     */
+    fun configure(input: FrameFormat, pool: FramePool): FrameFormat = input
+
+    /**
+     * 处理一帧
+     * @param output 下游, emit返回时下游已处理完该帧
+     */
+    fun process(frame: AudioFrame, output: FrameSink)
+
+    /**
+     * 降级级别变化(由采集线程调用, 阶段应在自己的处理线程中生效)
+     */
+    fun setDegradation(level: DegradationLevel) {}
+
+    /**
+     * 清空内部状态(AudioPipeline停止时调用)
+     */
+    fun reset() {}
+}
+
+/**
+ * 帧的接收端
+ */
+fun interface FrameSink {
+    fun emit(frame: AudioFrame)
+}
+
+/**
+ * VAD阶段
+ * 执行VAD推理和状态机, 概率写入frame.vadProbability
+ *
+ * 降级:
+ * - SKIP_DIAGNOSTICS起不再扫描样本范围和输出调试日志
+ * - REDUCE_VAD_CADENCE起每2帧推理一次, 未推理的帧沿用上一帧概率, 状态机计时不变
+ */
+class VadStage(
+    private val vadDetector: VadDetector,
+    private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null
+) : AudioStage {
+    override val name = "vad"
+    private var frameCount = 0L
+    private var lastProbability = 0f
+
+    @Volatile
+    private var degradation = DegradationLevel.NORMAL
+
+    companion object {
+        private const val TAG = "VadStage"
+    }
+
+    override fun configure(input: FrameFormat, pool: FramePool): FrameFormat {
+        require(input.sampleRate == 16000) { "VAD requires 16kHz input, got ${input.sampleRate}" }
+        return input
+    }
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        frameCount++
+        val level = degradation
+        val diagnostics = level < DegradationLevel.SKIP_DIAGNOSTICS
+
+        // 诊断：检查原始音频数据
+        if (diagnostics && frameCount % 100 == 0L) {
+            var maxShort = Short.MIN_VALUE
+            var minShort = Short.MAX_VALUE
+            for (i in 0 until frame.length) {
+                val sample = frame.samples[i]
+                if (sample > maxShort) maxShort = sample
+                if (sample < minShort) minShort = sample
+            }
+            debugLogger?.d(TAG, "已处理 $frameCount 帧音频, 原始音频 - Short范围: [$minShort, $maxShort]")
+        }
+
+        // 送给VAD检测(降级时隔帧推理)
+        val probability = if (level >= DegradationLevel.REDUCE_VAD_CADENCE && frameCount % 2 == 0L) {
+            lastProbability
+        } else {
+            vadDetector.processFrame(frame.floats())
+        }
+        lastProbability = probability
+        frame.vadProbability = probability
+
+        // 每50帧输出一次VAD概率
+        if (diagnostics && frameCount % 50 == 0L) {
+            debugLogger?.d(TAG, "VAD概率: ${String.format("%.3f", probability)}")
+        }
+
+        // 根据VAD结果触发回调
+        vadDetector.handleVadResult(probability)
+        output.emit(frame)
+    }
+
+    override fun setDegradation(level: DegradationLevel) {
+        degradation = level
+    }
+
+    override fun reset() {
+        vadDetector.reset()
+        frameCount = 0
+        lastProbability = 0f
+        Log.d(TAG, "VAD stage reset")
+    }
+}
+
+/**
+ * 录音会话阶段
+ * 所有帧都写入会话(IDLE时只进入预缓冲)
+ * DEFER_FLUSHES时推迟录音文件写盘
+ */
+class RecordingSessionStage(private val session: RecordingSession) : AudioStage {
+    override val name = "session"
+
+    @Volatile
+    private var deferFlushes = false
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        // 在处理线程中切换, 写入器不需要同步
+        session.setFlushDeferred(deferFlushes)
+        session.writeAudioData(frame.samples, 0, frame.length)
+        output.emit(frame)
+    }
+
+    override fun setDegradation(level: DegradationLevel) {
+        deferFlushes = level >= DegradationLevel.DEFER_FLUSHES
+    }
+}
+
+/**
+ * 时光机阶段
+ * 所有帧连同VAD概率写入环形文件
+ */
+class CaptureRingStage(private val ring: CaptureRingFile) : AudioStage {
+    override val name = "ring"
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        val probability = if (frame.vadProbability.isNaN()) 0f else frame.vadProbability
+        ring.write(frame.samples, 0, frame.length, probability)
+        output.emit(frame)
+    }
+
+    override fun reset() {
+        ring.flush()
+    }
+}
+
+/**
+ * 监听阶段
+ * 把帧交给回调(如电平表)后原样传递, 回调中不应阻塞
+ */
+class TapStage(
+    override val name: String,
+    private val onFrame: (AudioFrame) -> Unit
+) : AudioStage {
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        onFrame(frame)
+        output.emit(frame)
+    }
+}
@@ -0,0 +1,385 @@
+package com.voicelife.assistant.recorder
+
+/**
+ * 降级级别
+ * 处理跟不上实时时逐级启用, 每一级包含之前各级
+ */
+enum class DegradationLevel {
+    /** 正常 */
+    NORMAL,
+
+    /** 跳过诊断(VAD的逐帧范围扫描和调试日志) */
+    SKIP_DIAGNOSTICS,
+
+    /** VAD每2帧推理一次, 中间帧沿用上一帧概率 */
+    REDUCE_VAD_CADENCE,
+
+    /** 录音文件攒更多数据再写盘, 暂停文件头刷新 */
+    DEFER_FLUSHES
+}
+
+/**
+ * 采集健康监控
+ * 在采集线程中运行, 检测处理是否跟得上实时以及是否丢失了音频, 据此自动升降降级级别
+ *
+ * 丢失音频的检测:
+ * - 有HAL时间戳(AudioRecord.getTimestamp)时, 把HAL已采集的帧位置外推到当前时刻,
+ *   与已读取的样本数比较, 两者的固定偏移取观察到的最小差值
+ *   上一次read等待了数据(耗时超过1/4帧)时缓冲区接近空, 差值中超过一帧的部分都已丢失;
+ *   否则缓冲区中可能还有数据, 只把超过AudioRecord缓冲区的部分计为丢失
+ * - 没有时间戳时退化为读取间隔检测: 两次read返回之间超过缓冲区时长的部分计为丢失
+ *   (不用墙钟累计, 避免墙钟与采样时钟的漂移被误报为丢失)
+ *
+ * 过载判定(每个评估窗口, 默认1秒, 满足任一条件):
+ * - 处理线程忙碌时间占比超过overloadUtilization
+ * - 输入队列深度超过容量的1/4, 或窗口内有丢帧
+ * - 窗口内有新的丢失音频, 或积压超过AudioRecord缓冲区的一半
+ *
+ * 过载时每个窗口升一级; 连续recoveryWindows个健康窗口(占比低于recoverUtilization且队列基本为空)降一级
+ * 降级后不久又过载(来回振荡)时, 恢复所需窗口数逐次加倍
+ *
+ * 采集中断: 音频服务断开(AudioRecord.ERROR_DEAD_OBJECT)时由调用方报告onCaptureLost,
+ * 重新创建AudioRecord后报告onCaptureRestored; 中断次数和时长立即反映在健康快照中
+ *
+ * 非线程安全, 只应在采集线程中调用; getHealth()可在任意线程调用
+ *
+ * @param bufferFrames AudioRecord缓冲区大小(帧)
+ * @param onLevelChanged 级别变化回调(在采集线程中调用)
+ */
+class CaptureHealthMonitor(
+    private val sampleRate: Int,
+    private val bufferFrames: Int,
+    private val evaluationIntervalMs: Long = 1000L,
+    private val overloadUtilization: Float = 0.7f,
+    private val recoverUtilization: Float = 0.5f,
+    private val recoveryWindows: Int = 5,
+    private val onLevelChanged: (DegradationLevel, String) -> Unit = { _, _ -> }
+) {
+    companion object {
+        private const val MAX_RECOVERY_BACKOFF = 4  // 恢复窗口最多加倍到16倍
+        private const val FLAP_WINDOWS = 30  // 降级后这么多个窗口内再次过载视为振荡
+    }
+
+    private val evaluationIntervalNanos = evaluationIntervalMs * 1_000_000L
+    private val bufferNanos = bufferFrames * 1_000_000_000L / sampleRate
+
+    private val readHistogram = LatencyHistogram()
+
+    // 采集进度
+    private var consumedSamples = 0L
+    private var lastReadEndNanos = 0L
+    private var lastReadSamples = 0
+    private var lastReadBlocked = false
+    private var positionOffset = Long.MAX_VALUE
+    private var lostSamples = 0L
+    private var backlogSamples = 0L
+    private var halTimestamps = false
+
+    // 评估窗口
+    private var windowStartNanos = 0L
+    private var windowBusyNanos = 0L
+    private var windowDroppedFrames = 0L
+    private var windowLostSamples = 0L
+    private var utilization = 0f
+
+    // 降级状态
+    private var level = DegradationLevel.NORMAL
+    private var levelChanges = 0
+    private var healthyWindows = 0
+    private var windowsSinceRecovery = Int.MAX_VALUE
+    private var recoveryBackoff = 0
+    private var degradedSinceNanos = 0L
+    private var degradedNanos = 0L
+
+    // 采集中断
+    private var captureFailures = 0
+    private var captureRestarts = 0
+    private var outageSinceNanos = 0L  // 0表示未中断
+    private var outageNanos = 0L
+
+    @Volatile
+    private var health = CaptureHealth()
+
+    /**
+     * 采集开始时调用
+     */
+    fun start(nowNanos: Long) {
+        readHistogram.reset()
+        consumedSamples = 0
+        lastReadEndNanos = nowNanos
+        lastReadSamples = 0
+        lastReadBlocked = false
+        positionOffset = Long.MAX_VALUE
+        lostSamples = 0
+        backlogSamples = 0
+        halTimestamps = false
+        windowStartNanos = nowNanos
+        windowBusyNanos = -1
+        windowDroppedFrames = 0
+        windowLostSamples = 0
+        utilization = 0f
+        healthyWindows = 0
+        windowsSinceRecovery = Int.MAX_VALUE
+        recoveryBackoff = 0
+        degradedNanos = 0
+        captureFailures = 0
+        captureRestarts = 0
+        outageSinceNanos = 0
+        outageNanos = 0
+        if (level != DegradationLevel.NORMAL) {
+            changeLevel(DegradationLevel.NORMAL, "capture restarted", nowNanos)
+        }
+        health = CaptureHealth()
+    }
+
+    /**
+     * 记录一次成功的read
+     * @param startNanos read开始时刻
+     * @param endNanos read返回时刻
+     * @param samples 读到的样本数
+     */
+    fun onRead(startNanos: Long, endNanos: Long, samples: Int) {
+        readHistogram.record(endNanos - startNanos)
+        consumedSamples += samples
+        lastReadSamples = samples
+        lastReadBlocked = (endNanos - startNanos) * 4 * sampleRate > samples * 1_000_000_000L
+
+        if (!halTimestamps) {
+            // 读取间隔超过缓冲区时长(加上本次读取的数据时长)时, 超出部分已被覆盖
+            val gapNanos = endNanos - lastReadEndNanos - bufferNanos - samples * 1_000_000_000L / sampleRate
+            if (gapNanos > 0 && consumedSamples > samples) {
+                lostSamples += gapNanos * sampleRate / 1_000_000_000L
+            }
+        }
+        lastReadEndNanos = endNanos
+    }
+
+    /**
+     * AudioRecord已失效(音频服务断开), 采集中断
+     */
+    fun onCaptureLost(nowNanos: Long) {
+        captureFailures++
+        if (outageSinceNanos == 0L) {
+            outageSinceNanos = nowNanos
+        }
+        publishCaptureState(nowNanos)
+    }
+
+    /**
+     * 重新创建的AudioRecord已开始采集
+     * 新实例的HAL帧位置从0开始, 重新建立偏移基准; 中断期间的空白不计入读取间隔检测的丢失
+     */
+    fun onCaptureRestored(nowNanos: Long) {
+        captureRestarts++
+        if (outageSinceNanos != 0L) {
+            outageNanos += nowNanos - outageSinceNanos
+            outageSinceNanos = 0
+        }
+        positionOffset = Long.MAX_VALUE
+        lastReadEndNanos = nowNanos
+        publishCaptureState(nowNanos)
+    }
+
+    /**
+     * 中断状态不等下一个评估窗口, 立即更新快照
+     */
+    private fun publishCaptureState(nowNanos: Long) {
+        health = health.copy(
+            captureFailures = captureFailures,
+            captureRestarts = captureRestarts,
+            outageMs = getOutageNanos(nowNanos) / 1_000_000,
+            captureDown = outageSinceNanos != 0L
+        )
+    }
+
+    private fun getOutageNanos(nowNanos: Long): Long =
+        outageNanos + if (outageSinceNanos != 0L) nowNanos - outageSinceNanos else 0
+
+    /**
+     * 是否到了下一个评估窗口
+     */
+    fun isEvaluationDue(nowNanos: Long): Boolean = nowNanos - windowStartNanos >= evaluationIntervalNanos
+
+    /**
+     * 结束一个评估窗口
+     * @param halFramePosition HAL时间戳的帧位置, 取不到时为-1
+     * @param halNanoTime HAL时间戳对应的时刻(与nowNanos同一时基)
+     * @param processingBusyNanos 处理线程累计忙碌时间
+     * @param pipelineStats 流水线统计, 取其中输入队列的深度和丢帧数、VAD和写文件阶段的耗时
+     */
+    fun evaluate(
+        nowNanos: Long,
+        halFramePosition: Long,
+        halNanoTime: Long,
+        processingBusyNanos: Long,
+        pipelineStats: PipelineStats
+    ) {
+        if (halFramePosition >= 0) {
+            halTimestamps = true
+            updateBacklog(nowNanos, halFramePosition, halNanoTime)
+        } else {
+            backlogSamples = 0
+        }
+
+        val windowNanos = (nowNanos - windowStartNanos).coerceAtLeast(1)
+        if (windowBusyNanos >= 0) {
+            utilization = ((processingBusyNanos - windowBusyNanos).toDouble() / windowNanos).toFloat()
+        }
+        windowBusyNanos = processingBusyNanos
+        windowStartNanos = nowNanos
+
+        val input = pipelineStats.queues.firstOrNull()
+        val dropped = input?.droppedFrames ?: 0L
+        val newDrops = dropped - windowDroppedFrames
+        windowDroppedFrames = dropped
+        val newLost = lostSamples - windowLostSamples
+        windowLostSamples = lostSamples
+        val depth = input?.depth ?: 0
+        val capacity = input?.capacity ?: 1
+
+        val reason = when {
+            newLost > 0 -> "lost ${newLost * 1000 / sampleRate}ms of audio"
+            newDrops > 0 -> "dropped $newDrops frames"
+            utilization > overloadUtilization -> "processing at ${(utilization * 100).toInt()}% of realtime"
+            depth * 4 > capacity -> "queue depth $depth/$capacity"
+            backlogSamples * 2 > bufferFrames -> "capture backlog ${backlogSamples * 1000 / sampleRate}ms"
+            else -> null
+        }
+        if (windowsSinceRecovery != Int.MAX_VALUE) windowsSinceRecovery++
+
+        if (reason != null) {
+            healthyWindows = 0
+            if (level.ordinal < DegradationLevel.values().size - 1) {
+                if (windowsSinceRecovery <= FLAP_WINDOWS) {
+                    recoveryBackoff = (recoveryBackoff + 1).coerceAtMost(MAX_RECOVERY_BACKOFF)
+                }
+                changeLevel(DegradationLevel.values()[level.ordinal + 1], reason, nowNanos)
+            }
+        } else if (level != DegradationLevel.NORMAL &&
+            utilization < recoverUtilization && depth * 16 <= capacity
+        ) {
+            healthyWindows++
+            if (healthyWindows >= recoveryWindows shl recoveryBackoff) {
+                healthyWindows = 0
+                windowsSinceRecovery = 0
+                changeLevel(DegradationLevel.values()[level.ordinal - 1], "load dropped", nowNanos)
+            }
+        } else {
+            healthyWindows = 0
+            if (level == DegradationLevel.NORMAL && windowsSinceRecovery > FLAP_WINDOWS) {
+                recoveryBackoff = 0
+            }
+        }
+
+        val stages = pipelineStats.stages
+        health = CaptureHealth(
+            level = level,
+            levelChanges = levelChanges,
+            degradedMs = (degradedNanos + if (level != DegradationLevel.NORMAL) nowNanos - degradedSinceNanos else 0) / 1_000_000,
+            lostMs = lostSamples * 1000 / sampleRate,
+            droppedFrames = dropped,
+            backlogMs = backlogSamples * 1000 / sampleRate,
+            queueDepth = depth,
+            queueCapacity = capacity,
+            utilization = utilization,
+            readP50Micros = readHistogram.getPercentileMicros(50.0),
+            readP99Micros = readHistogram.getPercentileMicros(99.0),
+            inferenceP99Micros = stages.find { it.name == "vad" }?.p99Micros ?: 0,
+            writeP99Micros = stages.find { it.name == "session" }?.p99Micros ?: 0,
+            halTimestamps = halTimestamps,
+            captureFailures = captureFailures,
+            captureRestarts = captureRestarts,
+            outageMs = getOutageNanos(nowNanos) / 1_000_000,
+            captureDown = outageSinceNanos != 0L
+        )
+    }
+
+    /**
+     * 用HAL帧位置计算积压和丢失
+     */
+    private fun updateBacklog(nowNanos: Long, framePosition: Long, nanoTime: Long) {
+        val position = framePosition + (nowNanos - nanoTime) * sampleRate / 1_000_000_000L
+        val difference = position - consumedSamples
+        if (difference < positionOffset) {
+            positionOffset = difference
+        }
+        val excess = difference - positionOffset
+        val buffered = if (lastReadBlocked) lastReadSamples else bufferFrames
+        if (excess - buffered > lostSamples) {
+            lostSamples = excess - buffered
+        }
+        backlogSamples = (excess - lostSamples).coerceAtLeast(0)
+    }
+
+    private fun changeLevel(newLevel: DegradationLevel, reason: String, nowNanos: Long) {
+        if (level == DegradationLevel.NORMAL) {
+            degradedSinceNanos = nowNanos
+        } else if (newLevel == DegradationLevel.NORMAL) {
+            degradedNanos += nowNanos - degradedSinceNanos
+        }
+        level = newLevel
+        levelChanges++
+        onLevelChanged(newLevel, reason)
+    }
+
+    /**
+     * 当前级别
+     */
+    fun getLevel(): DegradationLevel = level
+
+    /**
+     * 最近一次评估的快照
+     */
+    fun getHealth(): CaptureHealth = health
+}
+
+/**
+ * 采集健康快照
+ * @param degradedMs 累计处于降级状态的时长
+ * @param lostMs 估计丢失(AudioRecord缓冲区被覆盖)的音频时长
+ * @param droppedFrames 输入队列满时丢弃的帧数(音频已读出, 只是未处理)
+ * @param backlogMs AudioRecord中尚未读取的音频时长(仅有HAL时间戳时)
+ * @param utilization 最近一个窗口处理线程忙碌时间占比
+ * @param readP99Micros read调用耗时(含等待数据)
+ * @param inferenceP99Micros VAD阶段每帧耗时
+ * @param writeP99Micros 写录音文件阶段每帧耗时
+ * @param halTimestamps 是否使用HAL时间戳检测丢失
+ * @param captureFailures 音频服务断开导致AudioRecord失效的次数
+ * @param captureRestarts 重新创建AudioRecord成功的次数
+ * @param outageMs 累计采集中断时长
+ * @param captureDown 当前是否处于中断中(正在重建或已放弃)
+ */
+data class CaptureHealth(
+    val level: DegradationLevel = DegradationLevel.NORMAL,
+    val levelChanges: Int = 0,
+    val degradedMs: Long = 0,
+    val lostMs: Long = 0,
+    val droppedFrames: Long = 0,
+    val backlogMs: Long = 0,
+    val queueDepth: Int = 0,
+    val queueCapacity: Int = 0,
+    val utilization: Float = 0f,
+    val readP50Micros: Long = 0,
+    val readP99Micros: Long = 0,
+    val inferenceP99Micros: Long = 0,
+    val writeP99Micros: Long = 0,
+    val halTimestamps: Boolean = false,
+    val captureFailures: Int = 0,
+    val captureRestarts: Int = 0,
+    val outageMs: Long = 0,
+    val captureDown: Boolean = false
+) {
+    /**
+     * 是否有需要提示用户的问题(降级中、丢失了音频或采集中断过)
+     */
+    fun isImpaired(): Boolean =
+        level != DegradationLevel.NORMAL || lostMs > 0 || droppedFrames > 0 || captureFailures > 0
+
+    override fun toString(): String =
+        "采集健康: $level (切换${levelChanges}次, 降级${degradedMs / 1000}秒), " +
+                "丢失${lostMs}ms, 丢帧$droppedFrames, 积压${backlogMs}ms, " +
+                "队列$queueDepth/$queueCapacity, 负载${(utilization * 100).toInt()}%, " +
+                "read p50/p99 ${readP50Micros}/${readP99Micros}µs, " +
+                "VAD p99 ${inferenceP99Micros}µs, 写入 p99 ${writeP99Micros}µs, " +
+                "采集中断${captureFailures}次(恢复${captureRestarts}次, 共${outageMs}ms${if (captureDown) ", 中断中" else ""})"
+}
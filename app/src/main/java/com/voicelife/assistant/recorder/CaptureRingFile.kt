@@ -0,0 +1,499 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import kotlin.math.sqrt
+
+/**
+ * 时光机环形录音文件
+ * 把采集到的全部音频写入固定大小的内存映射环形文件, 保留最近N小时, 之后可按任意时间段回溯导出WAV
+ *
+ * 文件:
+ * - audio.ring: 原始16bit PCM, 大小为N小时, 首次创建时为稀疏文件
+ * - index.ring: 4KB文件头 + 每秒8字节的索引(秒序号、RMS、最大VAD概率、有声帧数)
+ *
+ * 写入:
+ * - 样本先攒到页大小(4KB)的暂存区, 再整页复制进当前映射段, 对磁盘始终是顺序追加
+ * - 只映射当前的240秒段(约7.3MB), 越过段边界时重新映射; 容量和段都是页的整数倍, 一页不会跨段
+ * - 写入的是内核页缓存, 进程被杀也不丢数据; 文件头中的写入位置每页更新一次
+ *
+ * 时间轴:
+ * - 样本序号k对应墙钟 anchorEpochMs + k / 16kHz, 录制停止后再次开始时跳到当前墙钟对应的秒
+ * - 跳过的秒在索引中没有匹配的记录, 导出时以静音填充
+ *
+ * 线程: write/resume/flush/close只由处理线程调用, extractClip/getSeconds可在其他线程调用
+ */
+class CaptureRingFile(
+    private val directory: File,
+    retentionHours: Int = 24,
+    private val voiceThreshold: Float = 0.5f,
+    private val clock: () -> Long = System::currentTimeMillis
+) : Closeable {
+    companion object {
+        private const val TAG = "CaptureRingFile"
+        private const val SAMPLE_RATE = 16000
+        private const val BYTES_PER_SECOND = SAMPLE_RATE * 2L
+        private const val PAGE_SIZE = 4096
+        private const val SEGMENT_SECONDS = 240L  // 3600的约数, 且为页大小的整数倍
+        private const val SEGMENT_BYTES = SEGMENT_SECONDS * BYTES_PER_SECOND
+
+        // 最旧的数据可能正被覆盖, 导出时留出安全区
+        private const val OVERWRITE_MARGIN_SECONDS = 60L
+
+        // index.ring文件头
+        private const val INDEX_MAGIC = 0x564E5247  // "VRNG"
+        private const val INDEX_VERSION = 1
+        private const val INDEX_HEADER_SIZE = 4096
+        private const val HEADER_ANCHOR_OFFSET = 16
+        private const val HEADER_WRITTEN_OFFSET = 24
+        private const val INDEX_ENTRY_SIZE = 8
+
+        private const val ZERO_CHUNK_SIZE = 64 * 1024
+    }
+
+    /** 保留的秒数 */
+    val capacitySeconds = retentionHours.coerceAtLeast(1) * 3600L
+    private val capacitySamples = capacitySeconds * SAMPLE_RATE
+    private val capacityBytes = capacitySeconds * BYTES_PER_SECOND
+
+    private val audioFile = File(directory, "audio.ring")
+    private val indexFile = File(directory, "index.ring")
+    private var audioChannel: FileChannel? = null
+    private var indexChannel: FileChannel? = null
+    private var index: MappedByteBuffer? = null
+
+    // 当前映射段
+    private var segment: MappedByteBuffer? = null
+    private var segmentIndex = -1L
+
+    // 页暂存区, stageLimit为到下一个页边界的字节数
+    private val stage = ByteArray(PAGE_SIZE)
+    private var stageBytes = 0
+    private var stageLimit = PAGE_SIZE
+
+    /** 时间轴起点(样本0对应的墙钟毫秒) */
+    @Volatile
+    var anchorEpochMs = 0L
+        private set
+
+    // 已接收的样本序号(含暂存区)
+    private var position = 0L
+
+    // 已写入映射文件的样本序号, 导出只读取此位置之前的数据
+    @Volatile
+    private var flushedSamples = 0L
+
+    // 当前秒的统计
+    private var secondSumSquares = 0.0
+    private var secondSamples = 0
+    private var secondMaxProbability = 0f
+    private var secondVoicedFrames = 0
+
+    @Volatile
+    private var pageWrites = 0L
+
+    /**
+     * 打开或创建环形文件
+     * 已有文件的容量不一致时重新创建
+     */
+    fun open() {
+        directory.mkdirs()
+
+        val indexSize = INDEX_HEADER_SIZE + capacitySeconds * INDEX_ENTRY_SIZE
+        val indexRaf = RandomAccessFile(indexFile, "rw")
+        val reuse = indexRaf.length() == indexSize && headerMatches(indexRaf)
+        if (!reuse) {
+            // 清空旧索引, 扩展出的部分为0
+            indexRaf.setLength(0)
+            indexRaf.setLength(indexSize)
+        }
+        indexChannel = indexRaf.channel
+        val mapped = indexRaf.channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize)
+        mapped.order(ByteOrder.LITTLE_ENDIAN)
+        index = mapped
+
+        if (reuse) {
+            anchorEpochMs = mapped.getLong(HEADER_ANCHOR_OFFSET)
+            flushedSamples = mapped.getLong(HEADER_WRITTEN_OFFSET)
+        } else {
+            anchorEpochMs = clock() / 1000 * 1000
+            flushedSamples = 0L
+            mapped.putInt(0, INDEX_MAGIC)
+            mapped.putInt(4, INDEX_VERSION)
+            mapped.putInt(8, SAMPLE_RATE)
+            mapped.putInt(12, capacitySeconds.toInt())
+            mapped.putLong(HEADER_ANCHOR_OFFSET, anchorEpochMs)
+            mapped.putLong(HEADER_WRITTEN_OFFSET, 0L)
+        }
+
+        val audioRaf = RandomAccessFile(audioFile, "rw")
+        if (audioRaf.length() != capacityBytes) {
+            audioRaf.setLength(capacityBytes)
+        }
+        audioChannel = audioRaf.channel
+
+        position = flushedSamples
+        resume()
+        Log.d(TAG, "Ring opened: ${capacitySeconds / 3600}h, reused: $reuse, written: ${flushedSamples / SAMPLE_RATE}s")
+    }
+
+    private fun headerMatches(raf: RandomAccessFile): Boolean {
+        val header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+        raf.channel.read(header, 0)
+        return header.getInt(0) == INDEX_MAGIC &&
+                header.getInt(4) == INDEX_VERSION &&
+                header.getInt(8) == SAMPLE_RATE &&
+                header.getInt(12).toLong() == capacitySeconds
+    }
+
+    /**
+     * 采集重新开始时调用
+     * 墙钟已走过的秒直接跳过, 使样本序号与墙钟对齐; 墙钟回拨时接着写
+     * 跳过前先把未满的一秒补齐静音
+     */
+    fun resume() {
+        flush()
+        val nowSecond = (clock() - anchorEpochMs) / 1000
+        val currentSecond = (position + SAMPLE_RATE - 1) / SAMPLE_RATE
+        if (nowSecond > currentSecond) {
+            padPartialSecond()
+            position = nowSecond * SAMPLE_RATE
+            flushedSamples = position
+            index?.putLong(HEADER_WRITTEN_OFFSET, flushedSamples)
+            resetSecondStats()
+        }
+        updateStageLimit()
+    }
+
+    /**
+     * 写入一帧样本
+     * @param vadProbability 该帧的VAD概率, 记入索引
+     */
+    fun write(samples: ShortArray, offset: Int, length: Int, vadProbability: Float) {
+        if (index == null) return
+
+        var pos = offset
+        var remaining = length
+        var frameCounted = false
+        while (remaining > 0) {
+            val secondEnd = (position / SAMPLE_RATE + 1) * SAMPLE_RATE
+            val count = minOf(remaining.toLong(), secondEnd - position).toInt()
+
+            for (i in pos until pos + count) {
+                val sample = samples[i].toDouble()
+                secondSumSquares += sample * sample
+            }
+            secondSamples += count
+            if (vadProbability > secondMaxProbability) secondMaxProbability = vadProbability
+            if (!frameCounted && vadProbability >= voiceThreshold) {
+                secondVoicedFrames++
+                frameCounted = true
+            }
+
+            stageSamples(samples, pos, count)
+            position += count
+            pos += count
+            remaining -= count
+
+            if (position == secondEnd) {
+                writeIndexEntry(position / SAMPLE_RATE - 1)
+                resetSecondStats()
+                // 跨秒的帧在下一秒也计一次
+                frameCounted = false
+            }
+        }
+    }
+
+    private fun stageSamples(samples: ShortArray, offset: Int, count: Int) {
+        var i = offset
+        val end = offset + count
+        while (i < end) {
+            val n = minOf(end - i, (stageLimit - stageBytes) / 2)
+            for (j in i until i + n) {
+                val sample = samples[j].toInt()
+                stage[stageBytes++] = sample.toByte()
+                stage[stageBytes++] = (sample shr 8).toByte()
+            }
+            i += n
+            if (stageBytes == stageLimit) flush()
+        }
+    }
+
+    /**
+     * 把暂存区写入映射文件
+     */
+    fun flush() {
+        if (stageBytes == 0) return
+
+        val ringOffset = flushedSamples % capacitySamples * 2
+        val target = mapSegment(ringOffset / SEGMENT_BYTES)
+        target.position((ringOffset % SEGMENT_BYTES).toInt())
+        target.put(stage, 0, stageBytes)
+
+        flushedSamples += stageBytes / 2
+        stageBytes = 0
+        pageWrites++
+        index?.putLong(HEADER_WRITTEN_OFFSET, flushedSamples)
+        updateStageLimit()
+    }
+
+    private fun updateStageLimit() {
+        val ringOffset = flushedSamples % capacitySamples * 2
+        stageLimit = PAGE_SIZE - (ringOffset % PAGE_SIZE).toInt()
+    }
+
+    private fun mapSegment(segmentNumber: Long): MappedByteBuffer {
+        val current = segment
+        if (current != null && segmentIndex == segmentNumber) return current
+
+        val channel = audioChannel ?: throw IOException("Ring file not open")
+        val mapped = channel.map(FileChannel.MapMode.READ_WRITE, segmentNumber * SEGMENT_BYTES, SEGMENT_BYTES)
+        segment = mapped
+        segmentIndex = segmentNumber
+        return mapped
+    }
+
+    /**
+     * 停止前最后不足一秒的部分用静音补齐, 避免导出时带出上一轮的旧数据
+     */
+    private fun padPartialSecond() {
+        val missing = ((SAMPLE_RATE - position % SAMPLE_RATE) % SAMPLE_RATE).toInt()
+        if (missing == 0) return
+        val silence = ShortArray(minOf(missing, PAGE_SIZE / 2))
+        var remaining = missing
+        while (remaining > 0) {
+            val count = minOf(remaining, silence.size)
+            write(silence, 0, count, 0f)
+            remaining -= count
+        }
+        flush()
+    }
+
+    private fun writeIndexEntry(second: Long) {
+        val buffer = index ?: return
+        val rms = sqrt(secondSumSquares / secondSamples.coerceAtLeast(1)).toInt().coerceAtMost(Short.MAX_VALUE.toInt())
+        val base = INDEX_HEADER_SIZE + (second % capacitySeconds).toInt() * INDEX_ENTRY_SIZE
+        buffer.putShort(base + 4, rms.toShort())
+        buffer.put(base + 6, (secondMaxProbability.coerceIn(0f, 1f) * 255).toInt().toByte())
+        buffer.put(base + 7, secondVoicedFrames.coerceAtMost(255).toByte())
+        // 秒序号最后写, 读取方以它判断记录是否有效
+        buffer.putInt(base, (second + 1).toInt())
+    }
+
+    private fun resetSecondStats() {
+        secondSumSquares = 0.0
+        secondSamples = 0
+        secondMaxProbability = 0f
+        secondVoicedFrames = 0
+    }
+
+    /**
+     * 检查某一秒是否已录制(索引有匹配记录, 或是正在写入的一秒)
+     */
+    private fun isRecorded(second: Long, flushed: Long): Boolean {
+        if (second >= flushed / SAMPLE_RATE) return true
+        val buffer = index ?: return false
+        val base = INDEX_HEADER_SIZE + (second % capacitySeconds).toInt() * INDEX_ENTRY_SIZE
+        return buffer.getInt(base) == (second + 1).toInt()
+    }
+
+    /**
+     * 可导出的样本范围(最旧的数据留出覆盖安全区)
+     */
+    private fun retainedRange(flushed: Long): LongRange {
+        val oldest = (flushed - capacitySamples + OVERWRITE_MARGIN_SECONDS * SAMPLE_RATE).coerceAtLeast(0L)
+        return oldest until flushed
+    }
+
+    /**
+     * 按墙钟时间段导出WAV
+     * 已录制部分用FileChannel.transferTo直接从环形文件复制, 未录制的秒填充静音
+     *
+     * @return 导出结果; 时间段不在保留范围内时返回null
+     */
+    fun extractClip(startEpochMs: Long, endEpochMs: Long, outputFile: File): RingClip? {
+        val source = audioChannel ?: return null
+        val flushed = flushedSamples
+        val retained = retainedRange(flushed)
+        val startSample = maxOf((startEpochMs - anchorEpochMs) * SAMPLE_RATE / 1000, retained.first)
+        val endSample = minOf((endEpochMs - anchorEpochMs) * SAMPLE_RATE / 1000, flushed)
+        if (endSample <= startSample) return null
+
+        val sampleCount = endSample - startSample
+        var recordedSamples = 0L
+        outputFile.parentFile?.mkdirs()
+        RandomAccessFile(outputFile, "rw").use { raf ->
+            raf.setLength(0)
+            val out = raf.channel
+            val header = ByteBuffer.allocate(44)
+            WavFileWriter.fillHeader(header, sampleCount * 2)
+            header.flip()
+            while (header.hasRemaining()) out.write(header)
+
+            // 按秒分成已录制/未录制的连续段
+            var runStart = startSample
+            while (runStart < endSample) {
+                val recorded = isRecorded(runStart / SAMPLE_RATE, flushed)
+                var runEnd = runStart
+                while (runEnd < endSample && isRecorded(runEnd / SAMPLE_RATE, flushed) == recorded) {
+                    runEnd = minOf((runEnd / SAMPLE_RATE + 1) * SAMPLE_RATE, endSample)
+                }
+
+                if (recorded) {
+                    transferRing(source, runStart, runEnd - runStart, out)
+                    recordedSamples += runEnd - runStart
+                } else {
+                    writeSilence(out, (runEnd - runStart) * 2)
+                }
+                runStart = runEnd
+            }
+        }
+
+        // 复制期间写入位置越过了安全区, 开头部分可能已被覆盖
+        if (flushedSamples - capacitySamples > startSample) {
+            outputFile.delete()
+            throw IOException("Clip overwritten during extraction")
+        }
+
+        Log.d(TAG, "Clip extracted: ${outputFile.name}, ${sampleCount / SAMPLE_RATE}s")
+        return RingClip(
+            file = outputFile,
+            startEpochMs = anchorEpochMs + startSample * 1000 / SAMPLE_RATE,
+            sampleCount = sampleCount,
+            recordedSamples = recordedSamples
+        )
+    }
+
+    /**
+     * 从环形文件复制样本, 跨越文件末尾时分两段
+     */
+    private fun transferRing(source: FileChannel, startSample: Long, count: Long, target: FileChannel) {
+        var offset = startSample % capacitySamples * 2
+        var remaining = count * 2
+        while (remaining > 0) {
+            val length = minOf(remaining, capacityBytes - offset)
+            var transferred = 0L
+            while (transferred < length) {
+                val n = source.transferTo(offset + transferred, length - transferred, target)
+                if (n <= 0) throw IOException("transferTo stalled at ${offset + transferred}")
+                transferred += n
+            }
+            remaining -= length
+            offset = 0
+        }
+    }
+
+    private fun writeSilence(target: FileChannel, bytes: Long) {
+        val zeros = ByteBuffer.allocate(minOf(bytes, ZERO_CHUNK_SIZE.toLong()).toInt())
+        var remaining = bytes
+        while (remaining > 0) {
+            zeros.clear()
+            zeros.limit(minOf(remaining, zeros.capacity().toLong()).toInt())
+            while (zeros.hasRemaining()) remaining -= target.write(zeros)
+        }
+    }
+
+    /**
+     * 读取时间段内每秒的索引(只返回已录制的秒)
+     * 用于在时间轴上显示人声分布, 或挑选要导出的片段
+     */
+    fun getSeconds(startEpochMs: Long, endEpochMs: Long): List<RingSecond> {
+        val buffer = index ?: return emptyList()
+        val flushed = flushedSamples
+        val retained = retainedRange(flushed)
+        val firstSecond = maxOf((startEpochMs - anchorEpochMs) / 1000, (retained.first + SAMPLE_RATE - 1) / SAMPLE_RATE)
+        val lastSecond = minOf((endEpochMs - anchorEpochMs + 999) / 1000, flushed / SAMPLE_RATE)
+
+        val seconds = ArrayList<RingSecond>()
+        for (second in firstSecond until lastSecond) {
+            val base = INDEX_HEADER_SIZE + (second % capacitySeconds).toInt() * INDEX_ENTRY_SIZE
+            if (buffer.getInt(base) != (second + 1).toInt()) continue
+            seconds.add(
+                RingSecond(
+                    epochMs = anchorEpochMs + second * 1000,
+                    rms = buffer.getShort(base + 4).toInt(),
+                    maxVadProbability = (buffer.get(base + 6).toInt() and 0xFF) / 255f,
+                    voicedFrames = buffer.get(base + 7).toInt() and 0xFF
+                )
+            )
+        }
+        return seconds
+    }
+
+    /**
+     * 获取环形文件统计
+     */
+    fun getStats(): RingStats {
+        val flushed = flushedSamples
+        val retained = retainedRange(flushed)
+        return RingStats(
+            capacitySeconds = capacitySeconds,
+            oldestEpochMs = anchorEpochMs + retained.first * 1000 / SAMPLE_RATE,
+            newestEpochMs = anchorEpochMs + flushed * 1000 / SAMPLE_RATE,
+            pageWrites = pageWrites
+        )
+    }
+
+    override fun close() {
+        try {
+            flush()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to flush ring", e)
+        }
+        segment = null
+        segmentIndex = -1
+        index = null
+        audioChannel?.close()
+        audioChannel = null
+        indexChannel?.close()
+        indexChannel = null
+        Log.d(TAG, "Ring closed")
+    }
+}
+
+/**
+ * 环形文件导出的片段
+ * @param recordedSamples 实际录制的样本数, 其余为填充的静音
+ */
+data class RingClip(
+    val file: File,
+    val startEpochMs: Long,
+    val sampleCount: Long,
+    val recordedSamples: Long
+) {
+    fun getDurationMs(): Long = sampleCount * 1000 / 16000
+}
+
+/**
+ * 每秒索引
+ * @param rms 该秒样本的均方根(0~32767)
+ * @param voicedFrames 该秒VAD概率超过阈值的帧数
+ */
+data class RingSecond(
+    val epochMs: Long,
+    val rms: Int,
+    val maxVadProbability: Float,
+    val voicedFrames: Int
+) {
+    fun isVoiced(): Boolean = voicedFrames > 0
+}
+
+/**
+ * 环形文件统计
+ * @param pageWrites 整页写入映射文件的次数
+ */
+data class RingStats(
+    val capacitySeconds: Long,
+    val oldestEpochMs: Long,
+    val newestEpochMs: Long,
+    val pageWrites: Long
+) {
+    fun getRetainedSeconds(): Long = (newestEpochMs - oldestEpochMs) / 1000
+}
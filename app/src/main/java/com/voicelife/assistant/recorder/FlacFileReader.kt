@@ -0,0 +1,402 @@
+package com.voicelife.assistant.recorder
+
+import java.io.BufferedInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * FLAC文件读取器
+ * 逐帧流式解码, 每帧校验头部CRC-8和整帧CRC-16, 校验失败抛出IOException
+ *
+ * 仅支持单声道、16bit(FlacFileWriter的输出及同参数的标准FLAC文件);
+ * 支持全部子帧类型、wasted bits和Rice escape分区
+ *
+ * 进程被杀留下的文件末尾可能有半帧, 读到半帧时按文件结束处理;
+ * validSamples/validEndOffset记录最后一个完整且校验通过的帧, 用于修复(FlacFileWriter.repair)
+ */
+class FlacFileReader(private val inputFile: File) : AudioFileReader {
+    private val input = BitInput(BufferedInputStream(FileInputStream(inputFile), 64 * 1024))
+
+    private var maxBlockSize = 0
+    private var bitsPerSample = 0
+    private var decoded = IntArray(0)
+    private val lpcCoefficients = IntArray(32)
+    private var decodedPosition = 0
+    private var decodedCount = 0
+    private var finished = false
+
+    /** 采样率 */
+    override var sampleRate = 0
+        private set
+
+    /** 声道数 */
+    override var channels = 0
+        private set
+
+    /** STREAMINFO中的样本总数(0表示未知) */
+    override var totalSamples = 0L
+        private set
+
+    /** 已解码的帧数 */
+    var framesDecoded = 0L
+        private set
+
+    /** 已解码的完整帧中的样本数 */
+    var validSamples = 0L
+        private set
+
+    /** 最后一个完整帧的结束位置(字节), 还没有解码任何帧时为元数据的结束位置 */
+    var validEndOffset = 0L
+        private set
+
+    init {
+        try {
+            readMetadata()
+        } catch (e: Exception) {
+            input.close()
+            throw e
+        }
+    }
+
+    /**
+     * 解析"fLaC"标记和元数据块, 停在第一帧之前
+     */
+    private fun readMetadata() {
+        if (input.bits(32) != 0x664C6143) {  // "fLaC"
+            throw IOException("Not a FLAC file: ${inputFile.name}")
+        }
+
+        var last = false
+        var hasStreamInfo = false
+        while (!last) {
+            last = input.bits(1) == 1
+            val type = input.bits(7)
+            val length = input.bits(24)
+
+            if (type == 0) {
+                input.bits(16)  // 最小块大小
+                maxBlockSize = input.bits(16)
+                input.bits(24)  // 最小帧大小
+                input.bits(24)  // 最大帧大小
+                sampleRate = input.bits(20)
+                channels = input.bits(3) + 1
+                bitsPerSample = input.bits(5) + 1
+                totalSamples = (input.bits(4).toLong() shl 32) or (input.bits(32).toLong() and 0xFFFFFFFFL)
+                input.skipBytes(16L)  // MD5
+                input.skipBytes(length - 34L)
+                hasStreamInfo = true
+            } else {
+                input.skipBytes(length.toLong())
+            }
+        }
+
+        if (!hasStreamInfo) throw IOException("Missing STREAMINFO: ${inputFile.name}")
+        validEndOffset = input.bytePosition()
+        if (channels != 1 || bitsPerSample != 16) {
+            throw IOException("Unsupported FLAC stream: $channels channels, $bitsPerSample bit")
+        }
+        decoded = IntArray(maxBlockSize.coerceAtLeast(1))
+    }
+
+    override fun read(frame: ShortArray, offset: Int, length: Int): Int {
+        var copied = 0
+        while (copied < length) {
+            if (decodedPosition == decodedCount) {
+                if (finished || !decodeFrame()) break
+            }
+
+            val count = minOf(length - copied, decodedCount - decodedPosition)
+            for (i in 0 until count) {
+                frame[offset + copied + i] = decoded[decodedPosition + i].toShort()
+            }
+            decodedPosition += count
+            copied += count
+        }
+        return copied
+    }
+
+    /**
+     * 解码下一帧
+     * @return 文件结束时返回false
+     */
+    private fun decodeFrame(): Boolean {
+        try {
+            input.resetCrc()
+            if (!input.hasMoreBytes()) {
+                finished = true
+                return false
+            }
+
+            // 帧头
+            if (input.bits(15) != 0x7FFC) throw IOException("Lost frame sync in ${inputFile.name}")
+            input.bits(1)  // 块大小策略
+            val blockSizeCode = input.bits(4)
+            val sampleRateCode = input.bits(4)
+            val channelAssignment = input.bits(4)
+            val sampleSizeCode = input.bits(3)
+            input.bits(1)
+            if (channelAssignment != 0 || (sampleSizeCode != 0 && sampleSizeCode != 0b100)) {
+                throw IOException("Unsupported FLAC frame in ${inputFile.name}")
+            }
+            readUtf8()
+            val blockSize = when (blockSizeCode) {
+                1 -> 192
+                in 2..5 -> 576 shl (blockSizeCode - 2)
+                6 -> input.bits(8) + 1
+                7 -> input.bits(16) + 1
+                in 8..15 -> 256 shl (blockSizeCode - 8)
+                else -> throw IOException("Reserved block size in ${inputFile.name}")
+            }
+            when (sampleRateCode) {
+                12 -> input.bits(8)
+                13, 14 -> input.bits(16)
+            }
+            if (blockSize > decoded.size) throw IOException("Block size $blockSize > $maxBlockSize")
+            val headerCrc = input.crc8
+            if (input.bits(8) != headerCrc) throw IOException("Frame header CRC mismatch in ${inputFile.name}")
+
+            decodeSubframe(blockSize)
+
+            // 帧尾
+            input.alignToByte()
+            val frameCrc = input.crc16
+            if (input.bits(16) != frameCrc) throw IOException("Frame CRC mismatch in ${inputFile.name}")
+
+            decodedPosition = 0
+            decodedCount = blockSize
+            framesDecoded++
+            validSamples += blockSize
+            validEndOffset = input.bytePosition()
+            return true
+        } catch (e: EOFException) {
+            // 半帧: 未正确结束的文件
+            finished = true
+            return false
+        }
+    }
+
+    private fun decodeSubframe(blockSize: Int) {
+        if (input.bits(1) != 0) throw IOException("Invalid subframe in ${inputFile.name}")
+        val type = input.bits(6)
+        val wastedBits = if (input.bits(1) == 1) input.unary() + 1 else 0
+        val sampleBits = bitsPerSample - wastedBits
+        val x = decoded
+
+        when {
+            type == 0 -> x.fill(input.signed(sampleBits), 0, blockSize)
+            type == 1 -> for (i in 0 until blockSize) x[i] = input.signed(sampleBits)
+            type in 8..12 -> {
+                val order = type - 8
+                for (i in 0 until order) x[i] = input.signed(sampleBits)
+                readResidual(blockSize, order)
+                restoreFixed(blockSize, order)
+            }
+            type >= 32 -> {
+                val order = type - 31
+                for (i in 0 until order) x[i] = input.signed(sampleBits)
+                val precision = input.bits(4) + 1
+                if (precision == 16) throw IOException("Invalid LPC precision in ${inputFile.name}")
+                val shift = input.signed(5)
+                if (shift < 0) throw IOException("Negative LPC shift in ${inputFile.name}")
+                val coefficients = lpcCoefficients
+                for (i in 0 until order) coefficients[i] = input.signed(precision)
+                readResidual(blockSize, order)
+                for (i in order until blockSize) {
+                    var sum = 0L
+                    for (j in 0 until order) {
+                        sum += coefficients[j].toLong() * x[i - j - 1]
+                    }
+                    x[i] += (sum shr shift).toInt()
+                }
+            }
+            else -> throw IOException("Reserved subframe type $type in ${inputFile.name}")
+        }
+
+        if (wastedBits > 0) {
+            for (i in 0 until blockSize) x[i] = x[i] shl wastedBits
+        }
+    }
+
+    private fun restoreFixed(blockSize: Int, order: Int) {
+        val x = decoded
+        when (order) {
+            0 -> Unit
+            1 -> for (i in 1 until blockSize) x[i] += x[i - 1]
+            2 -> for (i in 2 until blockSize) x[i] += 2 * x[i - 1] - x[i - 2]
+            3 -> for (i in 3 until blockSize) x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3]
+            else -> for (i in 4 until blockSize) {
+                x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4]
+            }
+        }
+    }
+
+    /**
+     * 读取分区Rice编码的残差, 写入decoded[order until blockSize]
+     */
+    private fun readResidual(blockSize: Int, order: Int) {
+        val method = input.bits(2)
+        if (method > 1) throw IOException("Reserved residual coding in ${inputFile.name}")
+        val parameterBits = if (method == 0) 4 else 5
+        val escape = (1 shl parameterBits) - 1
+
+        val partitionOrder = input.bits(4)
+        val partitions = 1 shl partitionOrder
+        val partitionSize = blockSize shr partitionOrder
+        var index = order
+        for (p in 0 until partitions) {
+            val count = partitionSize - if (p == 0) order else 0
+            val k = input.bits(parameterBits)
+            if (k == escape) {
+                val rawBits = input.bits(5)
+                repeat(count) { decoded[index++] = input.signed(rawBits) }
+            } else {
+                repeat(count) {
+                    val u = (input.unary() shl k) or input.bits(k)
+                    decoded[index++] = (u ushr 1) xor -(u and 1)
+                }
+            }
+        }
+    }
+
+    private fun readUtf8() {
+        val first = input.bits(8)
+        val extra = when {
+            first < 0x80 -> 0
+            first < 0xE0 -> 1
+            first < 0xF0 -> 2
+            first < 0xF8 -> 3
+            first < 0xFC -> 4
+            first < 0xFE -> 5
+            else -> 6
+        }
+        repeat(extra) { input.bits(8) }
+    }
+
+    override fun close() {
+        input.close()
+    }
+
+    /**
+     * MSB优先的位读取器, 按字节取数并同时累计CRC-8/CRC-16
+     * 读取总是按整字节从流中取, 字节对齐时CRC恰好覆盖已消费的字节
+     */
+    private class BitInput(private val stream: InputStream) {
+        private var cache = 0L
+        private var cacheBits = 0
+        private var bytesRead = 0L
+
+        var crc8 = 0
+            private set
+        var crc16 = 0
+            private set
+
+        fun resetCrc() {
+            crc8 = 0
+            crc16 = 0
+        }
+
+        /**
+         * 已消费的字节数(字节对齐时有效)
+         */
+        fun bytePosition(): Long = bytesRead - cacheBits / 8
+
+        /**
+         * 字节对齐时检查是否还有数据
+         */
+        fun hasMoreBytes(): Boolean {
+            if (cacheBits > 0) return true
+            return fill(false)
+        }
+
+        private fun fill(required: Boolean): Boolean {
+            val b = stream.read()
+            if (b < 0) {
+                if (required) throw EOFException()
+                return false
+            }
+            bytesRead++
+            crc8 = CRC8_TABLE[crc8 xor b]
+            crc16 = ((crc16 shl 8) xor CRC16_TABLE[(crc16 shr 8) xor b]) and 0xFFFF
+            cache = (cache shl 8) or b.toLong()
+            cacheBits += 8
+            return true
+        }
+
+        /**
+         * 读取count位无符号数(0~32)
+         */
+        fun bits(count: Int): Int {
+            if (count == 0) return 0
+            while (cacheBits < count) fill(true)
+            cacheBits -= count
+            return ((cache ushr cacheBits) and ((1L shl count) - 1)).toInt()
+        }
+
+        /**
+         * 读取count位有符号数(补码)
+         */
+        fun signed(count: Int): Int {
+            if (count == 0) return 0
+            val value = bits(count)
+            return (value shl (32 - count)) shr (32 - count)
+        }
+
+        /**
+         * 读取一元编码: 连续的0直到1, 返回0的个数
+         */
+        fun unary(): Int {
+            var zeros = 0
+            while (true) {
+                if (cacheBits == 0) fill(true)
+                val pending = cache and ((1L shl cacheBits) - 1)
+                if (pending == 0L) {
+                    zeros += cacheBits
+                    cacheBits = 0
+                } else {
+                    val leading = java.lang.Long.numberOfLeadingZeros(pending) - (64 - cacheBits)
+                    zeros += leading
+                    cacheBits -= leading + 1
+                    return zeros
+                }
+            }
+        }
+
+        fun alignToByte() {
+            cacheBits -= cacheBits and 7
+        }
+
+        fun skipBytes(count: Long) {
+            var remaining = count
+            while (remaining > 0 && cacheBits >= 8) {
+                cacheBits -= 8
+                remaining--
+            }
+            while (remaining > 0) {
+                val skipped = stream.skip(remaining)
+                if (skipped <= 0) throw EOFException()
+                remaining -= skipped
+                bytesRead += skipped
+            }
+        }
+
+        fun close() {
+            stream.close()
+        }
+
+        companion object {
+            private val CRC8_TABLE = IntArray(256) { i ->
+                var crc = i
+                repeat(8) { crc = if (crc and 0x80 != 0) (crc shl 1) xor 0x07 else crc shl 1 }
+                crc and 0xFF
+            }
+            private val CRC16_TABLE = IntArray(256) { i ->
+                var crc = i shl 8
+                repeat(8) { crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x8005 else crc shl 1 }
+                crc and 0xFFFF
+            }
+        }
+    }
+}
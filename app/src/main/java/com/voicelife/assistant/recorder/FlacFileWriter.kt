@@ -0,0 +1,1028 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+
+/**
+ * FLAC文件写入器
+ * 纯Kotlin的流式无损编码器, 每攒满一个块(默认4096样本, 256ms)就编码并追加一帧
+ *
+ * 文件结构:
+ * - "fLaC"标记
+ * - STREAMINFO (34字节): 块大小、帧大小范围、采样参数、总样本数、MD5
+ * - SEEKTABLE (预留SEEK_POINTS个点, 未用的点为占位点)
+ * - 音频帧
+ *
+ * 每帧只有一个子帧(单声道), 按估算的位数在以下几种里选最小的:
+ * - CONSTANT: 整块同一个值(数字静音)
+ * - FIXED: 0~4阶固定多项式预测
+ * - LPC: 加窗自相关 + Levinson-Durbin, 按预测误差估算选阶数, 系数量化为12位
+ * - VERBATIM: 以上都不比原始数据小时直接存储
+ * 残差使用分区Rice编码, 分区阶数和每个分区的Rice参数都按位数估算选择
+ *
+ * 写入策略与WavFileWriter一致:
+ * - 编码后的帧攒在复用的直接缓冲区里, 满flushIntervalMs的音频才写一次FileChannel
+ * - 每写满headerRefreshIntervalMs的音频就用定位写更新STREAMINFO和SEEKTABLE,
+ *   进程被杀时文件仍可解码(MD5记为全0, 表示未知)
+ * - 元数据中的总样本数最多落后一个刷新间隔(不足一个间隔时为0, 即未知),
+ *   进程被杀后用repair()逐帧解码得到实际样本数并修复元数据
+ * - 推迟写盘(setFlushDeferred)时攒满deferredFlushIntervalMs才写, 期间不刷新元数据
+ *
+ * seek table:
+ * - 初始每seekPointIntervalMs记录一个点(帧起始样本、帧相对第一帧的字节偏移)
+ * - 预留的点用完后丢弃一半并把间隔加倍, 任意时长的录音都不需要移动已写入的数据
+ *
+ * 音频参数与WavFileWriter相同: 16kHz, 单声道, 16bit
+ *
+ * @param blockSize 每帧样本数
+ * @param maxLpcOrder LPC最高阶数(1~32)
+ * @param flushIntervalMs 写盘间隔(按音频时长计)
+ * @param headerRefreshIntervalMs 文件头刷新间隔(按音频时长计)
+ * @param seekPointIntervalMs 初始seek点间隔(按音频时长计)
+ * @param deferredFlushIntervalMs 推迟写盘时的写盘间隔
+ */
+class FlacFileWriter(
+    private val outputFile: File,
+    private val blockSize: Int = 4096,
+    maxLpcOrder: Int = 8,
+    flushIntervalMs: Long = 1000L,
+    headerRefreshIntervalMs: Long = 5000L,
+    seekPointIntervalMs: Long = 10_000L,
+    deferredFlushIntervalMs: Long = 4000L
+) : AudioFileWriter {
+    private val sampleRate = 16000
+    private val channels = 1
+    private val bitsPerSample = 16
+
+    private val maxLpcOrder = maxLpcOrder.coerceIn(1, MAX_LPC_ORDER)
+    private val headerRefreshSamples = (headerRefreshIntervalMs * sampleRate / 1000).coerceAtLeast(1)
+
+    // 当前块
+    private val block = IntArray(blockSize)
+    private var blockFill = 0
+
+    // 编码用的复用缓冲区
+    private val fixedResidual = IntArray(blockSize)
+    private val lpcResidual = IntArray(blockSize)
+    private val window = DoubleArray(blockSize) { welch(it, blockSize) }
+    private val windowed = DoubleArray(blockSize)
+    private val autocorrelation = DoubleArray(MAX_LPC_ORDER + 1)
+    private val lpcCoefficients = Array(MAX_LPC_ORDER) { DoubleArray(MAX_LPC_ORDER) }
+    private val lpcErrors = DoubleArray(MAX_LPC_ORDER)
+    private val levinsonScratch = DoubleArray(MAX_LPC_ORDER)
+    private val qlpCoefficients = IntArray(MAX_LPC_ORDER)
+    private val partitionSums = LongArray(1 shl MAX_PARTITION_ORDER)
+    private val riceParameters = IntArray(1 shl MAX_PARTITION_ORDER)
+    private var qlpShift = 0
+    private var bestPartitionOrder = 0
+
+    private val frameBits = BitWriter(blockSize * 2 + 64)
+    private val md5 = MessageDigest.getInstance("MD5")
+    private val md5Bytes = ByteArray(blockSize * 2)
+    private val contentHash = PcmContentHash()
+
+    // 输出缓冲区: 攒满约flushIntervalMs的编码数据再写盘
+    // 按推迟写盘的间隔分配, 正常时用limit限制
+    private val flushBytes = (flushIntervalMs * sampleRate / 1000 * 2).toInt().coerceAtLeast(blockSize * 2 + 64)
+    private val outputBuffer: ByteBuffer = ByteBuffer.allocateDirect(
+        maxOf(flushBytes.toLong(), deferredFlushIntervalMs * sampleRate / 1000 * 2).toInt()
+    )
+    private var flushDeferred = false
+    private val headerBuffer: ByteBuffer = ByteBuffer.allocateDirect(METADATA_SIZE)
+
+    // seek table
+    private var seekPointInterval = (seekPointIntervalMs * sampleRate / 1000).coerceAtLeast(blockSize.toLong())
+    private val seekSamples = LongArray(SEEK_POINTS)
+    private val seekOffsets = LongArray(SEEK_POINTS)
+    private val seekFrameSamples = IntArray(SEEK_POINTS)
+    private var seekPointCount = 0
+    private var nextSeekSample = 0L
+
+    private var raf: RandomAccessFile? = null
+    private var channel: FileChannel? = null
+    private var sampleCount = 0L        // 已接收的样本数(含未编码部分)
+    private var encodedSamples = 0L     // 已编码成帧的样本数
+    private var encodedBytes = 0L       // 已编码的帧字节数
+    private var flushedSamples = 0L     // 已写盘的样本数
+    private var headerSamples = 0L      // 文件头中记录的样本数
+    private var frameNumber = 0L
+    private var minFrameSize = Int.MAX_VALUE
+    private var maxFrameSize = 0
+
+    // 统计
+    private var writeCalls = 0L
+    private var encodeNanos = 0L
+
+    companion object {
+        private const val TAG = "FlacFileWriter"
+
+        private const val MAX_LPC_ORDER = 32
+        private const val MAX_FIXED_ORDER = 4
+        private const val MAX_PARTITION_ORDER = 8
+        private const val MAX_RICE_PARAMETER = 14   // 4bit参数, 15保留为escape
+        private const val QLP_PRECISION = 12
+        private const val MIN_LPC_BLOCK = 64        // 太短的块只用FIXED
+
+        private const val SEEK_POINTS = 128
+        private const val SEEK_POINT_SIZE = 18
+        private const val STREAMINFO_SIZE = 34
+        private const val SEEKTABLE_SIZE = SEEK_POINTS * SEEK_POINT_SIZE
+        private const val METADATA_SIZE = 4 + 4 + STREAMINFO_SIZE + 4 + SEEKTABLE_SIZE
+        private const val STREAMINFO_HEADER_OFFSET = 4
+        private const val TOTAL_SAMPLES_OFFSET = 8 + 10    // 采样参数和总样本数所在的8字节
+        private const val SEEKTABLE_HEADER_OFFSET = 8 + STREAMINFO_SIZE
+        private const val SEEKTABLE_OFFSET = SEEKTABLE_HEADER_OFFSET + 4
+
+        private const val SUBFRAME_CONSTANT = 0
+        private const val SUBFRAME_VERBATIM = 1
+        private const val SUBFRAME_FIXED = 8
+        private const val SUBFRAME_LPC = 32
+
+        private val CRC8_TABLE = IntArray(256) { i ->
+            var crc = i
+            repeat(8) { crc = if (crc and 0x80 != 0) (crc shl 1) xor 0x07 else crc shl 1 }
+            crc and 0xFF
+        }
+        private val CRC16_TABLE = IntArray(256) { i ->
+            var crc = i shl 8
+            repeat(8) { crc = if (crc and 0x8000 != 0) (crc shl 1) xor 0x8005 else crc shl 1 }
+            crc and 0xFFFF
+        }
+
+        /**
+         * 修复未正确结束的FLAC文件(进程被杀时元数据中的总样本数落后于已写盘的帧)
+         * 只处理本类写出的文件(固定的元数据布局); 逐帧解码到最后一个完整且校验通过的帧,
+         * 截掉之后的半帧, 按解码得到的样本数改写STREAMINFO, 并清除指向截掉部分的seek点
+         * MD5保持原样(未正确结束的文件为全0, 表示未知)
+         *
+         * @return 修复后的样本数
+         * @throws IOException 不是本类写出的FLAC文件
+         */
+        fun repair(file: File): Long {
+            RandomAccessFile(file, "rw").use { raf ->
+                val channel = raf.channel
+                val metadata = ByteBuffer.allocate(METADATA_SIZE)
+                while (metadata.hasRemaining()) {
+                    if (channel.read(metadata, metadata.position().toLong()) < 0) {
+                        throw IOException("FLAC metadata truncated: ${file.name}")
+                    }
+                }
+                if (metadata.getInt(0) != 0x664C6143 ||  // "fLaC"
+                    metadata.getInt(STREAMINFO_HEADER_OFFSET) != STREAMINFO_SIZE ||
+                    metadata.getInt(SEEKTABLE_HEADER_OFFSET) != ((0x80 or 3) shl 24 or SEEKTABLE_SIZE)
+                ) {
+                    throw IOException("Not written by FlacFileWriter: ${file.name}")
+                }
+
+                val samples: Long
+                val validEnd: Long
+                FlacFileReader(file).use { reader ->
+                    val scratch = ShortArray(4096)
+                    try {
+                        while (reader.read(scratch) > 0) {
+                            // 只为统计完整帧
+                        }
+                    } catch (e: IOException) {
+                        // 校验失败的帧及之后的数据不可用
+                        Log.w(TAG, "Corrupt frame after ${reader.validSamples} samples in ${file.name}: ${e.message}")
+                    }
+                    samples = reader.validSamples
+                    validEnd = reader.validEndOffset
+                }
+
+                if (raf.length() != validEnd) {
+                    raf.setLength(validEnd)
+                }
+
+                val info = metadata.getLong(TOTAL_SAMPLES_OFFSET)
+                val headerSamples = info and 0xFFFFFFFFFL
+                if (headerSamples != samples) {
+                    val field = ByteBuffer.allocate(8)
+                    field.putLong(0, (info and 0xFFFFFFFFFL.inv()) or (samples and 0xFFFFFFFFFL))
+                    channel.write(field, TOTAL_SAMPLES_OFFSET.toLong())
+
+                    // 占位点之前的seek点按样本号升序, 指向截掉部分的改为占位点
+                    val placeholder = ByteBuffer.allocate(SEEK_POINT_SIZE)
+                    placeholder.putLong(0, -1L)
+                    for (i in 0 until SEEK_POINTS) {
+                        val position = SEEKTABLE_OFFSET + i * SEEK_POINT_SIZE
+                        val sample = metadata.getLong(position)
+                        if (sample == -1L) break
+                        if (sample >= samples) {
+                            placeholder.clear()
+                            channel.write(placeholder, position.toLong())
+                        }
+                    }
+                    Log.d(TAG, "Repaired FLAC metadata: ${file.name}, $headerSamples -> $samples samples")
+                }
+                return samples
+            }
+        }
+
+        private fun welch(i: Int, n: Int): Double {
+            val half = (n - 1) / 2.0
+            val x = (i - half) / (half + 1)
+            return 1.0 - x * x
+        }
+    }
+
+    /**
+     * 开始写入
+     * 创建文件并写入占位的元数据块
+     */
+    override fun start() {
+        try {
+            outputFile.parentFile?.mkdirs()
+
+            raf = RandomAccessFile(outputFile, "rw").apply { setLength(0) }
+            channel = raf!!.channel
+
+            blockFill = 0
+            sampleCount = 0
+            encodedSamples = 0
+            encodedBytes = 0
+            flushedSamples = 0
+            headerSamples = 0
+            frameNumber = 0
+            minFrameSize = Int.MAX_VALUE
+            maxFrameSize = 0
+            seekPointCount = 0
+            nextSeekSample = 0
+            md5.reset()
+            contentHash.reset()
+            resetOutputBuffer()
+
+            writeMetadata(null)
+            channel!!.position(METADATA_SIZE.toLong())
+            Log.d(TAG, "Started writing FLAC file: ${outputFile.absolutePath}")
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start FLAC writer", e)
+            throw e
+        }
+    }
+
+    /**
+     * 写入音频数据
+     * @param audioData PCM音频样本 (16bit signed)
+     */
+    fun write(audioData: ShortArray) {
+        write(audioData, 0, audioData.size)
+    }
+
+    /**
+     * 写入音频数据的一段
+     * 每攒满一个块就编码一帧
+     */
+    override fun write(audioData: ShortArray, offset: Int, length: Int) {
+        if (channel == null) return
+
+        try {
+            var position = offset
+            val end = offset + length
+            while (position < end) {
+                val count = minOf(end - position, blockSize - blockFill)
+                for (i in 0 until count) {
+                    block[blockFill + i] = audioData[position + i].toInt()
+                }
+                blockFill += count
+                position += count
+
+                if (blockFill == blockSize) {
+                    encodeBlock(blockSize)
+                }
+            }
+            contentHash.write(audioData, offset, length)
+            sampleCount += length
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to write audio data", e)
+            throw e
+        }
+    }
+
+    /**
+     * 停止写入
+     * 编码最后一个不完整的块, 写入完整的STREAMINFO(含MD5)和SEEKTABLE并关闭文件
+     */
+    override fun stop() {
+        try {
+            if (channel != null && blockFill > 0) {
+                encodeBlock(blockFill)
+            }
+            flush()
+            if (channel != null) {
+                writeMetadata(md5.digest())
+            }
+
+            channel?.close()
+            raf?.close()
+            channel = null
+            raf = null
+
+            val ratio = if (sampleCount > 0) outputFile.length() * 100 / (sampleCount * 2) else 0
+            Log.d(
+                TAG,
+                "Stopped writing FLAC file: ${outputFile.name}, size: ${outputFile.length()} bytes " +
+                        "(${ratio}% of PCM), frames: $frameNumber, writes: $writeCalls, " +
+                        "encode: ${encodeNanos / 1_000_000}ms"
+            )
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to stop FLAC writer", e)
+        }
+    }
+
+    /**
+     * 将缓冲区中的帧写入文件
+     * 达到头刷新间隔时同时更新元数据
+     */
+    fun flush() {
+        val fileChannel = channel ?: return
+        if (outputBuffer.position() > 0) {
+            outputBuffer.flip()
+            while (outputBuffer.hasRemaining()) {
+                fileChannel.write(outputBuffer)
+            }
+            resetOutputBuffer()
+            writeCalls++
+            flushedSamples = encodedSamples
+        }
+
+        if (!flushDeferred && flushedSamples - headerSamples >= headerRefreshSamples) {
+            try {
+                writeMetadata(null)
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to update FLAC metadata", e)
+            }
+        }
+    }
+
+    override fun setFlushDeferred(deferred: Boolean) {
+        if (flushDeferred == deferred) return
+        flushDeferred = deferred
+        when {
+            deferred -> outputBuffer.limit(outputBuffer.capacity())
+            outputBuffer.position() >= flushBytes -> flush()
+            else -> outputBuffer.limit(flushBytes)
+        }
+    }
+
+    private fun resetOutputBuffer() {
+        outputBuffer.clear()
+        if (!flushDeferred) {
+            outputBuffer.limit(flushBytes)
+        }
+    }
+
+    // ==================== 帧编码 ====================
+
+    /**
+     * 编码block中的前n个样本为一帧
+     */
+    private fun encodeBlock(n: Int) {
+        val startNanos = System.nanoTime()
+
+        updateMd5(n)
+        addSeekPoint(n)
+
+        val bits = frameBits
+        bits.reset()
+
+        // 帧头: 同步码 + 固定块大小策略
+        bits.writeBits(0xFFF8, 16)
+        val blockSizeCode = blockSizeCode(n)
+        bits.writeBits(blockSizeCode, 4)
+        bits.writeBits(if (sampleRate == 16000) 0b0101 else 0b0000, 4)
+        bits.writeBits(0b0000, 4)  // 单声道
+        bits.writeBits(0b100, 3)   // 16bit
+        bits.writeBits(0, 1)
+        writeUtf8(bits, frameNumber)
+        when (blockSizeCode) {
+            6 -> bits.writeBits(n - 1, 8)
+            7 -> bits.writeBits(n - 1, 16)
+        }
+        bits.writeBits(crc8(bits.bytes, bits.byteCount()), 8)
+
+        encodeSubframe(n)
+
+        // 帧尾: 字节对齐 + CRC-16
+        bits.alignToByte()
+        bits.writeBits(crc16(bits.bytes, bits.byteCount()), 16)
+
+        val frameSize = bits.byteCount()
+        if (outputBuffer.remaining() < frameSize) {
+            flush()
+        }
+        outputBuffer.put(bits.bytes, 0, frameSize)
+
+        minFrameSize = minOf(minFrameSize, frameSize)
+        maxFrameSize = maxOf(maxFrameSize, frameSize)
+        encodedSamples += n
+        encodedBytes += frameSize
+        frameNumber++
+        blockFill = 0
+
+        encodeNanos += System.nanoTime() - startNanos
+    }
+
+    /**
+     * 选择并写入子帧
+     */
+    private fun encodeSubframe(n: Int) {
+        val bits = frameBits
+
+        // 整块相同(数字静音)
+        val first = block[0]
+        var constant = true
+        for (i in 1 until n) {
+            if (block[i] != first) {
+                constant = false
+                break
+            }
+        }
+        if (constant) {
+            bits.writeBits(SUBFRAME_CONSTANT shl 1, 8)
+            bits.writeBits(first, bitsPerSample)
+            return
+        }
+
+        val verbatimBits = 8L + n.toLong() * bitsPerSample
+
+        val fixedOrder = selectFixedOrder(n)
+        computeFixedResidual(n, fixedOrder, fixedResidual)
+        val fixedBits = 8L + fixedOrder * bitsPerSample + riceBits(fixedResidual, n, fixedOrder)
+
+        var lpcOrder = 0
+        var lpcBits = Long.MAX_VALUE
+        if (n == blockSize && n >= MIN_LPC_BLOCK) {
+            lpcOrder = computeLpc(n)
+            if (lpcOrder > 0) {
+                computeLpcResidual(n, lpcOrder, lpcResidual)
+                lpcBits = 8L + lpcOrder * bitsPerSample + 4 + 5 + lpcOrder * QLP_PRECISION +
+                        riceBits(lpcResidual, n, lpcOrder)
+            }
+        }
+
+        when {
+            verbatimBits <= minOf(fixedBits, lpcBits) -> {
+                bits.writeBits(SUBFRAME_VERBATIM shl 1, 8)
+                for (i in 0 until n) {
+                    bits.writeBits(block[i], bitsPerSample)
+                }
+            }
+            fixedBits <= lpcBits -> {
+                bits.writeBits((SUBFRAME_FIXED or fixedOrder) shl 1, 8)
+                for (i in 0 until fixedOrder) {
+                    bits.writeBits(block[i], bitsPerSample)
+                }
+                if (lpcOrder > 0) {
+                    // LPC的riceBits覆盖了分区参数, 按选中的残差重新计算
+                    riceBits(fixedResidual, n, fixedOrder)
+                }
+                writeResidual(fixedResidual, n, fixedOrder)
+            }
+            else -> {
+                bits.writeBits((SUBFRAME_LPC or (lpcOrder - 1)) shl 1, 8)
+                for (i in 0 until lpcOrder) {
+                    bits.writeBits(block[i], bitsPerSample)
+                }
+                bits.writeBits(QLP_PRECISION - 1, 4)
+                bits.writeBits(qlpShift, 5)
+                for (i in 0 until lpcOrder) {
+                    bits.writeBits(qlpCoefficients[i], QLP_PRECISION)
+                }
+                writeResidual(lpcResidual, n, lpcOrder)
+            }
+        }
+    }
+
+    /**
+     * 用各阶差分的绝对值和选择FIXED预测阶数
+     */
+    private fun selectFixedOrder(n: Int): Int {
+        if (n <= MAX_FIXED_ORDER) return 0
+
+        var sum0 = 0L
+        var sum1 = 0L
+        var sum2 = 0L
+        var sum3 = 0L
+        var sum4 = 0L
+        var prev0 = block[3]
+        var prev1 = prev0 - block[2]
+        var prev2 = prev1 - (block[2] - block[1])
+        var prev3 = prev2 - (block[2] - 2 * block[1] + block[0])
+        for (i in MAX_FIXED_ORDER until n) {
+            val e0 = block[i]
+            val e1 = e0 - prev0
+            val e2 = e1 - prev1
+            val e3 = e2 - prev2
+            val e4 = e3 - prev3
+            sum0 += kotlin.math.abs(e0)
+            sum1 += kotlin.math.abs(e1)
+            sum2 += kotlin.math.abs(e2)
+            sum3 += kotlin.math.abs(e3)
+            sum4 += kotlin.math.abs(e4)
+            prev0 = e0
+            prev1 = e1
+            prev2 = e2
+            prev3 = e3
+        }
+
+        var order = 0
+        var best = sum0
+        if (sum1 < best) { order = 1; best = sum1 }
+        if (sum2 < best) { order = 2; best = sum2 }
+        if (sum3 < best) { order = 3; best = sum3 }
+        if (sum4 < best) { order = 4 }
+        return order
+    }
+
+    private fun computeFixedResidual(n: Int, order: Int, residual: IntArray) {
+        val x = block
+        when (order) {
+            0 -> for (i in 0 until n) residual[i] = x[i]
+            1 -> for (i in 1 until n) residual[i] = x[i] - x[i - 1]
+            2 -> for (i in 2 until n) residual[i] = x[i] - 2 * x[i - 1] + x[i - 2]
+            3 -> for (i in 3 until n) residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3]
+            else -> for (i in 4 until n) {
+                residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4]
+            }
+        }
+    }
+
+    /**
+     * 计算并量化LPC系数
+     * @return 选中的阶数, 0表示不适合LPC
+     */
+    private fun computeLpc(n: Int): Int {
+        // 加窗 + 自相关
+        for (i in 0 until n) {
+            windowed[i] = block[i] * window[i]
+        }
+        for (lag in 0..maxLpcOrder) {
+            var sum = 0.0
+            for (i in lag until n) {
+                sum += windowed[i] * windowed[i - lag]
+            }
+            autocorrelation[lag] = sum
+        }
+        if (autocorrelation[0] <= 0.0) return 0
+
+        // Levinson-Durbin, 同时得到每一阶的系数和预测误差
+        val lpc = levinsonScratch
+        var error = autocorrelation[0]
+        var maxOrder = maxLpcOrder
+        for (i in 0 until maxLpcOrder) {
+            var r = -autocorrelation[i + 1]
+            for (j in 0 until i) {
+                r -= lpc[j] * autocorrelation[i - j]
+            }
+            r /= error
+
+            lpc[i] = r
+            for (j in 0 until i / 2) {
+                val tmp = lpc[j]
+                lpc[j] += r * lpc[i - 1 - j]
+                lpc[i - 1 - j] += r * tmp
+            }
+            if (i % 2 == 1) {
+                lpc[i / 2] += lpc[i / 2] * r
+            }
+
+            error *= 1.0 - r * r
+            for (j in 0..i) {
+                lpcCoefficients[i][j] = -lpc[j]
+            }
+            lpcErrors[i] = error
+            if (error <= 0.0) {
+                maxOrder = i + 1
+                break
+            }
+        }
+
+        // 按预测误差估算每阶的总位数, 选最小的
+        var bestOrder = 1
+        var bestBits = Double.MAX_VALUE
+        for (order in 1..maxOrder) {
+            val bitsPerResidual = expectedBitsPerResidual(lpcErrors[order - 1], n)
+            val total = bitsPerResidual * (n - order) + order * (bitsPerSample + QLP_PRECISION)
+            if (total < bestBits) {
+                bestBits = total
+                bestOrder = order
+            }
+        }
+
+        return if (quantizeCoefficients(lpcCoefficients[bestOrder - 1], bestOrder)) bestOrder else 0
+    }
+
+    private fun expectedBitsPerResidual(error: Double, n: Int): Double {
+        if (error <= 0.0) return 0.0
+        val bits = 0.5 * kotlin.math.ln(error * 0.5 / n) / kotlin.math.ln(2.0)
+        return if (bits >= 0.0) bits else 0.0
+    }
+
+    /**
+     * 把系数量化为QLP_PRECISION位整数, 量化误差向后传递
+     * @return 系数全为0时返回false
+     */
+    private fun quantizeCoefficients(coefficients: DoubleArray, order: Int): Boolean {
+        var cmax = 0.0
+        for (i in 0 until order) {
+            cmax = maxOf(cmax, kotlin.math.abs(coefficients[i]))
+        }
+        if (cmax <= 0.0) return false
+
+        val qmax = (1 shl (QLP_PRECISION - 1)) - 1
+        val qmin = -(1 shl (QLP_PRECISION - 1))
+        // 最大系数量化后落在[2^(p-2), 2^(p-1)), 给误差传递留出余量; 规范不允许负的shift
+        qlpShift = (QLP_PRECISION - 2 - Math.getExponent(cmax)).coerceIn(0, 15)
+
+        val scale = (1 shl qlpShift).toDouble()
+        var error = 0.0
+        for (i in 0 until order) {
+            error += coefficients[i] * scale
+            val q = Math.round(error).toInt().coerceIn(qmin, qmax)
+            error -= q
+            qlpCoefficients[i] = q
+        }
+        return true
+    }
+
+    private fun computeLpcResidual(n: Int, order: Int, residual: IntArray) {
+        val x = block
+        val q = qlpCoefficients
+        val shift = qlpShift
+        for (i in order until n) {
+            var sum = 0L
+            for (j in 0 until order) {
+                sum += q[j].toLong() * x[i - j - 1]
+            }
+            residual[i] = x[i] - (sum shr shift).toInt()
+        }
+    }
+
+    // ==================== Rice编码 ====================
+
+    /**
+     * 计算残差的Rice编码位数(含编码方式和分区头)
+     * 同时把最优分区阶数和各分区参数留在bestPartitionOrder / riceParameters中
+     */
+    private fun riceBits(residual: IntArray, n: Int, order: Int): Long {
+        // 最大分区阶数: 块大小能整除, 且每个分区比预测阶数长
+        var maxPartitionOrder = minOf(MAX_PARTITION_ORDER, Integer.numberOfTrailingZeros(n))
+        while (maxPartitionOrder > 0 && (n shr maxPartitionOrder) <= order) {
+            maxPartitionOrder--
+        }
+
+        // 最细一级的分区和
+        val partitions = 1 shl maxPartitionOrder
+        val partitionSize = n shr maxPartitionOrder
+        var index = order
+        for (p in 0 until partitions) {
+            val end = (p + 1) * partitionSize
+            var sum = 0L
+            while (index < end) {
+                val r = residual[index]
+                sum += ((r shl 1) xor (r shr 31)).toLong()
+                index++
+            }
+            partitionSums[p] = sum
+        }
+
+        // 逐级合并, 比较每一级的总位数
+        var bestBits = Long.MAX_VALUE
+        var bestOrder = 0
+        var level = maxPartitionOrder
+        while (level >= 0) {
+            val count = 1 shl level
+            var bits = 0L
+            for (p in 0 until count) {
+                val samples = (n shr level) - if (p == 0) order else 0
+                bits += 4 + partitionBits(partitionSums[p], samples)
+            }
+            if (bits < bestBits) {
+                bestBits = bits
+                bestOrder = level
+            }
+            if (level > 0) {
+                for (p in 0 until count / 2) {
+                    partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1]
+                }
+            }
+            level--
+        }
+
+        // 重新计算选中级别的分区参数
+        bestPartitionOrder = bestOrder
+        val count = 1 shl bestOrder
+        val size = n shr bestOrder
+        index = order
+        for (p in 0 until count) {
+            val end = (p + 1) * size
+            var sum = 0L
+            while (index < end) {
+                val r = residual[index]
+                sum += ((r shl 1) xor (r shr 31)).toLong()
+                index++
+            }
+            riceParameters[p] = riceParameter(sum, size - if (p == 0) order else 0)
+        }
+
+        return 2 + 4 + bestBits
+    }
+
+    private fun riceParameter(sum: Long, samples: Int): Int {
+        var k = 0
+        while (k < MAX_RICE_PARAMETER && (samples.toLong() shl (k + 1)) < sum) {
+            k++
+        }
+        return k
+    }
+
+    private fun partitionBits(sum: Long, samples: Int): Long {
+        val k = riceParameter(sum, samples)
+        return samples.toLong() * (k + 1) + (sum shr k)
+    }
+
+    private fun writeResidual(residual: IntArray, n: Int, order: Int) {
+        val bits = frameBits
+        bits.writeBits(0, 2)  // 4bit Rice参数
+        bits.writeBits(bestPartitionOrder, 4)
+
+        val count = 1 shl bestPartitionOrder
+        val size = n shr bestPartitionOrder
+        var index = order
+        for (p in 0 until count) {
+            val k = riceParameters[p]
+            bits.writeBits(k, 4)
+            val end = (p + 1) * size
+            val lowMask = (1 shl k) - 1
+            while (index < end) {
+                val r = residual[index]
+                val u = (r shl 1) xor (r shr 31)
+                val quotient = u ushr k
+                if (quotient + 1 + k <= 32) {
+                    bits.writeBits((1 shl k) or (u and lowMask), quotient + 1 + k)
+                } else {
+                    bits.writeZeros(quotient)
+                    bits.writeBits((1 shl k) or (u and lowMask), k + 1)
+                }
+                index++
+            }
+        }
+    }
+
+    // ==================== 元数据 ====================
+
+    private fun updateMd5(n: Int) {
+        for (i in 0 until n) {
+            val sample = block[i]
+            md5Bytes[2 * i] = sample.toByte()
+            md5Bytes[2 * i + 1] = (sample shr 8).toByte()
+        }
+        md5.update(md5Bytes, 0, n * 2)
+    }
+
+    /**
+     * 帧起点越过下一个seek位置时记录一个点, 点用完时间隔加倍
+     */
+    private fun addSeekPoint(n: Int) {
+        if (encodedSamples < nextSeekSample) return
+
+        if (seekPointCount == SEEK_POINTS) {
+            var kept = 0
+            for (i in 0 until SEEK_POINTS step 2) {
+                seekSamples[kept] = seekSamples[i]
+                seekOffsets[kept] = seekOffsets[i]
+                seekFrameSamples[kept] = seekFrameSamples[i]
+                kept++
+            }
+            seekPointCount = kept
+            seekPointInterval *= 2
+            nextSeekSample = seekSamples[kept - 1] + seekPointInterval
+            if (encodedSamples < nextSeekSample) return
+        }
+
+        seekSamples[seekPointCount] = encodedSamples
+        seekOffsets[seekPointCount] = encodedBytes
+        seekFrameSamples[seekPointCount] = n
+        seekPointCount++
+        nextSeekSample = encodedSamples + seekPointInterval
+    }
+
+    /**
+     * 写入"fLaC"标记、STREAMINFO和SEEKTABLE
+     * @param digest 音频MD5, null表示未知(全0)
+     */
+    private fun writeMetadata(digest: ByteArray?) {
+        val fileChannel = channel ?: return
+        val header = headerBuffer
+        header.clear()
+
+        header.put('f'.code.toByte()).put('L'.code.toByte()).put('a'.code.toByte()).put('C'.code.toByte())
+
+        // STREAMINFO
+        header.putInt(STREAMINFO_SIZE)  // 非最后一块, 类型0
+        header.putShort(blockSize.toShort())
+        header.putShort(blockSize.toShort())
+        putInt24(header, if (maxFrameSize > 0) minFrameSize else 0)
+        putInt24(header, maxFrameSize)
+        val total = flushedSamples and 0xFFFFFFFFFL
+        // 采样率20bit | 声道数-1 3bit | 位深-1 5bit | 总样本数36bit
+        header.putLong(
+            (sampleRate.toLong() shl 44) or
+                    ((channels - 1).toLong() shl 41) or
+                    ((bitsPerSample - 1).toLong() shl 36) or
+                    total
+        )
+        if (digest != null) {
+            header.put(digest)
+        } else {
+            repeat(16) { header.put(0) }
+        }
+
+        // SEEKTABLE(最后一个元数据块, 类型3)
+        header.putInt((0x80 or 3) shl 24 or SEEKTABLE_SIZE)
+        for (i in 0 until SEEK_POINTS) {
+            // 只引用已写盘的帧, 进程被杀后seek点不会指向不存在的数据
+            if (i < seekPointCount && seekSamples[i] < flushedSamples) {
+                header.putLong(seekSamples[i])
+                header.putLong(seekOffsets[i])
+                header.putShort(seekFrameSamples[i].toShort())
+            } else {
+                header.putLong(-1L)  // 占位点
+                header.putLong(0L)
+                header.putShort(0)
+            }
+        }
+
+        header.flip()
+        var position = 0L
+        while (header.hasRemaining()) {
+            position += fileChannel.write(header, position)
+        }
+        headerSamples = flushedSamples
+    }
+
+    private fun putInt24(buffer: ByteBuffer, value: Int) {
+        buffer.put((value shr 16).toByte())
+        buffer.put((value shr 8).toByte())
+        buffer.put(value.toByte())
+    }
+
+    private fun blockSizeCode(n: Int): Int = when (n) {
+        192 -> 1
+        576 -> 2
+        1152 -> 3
+        2304 -> 4
+        4608 -> 5
+        256 -> 8
+        512 -> 9
+        1024 -> 10
+        2048 -> 11
+        4096 -> 12
+        8192 -> 13
+        16384 -> 14
+        32768 -> 15
+        else -> if (n <= 256) 6 else 7
+    }
+
+    /**
+     * 帧号的UTF-8式变长编码
+     */
+    private fun writeUtf8(bits: BitWriter, value: Long) {
+        val v = value.toInt()
+        when {
+            v < 0x80 -> bits.writeBits(v, 8)
+            v < 0x800 -> {
+                bits.writeBits(0xC0 or (v shr 6), 8)
+                bits.writeBits(0x80 or (v and 0x3F), 8)
+            }
+            v < 0x10000 -> {
+                bits.writeBits(0xE0 or (v shr 12), 8)
+                bits.writeBits(0x80 or ((v shr 6) and 0x3F), 8)
+                bits.writeBits(0x80 or (v and 0x3F), 8)
+            }
+            v < 0x200000 -> {
+                bits.writeBits(0xF0 or (v shr 18), 8)
+                bits.writeBits(0x80 or ((v shr 12) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 6) and 0x3F), 8)
+                bits.writeBits(0x80 or (v and 0x3F), 8)
+            }
+            v < 0x4000000 -> {
+                bits.writeBits(0xF8 or (v shr 24), 8)
+                bits.writeBits(0x80 or ((v shr 18) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 12) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 6) and 0x3F), 8)
+                bits.writeBits(0x80 or (v and 0x3F), 8)
+            }
+            else -> {
+                bits.writeBits(0xFC or (v shr 30), 8)
+                bits.writeBits(0x80 or ((v shr 24) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 18) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 12) and 0x3F), 8)
+                bits.writeBits(0x80 or ((v shr 6) and 0x3F), 8)
+                bits.writeBits(0x80 or (v and 0x3F), 8)
+            }
+        }
+    }
+
+    private fun crc8(data: ByteArray, length: Int): Int {
+        var crc = 0
+        for (i in 0 until length) {
+            crc = CRC8_TABLE[(crc xor data[i].toInt()) and 0xFF]
+        }
+        return crc
+    }
+
+    private fun crc16(data: ByteArray, length: Int): Int {
+        var crc = 0
+        for (i in 0 until length) {
+            crc = ((crc shl 8) xor CRC16_TABLE[((crc shr 8) xor data[i].toInt()) and 0xFF]) and 0xFFFF
+        }
+        return crc
+    }
+
+    /**
+     * 获取已接收的样本数
+     */
+    override fun getSampleCount(): Long = sampleCount
+
+    override fun getContentHash(): String = contentHash.getHex()
+
+    /**
+     * 获取已编码的帧字节数(不含元数据)
+     */
+    fun getEncodedBytes(): Long = encodedBytes
+
+    /**
+     * 获取写盘次数(每次对应一次write系统调用)
+     */
+    fun getWriteCalls(): Long = writeCalls
+
+    /**
+     * 获取累计编码耗时(纳秒)
+     */
+    fun getEncodeNanos(): Long = encodeNanos
+
+    /**
+     * 检查是否正在写入
+     */
+    override fun isWriting(): Boolean = channel != null
+
+    /**
+     * MSB优先的位写入器, 写入复用的字节数组, 不足时扩容
+     */
+    private class BitWriter(initialCapacity: Int) {
+        var bytes = ByteArray(initialCapacity)
+            private set
+        private var position = 0
+        private var accumulator = 0L
+        private var pendingBits = 0
+
+        fun reset() {
+            position = 0
+            accumulator = 0L
+            pendingBits = 0
+        }
+
+        /**
+         * 写入value的低count位(0~32)
+         */
+        fun writeBits(value: Int, count: Int) {
+            if (count == 0) return
+            accumulator = (accumulator shl count) or (value.toLong() and ((1L shl count) - 1))
+            pendingBits += count
+            while (pendingBits >= 8) {
+                pendingBits -= 8
+                if (position == bytes.size) {
+                    bytes = bytes.copyOf(bytes.size * 2)
+                }
+                bytes[position++] = (accumulator ushr pendingBits).toByte()
+            }
+        }
+
+        fun writeZeros(count: Int) {
+            var remaining = count
+            while (remaining > 0) {
+                val n = minOf(remaining, 32)
+                writeBits(0, n)
+                remaining -= n
+            }
+        }
+
+        fun alignToByte() {
+            if (pendingBits > 0) {
+                writeBits(0, 8 - pendingBits)
+            }
+        }
+
+        /**
+         * 已完成的字节数(仅在字节对齐时等于总长度)
+         */
+        fun byteCount(): Int = position
+    }
+}
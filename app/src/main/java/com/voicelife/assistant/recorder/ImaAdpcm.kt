@@ -0,0 +1,140 @@
+package com.voicelife.assistant.recorder
+
+/**
+ * IMA ADPCM编解码(单声道, Microsoft WAV块格式, wFormatTag = 0x0011)
+ *
+ * 块结构:
+ * - 4字节块头: 首样本(int16, 小端) + 步长索引(uint8) + 保留(0)
+ * - 其余每字节两个样本, 先低4位后高4位
+ * - 每块样本数 = (blockAlign - 4) * 2 + 1
+ *
+ * 每个样本4bit, 相对16bit PCM约4:1; 步长索引跨块延续, 首样本在块头中无损保存
+ */
+object ImaAdpcm {
+    const val FORMAT_TAG = 0x0011
+    const val BITS_PER_SAMPLE = 4
+    const val BLOCK_HEADER_SIZE = 4
+
+    private val STEP_TABLE = intArrayOf(
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17,
+        19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118,
+        130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+        337, 371, 408, 449, 494, 544, 598, 658, 724, 796,
+        876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+        2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+        5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    )
+    private val INDEX_TABLE = intArrayOf(-1, -1, -1, -1, 2, 4, 6, 8)
+
+    /**
+     * 每块样本数
+     */
+    fun samplesPerBlock(blockAlign: Int): Int = (blockAlign - BLOCK_HEADER_SIZE) * 2 + 1
+
+    /**
+     * 编码一块
+     * 不足一块的样本用0补齐(实际样本数由WAV的fact块记录)
+     *
+     * @param input 输入样本
+     * @param count 有效样本数(不超过samplesPerBlock)
+     * @param stepIndex 上一块结束时的步长索引
+     * @param output 编码结果, 长度至少blockAlign
+     * @param decoded 解码端将得到的样本(可为null), 用于校验
+     * @return 本块结束时的步长索引
+     */
+    fun encodeBlock(
+        input: ShortArray,
+        count: Int,
+        stepIndex: Int,
+        output: ByteArray,
+        blockAlign: Int,
+        decoded: ShortArray? = null
+    ): Int {
+        val first = if (count > 0) input[0].toInt() else 0
+        var predictor = first
+        var index = stepIndex.coerceIn(0, STEP_TABLE.size - 1)
+
+        output[0] = first.toByte()
+        output[1] = (first shr 8).toByte()
+        output[2] = index.toByte()
+        output[3] = 0
+        decoded?.set(0, first.toShort())
+
+        val samples = samplesPerBlock(blockAlign)
+        for (i in 1 until samples) {
+            val sample = if (i < count) input[i].toInt() else 0
+            val step = STEP_TABLE[index]
+
+            // 逐位逼近差值
+            var diff = sample - predictor
+            var nibble = 0
+            if (diff < 0) {
+                nibble = 8
+                diff = -diff
+            }
+            var delta = step shr 3
+            if (diff >= step) {
+                nibble = nibble or 4
+                diff -= step
+                delta += step
+            }
+            if (diff >= step shr 1) {
+                nibble = nibble or 2
+                diff -= step shr 1
+                delta += step shr 1
+            }
+            if (diff >= step shr 2) {
+                nibble = nibble or 1
+                delta += step shr 2
+            }
+
+            // 与解码端完全相同的重建
+            predictor = if (nibble and 8 != 0) predictor - delta else predictor + delta
+            predictor = predictor.coerceIn(-32768, 32767)
+            index = (index + INDEX_TABLE[nibble and 7]).coerceIn(0, STEP_TABLE.size - 1)
+            if (decoded != null && i < count) {
+                decoded[i] = predictor.toShort()
+            }
+
+            val byteIndex = BLOCK_HEADER_SIZE + (i - 1) / 2
+            if ((i - 1) and 1 == 0) {
+                output[byteIndex] = nibble.toByte()
+            } else {
+                output[byteIndex] = (output[byteIndex].toInt() or (nibble shl 4)).toByte()
+            }
+        }
+        return index
+    }
+
+    /**
+     * 解码一块
+     * @param input 一块编码数据
+     * @param output 解码结果, 长度至少samplesPerBlock
+     * @return 解码的样本数
+     */
+    fun decodeBlock(input: ByteArray, blockAlign: Int, output: ShortArray): Int {
+        var predictor = ((input[0].toInt() and 0xFF) or (input[1].toInt() shl 8)).toShort().toInt()
+        var index = (input[2].toInt() and 0xFF).coerceIn(0, STEP_TABLE.size - 1)
+        output[0] = predictor.toShort()
+
+        val samples = samplesPerBlock(blockAlign)
+        for (i in 1 until samples) {
+            val byte = input[BLOCK_HEADER_SIZE + (i - 1) / 2].toInt()
+            val nibble = if ((i - 1) and 1 == 0) byte and 0x0F else (byte shr 4) and 0x0F
+            val step = STEP_TABLE[index]
+
+            var delta = step shr 3
+            if (nibble and 4 != 0) delta += step
+            if (nibble and 2 != 0) delta += step shr 1
+            if (nibble and 1 != 0) delta += step shr 2
+
+            predictor = if (nibble and 8 != 0) predictor - delta else predictor + delta
+            predictor = predictor.coerceIn(-32768, 32767)
+            index = (index + INDEX_TABLE[nibble and 7]).coerceIn(0, STEP_TABLE.size - 1)
+            output[i] = predictor.toShort()
+        }
+        return samples
+    }
+}
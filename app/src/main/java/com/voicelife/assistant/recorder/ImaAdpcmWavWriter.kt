@@ -0,0 +1,211 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * IMA ADPCM WAV文件写入器
+ * 用于归档: 4bit/样本, 约为16bit PCM的1/4, 标准播放器可直接播放
+ *
+ * WAV文件格式:
+ * - RIFF头 (12字节)
+ * - fmt块 (28字节, wFormatTag = 0x0011, 扩展字段为每块样本数)
+ * - fact块 (12字节, 实际样本数; 最后一块补齐的样本不计入)
+ * - data块 (8字节 + 编码块)
+ *
+ * 写入时同时累计解码端将得到的样本的CRC32, 归档校验时与读回的结果比对
+ *
+ * @param blockAlign 每块字节数
+ */
+class ImaAdpcmWavWriter(
+    private val outputFile: File,
+    private val blockAlign: Int = 512
+) : AudioFileWriter {
+    private val sampleRate = 16000
+    private val channels = 1
+
+    private val samplesPerBlock = ImaAdpcm.samplesPerBlock(blockAlign)
+    private val block = ShortArray(samplesPerBlock)
+    private val decoded = ShortArray(samplesPerBlock)
+    private val encoded = ByteArray(blockAlign)
+    private val crcBytes = ByteArray(samplesPerBlock * 2)
+    private var blockFill = 0
+    private var stepIndex = 0
+
+    private val outputBuffer: ByteBuffer = ByteBuffer.allocateDirect(blockAlign * 32)
+    private val headerBuffer: ByteBuffer = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+
+    private var raf: RandomAccessFile? = null
+    private var channel: FileChannel? = null
+    private var sampleCount = 0L
+    private var dataSize = 0L
+    private val decodedCrc = CRC32()
+
+    companion object {
+        private const val TAG = "ImaAdpcmWavWriter"
+        private const val HEADER_SIZE = 60
+    }
+
+    /**
+     * 开始写入
+     * 创建文件并写入占位的WAV头
+     */
+    override fun start() {
+        try {
+            outputFile.parentFile?.mkdirs()
+
+            raf = RandomAccessFile(outputFile, "rw").apply { setLength(0) }
+            channel = raf!!.channel
+
+            blockFill = 0
+            stepIndex = 0
+            sampleCount = 0
+            dataSize = 0
+            decodedCrc.reset()
+            outputBuffer.clear()
+
+            writeHeader()
+            channel!!.position(HEADER_SIZE.toLong())
+            Log.d(TAG, "Started writing ADPCM file: ${outputFile.absolutePath}")
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to start ADPCM writer", e)
+            throw e
+        }
+    }
+
+    /**
+     * 写入音频数据的一段
+     * 每攒满一块就编码
+     */
+    override fun write(audioData: ShortArray, offset: Int, length: Int) {
+        if (channel == null) return
+
+        var position = offset
+        val end = offset + length
+        while (position < end) {
+            val count = minOf(end - position, samplesPerBlock - blockFill)
+            System.arraycopy(audioData, position, block, blockFill, count)
+            blockFill += count
+            position += count
+
+            if (blockFill == samplesPerBlock) {
+                encodeBlock()
+            }
+        }
+        sampleCount += length
+    }
+
+    /**
+     * 停止写入
+     * 编码最后一个不完整的块, 写入最终的WAV头并关闭文件
+     */
+    override fun stop() {
+        try {
+            if (channel != null && blockFill > 0) {
+                encodeBlock()
+            }
+            flush()
+            writeHeader()
+
+            channel?.close()
+            raf?.close()
+            channel = null
+            raf = null
+
+            Log.d(TAG, "Stopped writing ADPCM file: ${outputFile.name}, size: ${outputFile.length()} bytes")
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to stop ADPCM writer", e)
+            throw e
+        }
+    }
+
+    private fun encodeBlock() {
+        val count = blockFill
+        stepIndex = ImaAdpcm.encodeBlock(block, count, stepIndex, encoded, blockAlign, decoded)
+
+        for (i in 0 until count) {
+            val sample = decoded[i].toInt()
+            crcBytes[2 * i] = sample.toByte()
+            crcBytes[2 * i + 1] = (sample shr 8).toByte()
+        }
+        decodedCrc.update(crcBytes, 0, count * 2)
+
+        if (outputBuffer.remaining() < blockAlign) {
+            flush()
+        }
+        outputBuffer.put(encoded, 0, blockAlign)
+        dataSize += blockAlign
+        blockFill = 0
+    }
+
+    private fun flush() {
+        val fileChannel = channel ?: return
+        if (outputBuffer.position() == 0) return
+        outputBuffer.flip()
+        while (outputBuffer.hasRemaining()) {
+            fileChannel.write(outputBuffer)
+        }
+        outputBuffer.clear()
+    }
+
+    /**
+     * 用定位写写入WAV头, 不影响追加写入的位置
+     */
+    private fun writeHeader() {
+        val fileChannel = channel ?: return
+        val header = headerBuffer
+        header.clear()
+
+        // RIFF chunk descriptor
+        header.put("RIFF".toByteArray())
+        header.putInt((HEADER_SIZE - 8 + dataSize).toInt())
+        header.put("WAVE".toByteArray())
+
+        // fmt sub-chunk
+        header.put("fmt ".toByteArray())
+        header.putInt(20)
+        header.putShort(ImaAdpcm.FORMAT_TAG.toShort())
+        header.putShort(channels.toShort())
+        header.putInt(sampleRate)
+        header.putInt(sampleRate * blockAlign / samplesPerBlock)  // ByteRate
+        header.putShort(blockAlign.toShort())
+        header.putShort(ImaAdpcm.BITS_PER_SAMPLE.toShort())
+        header.putShort(2)  // cbSize
+        header.putShort(samplesPerBlock.toShort())
+
+        // fact sub-chunk
+        header.put("fact".toByteArray())
+        header.putInt(4)
+        header.putInt(sampleCount.toInt())
+
+        // data sub-chunk
+        header.put("data".toByteArray())
+        header.putInt(dataSize.toInt())
+
+        header.flip()
+        var position = 0L
+        while (header.hasRemaining()) {
+            position += fileChannel.write(header, position)
+        }
+    }
+
+    /**
+     * 获取已接收的样本数
+     */
+    override fun getSampleCount(): Long = sampleCount
+
+    /**
+     * 获取解码端将得到的样本的CRC32(在stop之后调用)
+     */
+    fun getDecodedChecksum(): Long = decodedCrc.value
+
+    /**
+     * 检查是否正在写入
+     */
+    override fun isWriting(): Boolean = channel != null
+}
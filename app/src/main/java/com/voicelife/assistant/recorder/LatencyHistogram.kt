@@ -0,0 +1,78 @@
+package com.voicelife.assistant.recorder
+
+/**
+ * 延迟直方图
+ * 按2的幂划分微秒区间(第i个桶为[2^i, 2^(i+1))微秒), 记录一次只做几次整数运算, 不分配内存
+ *
+ * 只由一个线程记录; 其他线程读取的是近似快照, 用于监控足够
+ *
+ * @param bucketCount 桶数, 默认24(最大桶约8秒); 秒级以上的延迟(如转写出字)用更多的桶
+ */
+class LatencyHistogram(private val bucketCount: Int = BUCKET_COUNT) {
+    companion object {
+        private const val BUCKET_COUNT = 24
+    }
+
+    private val buckets = LongArray(bucketCount)
+
+    @Volatile
+    private var count = 0L
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+
+    /**
+     * 记录一次耗时
+     */
+    fun record(nanos: Long) {
+        val micros = (nanos / 1000).coerceAtLeast(1)
+        val bucket = (63 - java.lang.Long.numberOfLeadingZeros(micros)).coerceAtMost(bucketCount - 1)
+        buckets[bucket]++
+        totalNanos += nanos
+        if (nanos > maxNanos) maxNanos = nanos
+        count++
+    }
+
+    /**
+     * 记录次数
+     */
+    fun getCount(): Long = count
+
+    /**
+     * 平均耗时(微秒)
+     */
+    fun getMeanMicros(): Long {
+        val n = count
+        return if (n > 0) totalNanos / n / 1000 else 0
+    }
+
+    /**
+     * 最大耗时(微秒)
+     */
+    fun getMaxMicros(): Long = maxNanos / 1000
+
+    /**
+     * 百分位耗时(微秒), 返回所在桶的上界(不超过最大耗时)
+     * @param percentile 0~100
+     */
+    fun getPercentileMicros(percentile: Double): Long {
+        val n = count
+        if (n == 0L) return 0
+        val target = (n * percentile / 100.0).toLong().coerceIn(1, n)
+        var seen = 0L
+        for (i in 0 until bucketCount) {
+            seen += buckets[i]
+            if (seen >= target) return minOf(1L shl (i + 1), getMaxMicros())
+        }
+        return getMaxMicros()
+    }
+
+    /**
+     * 清空记录
+     */
+    fun reset() {
+        buckets.fill(0)
+        totalNanos = 0
+        maxNanos = 0
+        count = 0
+    }
+}
@@ -0,0 +1,169 @@
+package com.voicelife.assistant.recorder
+
+import java.io.File
+
+/**
+ * PCM内容哈希(增量计算)
+ * 对16bit样本的小端字节流计算XXH64(种子0), 结果与对WAV data块直接调用xxh64一致
+ *
+ * 只取决于样本本身, 与文件格式(WAV/FLAC)、文件名和文件头无关,
+ * 同一段音频重试、从备份恢复或重新导入时哈希相同, 用作转写缓存的键
+ *
+ * 每4个样本拼成一个64bit lane, 每16个样本(32字节)一轮, 不足一轮的样本暂存到下次写入;
+ * 处理过程中不分配内存, 每个样本的开销远小于写文件
+ *
+ * 不是线程安全的
+ */
+class PcmContentHash : PcmSink {
+    companion object {
+        private val PRIME1 = 0x9E3779B185EBCA87uL.toLong()
+        private val PRIME2 = 0xC2B2AE3D27D4EB4FuL.toLong()
+        private const val PRIME3 = 0x165667B19E3779F9L
+        private val PRIME4 = 0x85EBCA77C2B2AE63uL.toLong()
+        private const val PRIME5 = 0x27D4EB2F165667C5L
+
+        private const val STRIPE_SAMPLES = 16  // 32字节
+        private const val READ_FRAME_SIZE = 4096
+
+        /**
+         * 一段样本的哈希
+         */
+        fun of(samples: ShortArray, offset: Int = 0, length: Int = samples.size - offset): String =
+            PcmContentHash().apply { write(samples, offset, length) }.getHex()
+
+        /**
+         * 读取录音文件计算哈希(用于没有在写入时计算哈希的录音)
+         * 有损格式(IMA ADPCM)按解码后的样本计算, 与原始录音的哈希不同
+         */
+        fun ofFile(file: File): PcmContentHash {
+            val hash = PcmContentHash()
+            val frame = ShortArray(READ_FRAME_SIZE)
+            AudioFileReader.open(file).use { reader ->
+                while (true) {
+                    val n = reader.read(frame)
+                    if (n <= 0) break
+                    hash.write(frame, 0, n)
+                }
+            }
+            return hash
+        }
+
+        private fun round(acc: Long, lane: Long): Long =
+            java.lang.Long.rotateLeft(acc + lane * PRIME2, 31) * PRIME1
+
+        private fun mergeRound(acc: Long, value: Long): Long =
+            (acc xor round(0, value)) * PRIME1 + PRIME4
+
+        private fun lane(s: ShortArray, i: Int): Long =
+            (s[i].toLong() and 0xFFFF) or
+                    ((s[i + 1].toLong() and 0xFFFF) shl 16) or
+                    ((s[i + 2].toLong() and 0xFFFF) shl 32) or
+                    ((s[i + 3].toLong() and 0xFFFF) shl 48)
+    }
+
+    private var v1 = 0L
+    private var v2 = 0L
+    private var v3 = 0L
+    private var v4 = 0L
+    private val pending = ShortArray(STRIPE_SAMPLES)
+    private var pendingCount = 0
+    private var totalSamples = 0L
+
+    /** 已计入的样本数 */
+    val sampleCount: Long get() = totalSamples
+
+    init {
+        reset()
+    }
+
+    /**
+     * 清空状态, 开始新的一段音频
+     */
+    fun reset() {
+        v1 = PRIME1 + PRIME2
+        v2 = PRIME2
+        v3 = 0L
+        v4 = -PRIME1
+        pendingCount = 0
+        totalSamples = 0
+    }
+
+    override fun write(audioData: ShortArray, offset: Int, length: Int) {
+        var position = offset
+        var remaining = length
+        totalSamples += length
+
+        if (pendingCount > 0) {
+            val count = minOf(remaining, STRIPE_SAMPLES - pendingCount)
+            System.arraycopy(audioData, position, pending, pendingCount, count)
+            pendingCount += count
+            position += count
+            remaining -= count
+            if (pendingCount < STRIPE_SAMPLES) return
+            stripe(pending, 0)
+            pendingCount = 0
+        }
+
+        while (remaining >= STRIPE_SAMPLES) {
+            stripe(audioData, position)
+            position += STRIPE_SAMPLES
+            remaining -= STRIPE_SAMPLES
+        }
+
+        if (remaining > 0) {
+            System.arraycopy(audioData, position, pending, 0, remaining)
+            pendingCount = remaining
+        }
+    }
+
+    /**
+     * 当前的哈希值(不影响后续写入)
+     */
+    fun digest(): Long {
+        var h = if (totalSamples >= STRIPE_SAMPLES) {
+            var acc = java.lang.Long.rotateLeft(v1, 1) + java.lang.Long.rotateLeft(v2, 7) +
+                    java.lang.Long.rotateLeft(v3, 12) + java.lang.Long.rotateLeft(v4, 18)
+            acc = mergeRound(acc, v1)
+            acc = mergeRound(acc, v2)
+            acc = mergeRound(acc, v3)
+            mergeRound(acc, v4)
+        } else {
+            PRIME5
+        }
+        h += totalSamples * 2
+
+        var i = 0
+        while (i + 4 <= pendingCount) {
+            h = java.lang.Long.rotateLeft(h xor round(0, lane(pending, i)), 27) * PRIME1 + PRIME4
+            i += 4
+        }
+        if (i + 2 <= pendingCount) {
+            val word = (pending[i].toLong() and 0xFFFF) or ((pending[i + 1].toLong() and 0xFFFF) shl 16)
+            h = java.lang.Long.rotateLeft(h xor (word * PRIME1), 23) * PRIME2 + PRIME3
+            i += 2
+        }
+        if (i < pendingCount) {
+            val sample = pending[i].toInt()
+            h = java.lang.Long.rotateLeft(h xor ((sample and 0xFF) * PRIME5), 11) * PRIME1
+            h = java.lang.Long.rotateLeft(h xor (((sample shr 8) and 0xFF) * PRIME5), 11) * PRIME1
+        }
+
+        h = h xor (h ushr 33)
+        h *= PRIME2
+        h = h xor (h ushr 29)
+        h *= PRIME3
+        return h xor (h ushr 32)
+    }
+
+    /**
+     * 当前的哈希值(16位十六进制)
+     */
+    fun getHex(): String = "%016x".format(digest())
+
+    private fun stripe(s: ShortArray, i: Int) {
+        v1 = round(v1, lane(s, i))
+        v2 = round(v2, lane(s, i + 4))
+        v3 = round(v3, lane(s, i + 8))
+        v4 = round(v4, lane(s, i + 12))
+    }
+}
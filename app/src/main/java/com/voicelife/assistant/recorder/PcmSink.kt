@@ -0,0 +1,15 @@
+package com.voicelife.assistant.recorder
+
+/**
+ * PCM数据接收端
+ * 允许直接传入数组的一段, 避免为拼接或截取而复制
+ */
+fun interface PcmSink {
+    /**
+     * 写入PCM样本
+     * @param audioData 16bit PCM样本
+     * @param offset 起始下标
+     * @param length 样本数
+     */
+    fun write(audioData: ShortArray, offset: Int, length: Int)
+}
@@ -0,0 +1,231 @@
+package com.voicelife.assistant.recorder
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 多相FIR重采样器
+ * 任意有理比例(L/M), Kaiser窗sinc原型滤波器, float运算, 处理过程中不分配内存
+ *
+ * 原理:
+ * - 原型滤波器工作在 L * inputRate, 长度 L * tapsPerPhase
+ * - 拆成L组相位系数, 每个输出样本只计算一组(tapsPerPhase次乘加), 不计算插零和被丢弃的样本
+ * - 截止频率取输入、输出奈奎斯特频率中较小者减去半个过渡带, 阻带从奈奎斯特频率开始
+ *
+ * 例: 48kHz -> 16kHz时L=1、M=3, 每个输出样本192次乘加, 过渡带约1.25kHz(约7kHz以下平坦),
+ * 混叠约-80dB, JVM上约占实时的0.2%
+ *
+ * @param tapsPerPhase 每相抽头数, 越大过渡带越窄, CPU开销成正比
+ * @param stopbandAttenuationDb 阻带衰减(决定Kaiser窗的beta)
+ */
+class PolyphaseResampler(
+    val inputRate: Int,
+    val outputRate: Int,
+    private val tapsPerPhase: Int = 192,
+    stopbandAttenuationDb: Double = 80.0
+) {
+    companion object {
+        private const val BLOCK_SIZE = 1024
+
+        private fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+
+        /**
+         * 第一类零阶修正贝塞尔函数(级数展开)
+         */
+        private fun besselI0(x: Double): Double {
+            var sum = 1.0
+            var term = 1.0
+            var k = 1
+            while (term > 1e-12 * sum) {
+                val half = x / (2 * k)
+                term *= half * half
+                sum += term
+                k++
+            }
+            return sum
+        }
+    }
+
+    /** 上采样倍数 */
+    val upFactor: Int
+
+    /** 下采样倍数 */
+    val downFactor: Int
+
+    // coefficients[phase][j] 与窗口内第j个(从旧到新)输入样本相乘
+    private val coefficients: Array<FloatArray>
+
+    // [0, tapsPerPhase-1)为上一块末尾的样本, 之后是当前块
+    private val history = FloatArray(tapsPerPhase - 1 + BLOCK_SIZE)
+
+    // 下一个输出样本对应的输入位置(相对当前块)和相位
+    private var nextInput = 0
+    private var nextPhase = 0
+
+    /** 群延迟(输出样本数) */
+    val outputDelaySamples: Double
+
+    init {
+        require(inputRate > 0 && outputRate > 0) { "Invalid rates: $inputRate -> $outputRate" }
+        require(tapsPerPhase >= 2) { "tapsPerPhase must be >= 2" }
+
+        val divisor = gcd(inputRate, outputRate)
+        upFactor = outputRate / divisor
+        downFactor = inputRate / divisor
+
+        // 原型低通滤波器, 频率以原型采样率(L * inputRate)归一化
+        val length = upFactor * tapsPerPhase
+        val prototypeRate = upFactor.toDouble() * inputRate
+        val nyquist = minOf(inputRate, outputRate) / 2.0
+        val transition = (stopbandAttenuationDb - 8) / (2.285 * 2 * PI * tapsPerPhase) * inputRate
+        val cutoff = (nyquist - transition / 2).coerceAtLeast(nyquist / 2) / prototypeRate
+        val beta = when {
+            stopbandAttenuationDb > 50 -> 0.1102 * (stopbandAttenuationDb - 8.7)
+            stopbandAttenuationDb >= 21 -> 0.5842 * Math.pow(stopbandAttenuationDb - 21, 0.4) +
+                    0.07886 * (stopbandAttenuationDb - 21)
+            else -> 0.0
+        }
+
+        val center = (length - 1) / 2.0
+        val i0Beta = besselI0(beta)
+        val prototype = DoubleArray(length) { n ->
+            val t = n - center
+            val sinc = if (abs(t) < 1e-9) 2 * cutoff else sin(2 * PI * cutoff * t) / (PI * t)
+            val ratio = t / center
+            val window = besselI0(beta * sqrt((1 - ratio * ratio).coerceAtLeast(0.0))) / i0Beta
+            sinc * window * upFactor  // 插零后补偿L倍增益
+        }
+
+        coefficients = Array(upFactor) { phase ->
+            FloatArray(tapsPerPhase) { j ->
+                prototype[phase + (tapsPerPhase - 1 - j) * upFactor].toFloat()
+            }
+        }
+        outputDelaySamples = (length - 1) / 2.0 / downFactor
+    }
+
+    /**
+     * 给定输入样本数时最多产生的输出样本数
+     */
+    fun maxOutputSamples(inputLength: Int): Int =
+        ((inputLength.toLong() * upFactor + downFactor - 1) / downFactor).toInt() + 1
+
+    /**
+     * 重采样一段输入
+     * @param output 至少有maxOutputSamples(length)个空位
+     * @return 写入output的样本数
+     */
+    fun process(input: ShortArray, offset: Int, length: Int, output: ShortArray, outputOffset: Int): Int {
+        var written = 0
+        var consumed = 0
+        val keep = tapsPerPhase - 1
+
+        while (consumed < length) {
+            val block = minOf(BLOCK_SIZE, length - consumed)
+            for (i in 0 until block) {
+                history[keep + i] = input[offset + consumed + i].toFloat()
+            }
+
+            // 当前块内的输出: 窗口为history[nextInput, nextInput + tapsPerPhase)
+            var index = nextInput
+            var phase = nextPhase
+            while (index < block) {
+                val taps = coefficients[phase]
+                var sum = 0f
+                for (j in 0 until tapsPerPhase) {
+                    sum += taps[j] * history[index + j]
+                }
+                output[outputOffset + written++] =
+                    sum.roundToInt().coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt()).toShort()
+
+                phase += downFactor
+                index += phase / upFactor
+                phase %= upFactor
+            }
+
+            // 保留最后tapsPerPhase-1个样本作为下一块的历史
+            System.arraycopy(history, block, history, 0, keep)
+            nextInput = index - block
+            nextPhase = phase
+            consumed += block
+        }
+        return written
+    }
+
+    /**
+     * 清空历史样本
+     */
+    fun reset() {
+        history.fill(0f)
+        nextInput = 0
+        nextPhase = 0
+    }
+}
+
+/**
+ * 重采样阶段
+ * 把原生采样率的采集帧转换为outputRate, 并重新切分为固定大小的输出帧(VAD需要512样本)
+ *
+ * 输出帧取自FramePool, emit之后归还; 未满一帧的样本留到下一次
+ */
+class ResamplerStage(
+    private val inputRate: Int,
+    private val outputRate: Int = 16000,
+    private val outputFrameSize: Int = 512,
+    tapsPerPhase: Int = 192
+) : AudioStage {
+    override val name = "resampler"
+
+    private val resampler = PolyphaseResampler(inputRate, outputRate, tapsPerPhase)
+    private lateinit var pool: FramePool
+    private var scratch = ShortArray(0)
+    private var pending: AudioFrame? = null
+    private var outputSamples = 0L
+
+    override fun configure(input: FrameFormat, pool: FramePool): FrameFormat {
+        require(input.sampleRate == inputRate) { "Resampler expects $inputRate Hz, got ${input.sampleRate}" }
+        this.pool = pool
+        scratch = ShortArray(resampler.maxOutputSamples(input.frameSize))
+        return FrameFormat(outputRate, outputFrameSize)
+    }
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        val count = resampler.process(frame.samples, 0, frame.length, scratch, 0)
+
+        var copied = 0
+        while (copied < count) {
+            val target = pending ?: pool.acquire(outputFrameSize).also {
+                it.length = 0
+                it.sampleRate = outputRate
+                it.sampleIndex = outputSamples
+                pending = it
+            }
+
+            val n = minOf(count - copied, outputFrameSize - target.length)
+            System.arraycopy(scratch, copied, target.samples, target.length, n)
+            target.length += n
+            copied += n
+            outputSamples += n
+
+            if (target.length == outputFrameSize) {
+                pending = null
+                target.samplesChanged()
+                try {
+                    output.emit(target)
+                } finally {
+                    pool.release(target)
+                }
+            }
+        }
+    }
+
+    override fun reset() {
+        resampler.reset()
+        pending?.let { pool.release(it) }
+        pending = null
+        outputSamples = 0
+    }
+}
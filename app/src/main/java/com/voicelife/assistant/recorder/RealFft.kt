@@ -0,0 +1,160 @@
+package com.voicelife.assistant.recorder
+
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.sin
+
+/**
+ * 实数FFT
+ * 长度N(2的幂)的实数序列打包成N/2点复数序列做基2 FFT, 再拆分出N/2+1个频点
+ *
+ * 旋转因子和位反转表在创建时预计算, forward/inverse不分配内存, 内层都是float数组上的简单循环
+ * 同一实例不是线程安全的(内部有工作缓冲区)
+ *
+ * @param size FFT长度, 2的幂且不小于4
+ */
+class RealFft(val size: Int) {
+    private val half = size / 2
+
+    // N/2点复数FFT的旋转因子 exp(-2πik/(N/2))
+    private val cosTable: FloatArray
+    private val sinTable: FloatArray
+
+    // 拆分用的旋转因子 exp(-2πik/N), k = 0..N/2
+    private val splitCos: FloatArray
+    private val splitSin: FloatArray
+
+    private val bitReverse: IntArray
+
+    // 工作缓冲区
+    private val workRe = FloatArray(half)
+    private val workIm = FloatArray(half)
+
+    /** 频点数(N/2+1) */
+    val bins: Int get() = half + 1
+
+    init {
+        require(size >= 4 && size and (size - 1) == 0) { "FFT size must be a power of two >= 4, got $size" }
+
+        cosTable = FloatArray(half / 2) { cos(2 * PI * it / half).toFloat() }
+        sinTable = FloatArray(half / 2) { -sin(2 * PI * it / half).toFloat() }
+        splitCos = FloatArray(half + 1) { cos(2 * PI * it / size).toFloat() }
+        splitSin = FloatArray(half + 1) { -sin(2 * PI * it / size).toFloat() }
+
+        val bits = Integer.numberOfTrailingZeros(half)
+        bitReverse = IntArray(half) { Integer.reverse(it) ushr (32 - bits) }
+    }
+
+    /**
+     * 正变换
+     * @param input 长度至少为size的实数序列
+     * @param re 输出实部, 长度至少为bins
+     * @param im 输出虚部, 长度至少为bins
+     */
+    fun forward(input: FloatArray, re: FloatArray, im: FloatArray) {
+        // z[n] = x[2n] + i·x[2n+1], 按位反转顺序放入工作区
+        for (n in 0 until half) {
+            val target = bitReverse[n]
+            workRe[target] = input[2 * n]
+            workIm[target] = input[2 * n + 1]
+        }
+        transform(workRe, workIm, inverse = false)
+
+        // X[k] = (Z[k] + conj(Z[M-k]))/2 + W^k·(Z[k] - conj(Z[M-k]))/(2i)
+        for (k in 0..half) {
+            val a = k % half
+            val b = (half - k) % half
+            val zr = workRe[a]
+            val zi = workIm[a]
+            val cr = workRe[b]
+            val ci = -workIm[b]
+
+            val evenRe = 0.5f * (zr + cr)
+            val evenIm = 0.5f * (zi + ci)
+            // (z - c) / (2i) = (Im, -Re) / 2
+            val oddRe = 0.5f * (zi - ci)
+            val oddIm = -0.5f * (zr - cr)
+
+            val wr = splitCos[k]
+            val wi = splitSin[k]
+            re[k] = evenRe + wr * oddRe - wi * oddIm
+            im[k] = evenIm + wr * oddIm + wi * oddRe
+        }
+    }
+
+    /**
+     * 逆变换(含1/N归一化), inverse(forward(x)) == x
+     * @param re 实部, 长度至少为bins
+     * @param im 虚部, 长度至少为bins
+     * @param output 长度至少为size
+     */
+    fun inverse(re: FloatArray, im: FloatArray, output: FloatArray) {
+        // 逆拆分: Z[k] = Xe[k] + i·Xo[k]
+        for (k in 0 until half) {
+            val xr = re[k]
+            val xi = im[k]
+            val cr = re[half - k]
+            val ci = -im[half - k]
+
+            val evenRe = 0.5f * (xr + cr)
+            val evenIm = 0.5f * (xi + ci)
+            val diffRe = 0.5f * (xr - cr)
+            val diffIm = 0.5f * (xi - ci)
+
+            // Xo = (X - conj) / 2 · W^-k
+            val wr = splitCos[k]
+            val wi = -splitSin[k]
+            val oddRe = diffRe * wr - diffIm * wi
+            val oddIm = diffRe * wi + diffIm * wr
+
+            val target = bitReverse[k]
+            workRe[target] = evenRe - oddIm
+            workIm[target] = evenIm + oddRe
+        }
+        transform(workRe, workIm, inverse = true)
+
+        val scale = 1.0f / half
+        for (n in 0 until half) {
+            output[2 * n] = workRe[n] * scale
+            output[2 * n + 1] = workIm[n] * scale
+        }
+    }
+
+    /**
+     * 功率谱 |X[k]|²
+     */
+    fun powerSpectrum(re: FloatArray, im: FloatArray, power: FloatArray) {
+        for (k in 0..half) {
+            power[k] = re[k] * re[k] + im[k] * im[k]
+        }
+    }
+
+    /**
+     * 原地迭代基2 FFT, 输入已按位反转顺序排列
+     */
+    private fun transform(re: FloatArray, im: FloatArray, inverse: Boolean) {
+        val sign = if (inverse) -1f else 1f
+        var length = 2
+        while (length <= half) {
+            val step = half / length
+            val span = length / 2
+            var start = 0
+            while (start < half) {
+                for (j in 0 until span) {
+                    val wr = cosTable[j * step]
+                    val wi = sign * sinTable[j * step]
+                    val p = start + j
+                    val q = p + span
+                    val tr = re[q] * wr - im[q] * wi
+                    val ti = re[q] * wi + im[q] * wr
+                    re[q] = re[p] - tr
+                    im[q] = im[p] - ti
+                    re[p] += tr
+                    im[p] += ti
+                }
+                start += length
+            }
+            length = length shl 1
+        }
+    }
+}
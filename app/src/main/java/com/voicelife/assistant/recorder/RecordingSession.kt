@@ -1,7 +1,6 @@
 package com.voicelife.assistant.recorder
 
 import android.util.Log
-import kotlinx.coroutines.*
 import java.io.File
 import java.text.SimpleDateFormat
 import java.util.*
@@ -11,130 +10,345 @@ import java.util.*
  * 负责智能合并对话段落,避免短暂停顿导致录音分段
  *
  * 智能合并策略:
- * - 预缓冲: 保留最近1秒音频,人声开始时写入
+ * - 预缓冲: 保留最近1秒音频(可配置),人声开始时写入
  * - 静音间隔: 10秒内的静音视为短暂停顿,继续录音
  * - 后缓冲: 人声结束后继续录制3秒
  *
- * 文件命名: voice_yyyyMMdd_HHmmss.wav
+ * 状态机:
+ * IDLE --人声开始--> ACTIVE --人声结束--> GAP --静音满10秒--> POST_ROLL --满3秒--> IDLE
+ *                      ^                   |                      |
+ *                      +------人声开始------+----------------------+
+ *
+ * 所有计时都按writeAudioData消费的样本数推进, 没有定时器和额外线程;
+ * 状态转换发生在精确的样本偏移上, 所有方法都应在同一个音频处理线程中调用
+ *
+ * 分块:
+ * - 一次会话超过maxChunkMs时切换到新的分块文件, 每个分块关闭后立即回调, 下游不必等整个会话结束
+ * - 分块时长进入最后chunkSearchWindowMs后, 在下一次人声结束(进入GAP)时切分, 避免切断语音
+ * - 窗口内一直没有停顿时在maxChunkMs处硬切分
+ * - 在停顿处切出的新分块如果直到会话结束都没有人声, 直接删除, 不回调
+ *
+ * 检查点(checkpointStore):
+ * - 录音期间在状态转换时和每5秒保存一次检查点(文件、样本数、最后人声位置、静音计时)
+ * - 服务被系统杀死后重启时调用restore(): 静音还没满silenceGapMs就重新打开同一个文件继续追加,
+ *   否则修复文件头后结束该录音(由启动扫描登记到数据库)
+ *
+ * 流式转写(spanListener):
+ * - 写入分块的音频同时暂存在内存中, 每次人声结束(onVoiceEnd)时把这段人声连同前面的预缓冲发布出去,
+ *   转写不必等到静音间隔和后缓冲结束
+ * - 持续说话超过maxSpanMs、或在人声中切换分块时先发布已有的部分
+ * - 静音期间只保留最近一个预缓冲长度的音频, 作为下一段人声的开头
+ *
+ * 文件命名: voice_yyyyMMdd_HHmmss.wav, 后续分块为voice_yyyyMMdd_HHmmss_1.wav... (FLAC格式为.flac)
+ * 同一会话的分块共用sessionId(第一个分块的文件名), chunkIndex从0开始
+ *
+ * @param format 录音文件格式
+ * @param maxChunkMs 单个分块的最大时长
+ * @param chunkSearchWindowMs 在最大时长之前寻找停顿的窗口
+ * @param silenceGapMs 人声结束后多久的静音视为录音结束
+ * @param checkpointStore 检查点文件, 为null时不保存
+ * @param spanListener 人声段监听器(流式转写), 为null时不暂存音频
+ * @param maxSpanMs 单个人声段的最大时长
  */
 class RecordingSession(
     private val recordingsDir: File,
     private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null,
-    private val onRecordingComplete: (File) -> Unit
+    preRollMs: Long = 1000L,
+    private val format: RecordingFormat = RecordingFormat.WAV,
+    maxChunkMs: Long = DEFAULT_MAX_CHUNK_MS,
+    chunkSearchWindowMs: Long = DEFAULT_CHUNK_SEARCH_WINDOW_MS,
+    silenceGapMs: Long = DEFAULT_SILENCE_GAP_MS,
+    private val checkpointStore: SessionCheckpointStore? = null,
+    private val spanListener: SpeechSpanListener? = null,
+    maxSpanMs: Long = DEFAULT_MAX_SPAN_MS,
+    private val onRecordingComplete: (CompletedRecording) -> Unit
 ) {
-    private var wavWriter: WavFileWriter? = null
+    /**
+     * 会话状态
+     */
+    enum class State {
+        /** 未录音, 只维护预缓冲 */
+        IDLE,
+        /** 人声进行中 */
+        ACTIVE,
+        /** 人声已结束, 等待静音间隔 */
+        GAP,
+        /** 静音间隔已满, 录制后缓冲 */
+        POST_ROLL
+    }
+
+    private var fileWriter: AudioFileWriter? = null
     private var currentFile: File? = null
-    private var lastVoiceTime = 0L
-    private var silenceCheckJob: Job? = null
-    private var postBufferJob: Job? = null
 
-    private val preBuffer = RingBuffer(16000 * 2)  // 1秒预缓冲 (16kHz * 2 bytes)
-    private val silenceGapMs = 10000L  // 10秒静音间隔
-    private val postBufferMs = 3000L  // 3秒后缓冲
+    // 当前会话的分块信息
+    private var sessionId: String? = null
+    private var chunkIndex = 0
+    private var chunkHasVoice = false
+    private var flushDeferred = false
+    private var lastVoiceSample = 0L       // 当前分块中最后一次处于人声状态的样本位置
+    private var samplesSinceCheckpoint = 0L
+
+    // 流式转写: 尚未发布的音频(从分块中的spanStart开始), 续录的分块不发布
+    private var spanBuffer = ShortArray(0)
+    private var spanLength = 0
+    private var spanStart = 0L
+    private var publishSpans = false
+
+    private var state = State.IDLE
+    private var samplesConsumed = 0L      // 会话创建以来消费的样本总数
+    private var stateSamplesRemaining = 0L // GAP/POST_ROLL状态剩余样本数
+
+    private val sampleRate = 16000
+    private val preBuffer = RingBuffer((sampleRate.toLong() * preRollMs / 1000).toInt())  // 预缓冲(默认1秒)
+    private val silenceGapSamples = sampleRate * silenceGapMs / 1000  // 默认10秒静音间隔
+    private val postBufferSamples = sampleRate * 3L   // 3秒后缓冲
+    private val maxChunkSamples = (sampleRate * maxChunkMs / 1000).coerceAtLeast(sampleRate.toLong())
+    private val softCutSamples = (maxChunkSamples - sampleRate * chunkSearchWindowMs / 1000).coerceAtLeast(0L)
+    private val maxSpanSamples = (sampleRate * maxSpanMs / 1000).coerceAtLeast(sampleRate.toLong()).toInt()
+    private val spanLeadInSamples = (sampleRate.toLong() * preRollMs / 1000).toInt()
+
+    // 写入分块时同时暂存到人声段
+    private val chunkSink = PcmSink { data, offset, length ->
+        fileWriter?.write(data, offset, length)
+        appendSpan(data, offset, length)
+    }
 
     companion object {
         private const val TAG = "RecordingSession"
+        const val DEFAULT_MAX_CHUNK_MS = 5 * 60 * 1000L  // 5分钟
+        const val DEFAULT_CHUNK_SEARCH_WINDOW_MS = 30 * 1000L
+        const val DEFAULT_SILENCE_GAP_MS = 10 * 1000L
+        const val DEFAULT_MAX_SPAN_MS = 30 * 1000L  // 与Whisper的30秒窗口一致
+        private const val CHECKPOINT_INTERVAL_SAMPLES = 16000 * 5L  // 5秒
         private val dateFormat = SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
     }
 
     /**
      * 人声开始
      * 如果是新录音,创建文件并写入预缓冲数据
-     * 如果正在录音,重置静音计时
+     * 如果正在录音(静音间隔或后缓冲中),回到人声状态继续录音
      */
     fun onVoiceStart() {
-        if (wavWriter != null) {
-            // 已经在录音中,重置静音计时
-            lastVoiceTime = System.currentTimeMillis()
-            silenceCheckJob?.cancel()
-            Log.d(TAG, "Voice continues, silence check cancelled")
-            debugLogger?.d(TAG, "人声继续，取消静音检查")
+        if (fileWriter != null) {
+            // 已经在录音中,取消静音计时
+            if (state != State.ACTIVE) {
+                Log.d(TAG, "Voice continues in $state at sample $samplesConsumed")
+                debugLogger?.d(TAG, "人声继续，取消静音检查")
+            }
+            val resumed = state != State.ACTIVE
+            if (resumed) trimSpan(spanLeadInSamples)
+            state = State.ACTIVE
+            chunkHasVoice = true
+            if (resumed) saveCheckpoint()
             return
         }
 
         // 开始新的录音
         val timestamp = dateFormat.format(Date())
-        currentFile = File(recordingsDir, "pending/voice_$timestamp.wav")
-        currentFile?.parentFile?.mkdirs()
+        sessionId = "voice_$timestamp"
+        chunkIndex = 0
+        openChunk()
 
-        wavWriter = WavFileWriter(currentFile!!)
-        wavWriter?.start()
+        // 写入预缓冲数据(直接从环形缓冲区写入文件)
+        preBuffer.drainTo(chunkSink)
 
-        // 写入预缓冲数据
-        val preBufferData = preBuffer.read()
-        if (preBufferData.isNotEmpty()) {
-            wavWriter?.write(preBufferData)
-        }
-
-        lastVoiceTime = System.currentTimeMillis()
-        Log.d(TAG, "Recording started: ${currentFile?.name}")
+        state = State.ACTIVE
+        chunkHasVoice = true
+        saveCheckpoint()
+        Log.d(TAG, "Recording started: ${currentFile?.name} at sample $samplesConsumed")
         debugLogger?.i(TAG, "📝 开始录音: ${currentFile?.name}")
     }
 
+    /**
+     * 创建当前分块的文件
+     */
+    private fun openChunk() {
+        val suffix = if (chunkIndex == 0) "" else "_$chunkIndex"
+        val file = File(recordingsDir, "pending/$sessionId$suffix.${format.extension}")
+        file.parentFile?.mkdirs()
+
+        val writer = format.createWriter(file)
+        writer.start()
+        writer.setFlushDeferred(flushDeferred)
+        currentFile = file
+        fileWriter = writer
+        chunkHasVoice = false
+        lastVoiceSample = 0
+
+        spanLength = 0
+        spanStart = 0
+        publishSpans = spanListener != null
+        spanListener?.onChunkStarted(file, sessionId ?: file.nameWithoutExtension, chunkIndex)
+    }
+
+    /**
+     * 关闭当前分块并回调, 在同一会话中开始下一个分块
+     */
+    private fun rollOverChunk() {
+        closeChunk()
+        chunkIndex++
+        openChunk()
+        // 切分点在人声中间时新分块同样有人声
+        chunkHasVoice = state == State.ACTIVE
+        saveCheckpoint()
+        Log.d(TAG, "Chunk rolled over: ${currentFile?.name} at sample $samplesConsumed")
+        debugLogger?.i(TAG, "✂️ 录音分块: ${currentFile?.name}")
+    }
+
+    /**
+     * 写入当前分块, 到达最大时长时在精确位置切换分块
+     */
+    private fun writeChunked(audioData: ShortArray, offset: Int, length: Int) {
+        var pos = offset
+        var remaining = length
+        while (remaining > 0) {
+            val writer = fileWriter ?: return
+            val room = maxChunkSamples - writer.getSampleCount()
+            if (room <= 0) {
+                rollOverChunk()
+                continue
+            }
+            val count = minOf(remaining.toLong(), room).toInt()
+            chunkSink.write(audioData, pos, count)
+            pos += count
+            remaining -= count
+        }
+    }
+
     /**
      * 写入音频数据
-     * 同时更新预缓冲
+     * 同时更新预缓冲, 并按样本数推进静音间隔/后缓冲计时
      */
     fun writeAudioData(audioData: ShortArray) {
-        // 更新预缓冲(始终保留最近1秒)
-        preBuffer.write(audioData)
-
-        // 如果正在录音,写入文件
-        wavWriter?.write(audioData)
+        writeAudioData(audioData, 0, audioData.size)
     }
 
     /**
-     * 人声结束
-     * 启动静音检查计时器
+     * 写入音频数据的一段
      */
-    fun onVoiceEnd() {
-        lastVoiceTime = System.currentTimeMillis()
+    fun writeAudioData(audioData: ShortArray, offset: Int, length: Int) {
+        samplesConsumed += length
 
-        // 开始检查静音间隔
-        silenceCheckJob?.cancel()
-        silenceCheckJob = CoroutineScope(Dispatchers.IO).launch {
-            delay(silenceGapMs)
+        // 更新预缓冲(始终保留最近的音频)
+        preBuffer.write(audioData, offset, length)
 
-            // 10秒后仍无人声,停止录音
-            debugLogger?.i(TAG, "⏱️ 静音超过10秒，准备停止录音")
-            stopRecording()
+        if (fileWriter == null) return
+
+        samplesSinceCheckpoint += length
+        if (samplesSinceCheckpoint >= CHECKPOINT_INTERVAL_SAMPLES && !flushDeferred) {
+            saveCheckpoint()
         }
 
-        Log.d(TAG, "Voice ended, silence check started")
-        debugLogger?.d(TAG, "人声结束，启动10秒静音检查")
+        when (state) {
+            State.IDLE, State.ACTIVE -> writeChunked(audioData, offset, length)
+            State.GAP -> {
+                writeChunked(audioData, offset, length)
+                stateSamplesRemaining -= length
+                if (stateSamplesRemaining <= 0) {
+                    // 静音间隔已满, 超出部分计入后缓冲
+                    debugLogger?.i(TAG, "⏱️ 静音超过10秒，准备停止录音")
+                    Log.d(TAG, "Stopping recording...")
+                    debugLogger?.i(TAG, "⏹️ 停止录音，录制后缓冲3秒...")
+                    state = State.POST_ROLL
+                    stateSamplesRemaining += postBufferSamples
+                    if (stateSamplesRemaining <= 0) {
+                        finishRecording()
+                    }
+                }
+            }
+            State.POST_ROLL -> {
+                // 只写到后缓冲结束的精确位置
+                val count = minOf(length.toLong(), stateSamplesRemaining).toInt()
+                writeChunked(audioData, offset, count)
+                stateSamplesRemaining -= count
+                if (stateSamplesRemaining <= 0) {
+                    finishRecording()
+                }
+            }
+        }
     }
 
     /**
-     * 停止录音
-     * 继续录制后缓冲,然后关闭文件
+     * 人声结束
+     * 开始按样本数计算静音间隔
      */
-    private fun stopRecording() {
-        val file = currentFile ?: return
-        val writer = wavWriter ?: return
-
-        Log.d(TAG, "Stopping recording...")
-        debugLogger?.i(TAG, "⏹️ 停止录音，录制后缓冲3秒...")
-
-        // 继续录制后缓冲(3秒)
-        postBufferJob?.cancel()
-        postBufferJob = CoroutineScope(Dispatchers.IO).launch {
-            delay(postBufferMs)
+    fun onVoiceEnd() {
+        if (fileWriter == null || state != State.ACTIVE) return
 
-            // 停止写入
-            writer.stop()
-            wavWriter = null
+        state = State.GAP
+        stateSamplesRemaining = silenceGapSamples
+        lastVoiceSample = fileWriter?.getSampleCount() ?: 0L
 
-            val duration = calculateDuration(file)
-            val sizeKB = file.length() / 1024
-            Log.d(TAG, "Recording completed: ${file.name}, size: ${file.length()} bytes, duration: ${duration}s")
-            debugLogger?.i(TAG, "✨ 录音完成: ${file.name}")
-            debugLogger?.d(TAG, "  时长: ${duration}秒, 大小: ${sizeKB}KB")
+        Log.d(TAG, "Voice ended at sample $samplesConsumed, silence check started")
+        debugLogger?.d(TAG, "人声结束，启动10秒静音检查")
+        publishSpan(voiceEnded = true)
 
-            // 通知录音完成
-            onRecordingComplete(file)
+        // 分块接近最大时长, 在停顿开始处切分
+        val chunkSamples = fileWriter?.getSampleCount() ?: 0L
+        if (chunkSamples >= softCutSamples) {
+            rollOverChunk()
+        } else {
+            saveCheckpoint()
+        }
+    }
 
+    /**
+     * 结束录音
+     * 关闭最后一个分块并通知回调
+     */
+    private fun finishRecording() {
+        if (fileWriter == null) return
+
+        if (chunkIndex > 0 && !chunkHasVoice) {
+            // 在停顿处切出的分块之后没有再出现人声, 只有静音和后缓冲
+            fileWriter?.stop()
+            currentFile?.let {
+                Log.d(TAG, "Dropping silent trailing chunk: ${it.name}")
+                it.delete()
+                if (publishSpans) spanListener?.onChunkDiscarded(it)
+            }
+            fileWriter = null
             currentFile = null
+        } else {
+            closeChunk()
         }
+
+        state = State.IDLE
+        sessionId = null
+        chunkIndex = 0
+        checkpointStore?.clear()
+    }
+
+    /**
+     * 关闭当前分块并通知回调
+     */
+    private fun closeChunk() {
+        val file = currentFile ?: return
+        val writer = fileWriter ?: return
+
+        // 在人声中间切换分块时, 已有的部分先发布
+        if (state == State.ACTIVE) publishSpan(voiceEnded = false)
+        publishSpans = false
+
+        // 停止写入
+        writer.stop()
+        val sampleCount = writer.getSampleCount()
+        val contentHash = writer.getContentHash()
+        val duration = (sampleCount / sampleRate).toInt()
+        fileWriter = null
+        currentFile = null
+
+        val sizeKB = file.length() / 1024
+        Log.d(TAG, "Recording completed: ${file.name}, size: ${file.length()} bytes, duration: ${duration}s")
+        debugLogger?.i(TAG, "✨ 录音完成: ${file.name}")
+        debugLogger?.d(TAG, "  时长: ${duration}秒, 大小: ${sizeKB}KB, 分块: $chunkIndex")
+
+        // 通知录音完成
+        onRecordingComplete(
+            CompletedRecording(
+                file, sampleCount, sampleRate, sessionId ?: file.nameWithoutExtension, chunkIndex, contentHash
+            )
+        )
     }
 
     /**
@@ -142,38 +356,223 @@ class RecordingSession(
      * 不等待后缓冲,立即关闭
      */
     fun forceStop() {
-        silenceCheckJob?.cancel()
-        postBufferJob?.cancel()
-
-        wavWriter?.stop()
-        wavWriter = null
+        fileWriter?.stop()
+        fileWriter = null
+        state = State.IDLE
 
         currentFile?.let {
             Log.d(TAG, "Force stopped: ${it.name}")
+            if (publishSpans) spanListener?.onChunkDiscarded(it)
         }
+        publishSpans = false
+        spanLength = 0
         currentFile = null
+        sessionId = null
+        chunkIndex = 0
+        checkpointStore?.clear()
     }
 
     /**
-     * 计算录音时长(秒)
+     * 保存检查点
      */
-    private fun calculateDuration(file: File): Int {
-        // WAV文件大小 = 44字节头 + 数据
-        // 数据大小 = 采样率 * 声道数 * 位深度/8 * 时长
-        // 时长 = (文件大小 - 44) / (16000 * 1 * 2)
-        val dataSize = file.length() - 44
-        return (dataSize / (16000 * 2)).toInt()
+    private fun saveCheckpoint() {
+        val store = checkpointStore ?: return
+        val writer = fileWriter ?: return
+        val file = currentFile ?: return
+        val sampleCount = writer.getSampleCount()
+        store.save(
+            SessionCheckpoint(
+                filePath = file.absolutePath,
+                sessionId = sessionId ?: file.nameWithoutExtension,
+                chunkIndex = chunkIndex,
+                chunkHasVoice = chunkHasVoice,
+                sampleCount = sampleCount,
+                lastVoiceSample = if (state == State.ACTIVE) sampleCount else lastVoiceSample,
+                state = state,
+                stateSamplesRemaining = stateSamplesRemaining,
+                savedAt = System.currentTimeMillis()
+            )
+        )
+        samplesSinceCheckpoint = 0
+    }
+
+    /**
+     * 从检查点恢复(服务被系统杀死后重启), 应在写入任何音频之前调用
+     * - 到现在为止的静音不足silenceGapMs: 修复文件头后重新打开同一个文件继续追加, 进入GAP状态,
+     *   静音计时扣除已经过的部分; 重启期间的音频无法恢复, 新数据直接接在文件末尾
+     * - 否则(或格式不支持追加): 修复文件头(WAV)或元数据(FLAC)后留在pending/, 没有人声的尾部分块直接删除
+     *
+     * @return 继续录音的文件, 没有检查点或未续录时返回null
+     */
+    fun restore(): File? {
+        val store = checkpointStore ?: return null
+        val checkpoint = store.load() ?: return null
+        if (fileWriter != null) return null
+        store.clear()
+
+        val file = File(checkpoint.filePath)
+        if (!file.exists()) {
+            Log.w(TAG, "Checkpoint file missing: ${file.name}")
+            return null
+        }
+
+        val silenceMs = checkpoint.getSilenceMs(System.currentTimeMillis(), sampleRate)
+        val silenceSamples = silenceMs * sampleRate / 1000
+        if (silenceSamples < silenceGapSamples && file.name.endsWith(".${format.extension}")) {
+            val writer = format.createWriter(file)
+            if (writer.resume()) {
+                writer.setFlushDeferred(flushDeferred)
+                fileWriter = writer
+                currentFile = file
+                sessionId = checkpoint.sessionId
+                chunkIndex = checkpoint.chunkIndex
+                chunkHasVoice = checkpoint.chunkHasVoice
+                state = State.GAP
+                stateSamplesRemaining = silenceGapSamples - silenceSamples
+                lastVoiceSample = writer.getSampleCount()
+                publishSpans = false
+                saveCheckpoint()
+
+                Log.d(TAG, "Recording resumed: ${file.name}, silence ${silenceMs}ms, ${writer.getSampleCount()} samples")
+                debugLogger?.i(TAG, "♻️ 服务重启, 继续录音: ${file.name} (已静音${silenceMs / 1000}秒)")
+                return file
+            }
+        }
+
+        // 不续录: 修复文件头, 由启动扫描登记
+        try {
+            when {
+                file.name.endsWith(".flac") -> FlacFileWriter.repair(file)
+                file.name.endsWith(".wav") -> WavFileWriter.repair(file)
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to repair ${file.name}: ${e.message}")
+        }
+        if (checkpoint.chunkIndex > 0 && !checkpoint.chunkHasVoice) {
+            Log.d(TAG, "Dropping silent trailing chunk: ${file.name}")
+            file.delete()
+        }
+        Log.d(TAG, "Checkpoint not resumed: ${file.name}, silence ${silenceMs}ms")
+        debugLogger?.i(TAG, "服务重启, 上次录音已结束: ${file.name}")
+        return null
+    }
+
+    /**
+     * 暂存写入分块的音频
+     * 人声中超过maxSpanSamples时先发布; 静音中只保留最近spanLeadInSamples个样本
+     */
+    private fun appendSpan(data: ShortArray, offset: Int, length: Int) {
+        if (!publishSpans || length <= 0) return
+
+        var pos = offset
+        var remaining = length
+        while (remaining > 0) {
+            if (state == State.ACTIVE && spanLength >= maxSpanSamples) publishSpan(voiceEnded = false)
+            val count = if (state == State.ACTIVE) minOf(remaining, maxSpanSamples - spanLength) else remaining
+            if (spanBuffer.size < spanLength + count) {
+                spanBuffer = spanBuffer.copyOf(maxOf(spanLength + count, spanBuffer.size * 2, sampleRate))
+            }
+            System.arraycopy(data, pos, spanBuffer, spanLength, count)
+            spanLength += count
+            pos += count
+            remaining -= count
+
+            if (state == State.ACTIVE) {
+                if (spanLength >= maxSpanSamples) publishSpan(voiceEnded = false)
+            } else if (spanLength > 2 * spanLeadInSamples) {
+                // 攒到两倍再整理, 每个样本平均只移动一次
+                trimSpan(spanLeadInSamples)
+            }
+        }
+    }
+
+    /**
+     * 只保留最后keep个样本
+     */
+    private fun trimSpan(keep: Int) {
+        if (spanLength <= keep) return
+        val drop = spanLength - keep
+        System.arraycopy(spanBuffer, drop, spanBuffer, 0, keep)
+        spanLength = keep
+        spanStart += drop
+    }
+
+    /**
+     * 发布暂存的人声段
+     */
+    private fun publishSpan(voiceEnded: Boolean) {
+        val listener = spanListener ?: return
+        val file = currentFile ?: return
+        if (!publishSpans || spanLength == 0) return
+
+        listener.onSpan(
+            SpeechSpan(
+                file = file,
+                sessionId = sessionId ?: file.nameWithoutExtension,
+                chunkIndex = chunkIndex,
+                startSample = spanStart,
+                samples = spanBuffer.copyOf(spanLength),
+                sampleRate = sampleRate,
+                voiceEnded = voiceEnded,
+                closedAtNanos = System.nanoTime()
+            )
+        )
+        spanStart += spanLength
+        spanLength = 0
+    }
+
+    /**
+     * 获取当前状态
+     */
+    fun getState(): State = state
+
+    /**
+     * 推迟写盘(处理线程过载时), 对当前和之后的分块生效
+     * 只应在处理线程中调用
+     */
+    fun setFlushDeferred(deferred: Boolean) {
+        if (flushDeferred == deferred) return
+        flushDeferred = deferred
+        fileWriter?.setFlushDeferred(deferred)
     }
 
     /**
      * 检查是否正在录音
      */
-    fun isRecording(): Boolean = wavWriter != null
+    fun isRecording(): Boolean = fileWriter != null
+
+    /**
+     * 正在写入的文件, 未录音时为null
+     */
+    fun getCurrentFile(): File? = currentFile
+}
+
+/**
+ * 已完成的录音(会话的一个分块)
+ * 样本数由写入器统计, 时长不再依赖文件大小推算(FLAC等压缩格式无法推算)
+ *
+ * @param sessionId 所属会话, 同一会话的分块相同
+ * @param chunkIndex 分块在会话中的序号, 从0开始
+ * @param contentHash 写入器计算的内容哈希(PcmContentHash), 写入器不支持或启动扫描找回的录音为null
+ */
+data class CompletedRecording(
+    val file: File,
+    val sampleCount: Long,
+    val sampleRate: Int,
+    val sessionId: String,
+    val chunkIndex: Int = 0,
+    val contentHash: String? = null
+) {
+    /** 时长(毫秒) */
+    fun getDurationMs(): Long = if (sampleRate > 0) sampleCount * 1000 / sampleRate else 0
 }
 
 /**
  * 环形缓冲区
  * 用于保存预缓冲数据
+ *
+ * 每次写入最多两次System.arraycopy, 开销与容量无关, 数十秒的预缓冲同样廉价;
+ * 读出时直接把内部数组的(最多两段)连续区间交给PcmSink, 不分配中间数组
  */
 class RingBuffer(private val capacity: Int) {
     private val buffer = ShortArray(capacity)
@@ -183,39 +582,59 @@ class RingBuffer(private val capacity: Int) {
     /**
      * 写入数据
      */
-    fun write(data: ShortArray) {
-        for (sample in data) {
-            buffer[writePos] = sample
-            writePos = (writePos + 1) % capacity
+    fun write(data: ShortArray, offset: Int = 0, length: Int = data.size - offset) {
+        if (capacity == 0 || length <= 0) return
+
+        if (length >= capacity) {
+            // 数据比缓冲区还长, 只保留最后capacity个样本
+            System.arraycopy(data, offset + length - capacity, buffer, 0, capacity)
+            writePos = 0
+            size = capacity
+            return
+        }
 
-            if (size < capacity) {
-                size++
-            }
+        val firstPart = minOf(length, capacity - writePos)
+        System.arraycopy(data, offset, buffer, writePos, firstPart)
+        val secondPart = length - firstPart
+        if (secondPart > 0) {
+            System.arraycopy(data, offset + firstPart, buffer, 0, secondPart)
         }
+
+        writePos = (writePos + length).let { if (it >= capacity) it - capacity else it }
+        size = minOf(size + length, capacity)
     }
 
     /**
-     * 读取所有数据
-     * 按照时间顺序返回
+     * 按时间顺序把所有数据写入sink并清空缓冲区
      */
-    fun read(): ShortArray {
-        if (size == 0) return ShortArray(0)
-
-        val result = ShortArray(size)
+    fun drainTo(sink: PcmSink) {
+        if (size == 0) return
 
-        // 如果缓冲区未满,从0开始读取
         if (size < capacity) {
-            System.arraycopy(buffer, 0, result, 0, size)
+            // 缓冲区未满, 数据从writePos - size开始(未绕回时即为0)
+            val start = writePos - size
+            if (start >= 0) {
+                sink.write(buffer, start, size)
+            } else {
+                sink.write(buffer, start + capacity, -start)
+                sink.write(buffer, 0, writePos)
+            }
         } else {
-            // 缓冲区已满,从writePos开始读取(最旧的数据)
-            val firstPart = capacity - writePos
-            System.arraycopy(buffer, writePos, result, 0, firstPart)
-            System.arraycopy(buffer, 0, result, firstPart, writePos)
+            // 缓冲区已满, 从writePos开始读取(最旧的数据)
+            sink.write(buffer, writePos, capacity - writePos)
+            if (writePos > 0) {
+                sink.write(buffer, 0, writePos)
+            }
         }
 
-        return result
+        clear()
     }
 
+    /**
+     * 当前缓存的样本数
+     */
+    fun size(): Int = size
+
     /**
      * 清空缓冲区
      */
@@ -0,0 +1,138 @@
+package com.voicelife.assistant.recorder
+
+import android.util.Log
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.CRC32
+
+/**
+ * 录音会话检查点
+ * 记录进行中的分块, 服务被系统杀死重启后据此修复文件并决定是否接着录
+ *
+ * @param sampleCount 保存时分块已接收的样本数(文件中实际写盘的可能更少)
+ * @param lastVoiceSample 分块中最后一次处于人声状态的样本位置
+ * @param state 保存时的会话状态
+ * @param stateSamplesRemaining GAP/POST_ROLL状态剩余样本数
+ * @param savedAt 保存时间(墙钟毫秒), 用于估计重启前后经过的静音
+ */
+data class SessionCheckpoint(
+    val filePath: String,
+    val sessionId: String,
+    val chunkIndex: Int,
+    val chunkHasVoice: Boolean,
+    val sampleCount: Long,
+    val lastVoiceSample: Long,
+    val state: RecordingSession.State,
+    val stateSamplesRemaining: Long,
+    val savedAt: Long
+) {
+    /**
+     * 到now为止的静音时长: 保存时已经过的静音加上保存之后的墙钟时间
+     * 保存之后到进程被杀之间即使有人声也无从得知, 按静音计算(偏向不续录)
+     */
+    fun getSilenceMs(now: Long, sampleRate: Int): Long {
+        val silentSamples = if (state == RecordingSession.State.ACTIVE) 0 else sampleCount - lastVoiceSample
+        return silentSamples * 1000 / sampleRate + (now - savedAt).coerceAtLeast(0)
+    }
+}
+
+/**
+ * 检查点文件
+ * 固定格式的小文件(魔数 + 版本 + 字段 + CRC32), 先写临时文件再重命名, 进程在任何时刻被杀都不会留下半个检查点
+ *
+ * 只由音频处理线程写入; 读取在会话开始前进行
+ */
+class SessionCheckpointStore(private val file: File) {
+    companion object {
+        private const val TAG = "SessionCheckpoint"
+        private const val MAGIC = 0x56434B50  // "VCKP"
+        private const val VERSION = 1
+    }
+
+    private val tempFile = File(file.parentFile, "${file.name}.tmp")
+    private val bytes = ByteArrayOutputStream(256)
+
+    /**
+     * 保存检查点(覆盖之前的)
+     * 失败只记录日志, 不影响录音
+     */
+    fun save(checkpoint: SessionCheckpoint) {
+        try {
+            bytes.reset()
+            DataOutputStream(bytes).apply {
+                writeInt(MAGIC)
+                writeInt(VERSION)
+                writeUTF(checkpoint.filePath)
+                writeUTF(checkpoint.sessionId)
+                writeInt(checkpoint.chunkIndex)
+                writeBoolean(checkpoint.chunkHasVoice)
+                writeLong(checkpoint.sampleCount)
+                writeLong(checkpoint.lastVoiceSample)
+                writeInt(checkpoint.state.ordinal)
+                writeLong(checkpoint.stateSamplesRemaining)
+                writeLong(checkpoint.savedAt)
+                flush()
+            }
+            val crc = CRC32().apply { update(bytes.toByteArray()) }.value
+            DataOutputStream(bytes).apply {
+                writeInt(crc.toInt())
+                flush()
+            }
+
+            file.parentFile?.mkdirs()
+            // 只需防进程被杀(不防断电), 不做fsync, 避免阻塞处理线程
+            FileOutputStream(tempFile).use { bytes.writeTo(it) }
+            if (!tempFile.renameTo(file)) {
+                Log.w(TAG, "Failed to rename checkpoint")
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to save checkpoint", e)
+        }
+    }
+
+    /**
+     * 读取检查点
+     * @return 不存在、已损坏或版本不符时返回null
+     */
+    fun load(): SessionCheckpoint? {
+        if (!file.exists()) return null
+        return try {
+            val data = file.readBytes()
+            if (data.size < 12) return null
+            val crc = CRC32().apply { update(data, 0, data.size - 4) }.value.toInt()
+            val input = DataInputStream(data.inputStream())
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+
+            val checkpoint = SessionCheckpoint(
+                filePath = input.readUTF(),
+                sessionId = input.readUTF(),
+                chunkIndex = input.readInt(),
+                chunkHasVoice = input.readBoolean(),
+                sampleCount = input.readLong(),
+                lastVoiceSample = input.readLong(),
+                state = RecordingSession.State.values()[input.readInt()],
+                stateSamplesRemaining = input.readLong(),
+                savedAt = input.readLong()
+            )
+            if (input.readInt() != crc) {
+                Log.w(TAG, "Checkpoint CRC mismatch, ignored")
+                return null
+            }
+            checkpoint
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to load checkpoint", e)
+            null
+        }
+    }
+
+    /**
+     * 删除检查点(会话正常结束)
+     */
+    fun clear() {
+        file.delete()
+        tempFile.delete()
+    }
+}
@@ -0,0 +1,437 @@
+package com.voicelife.assistant.recorder
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.log10
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 二阶Butterworth高通(RBJ biquad, 转置直接II型)
+ * 去除直流偏置和空调、车流等低频隆隆声; 人声基频通常在85Hz以上
+ */
+class BiquadHighPass(sampleRate: Int, cutoffHz: Float) {
+    private val b0: Float
+    private val b1: Float
+    private val b2: Float
+    private val a1: Float
+    private val a2: Float
+
+    private var z1 = 0f
+    private var z2 = 0f
+
+    init {
+        require(cutoffHz > 0 && cutoffHz < sampleRate / 2) { "Invalid cutoff $cutoffHz Hz for $sampleRate Hz" }
+        val w0 = 2 * PI * cutoffHz / sampleRate
+        val alpha = sin(w0) / (2 * sqrt(0.5))  // Q = 1/√2
+        val cosW0 = cos(w0)
+        val a0 = 1 + alpha
+        b0 = ((1 + cosW0) / 2 / a0).toFloat()
+        b1 = (-(1 + cosW0) / a0).toFloat()
+        b2 = b0
+        a1 = (-2 * cosW0 / a0).toFloat()
+        a2 = ((1 - alpha) / a0).toFloat()
+    }
+
+    /**
+     * 原地滤波[0, length)
+     */
+    fun process(buffer: FloatArray, length: Int) {
+        var s1 = z1
+        var s2 = z2
+        for (i in 0 until length) {
+            val x = buffer[i]
+            val y = b0 * x + s1
+            s1 = b1 * x - a1 * y + s2
+            s2 = b2 * x - a2 * y
+            buffer[i] = y
+        }
+        // 避免静音时状态衰减成非规格化数拖慢运算
+        z1 = if (abs(s1) < 1e-20f) 0f else s1
+        z2 = if (abs(s2) < 1e-20f) 0f else s2
+    }
+
+    fun reset() {
+        z1 = 0f
+        z2 = 0f
+    }
+}
+
+/**
+ * 谱减降噪
+ * 512点FFT, 50%重叠, 分析和合成都用sqrt-Hann窗(重叠相加后完全重构)
+ *
+ * 噪声底按频点跟踪: 功率不超过噪声底6dB的频点做指数平均(约0.3秒),
+ * 更高的频点视为人声, 噪声底只按固定比例缓慢上升(约1.4dB/秒);
+ * 说话期间噪声底基本不动, 突然变大的稳定噪声(空调启动)也能在十几秒内被学到
+ *
+ * 增益 g = max(sqrt(1 - α·N/P), floor), 并与上一帧增益平滑以减轻"音乐噪声"
+ *
+ * 流式处理, 一跳要等下一跳到齐才能重叠相加完成, 输出比输入延迟fftSize(512样本, 32ms)
+ *
+ * @param overSubtraction 过减因子α
+ * @param gainFloorDb 最小增益, 保留少量背景声使残余噪声不那么突兀
+ */
+class SpectralNoiseSuppressor(
+    sampleRate: Int = 16000,
+    private val fftSize: Int = 512,
+    private val overSubtraction: Float = 2.0f,
+    gainFloorDb: Float = -15f
+) {
+    companion object {
+        private const val SPEECH_RATIO = 4f      // 功率超过噪声底4倍(6dB)视为人声, 不参与平均
+        private const val NOISE_SMOOTHING = 0.05f
+        private const val NOISE_RISE = 1.005f   // 人声频点上噪声底每跳只上升0.02dB(约1.4dB/秒)
+        private const val GAIN_SMOOTHING = 0.5f
+        private const val WARMUP_HOPS = 10      // 前160ms直接平均作为初始噪声底
+        private const val MIN_POWER = 1e-10f
+        private const val SPEECH_BAND_LOW_HZ = 300
+        private const val SPEECH_BAND_HIGH_HZ = 4000
+        private const val SPEECH_PRESENCE_THRESHOLD = 0.2f
+    }
+
+    private val hop = fftSize / 2
+    private val fft = RealFft(fftSize)
+    private val gainFloor = 10f.pow(gainFloorDb / 20)
+
+    private val window = FloatArray(fftSize) { sqrt(0.5f - 0.5f * cos(2 * PI * it / fftSize).toFloat()) }
+
+    // 最近fftSize个输入样本, 前半为上一跳
+    private val analysis = FloatArray(fftSize)
+    private val windowed = FloatArray(fftSize)
+    private val re = FloatArray(fftSize / 2 + 1)
+    private val im = FloatArray(fftSize / 2 + 1)
+    private val power = FloatArray(fftSize / 2 + 1)
+    private val noise = FloatArray(fftSize / 2 + 1)
+    private val gain = FloatArray(fftSize / 2 + 1) { 1f }
+    private val synthesis = FloatArray(fftSize)
+
+    // 重叠相加尾部, 以及已完成、待输出的一跳
+    private val overlap = FloatArray(hop)
+    private val ready = FloatArray(hop)
+    private var position = 0
+    private var hops = 0L
+
+    // 300-4000Hz内超过噪声底6dB的频点比例(最近一跳)
+    private val bandLow = SPEECH_BAND_LOW_HZ * fftSize / sampleRate
+    private val bandHigh = min(SPEECH_BAND_HIGH_HZ * fftSize / sampleRate, fftSize / 2)
+    private var speechPresence = 0f
+
+    /**
+     * 原地处理[0, length), 任意长度
+     */
+    fun process(buffer: FloatArray, length: Int) {
+        var offset = 0
+        while (offset < length) {
+            val n = min(hop - position, length - offset)
+            // 取出已完成的输出, 放入新的输入
+            System.arraycopy(buffer, offset, analysis, hop + position, n)
+            System.arraycopy(ready, position, buffer, offset, n)
+            position += n
+            offset += n
+
+            if (position == hop) {
+                processHop()
+                position = 0
+            }
+        }
+    }
+
+    private fun processHop() {
+        for (i in 0 until fftSize) {
+            windowed[i] = analysis[i] * window[i]
+        }
+        fft.forward(windowed, re, im)
+        fft.powerSpectrum(re, im, power)
+
+        val bins = power.size
+        if (hops < WARMUP_HOPS) {
+            val weight = 1f / (hops + 1)
+            for (k in 0 until bins) {
+                noise[k] += (power[k] - noise[k]) * weight
+            }
+        } else {
+            var active = 0
+            for (k in bandLow..bandHigh) {
+                if (power[k] >= SPEECH_RATIO * noise[k]) active++
+            }
+            speechPresence = active.toFloat() / (bandHigh - bandLow + 1)
+
+            for (k in 0 until bins) {
+                noise[k] = if (power[k] < SPEECH_RATIO * noise[k]) {
+                    noise[k] + (power[k] - noise[k]) * NOISE_SMOOTHING
+                } else {
+                    noise[k] * NOISE_RISE
+                }
+            }
+        }
+        hops++
+
+        for (k in 0 until bins) {
+            val ratio = overSubtraction * noise[k] / max(power[k], MIN_POWER)
+            val target = max(sqrt(max(1f - ratio, 0f)), gainFloor)
+            val smoothed = GAIN_SMOOTHING * gain[k] + (1f - GAIN_SMOOTHING) * target
+            // 增益上升不平滑, 避免吞掉语音起始
+            gain[k] = max(smoothed, target)
+            re[k] *= gain[k]
+            im[k] *= gain[k]
+        }
+        fft.inverse(re, im, synthesis)
+
+        for (i in 0 until hop) {
+            ready[i] = overlap[i] + synthesis[i] * window[i]
+            overlap[i] = synthesis[hop + i] * window[hop + i]
+        }
+        System.arraycopy(analysis, hop, analysis, 0, hop)
+    }
+
+    /**
+     * 最近一跳是否可能有人声(语音频带内足够多的频点明显高于噪声底)
+     * 只反映稳态噪声之上的变化, 供自动增益判断是否调整
+     */
+    fun isSpeechLikely(): Boolean = speechPresence >= SPEECH_PRESENCE_THRESHOLD
+
+    /**
+     * 当前噪声底的平均功率(dBFS)
+     */
+    fun getNoiseFloorDb(): Float {
+        if (hops == 0L) return Float.NEGATIVE_INFINITY
+        // sqrt-Hann窗下白噪声每个频点的功率约为 fftSize/2 · σ²
+        val mean = noise.average().toFloat() / (fftSize / 2)
+        return 10 * log10(max(mean, MIN_POWER))
+    }
+
+    fun reset() {
+        analysis.fill(0f)
+        overlap.fill(0f)
+        ready.fill(0f)
+        noise.fill(0f)
+        gain.fill(1f)
+        position = 0
+        hops = 0
+        speechPresence = 0f
+    }
+}
+
+/**
+ * 慢速自动增益
+ * 只在有明显信号(高于门限且比跟踪到的背景电平高6dB)的帧上调整, 不会把静音和稳定噪声放大;
+ * 降噪之后残余噪声起伏较大, 此时由调用方根据降噪器的判断传入speechActive
+ *
+ * - 增益以dB/秒的速率向目标靠近, 上调慢、下调快
+ * - 帧内从旧增益线性过渡到新增益, 避免拉链噪声
+ * - 增益后的峰值超过0.9时立即压低该帧的增益, 不削波
+ *
+ * @param targetDbfs 目标RMS电平
+ * @param maxGainDb 最大增益
+ * @param gateDbfs 低于此电平的帧不调整增益
+ */
+class AutomaticGainControl(
+    private val sampleRate: Int = 16000,
+    private val targetDbfs: Float = -20f,
+    private val maxGainDb: Float = 24f,
+    private val gateDbfs: Float = -55f,
+    private val riseDbPerSecond: Float = 3f,
+    private val fallDbPerSecond: Float = 20f
+) {
+    companion object {
+        private const val PEAK_LIMIT = 0.9f
+        private const val BACKGROUND_FALL = 0.3f
+        private const val BACKGROUND_RISE = 0.01f
+        private const val SPEECH_MARGIN_DB = 6f
+    }
+
+    private var gainDb = 0f
+    private var appliedGain = 1f
+    private var backgroundDb = Float.NaN
+
+    /** 当前增益(dB) */
+    val currentGainDb: Float get() = gainDb
+
+    /**
+     * 原地处理[0, length)
+     * @param speechActive false时只应用当前增益, 不调整
+     */
+    fun process(buffer: FloatArray, length: Int, speechActive: Boolean = true) {
+        if (length == 0) return
+        var energy = 0f
+        var peak = 0f
+        for (i in 0 until length) {
+            val x = buffer[i]
+            energy += x * x
+            val a = abs(x)
+            if (a > peak) peak = a
+        }
+        val levelDb = 10 * log10(max(energy / length, 1e-12f))
+
+        // 背景电平: 快降慢升
+        backgroundDb = when {
+            backgroundDb.isNaN() -> levelDb
+            levelDb < backgroundDb -> backgroundDb + (levelDb - backgroundDb) * BACKGROUND_FALL
+            else -> backgroundDb + (levelDb - backgroundDb) * BACKGROUND_RISE
+        }
+
+        if (speechActive && levelDb > gateDbfs && levelDb > backgroundDb + SPEECH_MARGIN_DB) {
+            val seconds = length.toFloat() / sampleRate
+            val desired = (targetDbfs - levelDb).coerceIn(0f, maxGainDb)
+            gainDb = if (desired > gainDb) {
+                min(desired, gainDb + riseDbPerSecond * seconds)
+            } else {
+                max(desired, gainDb - fallDbPerSecond * seconds)
+            }
+        }
+
+        var target = 10f.pow(gainDb / 20)
+        if (peak * target > PEAK_LIMIT) {
+            target = PEAK_LIMIT / peak
+        }
+
+        val start = appliedGain
+        val step = (target - start) / length
+        for (i in 0 until length) {
+            buffer[i] *= start + step * (i + 1)
+        }
+        appliedGain = target
+    }
+
+    fun reset() {
+        gainDb = 0f
+        appliedGain = 1f
+        backgroundDb = Float.NaN
+    }
+}
+
+/**
+ * 预处理配置
+ * @param highPassHz 高通截止频率, 0为关闭
+ * @param storeProcessed true时录音文件和时光机保存处理后的音频; false时只有VAD看到处理结果, 保存原始音频
+ */
+data class PreprocessConfig(
+    val highPassHz: Float = 80f,
+    val noiseSuppression: Boolean = true,
+    val overSubtraction: Float = 2.0f,
+    val gainFloorDb: Float = -15f,
+    val agc: Boolean = true,
+    val agcTargetDbfs: Float = -20f,
+    val agcMaxGainDb: Float = 24f,
+    val storeProcessed: Boolean = false
+)
+
+/**
+ * 语音预处理阶段: 高通 -> 谱减降噪 -> 自动增益
+ * 放在VAD之前, 减少稳定噪声引起的误触发(每次误触发都会产生一个文件和一次转写)
+ *
+ * 在frame.floats()上原地处理:
+ * - storeProcessed: 写回samples, 下游全部使用处理后的音频
+ * - 否则只修改float缓存, VAD读到处理后的数据, 录音会话和时光机仍写入原始samples
+ *   (QueueStage只复制samples, 此时处理结果不会跨过队列)
+ *
+ * 降噪使输出延迟512样本(32ms), 存储处理后的音频时录音整体后移32ms
+ */
+class SpeechPreprocessStage(private val config: PreprocessConfig = PreprocessConfig()) : AudioStage {
+    override val name = "preprocess"
+
+    private var highPass: BiquadHighPass? = null
+    private var suppressor: SpectralNoiseSuppressor? = null
+    private var agc: AutomaticGainControl? = null
+
+    // 各环节累计耗时, 供基准和调试使用
+    private var frames = 0L
+    private var highPassNanos = 0L
+    private var suppressorNanos = 0L
+    private var agcNanos = 0L
+
+    override fun configure(input: FrameFormat, pool: FramePool): FrameFormat {
+        require(input.sampleRate == 16000) { "Preprocessing expects 16kHz, got ${input.sampleRate}" }
+        highPass = if (config.highPassHz > 0) BiquadHighPass(input.sampleRate, config.highPassHz) else null
+        suppressor = if (config.noiseSuppression) {
+            SpectralNoiseSuppressor(
+                input.sampleRate,
+                overSubtraction = config.overSubtraction,
+                gainFloorDb = config.gainFloorDb
+            )
+        } else {
+            null
+        }
+        agc = if (config.agc) {
+            AutomaticGainControl(input.sampleRate, config.agcTargetDbfs, config.agcMaxGainDb)
+        } else {
+            null
+        }
+        return input
+    }
+
+    override fun process(frame: AudioFrame, output: FrameSink) {
+        val buffer = frame.floats()
+        val length = frame.length
+
+        var t0 = System.nanoTime()
+        highPass?.process(buffer, length)
+        var t1 = System.nanoTime()
+        highPassNanos += t1 - t0
+
+        t0 = t1
+        suppressor?.process(buffer, length)
+        t1 = System.nanoTime()
+        suppressorNanos += t1 - t0
+
+        t0 = t1
+        agc?.process(buffer, length, suppressor?.isSpeechLikely() ?: true)
+        agcNanos += System.nanoTime() - t0
+        frames++
+
+        if (config.storeProcessed) {
+            frame.commitFloats()
+        }
+        output.emit(frame)
+    }
+
+    override fun reset() {
+        highPass?.reset()
+        suppressor?.reset()
+        agc?.reset()
+    }
+
+    /**
+     * 获取统计
+     */
+    fun getStats(): PreprocessStats = PreprocessStats(
+        frames = frames,
+        highPassNanos = highPassNanos,
+        suppressorNanos = suppressorNanos,
+        agcNanos = agcNanos,
+        noiseFloorDb = suppressor?.getNoiseFloorDb() ?: Float.NaN,
+        agcGainDb = agc?.currentGainDb ?: 0f
+    )
+}
+
+/**
+ * 预处理统计
+ * @param noiseFloorDb 降噪器跟踪到的平均噪声底(dBFS)
+ */
+data class PreprocessStats(
+    val frames: Long,
+    val highPassNanos: Long,
+    val suppressorNanos: Long,
+    val agcNanos: Long,
+    val noiseFloorDb: Float,
+    val agcGainDb: Float
+) {
+    private fun perFrame(nanos: Long): Double = if (frames > 0) nanos / 1000.0 / frames else 0.0
+
+    fun getHighPassMicrosPerFrame(): Double = perFrame(highPassNanos)
+    fun getSuppressorMicrosPerFrame(): Double = perFrame(suppressorNanos)
+    fun getAgcMicrosPerFrame(): Double = perFrame(agcNanos)
+    fun getTotalMicrosPerFrame(): Double = perFrame(highPassNanos + suppressorNanos + agcNanos)
+
+    override fun toString(): String =
+        "预处理: ${String.format("%.1f", getTotalMicrosPerFrame())}µs/帧 " +
+                "(高通 ${String.format("%.1f", getHighPassMicrosPerFrame())}, " +
+                "降噪 ${String.format("%.1f", getSuppressorMicrosPerFrame())}, " +
+                "AGC ${String.format("%.1f", getAgcMicrosPerFrame())}), " +
+                "噪声底 ${String.format("%.1f", noiseFloorDb)}dBFS, 增益 ${String.format("%.1f", agcGainDb)}dB"
+}
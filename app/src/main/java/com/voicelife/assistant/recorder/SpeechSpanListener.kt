@@ -0,0 +1,53 @@
+package com.voicelife.assistant.recorder
+
+import java.io.File
+
+/**
+ * 录音会话的人声段监听器(用于流式转写)
+ * 由RecordingSession在音频处理线程中调用, 实现不能阻塞, 应把工作交给其他线程
+ *
+ * 一个分块的事件顺序: onChunkStarted -> onSpan* -> (onRecordingComplete回调 | onChunkDiscarded)
+ * 服务重启后续录的分块没有onChunkStarted, 也不发布人声段(之前的音频已无法流式处理)
+ */
+interface SpeechSpanListener {
+    /**
+     * 开始一个新分块
+     */
+    fun onChunkStarted(file: File, sessionId: String, chunkIndex: Int)
+
+    /**
+     * 一段人声结束(VAD onVoiceEnd), 或持续说话达到最大长度、分块切换时发布
+     */
+    fun onSpan(span: SpeechSpan)
+
+    /**
+     * 分块被丢弃(没有人声的尾部分块、强制停止), 不会有onRecordingComplete
+     */
+    fun onChunkDiscarded(file: File)
+}
+
+/**
+ * 一段已结束的人声
+ * 包含人声开始前的预缓冲, 相邻人声段之间的静音不包含在内
+ *
+ * @param startSample 在分块文件中的起始样本偏移
+ * @param samples 样本(已复制, 接收方可以持有)
+ * @param voiceEnded true表示人声已结束; false表示在人声中间切开(达到最大长度或分块切换)
+ * @param closedAtNanos 发布时刻(System.nanoTime)
+ */
+class SpeechSpan(
+    val file: File,
+    val sessionId: String,
+    val chunkIndex: Int,
+    val startSample: Long,
+    val samples: ShortArray,
+    val sampleRate: Int,
+    val voiceEnded: Boolean,
+    val closedAtNanos: Long
+) {
+    /** 结束位置(不含) */
+    val endSample: Long get() = startSample + samples.size
+
+    /** 起始时间(毫秒, 相对分块) */
+    fun getStartMs(): Long = startSample * 1000 / sampleRate
+}
@@ -0,0 +1,162 @@
+package com.voicelife.assistant.recorder
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 单生产者/单消费者无锁帧队列
+ * 上游线程写入, 下游线程读取, 所有帧在创建时预分配并循环复用
+ *
+ * 使用方式:
+ * - 生产者: acquire() 取得空闲帧 -> 填充数据和length -> publish()
+ * - 消费者: poll() 取得待处理帧 -> 处理 -> release()
+ *
+ * 队列满时的行为由policy决定:
+ * - DROP_NEWEST: acquire()返回null并计数, 由生产者丢弃该帧, 采集线程永远不会被阻塞
+ * - BLOCK: acquire()等待消费者腾出空位, 队列关闭后返回null
+ */
+class SpscFrameQueue(
+    capacity: Int,
+    val frameSize: Int,
+    val policy: OverflowPolicy = OverflowPolicy.DROP_NEWEST
+) {
+    companion object {
+        private const val PRODUCER_WAIT_NANOS = 10_000_000L  // 10ms
+    }
+
+    // 容量取2的幂, 用位与代替取模
+    private val slotCount = Integer.highestOneBit((capacity - 1).coerceAtLeast(1)) shl 1
+    private val mask = slotCount - 1
+    private val frames = Array(slotCount) { AudioFrame(frameSize) }
+
+    // head: 下一个待读取的位置(消费者写), tail: 下一个待写入的位置(生产者写)
+    private val head = AtomicLong(0)
+    private val tail = AtomicLong(0)
+
+    @Volatile
+    private var consumerThread: Thread? = null
+    @Volatile
+    private var producerThread: Thread? = null
+    @Volatile
+    private var closed = false
+
+    // 统计(只由生产者写入)
+    @Volatile
+    private var highWatermark = 0
+    @Volatile
+    private var droppedFrames = 0L
+
+    /** 队列容量(帧) */
+    val capacity: Int get() = slotCount
+
+    /**
+     * 生产者: 获取下一个空闲帧
+     * @return 空闲帧, 队列已满(DROP_NEWEST)或已关闭(BLOCK)时返回null
+     */
+    fun acquire(): AudioFrame? {
+        val t = tail.get()
+        if (t - head.get() >= slotCount) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                droppedFrames++
+                return null
+            }
+
+            producerThread = Thread.currentThread()
+            while (t - head.get() >= slotCount) {
+                if (closed) return null
+                LockSupport.parkNanos(this, PRODUCER_WAIT_NANOS)
+            }
+        }
+        return frames[(t and mask.toLong()).toInt()]
+    }
+
+    /**
+     * 生产者: 发布acquire()取得的帧
+     */
+    fun publish() {
+        val t = tail.get()
+        tail.lazySet(t + 1)
+
+        val depth = (t + 1 - head.get()).toInt()
+        if (depth > highWatermark) {
+            highWatermark = depth
+        }
+        consumerThread?.let { LockSupport.unpark(it) }
+    }
+
+    /**
+     * 消费者: 获取下一个待处理帧
+     * @return 待处理帧, 队列为空时返回null
+     */
+    fun poll(): AudioFrame? {
+        val h = head.get()
+        if (h >= tail.get()) {
+            return null
+        }
+        return frames[(h and mask.toLong()).toInt()]
+    }
+
+    /**
+     * 消费者: 归还poll()取得的帧
+     */
+    fun release() {
+        head.lazySet(head.get() + 1)
+        producerThread?.let { LockSupport.unpark(it) }
+    }
+
+    /**
+     * 消费者: 队列为空时等待新帧
+     * @param timeoutNanos 最长等待时间
+     */
+    fun awaitFrame(timeoutNanos: Long) {
+        consumerThread = Thread.currentThread()
+        if (head.get() >= tail.get()) {
+            LockSupport.parkNanos(this, timeoutNanos)
+        }
+    }
+
+    /**
+     * 消费者已退出, 唤醒等待中的生产者
+     */
+    fun close() {
+        closed = true
+        producerThread?.let { LockSupport.unpark(it) }
+    }
+
+    /**
+     * 当前队列深度(帧)
+     */
+    fun size(): Int = (tail.get() - head.get()).toInt()
+
+    /**
+     * 历史最大队列深度(帧)
+     */
+    fun getHighWatermark(): Int = highWatermark
+
+    /**
+     * 因队列已满丢弃的帧数
+     */
+    fun getDroppedFrames(): Long = droppedFrames
+
+    /**
+     * 清空队列(仅在生产者和消费者都已停止时调用)
+     */
+    fun clear() {
+        head.set(0)
+        tail.set(0)
+        highWatermark = 0
+        droppedFrames = 0
+        closed = false
+    }
+}
+
+/**
+ * 帧队列满时的策略
+ */
+enum class OverflowPolicy {
+    /** 丢弃新帧, 生产者不阻塞(实时采集) */
+    DROP_NEWEST,
+
+    /** 生产者等待空位(离线文件等可以等待的来源) */
+    BLOCK
+}
@@ -0,0 +1,210 @@
+package com.voicelife.assistant.recorder
+
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * WAV文件读取器
+ * 按帧流式读取WAV文件, 读取过程中复用缓冲区
+ *
+ * 支持的编码:
+ * - PCM(AudioFormat = 1)、16bit位深; 多声道时只取第一个声道
+ * - IMA ADPCM(AudioFormat = 0x0011)、单声道, 样本数以fact块为准
+ */
+class WavFileReader(private val inputFile: File) : AudioFileReader {
+    private val input = DataInputStream(BufferedInputStream(FileInputStream(inputFile), 64 * 1024))
+    private var byteBuffer = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN)
+    private var remainingBytes = 0L
+    private var bytesConsumed = 0L  // 已解析的头部字节数
+
+    // IMA ADPCM
+    private var adpcm = false
+    private var blockAlign = 0
+    private var factSamples = 0L
+    private var remainingSamples = 0L
+    private var adpcmBlock = ByteArray(0)
+    private var decodedBlock = ShortArray(0)
+    private var decodedPosition = 0
+    private var decodedCount = 0
+
+    /** 采样率 */
+    override var sampleRate = 0
+        private set
+
+    /** 声道数 */
+    override var channels = 0
+        private set
+
+    /** data块中的样本总数(单声道样本) */
+    override var totalSamples = 0L
+        private set
+
+    /** 是否为无损的16bit PCM */
+    val isPcm: Boolean get() = !adpcm
+
+    /** data块数据在文件中的字节偏移(PCM时可直接内存映射读取) */
+    var dataOffset = 0L
+        private set
+
+    init {
+        try {
+            readHeader()
+        } catch (e: Exception) {
+            input.close()
+            throw e
+        }
+    }
+
+    /**
+     * 解析RIFF头, 定位到data块
+     */
+    private fun readHeader() {
+        val riff = readTag()
+        skipFully(4)
+        val wave = readTag()
+        if (riff != "RIFF" || wave != "WAVE") {
+            throw IOException("Not a WAV file: ${inputFile.name}")
+        }
+
+        while (true) {
+            val chunkId = readTag()
+            val chunkSize = readIntLe().toLong() and 0xFFFFFFFFL
+
+            when (chunkId) {
+                "fmt " -> {
+                    val format = readShortLe()
+                    channels = readShortLe()
+                    sampleRate = readIntLe()
+                    skipFully(4)  // ByteRate
+                    blockAlign = readShortLe()
+                    val bitsPerSample = readShortLe()
+                    when {
+                        format == 1 && bitsPerSample == 16 -> skipFully(chunkSize - 16)
+                        format == ImaAdpcm.FORMAT_TAG && bitsPerSample == ImaAdpcm.BITS_PER_SAMPLE &&
+                                channels == 1 && blockAlign > ImaAdpcm.BLOCK_HEADER_SIZE -> {
+                            adpcm = true
+                            skipFully(chunkSize - 16)
+                        }
+                        else -> throw IOException("Unsupported WAV format: $format, $bitsPerSample bit")
+                    }
+                }
+                "fact" -> {
+                    factSamples = readIntLe().toLong() and 0xFFFFFFFFL
+                    skipFully(chunkSize - 4 + (chunkSize and 1))
+                }
+                "data" -> {
+                    if (channels == 0) throw IOException("Missing fmt chunk: ${inputFile.name}")
+                    dataOffset = bytesConsumed
+                    // 未正确结束的文件data大小可能为0, 按实际文件长度推算
+                    val available = inputFile.length() - bytesConsumed
+                    remainingBytes = if (chunkSize in 1..available) chunkSize else available
+                    if (adpcm) {
+                        val samplesPerBlock = ImaAdpcm.samplesPerBlock(blockAlign)
+                        val blockSamples = remainingBytes / blockAlign * samplesPerBlock
+                        totalSamples = if (factSamples in 1..blockSamples) factSamples else blockSamples
+                        remainingSamples = totalSamples
+                        adpcmBlock = ByteArray(blockAlign)
+                        decodedBlock = ShortArray(samplesPerBlock)
+                    } else {
+                        totalSamples = remainingBytes / (2 * channels)
+                    }
+                    return
+                }
+                else -> skipFully(chunkSize + (chunkSize and 1))
+            }
+        }
+    }
+
+    /**
+     * 读取一帧样本
+     * @param frame 目标数组
+     * @return 实际读取的样本数, 文件结束时返回0
+     */
+    override fun read(frame: ShortArray, offset: Int, length: Int): Int {
+        if (adpcm) return readAdpcm(frame, offset, length)
+
+        val frameBytes = 2 * channels
+        val samples = minOf(length.toLong(), remainingBytes / frameBytes).toInt()
+        if (samples <= 0) return 0
+
+        val bytes = samples * frameBytes
+        if (byteBuffer.capacity() < bytes) {
+            byteBuffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        }
+        input.readFully(byteBuffer.array(), 0, bytes)
+        remainingBytes -= bytes
+
+        for (i in 0 until samples) {
+            frame[offset + i] = byteBuffer.getShort(i * frameBytes)
+        }
+        return samples
+    }
+
+    /**
+     * 逐块解码IMA ADPCM, 块内剩余的样本留到下次读取
+     */
+    private fun readAdpcm(frame: ShortArray, offset: Int, length: Int): Int {
+        var copied = 0
+        while (copied < length && remainingSamples > 0) {
+            if (decodedPosition == decodedCount) {
+                if (remainingBytes < blockAlign) break
+                input.readFully(adpcmBlock, 0, blockAlign)
+                remainingBytes -= blockAlign
+                decodedCount = ImaAdpcm.decodeBlock(adpcmBlock, blockAlign, decodedBlock)
+                decodedPosition = 0
+            }
+
+            val count = minOf(length - copied, decodedCount - decodedPosition, remainingSamples.toInt().coerceAtLeast(0))
+            System.arraycopy(decodedBlock, decodedPosition, frame, offset + copied, count)
+            decodedPosition += count
+            copied += count
+            remainingSamples -= count
+        }
+        return copied
+    }
+
+    override fun close() {
+        input.close()
+    }
+
+    private fun readTag(): String {
+        val bytes = ByteArray(4)
+        input.readFully(bytes)
+        bytesConsumed += 4
+        return String(bytes, Charsets.US_ASCII)
+    }
+
+    private fun readIntLe(): Int {
+        val b0 = input.read()
+        val b1 = input.read()
+        val b2 = input.read()
+        val b3 = input.read()
+        if (b3 < 0) throw EOFException()
+        bytesConsumed += 4
+        return b0 or (b1 shl 8) or (b2 shl 16) or (b3 shl 24)
+    }
+
+    private fun readShortLe(): Int {
+        val b0 = input.read()
+        val b1 = input.read()
+        if (b1 < 0) throw EOFException()
+        bytesConsumed += 2
+        return b0 or (b1 shl 8)
+    }
+
+    private fun skipFully(count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            val skipped = input.skip(remaining)
+            if (skipped <= 0) throw EOFException()
+            remaining -= skipped
+        }
+        bytesConsumed += count
+    }
+}
@@ -2,10 +2,12 @@ package com.voicelife.assistant.recorder
 
 import android.util.Log
 import java.io.File
-import java.io.FileOutputStream
+import java.io.IOException
 import java.io.RandomAccessFile
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.ShortBuffer
+import java.nio.channels.FileChannel
 
 /**
  * WAV文件写入器
@@ -20,35 +22,158 @@ import java.nio.ByteOrder
  * - 采样率: 16kHz
  * - 声道数: 1 (单声道)
  * - 位深度: 16bit
+ *
+ * 写入策略:
+ * - 样本批量放入一个复用的小端直接缓冲区, 攒满flushIntervalMs的音频才写一次FileChannel
+ * - 每写满headerRefreshIntervalMs的音频就用定位写更新RIFF/data大小,
+ *   进程被杀时最多丢失最后一个刷新间隔, 留下的文件仍可正常播放
+ * - 推迟写盘(setFlushDeferred)时攒满deferredFlushIntervalMs才写, 期间不刷新WAV头
+ * - 进程被杀后可用repair()按文件长度修复WAV头, 或用resume()修复后继续追加
+ * - 写入的同时计算内容哈希(PcmContentHash); resume()时先读回已有的数据重新计算
+ *
+ * @param flushIntervalMs 写盘间隔(按音频时长计)
+ * @param headerRefreshIntervalMs WAV头刷新间隔(按音频时长计)
+ * @param deferredFlushIntervalMs 推迟写盘时的写盘间隔
  */
-class WavFileWriter(private val outputFile: File) {
+class WavFileWriter(
+    private val outputFile: File,
+    flushIntervalMs: Long = 1000L,
+    headerRefreshIntervalMs: Long = 5000L,
+    deferredFlushIntervalMs: Long = 4000L
+) : AudioFileWriter {
     private val sampleRate = 16000
     private val channels = 1
     private val bitsPerSample = 16
 
-    private var fileOutputStream: FileOutputStream? = null
-    private var dataSize = 0L
+    private val bytesPerMs = sampleRate * channels * bitsPerSample / 8 / 1000
+    private val headerRefreshBytes = (headerRefreshIntervalMs * bytesPerMs).coerceAtLeast(1)
+
+    // 复用的写缓冲区: 字节视图用于写盘, short视图用于批量放入样本
+    // 按推迟写盘的间隔分配, 正常时用limit限制在flushIntervalMs
+    private val flushSamples = (flushIntervalMs * bytesPerMs / 2).toInt().coerceAtLeast(512)
+    private val byteBuffer: ByteBuffer = ByteBuffer
+        .allocateDirect(maxOf(flushSamples * 2L, deferredFlushIntervalMs * bytesPerMs).toInt())
+        .order(ByteOrder.LITTLE_ENDIAN)
+    private val shortBuffer: ShortBuffer = byteBuffer.asShortBuffer()
+    private var flushDeferred = false
+    private val headerBuffer: ByteBuffer = ByteBuffer.allocateDirect(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+    private val sizeFieldBuffer: ByteBuffer = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN)
+
+    private var raf: RandomAccessFile? = null
+    private var channel: FileChannel? = null
+    private var dataSize = 0L          // 已接收的数据字节数(含未写盘部分)
+    private var flushedDataSize = 0L   // 已写盘的数据字节数
+    private var headerDataSize = 0L    // WAV头中记录的数据字节数
+
+    private val contentHash = PcmContentHash()
+
+    // 统计
+    private var writeCalls = 0L
 
     companion object {
         private const val TAG = "WavFileWriter"
         private const val WAV_HEADER_SIZE = 44
+        private const val RIFF_SIZE_OFFSET = 4L
+        private const val DATA_SIZE_OFFSET = 40L
+
+        /**
+         * 填充44字节的PCM WAV头(调用方负责flip和写出)
+         * @param dataLength 数据长度(字节)
+         */
+        fun fillHeader(
+            header: ByteBuffer,
+            dataLength: Long,
+            sampleRate: Int = 16000,
+            channels: Int = 1,
+            bitsPerSample: Int = 16
+        ) {
+            header.order(ByteOrder.LITTLE_ENDIAN)
+
+            // RIFF chunk descriptor
+            header.put("RIFF".toByteArray())  // ChunkID
+            header.putInt((36 + dataLength).toInt())  // ChunkSize
+            header.put("WAVE".toByteArray())  // Format
+
+            // fmt sub-chunk
+            header.put("fmt ".toByteArray())  // Subchunk1ID
+            header.putInt(16)  // Subchunk1Size (PCM)
+            header.putShort(1)  // AudioFormat (PCM = 1)
+            header.putShort(channels.toShort())  // NumChannels
+            header.putInt(sampleRate)  // SampleRate
+            header.putInt(sampleRate * channels * bitsPerSample / 8)  // ByteRate
+            header.putShort((channels * bitsPerSample / 8).toShort())  // BlockAlign
+            header.putShort(bitsPerSample.toShort())  // BitsPerSample
+
+            // data sub-chunk
+            header.put("data".toByteArray())  // Subchunk2ID
+            header.putInt(dataLength.toInt())  // Subchunk2Size
+        }
+
+        /**
+         * 修复未正确结束的WAV文件(进程被杀时文件头中的大小落后于实际写入的数据)
+         * 只处理本类写出的44字节头、16kHz单声道16bit PCM文件; 数据大小按文件长度推算,
+         * 末尾不完整的样本截掉
+         *
+         * @return 修复后的样本数
+         * @throws IOException 不是本类写出的WAV文件
+         */
+        fun repair(file: File): Long {
+            RandomAccessFile(file, "rw").use { raf ->
+                val header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                val channel = raf.channel
+                while (header.hasRemaining()) {
+                    if (channel.read(header, header.position().toLong()) < 0) {
+                        throw IOException("WAV header truncated: ${file.name}")
+                    }
+                }
+
+                val expected = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                fillHeader(expected, header.getInt(DATA_SIZE_OFFSET.toInt()).toLong() and 0xFFFFFFFFL)
+                header.putInt(RIFF_SIZE_OFFSET.toInt(), expected.getInt(RIFF_SIZE_OFFSET.toInt()))
+                header.flip()
+                expected.flip()
+                if (header != expected) {
+                    throw IOException("Not a 16kHz mono PCM WAV: ${file.name}")
+                }
+
+                val dataLength = (raf.length() - WAV_HEADER_SIZE) and 1L.inv()
+                if (raf.length() != WAV_HEADER_SIZE + dataLength) {
+                    raf.setLength(WAV_HEADER_SIZE + dataLength)
+                }
+                if (header.getInt(DATA_SIZE_OFFSET.toInt()).toLong() and 0xFFFFFFFFL != dataLength) {
+                    val field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    field.putInt(0, (36 + dataLength).toInt())
+                    channel.write(field, RIFF_SIZE_OFFSET)
+                    field.clear()
+                    field.putInt(0, dataLength.toInt())
+                    channel.write(field, DATA_SIZE_OFFSET)
+                    Log.d(TAG, "Repaired WAV header: ${file.name}, ${dataLength / 2} samples")
+                }
+                return dataLength / 2
+            }
+        }
     }
 
     /**
      * 开始写入
      * 创建文件并写入WAV头(占位)
      */
-    fun start() {
+    override fun start() {
         try {
             // 确保父目录存在
             outputFile.parentFile?.mkdirs()
 
-            fileOutputStream = FileOutputStream(outputFile)
+            raf = RandomAccessFile(outputFile, "rw").apply { setLength(0) }
+            channel = raf!!.channel
 
             // 先写入占位的WAV头(稍后更新)
             writeWavHeader(0)
 
             dataSize = 0
+            flushedDataSize = 0
+            headerDataSize = 0
+            contentHash.reset()
+            resetBuffer()
             Log.d(TAG, "Started writing WAV file: ${outputFile.absolutePath}")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to start WAV writer", e)
@@ -56,21 +181,65 @@ class WavFileWriter(private val outputFile: File) {
         }
     }
 
+    /**
+     * 打开已有文件继续追加
+     * 先按文件长度修复WAV头, 之后的写入接在文件末尾
+     */
+    override fun resume(): Boolean {
+        return try {
+            val samples = repair(outputFile)
+            raf = RandomAccessFile(outputFile, "rw")
+            channel = raf!!.channel.apply { position(size()) }
+            hashExistingData(channel!!, samples)
+
+            dataSize = samples * 2
+            flushedDataSize = dataSize
+            headerDataSize = dataSize
+            resetBuffer()
+            Log.d(TAG, "Resumed WAV file: ${outputFile.absolutePath} at $samples samples")
+            true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to resume WAV writer: ${outputFile.name}", e)
+            channel?.close()
+            raf?.close()
+            channel = null
+            raf = null
+            false
+        }
+    }
+
     /**
      * 写入音频数据
      * @param audioData PCM音频样本 (16bit signed)
      */
     fun write(audioData: ShortArray) {
+        write(audioData, 0, audioData.size)
+    }
+
+    /**
+     * 写入音频数据的一段
+     * @param audioData PCM音频样本 (16bit signed)
+     * @param offset 起始下标
+     * @param length 样本数
+     */
+    override fun write(audioData: ShortArray, offset: Int, length: Int) {
+        if (channel == null) return
+
         try {
-            val byteBuffer = ByteBuffer.allocate(audioData.size * 2)
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN)
+            var position = offset
+            var remaining = length
+            while (remaining > 0) {
+                val count = minOf(remaining, shortBuffer.remaining())
+                shortBuffer.put(audioData, position, count)
+                position += count
+                remaining -= count
 
-            for (sample in audioData) {
-                byteBuffer.putShort(sample)
+                if (!shortBuffer.hasRemaining()) {
+                    flush()
+                }
             }
-
-            fileOutputStream?.write(byteBuffer.array())
-            dataSize += audioData.size * 2L
+            contentHash.write(audioData, offset, length)
+            dataSize += length * 2L
 
         } catch (e: Exception) {
             Log.e(TAG, "Failed to write audio data", e)
@@ -78,19 +247,89 @@ class WavFileWriter(private val outputFile: File) {
         }
     }
 
+    /**
+     * 将缓冲区中的数据写入文件
+     * 达到头刷新间隔时同时更新WAV头
+     */
+    fun flush() {
+        val fileChannel = channel ?: return
+        val samples = shortBuffer.position()
+        if (samples > 0) {
+            byteBuffer.limit(samples * 2)
+            byteBuffer.position(0)
+            while (byteBuffer.hasRemaining()) {
+                fileChannel.write(byteBuffer)
+            }
+            writeCalls++
+            flushedDataSize += samples * 2L
+            resetBuffer()
+        }
+
+        if (!flushDeferred && flushedDataSize - headerDataSize >= headerRefreshBytes) {
+            updateWavHeader()
+        }
+    }
+
+    override fun setFlushDeferred(deferred: Boolean) {
+        if (flushDeferred == deferred) return
+        flushDeferred = deferred
+        when {
+            deferred -> shortBuffer.limit(shortBuffer.capacity())
+            shortBuffer.position() >= flushSamples -> flush()
+            else -> shortBuffer.limit(flushSamples)
+        }
+    }
+
+    /**
+     * 读回已有的样本计算内容哈希(继续追加之前)
+     */
+    private fun hashExistingData(fileChannel: FileChannel, samples: Long) {
+        contentHash.reset()
+        val scratch = ShortArray(4096)
+        val bytes = ByteBuffer.allocate(scratch.size * 2).order(ByteOrder.LITTLE_ENDIAN)
+        var position = WAV_HEADER_SIZE.toLong()
+        val end = position + samples * 2
+        while (position < end) {
+            bytes.clear()
+            bytes.limit(minOf(bytes.capacity().toLong(), end - position).toInt())
+            while (bytes.hasRemaining()) {
+                if (fileChannel.read(bytes, position + bytes.position()) < 0) {
+                    throw IOException("Unexpected end of ${outputFile.name}")
+                }
+            }
+            bytes.flip()
+            val count = bytes.remaining() / 2
+            bytes.asShortBuffer().get(scratch, 0, count)
+            contentHash.write(scratch, 0, count)
+            position += count * 2L
+        }
+    }
+
+    private fun resetBuffer() {
+        byteBuffer.clear()
+        shortBuffer.clear()
+        if (!flushDeferred) {
+            shortBuffer.limit(flushSamples)
+        }
+    }
+
     /**
      * 停止写入
      * 更新WAV头并关闭文件
      */
-    fun stop() {
+    override fun stop() {
         try {
-            fileOutputStream?.close()
-            fileOutputStream = null
+            flush()
 
             // 更新WAV头with正确的文件大小
             updateWavHeader()
 
-            Log.d(TAG, "Stopped writing WAV file: ${outputFile.name}, size: ${outputFile.length()} bytes")
+            channel?.close()
+            raf?.close()
+            channel = null
+            raf = null
+
+            Log.d(TAG, "Stopped writing WAV file: ${outputFile.name}, size: ${outputFile.length()} bytes, writes: $writeCalls")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to stop WAV writer", e)
         }
@@ -101,61 +340,41 @@ class WavFileWriter(private val outputFile: File) {
      * @param dataLength 数据长度(字节)
      */
     private fun writeWavHeader(dataLength: Long) {
-        val header = ByteBuffer.allocate(WAV_HEADER_SIZE)
-        header.order(ByteOrder.LITTLE_ENDIAN)
-
-        // RIFF chunk descriptor
-        header.put("RIFF".toByteArray())  // ChunkID
-        header.putInt((36 + dataLength).toInt())  // ChunkSize
-        header.put("WAVE".toByteArray())  // Format
-
-        // fmt sub-chunk
-        header.put("fmt ".toByteArray())  // Subchunk1ID
-        header.putInt(16)  // Subchunk1Size (PCM)
-        header.putShort(1)  // AudioFormat (PCM = 1)
-        header.putShort(channels.toShort())  // NumChannels
-        header.putInt(sampleRate)  // SampleRate
-        header.putInt(sampleRate * channels * bitsPerSample / 8)  // ByteRate
-        header.putShort((channels * bitsPerSample / 8).toShort())  // BlockAlign
-        header.putShort(bitsPerSample.toShort())  // BitsPerSample
-
-        // data sub-chunk
-        header.put("data".toByteArray())  // Subchunk2ID
-        header.putInt(dataLength.toInt())  // Subchunk2Size
-
-        fileOutputStream?.write(header.array())
+        val header = headerBuffer
+        header.clear()
+        fillHeader(header, dataLength, sampleRate, channels, bitsPerSample)
+        header.flip()
+        channel?.let { fileChannel ->
+            while (header.hasRemaining()) {
+                fileChannel.write(header)
+            }
+        }
     }
 
     /**
      * 更新WAV头
-     * 在文件写入完成后,更新RIFF和data块的大小字段
+     * 用定位写更新RIFF和data块的大小字段, 不影响后续追加写入的位置
      */
     private fun updateWavHeader() {
+        val fileChannel = channel ?: return
         try {
-            RandomAccessFile(outputFile, "rw").use { raf ->
-                // 更新RIFF chunk size (文件大小 - 8)
-                raf.seek(4)
-                raf.write(intToLittleEndian((36 + dataSize).toInt()))
-
-                // 更新data chunk size
-                raf.seek(40)
-                raf.write(intToLittleEndian(dataSize.toInt()))
-            }
+            // 更新RIFF chunk size (文件大小 - 8)
+            writeSizeField(fileChannel, RIFF_SIZE_OFFSET, 36 + flushedDataSize)
+
+            // 更新data chunk size
+            writeSizeField(fileChannel, DATA_SIZE_OFFSET, flushedDataSize)
+
+            headerDataSize = flushedDataSize
         } catch (e: Exception) {
             Log.e(TAG, "Failed to update WAV header", e)
         }
     }
 
-    /**
-     * 将整数转换为小端字节数组
-     */
-    private fun intToLittleEndian(value: Int): ByteArray {
-        return byteArrayOf(
-            (value and 0xFF).toByte(),
-            ((value shr 8) and 0xFF).toByte(),
-            ((value shr 16) and 0xFF).toByte(),
-            ((value shr 24) and 0xFF).toByte()
-        )
+    private fun writeSizeField(fileChannel: FileChannel, position: Long, value: Long) {
+        sizeFieldBuffer.clear()
+        sizeFieldBuffer.putInt(value.toInt())
+        sizeFieldBuffer.flip()
+        fileChannel.write(sizeFieldBuffer, position)
     }
 
     /**
@@ -163,8 +382,20 @@ class WavFileWriter(private val outputFile: File) {
      */
     fun getDataSize(): Long = dataSize
 
+    /**
+     * 获取已接收的样本数
+     */
+    override fun getSampleCount(): Long = dataSize / (bitsPerSample / 8 * channels)
+
+    override fun getContentHash(): String = contentHash.getHex()
+
+    /**
+     * 获取写盘次数(每次对应一次write系统调用)
+     */
+    fun getWriteCalls(): Long = writeCalls
+
     /**
      * 检查是否正在写入
      */
-    fun isWriting(): Boolean = fileOutputStream != null
+    override fun isWriting(): Boolean = channel != null
 }
@@ -1,15 +1,37 @@
 package com.voicelife.assistant.service
 
 import android.app.Service
+import android.content.Context
 import android.content.Intent
+import android.os.BatteryManager
 import android.os.IBinder
+import android.os.PowerManager
 import android.util.Log
 import com.voicelife.assistant.data.repository.RecordingRepository
 import com.voicelife.assistant.recorder.AudioRecorder
+import com.voicelife.assistant.recorder.CompletedRecording
+import com.voicelife.assistant.recorder.PreprocessConfig
+import com.voicelife.assistant.recorder.RecordingFormat
+import com.voicelife.assistant.recorder.SpeechPreprocessStage
+import com.voicelife.assistant.storage.PendingRecordingRecovery
+import com.voicelife.assistant.storage.RecordingArchiver
+import com.voicelife.assistant.storage.RecordingFileStore
 import com.voicelife.assistant.storage.StorageManager
+import com.voicelife.assistant.transcription.AndroidDeviceConditions
+import com.voicelife.assistant.transcription.ChunkedTranscriber
+import com.voicelife.assistant.transcription.OfflineVadSegmentSource
+import com.voicelife.assistant.transcription.StreamingTranscriber
+import com.voicelife.assistant.transcription.TranscriptionCache
+import com.voicelife.assistant.transcription.TranscriptionEngine
+import com.voicelife.assistant.transcription.TranscriptionJobQueue
+import com.voicelife.assistant.transcription.TranscriptionScheduler
+import com.voicelife.assistant.transcription.TranscriptionSchedulerConfig
 import com.voicelife.assistant.utils.NotificationHelper
 import com.voicelife.assistant.utils.ServiceState
 import com.voicelife.assistant.utils.WarningType
+import com.voicelife.assistant.vad.SileroVadEngine
+import com.voicelife.assistant.vad.VadEngineType
+import com.voicelife.assistant.vad.VadPowerProfile
 import dagger.hilt.android.AndroidEntryPoint
 import kotlinx.coroutines.*
 import java.io.File
@@ -25,6 +47,10 @@ import javax.inject.Inject
  * 3. 管理录音文件和数据库
  * 4. 监控存储空间
  * 5. 更新通知状态
+ * 6. 空闲且充电时归档已转写的录音
+ * 7. 启动时修复并登记上次被杀时未结束的录音
+ * 8. 录音入队转写, 满足充电/空闲/电量条件时执行; 内容相同的录音复用缓存的转写结果
+ * 9. 可选的流式转写: 录音进行中逐段转写人声, 录音结束时定稿
  *
  * 保活策略:
  * - 前台服务(最稳定)
@@ -43,10 +69,25 @@ class VoiceMonitorService : Service() {
     @Inject
     lateinit var storageManager: StorageManager
 
+    @Inject
+    lateinit var recordingArchiver: RecordingArchiver
+
+    @Inject
+    lateinit var pendingRecordingRecovery: PendingRecordingRecovery
+
+    @Inject
+    lateinit var transcriptionJobQueue: TranscriptionJobQueue
+
+    @Inject
+    lateinit var transcriptionCache: TranscriptionCache
+
     @Inject
     lateinit var debugLogger: com.voicelife.assistant.utils.DebugLogger
 
     private var audioRecorder: AudioRecorder? = null
+    private var transcriber: ChunkedTranscriber? = null
+    private var transcriptionScheduler: TranscriptionScheduler? = null
+    private var streamingTranscriber: StreamingTranscriber? = null
     private val serviceScope = CoroutineScope(Dispatchers.Default + SupervisorJob())
 
     private var recordingStartTime = 0L
@@ -56,6 +97,23 @@ class VoiceMonitorService : Service() {
         private const val TAG = "VoiceMonitorService"
         private const val ACTION_START = "ACTION_START"
         private const val ACTION_STOP = "ACTION_STOP"
+        private const val CAPTURE_AT_NATIVE_RATE = false  // 以原生采样率采集, 由自己的重采样器降到16kHz
+        private const val SPEECH_PREPROCESSING = false  // VAD之前做高通、降噪和自动增益
+        private const val STORE_PREPROCESSED_AUDIO = false  // 录音文件保存处理后的音频, 否则保存原始音频
+        private val VAD_POWER_PROFILE = VadPowerProfile.BALANCED  // 长时间静音后降低VAD推理频率
+        private const val TIME_MACHINE_HOURS = 0  // 时光机保留小时数, 0为关闭(24小时约占2.7GB)
+        private const val ARCHIVE_CHECK_INTERVAL_MS = 15 * 60 * 1000L  // 15分钟
+        private val ARCHIVE_FORMAT = RecordingFormat.IMA_ADPCM  // 已转写的录音用有损4:1归档
+        private val TRANSCRIPTION_CONFIG = TranscriptionSchedulerConfig()  // 默认只在充电时转写, 一次一个录音
+        private const val TRANSCRIPTION_CHUNK_SECONDS = 30  // 录音按人声段切成不超过30秒的分块并行转写
+        private const val STREAMING_TRANSCRIPTION = false  // 录音进行中逐段转写(不受充电条件限制, 耗电较多)
+
+        /**
+         * 转写引擎工厂(每个并行分块一个引擎实例)
+         * 目前不内置端侧引擎, 为null即关闭转写: 不创建调度器, 录音只保存不入队;
+         * 配置引擎后, 启动扫描会把积压的待转换录音补入队列
+         */
+        private val TRANSCRIPTION_ENGINE_FACTORY: (() -> TranscriptionEngine)? = null
 
         fun startService(intent: Intent): Intent {
             return intent.apply { action = ACTION_START }
@@ -75,11 +133,46 @@ class VoiceMonitorService : Service() {
         storageManager.init()
         debugLogger.d(TAG, "存储管理器初始化完成")
 
+        // 省电模式下使用统计模型VAD, 否则使用Silero
+        val powerManager = getSystemService(Context.POWER_SERVICE) as PowerManager
+        val vadEngineType = if (powerManager.isPowerSaveMode) {
+            VadEngineType.STATISTICAL
+        } else {
+            VadEngineType.SILERO
+        }
+        debugLogger.d(TAG, "VAD引擎: $vadEngineType")
+
+        // 流式转写使用独立的引擎实例, 没有引擎时不启用
+        if (STREAMING_TRANSCRIPTION) {
+            streamingTranscriber = TRANSCRIPTION_ENGINE_FACTORY?.let { engineFactory ->
+                StreamingTranscriber(
+                    engine = engineFactory(),
+                    recordingRepository = recordingRepository,
+                    fileStore = RecordingFileStore(storageManager.getRecordingsDir()),
+                    debugLogger = debugLogger
+                )
+            }
+        }
+
         // 初始化音频录制器
         audioRecorder = AudioRecorder(
             context = applicationContext,
             recordingsDir = storageManager.getRecordingsDir(),
-            debugLogger = debugLogger
+            debugLogger = debugLogger,
+            vadEngineType = vadEngineType,
+            timeMachineHours = TIME_MACHINE_HOURS,
+            preprocessStages = if (SPEECH_PREPROCESSING) {
+                listOf(SpeechPreprocessStage(PreprocessConfig(storeProcessed = STORE_PREPROCESSED_AUDIO)))
+            } else {
+                emptyList()
+            },
+            captureSampleRate = if (CAPTURE_AT_NATIVE_RATE) {
+                AudioRecorder.getNativeSampleRate(applicationContext)
+            } else {
+                16000
+            },
+            vadPowerProfile = VAD_POWER_PROFILE,
+            spanListener = streamingTranscriber
         )
 
         try {
@@ -90,6 +183,28 @@ class VoiceMonitorService : Service() {
             debugLogger.e(TAG, "音频录制器初始化失败: ${e.message}")
             notificationHelper.showWarningNotification(WarningType.PERMISSION_LOST)
         }
+
+        // 没有转写引擎时不创建调度器, 录音也不入队
+        transcriber = TRANSCRIPTION_ENGINE_FACTORY?.let { engineFactory ->
+            ChunkedTranscriber(
+                engineFactory = engineFactory,
+                segmentSource = OfflineVadSegmentSource({ SileroVadEngine(applicationContext) }),
+                maxChunkSeconds = TRANSCRIPTION_CHUNK_SECONDS,
+                workers = (Runtime.getRuntime().availableProcessors() - 1).coerceAtLeast(1)  // 留一个核给实时采集和VAD
+            )
+        }
+        transcriptionScheduler = transcriber?.let {
+            TranscriptionScheduler(
+                queue = transcriptionJobQueue,
+                recordingRepository = recordingRepository,
+                fileStore = RecordingFileStore(storageManager.getRecordingsDir()),
+                transcriber = it,
+                conditions = AndroidDeviceConditions(applicationContext) { audioRecorder?.isSessionActive() == true },
+                config = TRANSCRIPTION_CONFIG,
+                cache = transcriptionCache,
+                debugLogger = debugLogger
+            )
+        }
     }
 
     override fun onStartCommand(intent: Intent?, flags: Int, startId: Int): Int {
@@ -118,22 +233,34 @@ class VoiceMonitorService : Service() {
         }
 
         // 启动前台服务
-        val notification = notificationHelper.createServiceNotification(ServiceState.Idle)
+        val notification = notificationHelper.createServiceNotification(ServiceState.Idle())
         startForeground(notificationHelper.getNotificationId(), notification)
         debugLogger.d(TAG, "前台服务已启动")
 
+        // 流式转写先于录音启动, 不漏掉第一个分块
+        streamingTranscriber?.start(serviceScope)
+
         // 启动音频录制器
-        audioRecorder?.start { file ->
-            onRecordingComplete(file)
+        audioRecorder?.start { recording ->
+            onRecordingComplete(recording)
         }
         debugLogger.i(TAG, "音频录制器已启动，等待人声...")
 
+        // 修复并登记上次被杀时留下的录音(续录中的文件除外)
+        recoverPendingRecordings()
+
+        // 启动转写调度
+        transcriptionScheduler?.start(serviceScope)
+
         // 启动通知更新
         startNotificationUpdater()
 
         // 启动定期检查
         startPeriodicChecks()
 
+        // 启动归档检查
+        startArchivalChecks()
+
         Log.d(TAG, "Monitoring started")
     }
 
@@ -147,6 +274,14 @@ class VoiceMonitorService : Service() {
         // 停止通知更新
         updateNotificationJob?.cancel()
 
+        // 停止转写(放弃执行中任务的租约)
+        transcriptionScheduler?.let { scheduler ->
+            serviceScope.launch { scheduler.stop() }
+        }
+        streamingTranscriber?.let { streaming ->
+            serviceScope.launch { streaming.stop() }
+        }
+
         // 停止服务
         stopForeground(STOP_FOREGROUND_REMOVE)
         stopSelf()
@@ -154,24 +289,64 @@ class VoiceMonitorService : Service() {
         Log.d(TAG, "Monitoring stopped")
     }
 
+    /**
+     * 启动扫描pending/
+     */
+    private fun recoverPendingRecordings() {
+        val activeFile = audioRecorder?.getActiveRecordingFile()
+        serviceScope.launch {
+            try {
+                val result = pendingRecordingRecovery.recover(
+                    File(storageManager.getRecordingsDir(), "pending"),
+                    activeFile
+                )
+                if (result.registered > 0 || result.deleted > 0) {
+                    debugLogger.i(TAG, "启动扫描: 登记${result.registered}个未保存的录音, 删除${result.deleted}个空文件")
+                }
+
+                // 找回的录音(以及入队前被杀、或转写关闭期间保存的录音)补入转写队列
+                transcriptionScheduler?.let { scheduler ->
+                    if (transcriptionJobQueue.enqueueUnscheduled() > 0) {
+                        scheduler.wakeUp()
+                    }
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Pending recording recovery failed", e)
+            }
+        }
+    }
+
     /**
      * 录音完成回调
      */
-    private fun onRecordingComplete(file: File) {
+    private fun onRecordingComplete(recording: CompletedRecording) {
+        val file = recording.file
         serviceScope.launch {
             try {
                 debugLogger.i(TAG, "💾 录音完成，正在保存...")
+                val sizeKB = file.length() / 1024  // 流式转写定稿后文件会移到completed/
                 
-                // 保存到数据库
-                val recordingId = recordingRepository.saveRecording(file)
-                val sizeKB = file.length() / 1024
+                // 流式转写已登记的录音在这里定稿, 否则保存到数据库
+                val streamed = streamingTranscriber?.finish(recording)
+                val recordingId = streamed?.recordingId ?: recordingRepository.saveRecording(
+                    file,
+                    recording.sampleCount,
+                    recording.sampleRate,
+                    recording.sessionId,
+                    recording.chunkIndex,
+                    recording.contentHash
+                )
                 
                 Log.d(TAG, "Recording saved: $recordingId, file: ${file.name}")
                 debugLogger.i(TAG, "✅ 已保存: ${file.name} (${sizeKB}KB)")
                 debugLogger.d(TAG, "录音ID: $recordingId")
 
-                // TODO: Phase 4 - 将录音加入转换队列
-                // transcriptionScheduler.enqueue(recordingId)
+                // 加入转写队列(流式转写已完成的、以及转写关闭时除外)
+                val scheduler = transcriptionScheduler
+                if (scheduler != null && streamed?.transcribed != true) {
+                    transcriptionJobQueue.enqueue(recordingId)
+                    scheduler.wakeUp()
+                }
 
             } catch (e: Exception) {
                 Log.e(TAG, "Failed to save recording", e)
@@ -204,17 +379,16 @@ class VoiceMonitorService : Service() {
      * 获取当前状态
      */
     private suspend fun getCurrentState(): ServiceState {
+        val health = audioRecorder?.getCaptureHealth()
         return if (audioRecorder?.isSessionActive() == true) {
             val duration = ((System.currentTimeMillis() - recordingStartTime) / 1000).toInt()
-            ServiceState.Recording(duration)
+            ServiceState.Recording(duration, health)
         } else {
-            // TODO: Phase 4 - 获取转换队列大小
-            // val queueSize = transcriptionQueue.getPendingCount()
-            val queueSize = recordingRepository.getPendingRecordings().size
+            val queueSize = transcriptionJobQueue.getPendingCount()
             if (queueSize > 0) {
-                ServiceState.Processing(queueSize)
+                ServiceState.Processing(queueSize, health)
             } else {
-                ServiceState.Idle
+                ServiceState.Idle(health)
             }
         }
     }
@@ -238,6 +412,15 @@ class VoiceMonitorService : Service() {
                         val result = storageManager.performCleanup()
                         Log.d(TAG, "Cleanup completed: ${result.deletedFiles} files, ${result.getFreedSpaceMB()}MB freed")
                     }
+
+                    // 转写缓存: 没有新的转写时也按时淘汰
+                    transcriptionCache.evict()
+                    transcriptionCache.getStats().takeIf { it.hits + it.misses > 0 }?.let {
+                        debugLogger.d(TAG, "转写缓存: $it")
+                    }
+
+                    audioRecorder?.getDutyCycleStats()?.let { debugLogger.d(TAG, it.toString()) }
+                    audioRecorder?.getCaptureHealth()?.let { debugLogger.d(TAG, it.toString()) }
                 } catch (e: Exception) {
                     Log.e(TAG, "Periodic check failed", e)
                 }
@@ -245,6 +428,44 @@ class VoiceMonitorService : Service() {
         }
     }
 
+    /**
+     * 启动归档检查
+     * 每15分钟检查一次, 空闲且充电时归档已转写的录音
+     */
+    private fun startArchivalChecks() {
+        serviceScope.launch {
+            while (isActive) {
+                delay(ARCHIVE_CHECK_INTERVAL_MS)
+
+                try {
+                    if (!isIdleAndCharging()) continue
+
+                    val result = recordingArchiver.archiveCompleted(ARCHIVE_FORMAT) { isIdleAndCharging() }
+                    if (result.archivedFiles > 0 || result.failedFiles > 0) {
+                        debugLogger.d(
+                            TAG,
+                            "归档完成: ${result.archivedFiles}个, 失败${result.failedFiles}个, " +
+                                    "节省${result.getSavedSpaceMB()}MB"
+                        )
+                    }
+                } catch (e: Exception) {
+                    Log.e(TAG, "Archival check failed", e)
+                }
+            }
+        }
+    }
+
+    /**
+     * 空闲且充电: 正在充电、没有进行中的录音、屏幕已关闭
+     */
+    private fun isIdleAndCharging(): Boolean {
+        val batteryManager = getSystemService(Context.BATTERY_SERVICE) as BatteryManager
+        val powerManager = getSystemService(Context.POWER_SERVICE) as PowerManager
+        return batteryManager.isCharging &&
+                audioRecorder?.isSessionActive() != true &&
+                !powerManager.isInteractive
+    }
+
     override fun onDestroy() {
         super.onDestroy()
         Log.d(TAG, "Service destroyed")
@@ -255,6 +476,12 @@ class VoiceMonitorService : Service() {
         // 释放音频录制器
         audioRecorder?.release()
         audioRecorder = null
+
+        // 释放转写引擎
+        transcriber?.release()
+        transcriber = null
+        streamingTranscriber?.release()
+        streamingTranscriber = null
     }
 
     override fun onBind(intent: Intent?): IBinder? = null
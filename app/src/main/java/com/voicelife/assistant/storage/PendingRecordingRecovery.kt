@@ -0,0 +1,112 @@
+package com.voicelife.assistant.storage
+
+import android.util.Log
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.recorder.AudioFileReader
+import com.voicelife.assistant.recorder.CompletedRecording
+import com.voicelife.assistant.recorder.FlacFileWriter
+import com.voicelife.assistant.recorder.WavFileWriter
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * 待转换录音的启动扫描
+ * 服务被系统杀死时进行中的录音没有正确结束: WAV头中的大小落后于实际数据, 也没有登记到数据库
+ *
+ * 扫描pending/中的录音文件(跳过正在写入的文件):
+ * 1. PCM WAV按文件长度修复文件头, FLAC逐帧解码后修复元数据(一致的文件不改动)
+ * 2. 数据库中没有记录的文件按文件名解析会话和分块序号, 一次批量插入
+ * 3. 没有任何样本的文件(只有文件头)直接删除
+ *
+ * FLAC元数据中的总样本数每5秒才刷新一次, 为0只表示未知, 样本数以解码结果为准
+ */
+@Singleton
+class PendingRecordingRecovery @Inject constructor(
+    private val recordingRepository: RecordingRepository
+) {
+    companion object {
+        private const val TAG = "PendingRecovery"
+        private val CHUNK_SUFFIX = Regex("^(.+)_(\\d+)$")
+    }
+
+    /**
+     * 执行扫描
+     * @param pendingDir pending目录
+     * @param activeFile 正在写入的文件(含刚恢复续录的), 不处理
+     */
+    suspend fun recover(pendingDir: File, activeFile: File?): RecoveryResult = withContext(Dispatchers.IO) {
+        val files = pendingDir.listFiles { file ->
+            file.isFile && (file.name.endsWith(".wav") || file.name.endsWith(".flac")) && file != activeFile
+        } ?: return@withContext RecoveryResult(0, 0)
+
+        val registered = recordingRepository.getRegisteredPaths(files.map { it.absolutePath })
+        var deleted = 0
+        val missing = ArrayList<CompletedRecording>()
+
+        for (file in files.sortedBy { it.name }) {
+            try {
+                val sampleCount = readSampleCount(file)
+                if (file.absolutePath in registered) continue
+
+                if (sampleCount == 0L) {
+                    file.delete()
+                    deleted++
+                    continue
+                }
+                missing.add(toRecording(file, sampleCount))
+            } catch (e: Exception) {
+                Log.w(TAG, "Skipping unreadable recording ${file.name}: ${e.message}")
+            }
+        }
+
+        recordingRepository.saveRecoveredRecordings(missing)
+        if (missing.isNotEmpty() || deleted > 0) {
+            Log.d(TAG, "Recovered ${missing.size} recordings, deleted $deleted empty files")
+        }
+        RecoveryResult(missing.size, deleted)
+    }
+
+    /**
+     * 读取样本数, 先修复文件头
+     */
+    private fun readSampleCount(file: File): Long {
+        if (file.name.endsWith(".flac")) {
+            return FlacFileWriter.repair(file)
+        }
+        return try {
+            WavFileWriter.repair(file)
+        } catch (e: IOException) {
+            // 不是本应用写出的PCM WAV(IMA ADPCM), 以文件头为准
+            AudioFileReader.open(file).use { it.totalSamples }
+        }
+    }
+
+    /**
+     * 按文件名还原会话和分块: voice_yyyyMMdd_HHmmss[_N].ext
+     */
+    private fun toRecording(file: File, sampleCount: Long): CompletedRecording {
+        val baseName = file.name.substringBefore('.')
+        val match = CHUNK_SUFFIX.find(baseName)
+        val chunkIndex = match?.groupValues?.get(2)?.toIntOrNull()
+        // 会话ID本身以"_HHmmss"结尾, 6位数字不是分块序号
+        return if (match != null && chunkIndex != null && match.groupValues[2].length < 6) {
+            CompletedRecording(file, sampleCount, 16000, match.groupValues[1], chunkIndex)
+        } else {
+            CompletedRecording(file, sampleCount, 16000, baseName, 0)
+        }
+    }
+}
+
+/**
+ * 启动扫描结果
+ * @param registered 新登记到数据库的录音数
+ * @param deleted 删除的空文件数
+ */
+data class RecoveryResult(
+    val registered: Int,
+    val deleted: Int
+)
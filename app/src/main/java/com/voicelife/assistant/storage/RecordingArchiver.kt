@@ -0,0 +1,230 @@
+package com.voicelife.assistant.storage
+
+import android.os.Process
+import android.util.Log
+import com.voicelife.assistant.data.model.Recording
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.recorder.AudioFileReader
+import com.voicelife.assistant.recorder.ImaAdpcmWavWriter
+import com.voicelife.assistant.recorder.RecordingFormat
+import com.voicelife.assistant.recorder.WavFileReader
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.zip.CRC32
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * 录音归档器
+ * 把已转写的PCM WAV录音转码为紧凑格式, 在不缩短7天保留期的前提下减少占用
+ *
+ * 归档格式:
+ * - FLAC: 无损, 约为WAV的45%~60%
+ * - IMA_ADPCM: 有损4:1, 约为WAV的25%
+ *
+ * 单个录音的处理流程:
+ * 1. 转码到同目录的.tmp文件(进程被杀时由StorageManager的孤立文件清理删除)
+ * 2. 重新读取.tmp文件校验: 样本数一致, 解码结果的CRC32与预期一致
+ *    (无损格式预期为原始样本, ADPCM预期为编码器记录的解码结果)
+ * 3. 重命名为正式文件名(同目录rename是原子的)
+ * 4. 以原路径为条件用一条UPDATE替换filePath/fileSize
+ * 5. 数据库更新成功后才删除源文件
+ *
+ * 任何一步失败都保留源文件; 不是16bit PCM或转码后不更小的录音原地标记为已归档, 不再重试
+ *
+ * 调用方负责判断是否空闲且充电, 每个文件开始前通过shouldContinue再次确认
+ */
+@Singleton
+class RecordingArchiver @Inject constructor(
+    private val recordingRepository: RecordingRepository
+) {
+    companion object {
+        private const val TAG = "RecordingArchiver"
+        private const val MAX_RECORDINGS_PER_PASS = 50
+        private const val READ_FRAME_SIZE = 4096
+    }
+
+    // 专用的后台优先级线程, 不影响共享IO线程池的优先级
+    private val archiveDispatcher = Executors.newSingleThreadExecutor { runnable ->
+        Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            runnable.run()
+        }, "RecordingArchiver").apply { isDaemon = true }
+    }.asCoroutineDispatcher()
+
+    // 同一时间只运行一轮, 读缓冲区在各轮之间复用
+    private val passMutex = Mutex()
+    private val readBuffer = ShortArray(READ_FRAME_SIZE)
+    private val crcBytes = ByteArray(READ_FRAME_SIZE * 2)
+
+    /**
+     * 执行一轮归档
+     * 在后台优先级的专用线程上运行
+     *
+     * @param format 归档格式(FLAC或IMA_ADPCM)
+     * @param shouldContinue 每个文件开始前调用, 返回false时结束本轮
+     */
+    suspend fun archiveCompleted(
+        format: RecordingFormat,
+        shouldContinue: () -> Boolean
+    ): ArchiveResult = passMutex.withLock {
+        withContext(archiveDispatcher) { runPass(format, shouldContinue) }
+    }
+
+    private suspend fun runPass(format: RecordingFormat, shouldContinue: () -> Boolean): ArchiveResult {
+        require(format != RecordingFormat.WAV) { "Archive format must be compressed" }
+
+        var archived = 0
+        var failed = 0
+        var savedBytes = 0L
+        val candidates = recordingRepository.getArchiveCandidates(MAX_RECORDINGS_PER_PASS)
+        Log.d(TAG, "Archive pass started: ${candidates.size} candidates, format: $format")
+
+        for (recording in candidates) {
+            currentCoroutineContext().ensureActive()
+            if (!shouldContinue()) {
+                Log.d(TAG, "Archive pass interrupted")
+                break
+            }
+
+            try {
+                val saved = archive(recording, format)
+                if (saved != null) {
+                    archived++
+                    savedBytes += saved
+                }
+            } catch (e: Exception) {
+                failed++
+                Log.e(TAG, "Failed to archive ${recording.filePath}", e)
+            }
+        }
+
+        Log.d(TAG, "Archive pass completed: $archived archived, $failed failed, ${savedBytes / 1024}KB saved")
+        return ArchiveResult(archived, failed, savedBytes)
+    }
+
+    /**
+     * 归档单个录音
+     * @return 节省的字节数; 未归档(源文件缺失、记录已变化)时返回null
+     */
+    private suspend fun archive(recording: Recording, format: RecordingFormat): Long? {
+        val source = File(recording.filePath)
+        if (!source.isFile) {
+            Log.w(TAG, "Source missing: ${source.name}")
+            return null
+        }
+
+        val target = File(source.parentFile, source.name.substringBefore('.') + "." + format.extension)
+        val temp = File(target.path + ".tmp")
+
+        // 1. 转码
+        val sourceCrc = CRC32()
+        var sampleCount = 0L
+        val writer = format.createWriter(temp)
+        AudioFileReader.open(source).use { reader ->
+            if (reader !is WavFileReader || !reader.isPcm || reader.sampleRate != 16000) {
+                // 已是压缩格式或参数不同, 不再重试
+                Log.d(TAG, "Not a 16kHz PCM WAV, skipped: ${source.name}")
+                recordingRepository.replaceWithArchive(recording, source)
+                return null
+            }
+
+            writer.start()
+            try {
+                var count: Int
+                while (reader.read(readBuffer).also { count = it } > 0) {
+                    updateCrc(sourceCrc, readBuffer, count)
+                    writer.write(readBuffer, 0, count)
+                    sampleCount += count
+                }
+            } finally {
+                writer.stop()
+            }
+        }
+
+        // 2. 校验
+        val expectedCrc = if (format.lossless) {
+            sourceCrc.value
+        } else {
+            (writer as ImaAdpcmWavWriter).getDecodedChecksum()
+        }
+        if (!verify(temp, sampleCount, expectedCrc)) {
+            temp.delete()
+            throw IllegalStateException("Archive verification failed: ${temp.name}")
+        }
+
+        val sourceSize = source.length()
+        if (temp.length() >= sourceSize) {
+            temp.delete()
+            Log.d(TAG, "Archive not smaller, skipped: ${source.name}")
+            recordingRepository.replaceWithArchive(recording, source)
+            return null
+        }
+
+        // 3. 原子重命名
+        if (!temp.renameTo(target)) {
+            temp.delete()
+            throw IllegalStateException("Failed to rename ${temp.name}")
+        }
+
+        // 4. 更新数据库, 5. 删除源文件
+        if (!recordingRepository.replaceWithArchive(recording, target)) {
+            // 录音已被删除或移动, 丢弃归档文件
+            target.delete()
+            Log.w(TAG, "Recording changed during archiving: ${source.name}")
+            return null
+        }
+        source.delete()
+
+        val saved = sourceSize - target.length()
+        Log.d(TAG, "Archived ${source.name} -> ${target.name}: $sourceSize -> ${target.length()} bytes")
+        return saved
+    }
+
+    /**
+     * 重新读取归档文件, 比对样本数和解码结果的CRC32
+     */
+    private fun verify(file: File, expectedSamples: Long, expectedCrc: Long): Boolean {
+        val crc = CRC32()
+        var samples = 0L
+        AudioFileReader.open(file).use { reader ->
+            var count: Int
+            while (reader.read(readBuffer).also { count = it } > 0) {
+                updateCrc(crc, readBuffer, count)
+                samples += count
+            }
+        }
+
+        if (samples != expectedSamples || crc.value != expectedCrc) {
+            Log.e(TAG, "Verification mismatch: samples $samples/$expectedSamples, crc ${crc.value}/$expectedCrc")
+            return false
+        }
+        return true
+    }
+
+    private fun updateCrc(crc: CRC32, samples: ShortArray, count: Int) {
+        for (i in 0 until count) {
+            val sample = samples[i].toInt()
+            crcBytes[2 * i] = sample.toByte()
+            crcBytes[2 * i + 1] = (sample shr 8).toByte()
+        }
+        crc.update(crcBytes, 0, count * 2)
+    }
+}
+
+/**
+ * 归档结果
+ */
+data class ArchiveResult(
+    val archivedFiles: Int,
+    val failedFiles: Int,
+    val savedBytes: Long
+) {
+    fun getSavedSpaceMB(): Long = savedBytes / (1024L * 1024L)
+}
@@ -0,0 +1,56 @@
+package com.voicelife.assistant.storage
+
+import java.io.File
+import java.io.IOException
+
+/**
+ * 录音文件所处的状态目录
+ */
+enum class RecordingStage(val dirName: String) {
+    PENDING("pending"),
+    PROCESSING("processing"),
+    COMPLETED("completed"),
+    FAILED("failed")
+}
+
+/**
+ * 录音文件在状态目录之间的移动
+ * 各目录在同一文件系统下, 移动是原子的rename, 任何时刻文件都只在一个目录中
+ *
+ * 先移动文件再更新数据库: 两步之间进程被杀时数据库中的路径落后,
+ * locate()按文件名在各状态目录中找回
+ */
+class RecordingFileStore(private val recordingsDir: File) {
+
+    fun getDir(stage: RecordingStage): File = File(recordingsDir, stage.dirName)
+
+    /**
+     * 找到录音文件
+     * @param path 数据库中记录的路径
+     * @return 原路径不存在时按文件名在各状态目录中查找, 都没有时返回null
+     */
+    fun locate(path: String): File? {
+        val file = File(path)
+        if (file.isFile) return file
+        return RecordingStage.values()
+            .map { File(getDir(it), file.name) }
+            .firstOrNull { it.isFile }
+    }
+
+    /**
+     * 把文件移动到状态目录
+     * @return 移动后的文件; 已在该目录时原样返回
+     * @throws IOException 重命名失败
+     */
+    fun moveTo(file: File, stage: RecordingStage): File {
+        val dir = getDir(stage)
+        val target = File(dir, file.name)
+        if (target.absoluteFile == file.absoluteFile) return file
+
+        dir.mkdirs()
+        if (!file.renameTo(target)) {
+            throw IOException("Failed to move ${file.name} to ${stage.dirName}/")
+        }
+        return target
+    }
+}
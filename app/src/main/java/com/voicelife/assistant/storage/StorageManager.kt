@@ -19,7 +19,7 @@ import javax.inject.Singleton
  * 1. 监控可用存储空间
  * 2. 自动清理过期录音(7天)
  * 3. 清理临时文件和失败文件
- * 4. 提供存储统计信息
+ * 4. 提供存储统计信息(含归档节省的空间)
  *
  * 空间策略:
  * - 警戒线: 500MB
@@ -186,13 +186,16 @@ class StorageManager @Inject constructor(
         val availableMB = getAvailableSpaceMB()
         val usedMB = getUsedSpaceMB()
         val stats = recordingRepository.getStatistics()
+        val archiveStats = recordingRepository.getArchiveStatistics()
 
         return StorageInfo(
             availableSpaceMB = availableMB,
             usedSpaceMB = usedMB,
             totalRecordings = stats.totalCount,
             pendingRecordings = stats.pendingCount,
-            hasEnoughSpace = availableMB >= MIN_AVAILABLE_SPACE_MB
+            hasEnoughSpace = availableMB >= MIN_AVAILABLE_SPACE_MB,
+            archivedRecordings = archiveStats.archivedCount,
+            archiveSavedBytes = archiveStats.savedBytes
         )
     }
 
@@ -239,5 +242,9 @@ data class StorageInfo(
     val usedSpaceMB: Long,
     val totalRecordings: Int,
     val pendingRecordings: Int,
-    val hasEnoughSpace: Boolean
-)
+    val hasEnoughSpace: Boolean,
+    val archivedRecordings: Int = 0,
+    val archiveSavedBytes: Long = 0  // 归档节省的字节数
+) {
+    fun getArchiveSavedMB(): Long = archiveSavedBytes / (1024L * 1024L)
+}
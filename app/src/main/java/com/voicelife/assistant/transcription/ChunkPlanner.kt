@@ -0,0 +1,146 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.vad.SpeechSegment
+
+/**
+ * 转写分块规划
+ * 按VAD人声段把一个录音切成若干不超过maxChunkSamples的分块, 各分块可以并行转写
+ *
+ * 规划步骤:
+ * 1. 人声段前后各扩展paddingSamples(不超出文件范围)
+ * 2. 间隔不超过maxMergedSilenceSamples的相邻人声段合并为一个区间(短停顿保留在区间内)
+ * 3. 超过maxChunkSamples的区间等分切开(持续说话没有停顿时才会发生, 切点可能在词中间)
+ * 4. 区间按顺序装入分块, 装不下时开始新分块; 区间之间的长静音不送入引擎
+ *
+ * 没有人声段信息(null)时按固定长度切分整个文件; 人声段为空时没有分块
+ */
+class ChunkPlanner(
+    private val maxChunkSamples: Long,
+    private val paddingSamples: Long,
+    private val maxMergedSilenceSamples: Long
+) {
+    companion object {
+        /**
+         * @param maxChunkSeconds 分块最大时长, 默认等于Whisper的30秒窗口
+         */
+        fun forSampleRate(
+            sampleRate: Int,
+            maxChunkSeconds: Int = 30,
+            paddingMs: Int = 200,
+            maxMergedSilenceMs: Int = 2000
+        ): ChunkPlanner = ChunkPlanner(
+            maxChunkSamples = maxChunkSeconds.toLong() * sampleRate,
+            paddingSamples = paddingMs.toLong() * sampleRate / 1000,
+            maxMergedSilenceSamples = maxMergedSilenceMs.toLong() * sampleRate / 1000
+        )
+    }
+
+    init {
+        require(maxChunkSamples > 0) { "maxChunkSamples must be positive" }
+    }
+
+    /**
+     * @param totalSamples 文件样本数
+     * @param segments 人声段(样本偏移), null表示没有人声段信息
+     */
+    fun plan(totalSamples: Long, segments: List<SpeechSegment>?): List<AudioChunk> {
+        if (totalSamples <= 0) return emptyList()
+
+        val spans = if (segments == null) {
+            listOf(SpeechSegment(0, totalSamples))
+        } else {
+            mergeSegments(totalSamples, segments)
+        }
+
+        val chunks = ArrayList<AudioChunk>()
+        var current = ArrayList<SpeechSegment>()
+        var currentLength = 0L
+        for (span in spans.flatMap { splitSpan(it) }) {
+            if (currentLength + span.length > maxChunkSamples && current.isNotEmpty()) {
+                chunks += AudioChunk(chunks.size, current)
+                current = ArrayList()
+                currentLength = 0
+            }
+            current += span
+            currentLength += span.length
+        }
+        if (current.isNotEmpty()) {
+            chunks += AudioChunk(chunks.size, current)
+        }
+        return chunks
+    }
+
+    private fun mergeSegments(totalSamples: Long, segments: List<SpeechSegment>): List<SpeechSegment> {
+        val merged = ArrayList<SpeechSegment>()
+        var start = -1L
+        var end = -1L
+        for (segment in segments.sortedBy { it.startSample }) {
+            val paddedStart = (segment.startSample - paddingSamples).coerceAtLeast(0)
+            val paddedEnd = (segment.endSample + paddingSamples).coerceAtMost(totalSamples)
+            if (paddedEnd <= paddedStart) continue
+
+            if (start < 0) {
+                start = paddedStart
+                end = paddedEnd
+            } else if (paddedStart - end <= maxMergedSilenceSamples) {
+                end = maxOf(end, paddedEnd)
+            } else {
+                merged += SpeechSegment(start, end)
+                start = paddedStart
+                end = paddedEnd
+            }
+        }
+        if (start >= 0) {
+            merged += SpeechSegment(start, end)
+        }
+        return merged
+    }
+
+    /**
+     * 等分过长的区间(避免最后一段过短)
+     */
+    private fun splitSpan(span: SpeechSegment): List<SpeechSegment> {
+        if (span.length <= maxChunkSamples) return listOf(span)
+        val pieces = ((span.length + maxChunkSamples - 1) / maxChunkSamples).toInt()
+        return (0 until pieces).map { i ->
+            SpeechSegment(
+                span.startSample + span.length * i / pieces,
+                span.startSample + span.length * (i + 1) / pieces
+            )
+        }
+    }
+}
+
+/**
+ * 转写分块
+ * 由一个或多个区间的样本首尾相接组成, 分块内的偏移通过区间映射回录音中的绝对位置
+ *
+ * @param index 分块序号(从0开始, 即在录音中的顺序)
+ * @param spans 区间(样本偏移, 按顺序且不重叠)
+ */
+data class AudioChunk(
+    val index: Int,
+    val spans: List<SpeechSegment>
+) {
+    /** 分块样本数 */
+    val length: Long get() = spans.sumOf { it.length }
+
+    val startSample: Long get() = spans.first().startSample
+
+    val endSample: Long get() = spans.last().endSample
+
+    /**
+     * 分块内偏移 -> 录音中的样本位置
+     * @param isEnd 结束位置: 恰好落在区间边界时映射到前一个区间的结尾
+     */
+    fun toAbsoluteSample(offset: Long, isEnd: Boolean = false): Long {
+        var remaining = offset.coerceAtLeast(0)
+        for (span in spans) {
+            if (remaining < span.length || (isEnd && remaining == span.length)) {
+                return span.startSample + remaining
+            }
+            remaining -= span.length
+        }
+        return endSample
+    }
+}
@@ -0,0 +1,180 @@
+package com.voicelife.assistant.transcription
+
+import android.util.Log
+import com.voicelife.assistant.recorder.AudioFileReader
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * 分块并行转写
+ * 按人声段把录音切成不超过30秒的分块(ChunkPlanner), 在有界的工作协程池上并行转写, 再拼接为一个结果,
+ * 墙钟耗时随核数而不是录音时长增长
+ *
+ * 流程:
+ * 1. 取得人声段(segmentSource, 没有时按固定长度切分)并规划分块
+ * 2. 读取协程顺序读一遍文件, 按分块组装样本送入容量为workers的通道(内存中最多约2×workers个分块)
+ * 3. workers个工作协程从通道领取分块, 每个分块独立重试最多maxChunkAttempts次
+ * 4. 按分块顺序拼接: 分段时间映射回录音中的绝对位置, 文本首尾相接
+ *
+ * 引擎实例由engineFactory创建, 每个工作协程独占一个, 转写结束后放回空闲池供下次复用;
+ * 任一分块最终失败时取消其余分块, 整个录音由调度器按任务重试
+ *
+ * @param maxChunkSeconds 分块最大时长
+ * @param workers 并行转写的分块数, 默认等于CPU核数
+ */
+class ChunkedTranscriber(
+    private val engineFactory: () -> TranscriptionEngine,
+    private val segmentSource: SpeechSegmentSource? = null,
+    private val maxChunkSeconds: Int = 30,
+    private val workers: Int = Runtime.getRuntime().availableProcessors(),
+    private val maxChunkAttempts: Int = 3,
+    private val dispatcher: CoroutineDispatcher = Dispatchers.Default
+) : RecordingTranscriber {
+    companion object {
+        private const val TAG = "ChunkedTranscriber"
+        private const val READ_FRAME_SIZE = 4096
+    }
+
+    private val idleEngines = ConcurrentLinkedQueue<TranscriptionEngine>()
+
+    override suspend fun transcribe(file: File, sampleRate: Int): TranscriptionResult = coroutineScope {
+        val startNanos = System.nanoTime()
+        val totalSamples = withContext(Dispatchers.IO) { AudioFileReader.open(file).use { it.totalSamples } }
+        val segments = segmentSource?.let { source -> withContext(dispatcher) { source.getSegments(file) } }
+        val chunks = ChunkPlanner.forSampleRate(sampleRate, maxChunkSeconds).plan(totalSamples, segments)
+        if (chunks.isEmpty()) {
+            Log.d(TAG, "No speech in ${file.name}")
+            return@coroutineScope TranscriptionResult("", null, emptyList())
+        }
+
+        val workerCount = workers.coerceIn(1, chunks.size)
+        val pending = Channel<Pair<AudioChunk, ShortArray>>(workerCount)
+        val results = arrayOfNulls<TranscriptionResult>(chunks.size)
+
+        launch(Dispatchers.IO) {
+            try {
+                readChunks(file, chunks) { chunk, samples -> pending.send(chunk to samples) }
+            } finally {
+                pending.close()
+            }
+        }
+        List(workerCount) {
+            launch(dispatcher) {
+                for ((chunk, samples) in pending) {
+                    results[chunk.index] = transcribeChunk(chunk, samples, sampleRate)
+                }
+            }
+        }.joinAll()
+
+        val result = stitch(chunks, results.map { it!! }, sampleRate)
+        val speechSeconds = chunks.sumOf { it.length } / sampleRate
+        val wallMs = (System.nanoTime() - startNanos) / 1_000_000
+        Log.d(
+            TAG,
+            "Transcribed ${file.name}: ${chunks.size} chunks, ${speechSeconds}s speech of " +
+                    "${totalSamples / sampleRate}s, $workerCount workers, ${wallMs}ms"
+        )
+        result
+    }
+
+    /**
+     * 释放空闲池中的引擎
+     */
+    fun release() {
+        while (true) {
+            val engine = idleEngines.poll() ?: break
+            try {
+                engine.release()
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to release engine", e)
+            }
+        }
+    }
+
+    /**
+     * 顺序读取文件, 每个分块组装好后交给consumer
+     */
+    private suspend fun readChunks(
+        file: File,
+        chunks: List<AudioChunk>,
+        consumer: suspend (AudioChunk, ShortArray) -> Unit
+    ) {
+        val skipBuffer = ShortArray(READ_FRAME_SIZE)
+        AudioFileReader.open(file).use { reader ->
+            var position = 0L
+            for (chunk in chunks) {
+                val samples = ShortArray(chunk.length.toInt())
+                var offset = 0
+                for (span in chunk.spans) {
+                    while (position < span.startSample) {
+                        val count = reader.read(skipBuffer, 0, minOf(READ_FRAME_SIZE.toLong(), span.startSample - position).toInt())
+                        if (count <= 0) break
+                        position += count
+                    }
+                    val end = offset + span.length.toInt()
+                    while (offset < end) {
+                        val count = reader.read(samples, offset, end - offset)
+                        if (count <= 0) break
+                        offset += count
+                        position += count
+                    }
+                }
+                // 文件比文件头记录的短时, 缺少的部分保持为静音
+                consumer(chunk, samples)
+            }
+        }
+    }
+
+    /**
+     * 转写一个分块, 可重试的失败在分块内重试
+     */
+    private suspend fun transcribeChunk(chunk: AudioChunk, samples: ShortArray, sampleRate: Int): TranscriptionResult {
+        val engine = idleEngines.poll() ?: engineFactory()
+        try {
+            var attempt = 0
+            while (true) {
+                attempt++
+                try {
+                    return engine.transcribe(samples, sampleRate)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: TranscriptionException) {
+                    if (!e.retryable || attempt >= maxChunkAttempts) throw e
+                    Log.w(TAG, "Chunk ${chunk.index} failed (attempt $attempt/$maxChunkAttempts): ${e.message}")
+                } catch (e: Exception) {
+                    if (attempt >= maxChunkAttempts) {
+                        throw TranscriptionException("Chunk ${chunk.index} failed after $attempt attempts", cause = e)
+                    }
+                    Log.w(TAG, "Chunk ${chunk.index} failed (attempt $attempt/$maxChunkAttempts)", e)
+                }
+            }
+        } finally {
+            idleEngines.add(engine)
+        }
+    }
+
+    /**
+     * 按分块顺序拼接结果, 分段时间映射回录音中的绝对位置
+     */
+    private fun stitch(chunks: List<AudioChunk>, results: List<TranscriptionResult>, sampleRate: Int): TranscriptionResult {
+        val builder = TranscriptBuilder()
+        for ((chunk, result) in chunks.zip(results)) {
+            builder.appendText(result.text)
+            builder.addLanguage(result.language, chunk.length)
+            for (segment in result.segments) {
+                val startSample = chunk.toAbsoluteSample(segment.startMs * sampleRate / 1000)
+                val endSample = chunk.toAbsoluteSample(segment.endMs * sampleRate / 1000, isEnd = true)
+                builder.addSegment(startSample * 1000 / sampleRate, endSample * 1000 / sampleRate, segment.text)
+            }
+        }
+        return builder.build()
+    }
+}
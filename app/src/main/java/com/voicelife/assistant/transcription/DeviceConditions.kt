@@ -0,0 +1,38 @@
+package com.voicelife.assistant.transcription
+
+import android.content.Context
+import android.os.BatteryManager
+import android.os.PowerManager
+
+/**
+ * 设备状态
+ * 调度器据此决定是否领取新任务, 测试时可以替换
+ */
+interface DeviceConditions {
+    fun isCharging(): Boolean
+
+    /** 空闲: 用户没有在使用设备, 也没有进行中的录音 */
+    fun isIdle(): Boolean
+
+    /** 电量百分比(0~100) */
+    fun getBatteryPercent(): Int
+}
+
+/**
+ * 从系统服务读取设备状态
+ * @param isRecording 是否有进行中的录音会话
+ */
+class AndroidDeviceConditions(
+    context: Context,
+    private val isRecording: () -> Boolean
+) : DeviceConditions {
+    private val batteryManager = context.getSystemService(Context.BATTERY_SERVICE) as BatteryManager
+    private val powerManager = context.getSystemService(Context.POWER_SERVICE) as PowerManager
+
+    override fun isCharging(): Boolean = batteryManager.isCharging
+
+    override fun isIdle(): Boolean = !powerManager.isInteractive && !isRecording()
+
+    override fun getBatteryPercent(): Int =
+        batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY)
+}
@@ -0,0 +1,39 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.vad.OfflineVadScanner
+import com.voicelife.assistant.vad.SpeechSegment
+import com.voicelife.assistant.vad.VadEngine
+import com.voicelife.assistant.vad.VadStateMachine
+import java.io.File
+
+/**
+ * 录音的人声段来源
+ */
+fun interface SpeechSegmentSource {
+    /**
+     * @return 人声段(样本偏移); 无法得到时返回null, 分块规划退回固定长度切分
+     */
+    fun getSegments(file: File): List<SpeechSegment>?
+}
+
+/**
+ * 对录音重新运行VAD得到人声段
+ * 每次扫描使用新建的引擎(与实时检测的引擎互不影响), 扫描出错或采样率不符时返回null
+ */
+class OfflineVadSegmentSource(
+    private val engineFactory: () -> VadEngine,
+    private val stateMachineFactory: () -> VadStateMachine = { VadStateMachine() }
+) : SpeechSegmentSource {
+    private val scanner = OfflineVadScanner(engineFactory, workers = 1, stateMachineFactory = stateMachineFactory)
+
+    override fun getSegments(file: File): List<SpeechSegment>? {
+        val engine = engineFactory()
+        engine.init()
+        try {
+            val result = scanner.scanFile(file, engine, stateMachineFactory())
+            return if (result.error == null) result.segments else null
+        } finally {
+            engine.release()
+        }
+    }
+}
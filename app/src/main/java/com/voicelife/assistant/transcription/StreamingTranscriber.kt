@@ -0,0 +1,400 @@
+package com.voicelife.assistant.transcription
+
+import android.util.Log
+import com.voicelife.assistant.data.model.Transcription
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.recorder.CompletedRecording
+import com.voicelife.assistant.recorder.LatencyHistogram
+import com.voicelife.assistant.recorder.SpeechSpan
+import com.voicelife.assistant.recorder.SpeechSpanListener
+import com.voicelife.assistant.storage.RecordingFileStore
+import com.voicelife.assistant.storage.RecordingStage
+import com.voicelife.assistant.utils.DebugLogger
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 流式转写
+ * 录音进行中按人声段(RecordingSession在每次人声结束时发布)逐段转写, 部分结果随时写入数据库;
+ * 出字时间从"对话结束(静音10秒 + 后缓冲3秒)之后"缩短到每段人声结束后几秒
+ *
+ * 流程:
+ * 1. 分块第一段有文字的人声转写完成时登记录音(状态STREAMING), 写入部分转写(isFinal = false)
+ * 2. 之后每段人声的结果追加到同一条转写上(upsert)
+ * 3. 录音结束(finish): 所有人声段都已转写时写入最终结果, 录音标记COMPLETED并移到completed/;
+ *    有人声段失败或被丢弃时删除部分结果, 录音转为PENDING, 由调度器批量转写
+ *
+ * 监听器方法只入队, 不阻塞音频处理线程; 事件在一个协程中按顺序处理, 引擎一次只转写一段;
+ * 排队的音频超过maxQueuedSeconds时丢弃新的人声段(该录音退回批量转写), 转写跟不上时内存不会无限增长
+ *
+ * 流式转写是录音期间的可选模式, 不受调度器的充电/空闲条件限制
+ * 进程被杀时留下的STREAMING记录在start时丢弃, 录音文件由启动扫描或续录结束时重新登记
+ *
+ * 统计(getStats):
+ * - 出字延迟: 分块开始录音 -> 第一段文字写入数据库
+ * - 人声段延迟: 人声段结束 -> 该段文字写入数据库
+ */
+class StreamingTranscriber(
+    private val engine: TranscriptionEngine,
+    private val recordingRepository: RecordingRepository,
+    private val fileStore: RecordingFileStore,
+    private val maxQueuedSeconds: Int = 120,
+    private val maxSpanAttempts: Int = 2,
+    private val dispatcher: CoroutineDispatcher = Dispatchers.Default,
+    private val clock: () -> Long = System::nanoTime,
+    private val debugLogger: DebugLogger? = null
+) : SpeechSpanListener {
+    companion object {
+        private const val TAG = "StreamingTranscriber"
+        private const val LATENCY_BUCKETS = 28  // 最大桶约2分钟
+    }
+
+    private sealed class Event {
+        class ChunkStarted(val file: File, val sessionId: String, val chunkIndex: Int, val atNanos: Long) : Event()
+        class Span(val span: SpeechSpan) : Event()
+        class SpanDropped(val file: File) : Event()
+        class Discarded(val file: File) : Event()
+        class Finish(val recording: CompletedRecording, val outcome: CompletableDeferred<StreamingOutcome?>) : Event()
+    }
+
+    /**
+     * 一个分块的流式转写状态
+     */
+    private class ChunkState(val startedAtNanos: Long) {
+        val transcript = TranscriptBuilder()
+        var recordingId: Long? = null
+        var transcriptionId = 0L
+        var transcriptionCreatedAt = 0L
+        var complete = true
+        var firstTextRecorded = false
+    }
+
+    private val events = Channel<Event>(Channel.UNLIMITED)
+    private val chunks = HashMap<String, ChunkState>()
+    private val lock = Any()
+    private var running = false
+    private var job: Job? = null
+
+    private val queuedSamples = AtomicLong()
+    private val timeToFirstText = LatencyHistogram(LATENCY_BUCKETS)
+    private val spanLatency = LatencyHistogram(LATENCY_BUCKETS)
+    private val droppedSpans = AtomicLong()
+
+    @Volatile
+    private var transcribedSpans = 0L
+
+    @Volatile
+    private var failedSpans = 0L
+
+    @Volatile
+    private var finalized = 0L
+
+    @Volatile
+    private var fallbacks = 0L
+
+    /**
+     * 开始处理事件
+     * 先丢弃上次进程遗留的STREAMING记录
+     */
+    fun start(scope: CoroutineScope) {
+        synchronized(lock) {
+            if (running) return
+            running = true
+        }
+        job = scope.launch(dispatcher) {
+            try {
+                val discarded = recordingRepository.discardStreamingRecordings()
+                if (discarded > 0) {
+                    Log.d(TAG, "Discarded $discarded stale streaming recordings")
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to discard stale streaming recordings", e)
+            }
+
+            for (event in events) {
+                try {
+                    handle(event)
+                } catch (e: CancellationException) {
+                    if (event is Event.Finish) event.outcome.complete(null)
+                    throw e
+                } catch (e: Exception) {
+                    Log.e(TAG, "Failed to handle ${event.javaClass.simpleName}", e)
+                    debugLogger?.e(TAG, "流式转写出错: ${e.message}")
+                    if (event is Event.Finish) event.outcome.complete(null)
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止处理, 排队的人声段丢弃, 进行中的分块退回批量转写
+     */
+    suspend fun stop() {
+        synchronized(lock) {
+            running = false
+        }
+        job?.cancelAndJoin()
+        job = null
+
+        while (true) {
+            val event = events.tryReceive().getOrNull() ?: break
+            when (event) {
+                is Event.Span -> queuedSamples.addAndGet(-event.span.samples.size.toLong())
+                is Event.Finish -> event.outcome.complete(null)
+                else -> {}
+            }
+        }
+        chunks.clear()
+    }
+
+    /**
+     * 释放引擎
+     */
+    fun release() {
+        try {
+            engine.release()
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to release engine", e)
+        }
+    }
+
+    /**
+     * 录音分块结束, 等待该分块排队的人声段处理完后定稿
+     * @return 流式转写已登记录音时返回其ID和是否已完整转写; null表示没有登记, 由调用方照常保存
+     */
+    suspend fun finish(recording: CompletedRecording): StreamingOutcome? {
+        val outcome = CompletableDeferred<StreamingOutcome?>()
+        if (!send(Event.Finish(recording, outcome))) return null
+        return outcome.await()
+    }
+
+    override fun onChunkStarted(file: File, sessionId: String, chunkIndex: Int) {
+        send(Event.ChunkStarted(file, sessionId, chunkIndex, clock()))
+    }
+
+    override fun onSpan(span: SpeechSpan) {
+        val size = span.samples.size.toLong()
+        val queued = queuedSamples.addAndGet(size)
+        if (queued > maxQueuedSeconds.toLong() * span.sampleRate) {
+            queuedSamples.addAndGet(-size)
+            droppedSpans.incrementAndGet()
+            Log.w(TAG, "Streaming backlog full, dropping span of ${span.file.name}")
+            send(Event.SpanDropped(span.file))
+        } else if (!send(Event.Span(span))) {
+            queuedSamples.addAndGet(-size)
+        }
+    }
+
+    override fun onChunkDiscarded(file: File) {
+        send(Event.Discarded(file))
+    }
+
+    /**
+     * 获取统计
+     */
+    fun getStats(): StreamingTranscriptionStats = StreamingTranscriptionStats(
+        transcribedSpans = transcribedSpans,
+        droppedSpans = droppedSpans.get(),
+        failedSpans = failedSpans,
+        finalized = finalized,
+        fallbacks = fallbacks,
+        queuedMs = queuedSamples.get() / 16,
+        firstTextCount = timeToFirstText.getCount(),
+        firstTextP50Ms = timeToFirstText.getPercentileMicros(50.0) / 1000,
+        firstTextP90Ms = timeToFirstText.getPercentileMicros(90.0) / 1000,
+        firstTextMaxMs = timeToFirstText.getMaxMicros() / 1000,
+        spanLatencyP50Ms = spanLatency.getPercentileMicros(50.0) / 1000,
+        spanLatencyP90Ms = spanLatency.getPercentileMicros(90.0) / 1000
+    )
+
+    private fun send(event: Event): Boolean = synchronized(lock) {
+        running && events.trySend(event).isSuccess
+    }
+
+    private suspend fun handle(event: Event) {
+        when (event) {
+            is Event.ChunkStarted -> chunks[event.file.absolutePath] = ChunkState(event.atNanos)
+            is Event.Span -> {
+                queuedSamples.addAndGet(-event.span.samples.size.toLong())
+                handleSpan(event.span)
+            }
+            is Event.SpanDropped -> chunks[event.file.absolutePath]?.complete = false
+            is Event.Discarded -> {
+                val state = chunks.remove(event.file.absolutePath) ?: return
+                state.recordingId?.let { recordingRepository.discardStreamingRecording(it) }
+            }
+            is Event.Finish -> event.outcome.complete(handleFinish(event.recording))
+        }
+    }
+
+    private suspend fun handleSpan(span: SpeechSpan) {
+        // 续录的分块或已经退回批量转写的分块不再转写
+        val state = chunks[span.file.absolutePath] ?: return
+        if (!state.complete) return
+
+        val result = transcribeSpan(span)
+        if (result == null) {
+            state.complete = false
+            return
+        }
+        transcribedSpans++
+
+        val transcript = state.transcript
+        transcript.appendText(result.text)
+        transcript.addLanguage(result.language, span.samples.size.toLong())
+        val offsetMs = span.getStartMs()
+        for (segment in result.segments) {
+            transcript.addSegment(offsetMs + segment.startMs, offsetMs + segment.endMs, segment.text)
+        }
+        // 还没有文字(噪声、咳嗽等)时不登记
+        if (!transcript.hasText) return
+
+        val recordingId = state.recordingId ?: recordingRepository.saveStreamingRecording(
+            span.file, span.endSample, span.sampleRate, span.sessionId, span.chunkIndex
+        ).also { state.recordingId = it }
+        saveTranscript(state, recordingId, isFinal = false)
+
+        val now = clock()
+        spanLatency.record(now - span.closedAtNanos)
+        if (!state.firstTextRecorded) {
+            state.firstTextRecorded = true
+            timeToFirstText.record(now - state.startedAtNanos)
+            debugLogger?.d(TAG, "首段文字: ${span.file.name}, ${(now - state.startedAtNanos) / 1_000_000}ms")
+        }
+    }
+
+    /**
+     * 转写一段人声, 失败时重试, 最终失败返回null
+     */
+    private suspend fun transcribeSpan(span: SpeechSpan): TranscriptionResult? {
+        var attempt = 0
+        while (true) {
+            attempt++
+            try {
+                return engine.transcribe(span.samples, span.sampleRate)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                val retryable = (e as? TranscriptionException)?.retryable ?: true
+                if (!retryable || attempt >= maxSpanAttempts) {
+                    failedSpans++
+                    Log.w(TAG, "Span of ${span.file.name} at ${span.getStartMs()}ms failed", e)
+                    return null
+                }
+                Log.w(TAG, "Span of ${span.file.name} failed (attempt $attempt/$maxSpanAttempts): ${e.message}")
+            }
+        }
+    }
+
+    private suspend fun handleFinish(recording: CompletedRecording): StreamingOutcome? {
+        val file = recording.file
+        val state = chunks.remove(file.absolutePath) ?: return null
+
+        if (!state.complete) {
+            fallbacks++
+            debugLogger?.w(TAG, "流式转写不完整, 退回批量转写: ${file.name}")
+            val recordingId = state.recordingId ?: return null
+            recordingRepository.finishStreamingRecording(
+                recordingId, file, recording.sampleCount, recording.sampleRate, recording.contentHash,
+                transcribed = false
+            )
+            return StreamingOutcome(recordingId, transcribed = false)
+        }
+
+        val recordingId = state.recordingId ?: recordingRepository.saveStreamingRecording(
+            file, recording.sampleCount, recording.sampleRate, recording.sessionId, recording.chunkIndex
+        )
+        saveTranscript(state, recordingId, isFinal = true)
+        recordingRepository.finishStreamingRecording(
+            recordingId, file, recording.sampleCount, recording.sampleRate, recording.contentHash, transcribed = true
+        )
+        moveToCompleted(recordingId)
+        finalized++
+
+        val stats = getStats()
+        Log.d(TAG, "Finalized ${file.name}: $stats")
+        debugLogger?.i(TAG, "📝 流式转写完成: ${file.name}")
+        debugLogger?.d(TAG, "  $stats")
+        return StreamingOutcome(recordingId, transcribed = true)
+    }
+
+    private suspend fun saveTranscript(state: ChunkState, recordingId: Long, isFinal: Boolean) {
+        val result = state.transcript.build()
+        if (state.transcriptionCreatedAt == 0L) {
+            state.transcriptionCreatedAt = System.currentTimeMillis()
+        }
+        state.transcriptionId = recordingRepository.upsertTranscription(
+            Transcription(
+                id = state.transcriptionId,
+                recordingId = recordingId,
+                text = result.text,
+                language = result.language,
+                segments = result.getSegmentsJson(),
+                createdAt = state.transcriptionCreatedAt,
+                isFinal = isFinal
+            )
+        )
+    }
+
+    /**
+     * 与调度器一致, 已转写的录音移到completed/; 移动失败时留在原处
+     */
+    private suspend fun moveToCompleted(recordingId: Long) {
+        val recording = recordingRepository.getRecordingById(recordingId) ?: return
+        try {
+            val target = fileStore.moveTo(File(recording.filePath), RecordingStage.COMPLETED)
+            if (target.absolutePath != recording.filePath && !recordingRepository.moveRecordingFile(recording, target)) {
+                Log.w(TAG, "Recording $recordingId changed while moving ${target.name}")
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to move ${recording.filePath} to completed/", e)
+        }
+    }
+}
+
+/**
+ * 流式转写的定稿结果
+ * @param transcribed true表示已完整转写(COMPLETED); false表示已转为PENDING, 需要入队批量转写
+ */
+data class StreamingOutcome(
+    val recordingId: Long,
+    val transcribed: Boolean
+)
+
+/**
+ * 流式转写统计
+ * @param queuedMs 排队等待转写的音频(毫秒, 按16kHz)
+ * @param firstTextCount 有出字延迟记录的分块数
+ * @param firstTextP50Ms 出字延迟中位数(分块开始录音 -> 第一段文字写入), 为所在桶的上界
+ * @param spanLatencyP50Ms 人声段结束 -> 该段文字写入的中位数
+ */
+data class StreamingTranscriptionStats(
+    val transcribedSpans: Long,
+    val droppedSpans: Long,
+    val failedSpans: Long,
+    val finalized: Long,
+    val fallbacks: Long,
+    val queuedMs: Long,
+    val firstTextCount: Long,
+    val firstTextP50Ms: Long,
+    val firstTextP90Ms: Long,
+    val firstTextMaxMs: Long,
+    val spanLatencyP50Ms: Long,
+    val spanLatencyP90Ms: Long
+) {
+    override fun toString(): String =
+        "出字延迟 p50 ${firstTextP50Ms}ms / p90 ${firstTextP90Ms}ms / 最大 ${firstTextMaxMs}ms ($firstTextCount 个录音), " +
+                "人声段延迟 p50 ${spanLatencyP50Ms}ms / p90 ${spanLatencyP90Ms}ms, " +
+                "已转写 $transcribedSpans 段, 失败 $failedSpans, 丢弃 $droppedSpans, " +
+                "定稿 $finalized, 退回批量 $fallbacks"
+}
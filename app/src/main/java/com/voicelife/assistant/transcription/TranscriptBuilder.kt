@@ -0,0 +1,56 @@
+package com.voicelife.assistant.transcription
+
+/**
+ * 按时间顺序拼接多段转写结果
+ * 分块转写(ChunkedTranscriber)和流式转写(StreamingTranscriber)共用
+ *
+ * - 文本首尾相接, 两侧都不是中文字符(汉字、全角标点)时加空格
+ * - 分段时间由调用方换算为绝对时间, 超出范围或前后重叠时夹到单调
+ * - 语言取转写样本最多的语言
+ */
+internal class TranscriptBuilder {
+    private val text = StringBuilder()
+    private val segments = ArrayList<TranscriptSegment>()
+    private val languageSamples = HashMap<String, Long>()
+    private var lastEndMs = 0L
+
+    /** 是否已有文本 */
+    val hasText: Boolean get() = text.isNotEmpty()
+
+    fun appendText(next: String) {
+        val trimmed = next.trim()
+        if (trimmed.isEmpty()) return
+        if (text.isNotEmpty() && !isCjk(text.codePointBefore(text.length)) && !isCjk(trimmed.codePointAt(0))) {
+            text.append(' ')
+        }
+        text.append(trimmed)
+    }
+
+    /**
+     * @param startMs 绝对起始时间(毫秒)
+     * @param endMs 绝对结束时间(毫秒)
+     */
+    fun addSegment(startMs: Long, endMs: Long, text: String) {
+        val start = startMs.coerceAtLeast(lastEndMs)
+        val end = endMs.coerceAtLeast(start)
+        segments += TranscriptSegment(start, end, text)
+        lastEndMs = end
+    }
+
+    /**
+     * @param samples 该语言转写的样本数
+     */
+    fun addLanguage(language: String?, samples: Long) {
+        language?.let { languageSamples.merge(it, samples, Long::plus) }
+    }
+
+    fun build(): TranscriptionResult = TranscriptionResult(
+        text = text.toString(),
+        language = languageSamples.maxByOrNull { it.value }?.key,
+        segments = ArrayList(segments)
+    )
+
+    private fun isCjk(codePoint: Int): Boolean =
+        Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN ||
+                Character.getType(codePoint) == Character.OTHER_PUNCTUATION.toInt() && codePoint > 0x2FFF
+}
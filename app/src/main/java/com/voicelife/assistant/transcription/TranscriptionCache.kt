@@ -0,0 +1,132 @@
+package com.voicelife.assistant.transcription
+
+import android.util.Log
+import com.voicelife.assistant.data.database.TranscriptionCacheDao
+import com.voicelife.assistant.data.model.TranscriptionCacheEntry
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * 转写结果缓存
+ * 以录音的PCM内容哈希(PcmContentHash)为键, 同一段音频(任务重试、从备份恢复、重新导入)只转写一次
+ *
+ * 淘汰策略:
+ * - 超过MAX_IDLE_MS没有使用(写入或命中)的条目删除, 查询时过期的条目按未命中处理;
+ *   默认与录音保留期相同, 转写文本不会在录音删除后长期保留
+ * - 条目数超过MAX_ENTRIES时删除最久未使用的
+ * 每次写入后执行一次淘汰, 只是两条DELETE
+ *
+ * 命中率等统计只在内存中, 进程重启后清零
+ *
+ * 时间都由调用方传入, 便于测试
+ */
+@Singleton
+class TranscriptionCache @Inject constructor(
+    private val cacheDao: TranscriptionCacheDao
+) {
+    companion object {
+        private const val TAG = "TranscriptionCache"
+        const val MAX_ENTRIES = 500
+        val MAX_IDLE_MS = TimeUnit.DAYS.toMillis(7)
+    }
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val stores = AtomicLong()
+    private val evictions = AtomicLong()
+    private val savedAudioMs = AtomicLong()
+
+    /**
+     * 查询缓存, 命中时更新条目的使用时间
+     * @return 命中的条目, 未命中为null
+     */
+    suspend fun get(
+        contentHash: String,
+        sampleCount: Long,
+        sampleRate: Int,
+        now: Long = System.currentTimeMillis()
+    ): TranscriptionCacheEntry? {
+        val entry = cacheDao.get(contentHash, sampleCount, sampleRate)
+        if (entry == null || now - entry.lastUsedAt > MAX_IDLE_MS) {
+            misses.incrementAndGet()
+            return null
+        }
+        cacheDao.touch(contentHash, now)
+        hits.incrementAndGet()
+        savedAudioMs.addAndGet(if (sampleRate > 0) sampleCount * 1000 / sampleRate else 0)
+        return entry
+    }
+
+    /**
+     * 保存转写结果(相同哈希的旧条目被替换), 之后执行淘汰
+     */
+    suspend fun put(
+        contentHash: String,
+        sampleCount: Long,
+        sampleRate: Int,
+        result: TranscriptionResult,
+        now: Long = System.currentTimeMillis()
+    ) {
+        cacheDao.upsert(
+            TranscriptionCacheEntry(
+                contentHash = contentHash,
+                sampleCount = sampleCount,
+                sampleRate = sampleRate,
+                text = result.text,
+                language = result.language,
+                segments = result.getSegmentsJson(),
+                createdAt = now,
+                lastUsedAt = now
+            )
+        )
+        stores.incrementAndGet()
+        evict(now)
+    }
+
+    /**
+     * 淘汰过期和超出数量的条目
+     * @return 删除的条目数
+     */
+    suspend fun evict(now: Long = System.currentTimeMillis()): Int {
+        val removed = cacheDao.deleteUnusedSince(now - MAX_IDLE_MS) + cacheDao.trimTo(MAX_ENTRIES)
+        if (removed > 0) {
+            evictions.addAndGet(removed.toLong())
+            Log.d(TAG, "Evicted $removed entries")
+        }
+        return removed
+    }
+
+    /**
+     * 当前的条目数
+     */
+    suspend fun getEntryCount(): Int = cacheDao.count()
+
+    fun getStats(): TranscriptionCacheStats = TranscriptionCacheStats(
+        hits = hits.get(),
+        misses = misses.get(),
+        stores = stores.get(),
+        evictions = evictions.get(),
+        savedAudioMs = savedAudioMs.get()
+    )
+}
+
+/**
+ * 转写缓存统计
+ * @param savedAudioMs 命中的录音总时长(省去的转写)
+ */
+data class TranscriptionCacheStats(
+    val hits: Long,
+    val misses: Long,
+    val stores: Long,
+    val evictions: Long,
+    val savedAudioMs: Long
+) {
+    /** 命中率, 没有查询时为0 */
+    fun getHitRate(): Double = if (hits + misses > 0) hits.toDouble() / (hits + misses) else 0.0
+
+    override fun toString(): String =
+        "命中 $hits / 未命中 $misses (${String.format("%.0f", getHitRate() * 100)}%), " +
+                "省去 ${savedAudioMs / 1000}秒音频的转写, 写入 $stores, 淘汰 $evictions"
+}
@@ -0,0 +1,76 @@
+package com.voicelife.assistant.transcription
+
+import com.google.gson.Gson
+import java.io.File
+
+/**
+ * 转写引擎
+ * 转写一段内存中的音频(一个分块), 由ChunkedTranscriber调用; 测试时可以替换为假引擎
+ *
+ * 一个实例同一时间只被一个工作线程使用, 不要求线程安全
+ */
+interface TranscriptionEngine {
+    /**
+     * 转写一段音频
+     * 可能耗时较长, 应响应协程取消
+     *
+     * @param samples 16bit单声道样本
+     * @param sampleRate 采样率
+     * @return 分段时间相对samples起点
+     * @throws TranscriptionException 转写失败; 其他异常按可重试处理
+     */
+    suspend fun transcribe(samples: ShortArray, sampleRate: Int): TranscriptionResult
+
+    /**
+     * 释放资源(模型等)
+     */
+    fun release() {}
+}
+
+/**
+ * 录音转写器
+ * 调度器只依赖这个接口, 测试时可以替换
+ */
+fun interface RecordingTranscriber {
+    /**
+     * 转写一个录音文件
+     * @param file 录音文件(WAV/FLAC/IMA ADPCM, 由AudioFileReader读取)
+     * @return 分段时间相对录音起点
+     */
+    suspend fun transcribe(file: File, sampleRate: Int): TranscriptionResult
+}
+
+/**
+ * 转写结果
+ */
+data class TranscriptionResult(
+    val text: String,
+    val language: String?,
+    val segments: List<TranscriptSegment>
+) {
+    /**
+     * 分段信息的JSON(Transcription.segments)
+     */
+    fun getSegmentsJson(): String = Gson().toJson(segments)
+}
+
+/**
+ * 转写分段
+ * @param startMs 起始时间(毫秒)
+ * @param endMs 结束时间(毫秒)
+ */
+data class TranscriptSegment(
+    val startMs: Long,
+    val endMs: Long,
+    val text: String
+)
+
+/**
+ * 转写失败
+ * @param retryable false表示重试也不会成功(如文件损坏), 任务直接失败
+ */
+class TranscriptionException(
+    message: String,
+    val retryable: Boolean = true,
+    cause: Throwable? = null
+) : Exception(message, cause)
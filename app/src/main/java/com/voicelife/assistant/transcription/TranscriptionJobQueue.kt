@@ -0,0 +1,115 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.data.database.TranscriptionJobDao
+import com.voicelife.assistant.data.model.JobState
+import com.voicelife.assistant.data.model.TranscriptionJob
+import java.util.UUID
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * 持久化的转写任务队列
+ * 配置了转写引擎时, 录音保存后立即入队, 与是否满足执行条件无关
+ *
+ * 时间都由调用方传入, 便于测试
+ */
+@Singleton
+class TranscriptionJobQueue @Inject constructor(
+    private val jobDao: TranscriptionJobDao
+) {
+    companion object {
+        private const val MAX_ERROR_LENGTH = 500
+    }
+
+    /**
+     * 录音入队
+     * @return 是否新建了任务(已有任务时为false)
+     */
+    suspend fun enqueue(recordingId: Long, priority: Int = 0, now: Long = System.currentTimeMillis()): Boolean {
+        return jobDao.insert(newJob(recordingId, priority, now)) != -1L
+    }
+
+    /**
+     * 把还没有任务的待转换录音入队(如启动扫描找回的录音)
+     * @return 新建的任务数
+     */
+    suspend fun enqueueUnscheduled(now: Long = System.currentTimeMillis()): Int {
+        val recordingIds = jobDao.getUnscheduledRecordingIds()
+        if (recordingIds.isEmpty()) return 0
+        return jobDao.insertAll(recordingIds.map { newJob(it, 0, now) }).count { it != -1L }
+    }
+
+    /**
+     * 领取下一个可执行的任务
+     * @return 没有可执行的任务时返回null
+     */
+    suspend fun claim(leaseMs: Long, now: Long): TranscriptionJob? {
+        val leaseOwner = UUID.randomUUID().toString()
+        if (jobDao.claimNext(leaseOwner, now + leaseMs, now) == 0) return null
+        return jobDao.getByLease(leaseOwner)
+    }
+
+    /**
+     * 续期
+     * @return false表示租约已被回收
+     */
+    suspend fun renewLease(job: TranscriptionJob, leaseMs: Long, now: Long): Boolean {
+        val owner = job.leaseOwner ?: return false
+        return jobDao.renewLease(job.id, owner, now + leaseMs, now) == 1
+    }
+
+    suspend fun complete(job: TranscriptionJob, now: Long): Boolean =
+        finish(job, JobState.SUCCEEDED, job.notBefore, null, 0, now)
+
+    /**
+     * 重新排队, notBefore之前不会被领取
+     */
+    suspend fun retry(job: TranscriptionJob, notBefore: Long, error: String, now: Long): Boolean =
+        finish(job, JobState.QUEUED, notBefore, error, 0, now)
+
+    suspend fun fail(job: TranscriptionJob, error: String, now: Long): Boolean =
+        finish(job, JobState.FAILED, job.notBefore, error, 0, now)
+
+    /**
+     * 放弃租约(调度器停止), 不计入尝试次数, 可以立即再领取
+     */
+    suspend fun release(job: TranscriptionJob, now: Long): Boolean =
+        finish(job, JobState.QUEUED, now, job.lastError, -1, now)
+
+    private suspend fun finish(
+        job: TranscriptionJob,
+        state: JobState,
+        notBefore: Long,
+        error: String?,
+        attemptsDelta: Int,
+        now: Long
+    ): Boolean {
+        val owner = job.leaseOwner ?: return false
+        return jobDao.finish(job.id, owner, state, notBefore, error?.take(MAX_ERROR_LENGTH), attemptsDelta, now) == 1
+    }
+
+    /**
+     * 租约在expiredBefore之前到期的任务
+     */
+    suspend fun getExpiredLeases(expiredBefore: Long): List<TranscriptionJob> =
+        jobDao.getExpiredLeases(expiredBefore)
+
+    /**
+     * 排队任务中最早的可领取时间, 没有排队任务时返回null
+     */
+    suspend fun getNextAttemptAt(): Long? = jobDao.getNextAttemptAt()
+
+    /**
+     * 未结束的任务数(排队 + 执行中)
+     */
+    suspend fun getPendingCount(): Int = jobDao.getCount(listOf(JobState.QUEUED, JobState.RUNNING))
+
+    suspend fun getFailedCount(): Int = jobDao.getCount(listOf(JobState.FAILED))
+
+    private fun newJob(recordingId: Long, priority: Int, now: Long) = TranscriptionJob(
+        recordingId = recordingId,
+        priority = priority,
+        createdAt = now,
+        updatedAt = now
+    )
+}
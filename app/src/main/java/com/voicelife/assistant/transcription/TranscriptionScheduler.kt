@@ -0,0 +1,333 @@
+package com.voicelife.assistant.transcription
+
+import android.util.Log
+import com.voicelife.assistant.data.model.Recording
+import com.voicelife.assistant.data.model.TranscriptionJob
+import com.voicelife.assistant.data.model.TranscriptionStatus
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.recorder.PcmContentHash
+import com.voicelife.assistant.storage.RecordingFileStore
+import com.voicelife.assistant.storage.RecordingStage
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 转写调度配置
+ * @param maxConcurrentJobs 同时执行的任务数
+ * @param requireCharging 只在充电时执行
+ * @param requireIdle 只在空闲(屏幕关闭且没有录音)时执行
+ * @param minBatteryPercent 不充电时执行所需的最低电量
+ * @param leaseMs 租约时长, 执行期间每1/3租约续期一次
+ * @param baseBackoffMs 首次失败后的退避, 之后每次翻倍
+ * @param pollIntervalMs 没有唤醒时重新检查条件和队列的间隔
+ */
+data class TranscriptionSchedulerConfig(
+    val maxConcurrentJobs: Int = 1,
+    val requireCharging: Boolean = true,
+    val requireIdle: Boolean = false,
+    val minBatteryPercent: Int = 50,
+    val leaseMs: Long = 10 * 60 * 1000L,
+    val baseBackoffMs: Long = 60 * 1000L,
+    val maxBackoffMs: Long = 6 * 60 * 60 * 1000L,
+    val pollIntervalMs: Long = 60 * 1000L
+) {
+    /**
+     * 当前设备状态是否允许领取新任务
+     */
+    fun allows(conditions: DeviceConditions): Boolean {
+        val charging = conditions.isCharging()
+        if (requireCharging && !charging) return false
+        if (requireIdle && !conditions.isIdle()) return false
+        return charging || conditions.getBatteryPercent() >= minBatteryPercent
+    }
+
+    /**
+     * 第attempts次失败后的退避时长
+     */
+    fun getBackoffMs(attempts: Int): Long {
+        val shift = (attempts - 1).coerceIn(0, 20)
+        return (baseBackoffMs shl shift).coerceAtMost(maxBackoffMs)
+    }
+}
+
+/**
+ * 转写调度器
+ * 从持久化队列领取任务交给转写器, 进程崩溃或被杀后任务不会丢失, 也不会被执行两次以上(超过最大次数)
+ *
+ * 单个任务的流程:
+ * 1. 一条UPDATE领取任务(写入租约), 录音文件移到processing/, 状态改为PROCESSING
+ * 2. 调用转写器, 期间定期续期租约
+ * 3. 保存转写结果(状态改为COMPLETED), 文件移到completed/, 任务标记为成功
+ * 4. 失败时按次数指数退避后重新排队, 文件移回pending/; 超过最大次数或不可重试时文件移到failed/
+ *
+ * 崩溃恢复:
+ * - 启动时回收所有RUNNING任务的租约(本进程还没有领取任何任务)
+ * - 运行中回收租约已到期且不是本进程正在执行的任务
+ * - 回收按一次失败处理, 每次领取都计入尝试次数, 使引擎崩溃的文件最终进入failed/而不是反复重启
+ * - 结果已保存但没来得及标记成功的任务, 再次领取时跳过转写
+ *
+ * 转写缓存: 调用转写器之前按录音的内容哈希查询TranscriptionCache, 命中时复制缓存的结果;
+ * 录音没有哈希(旧录音、启动扫描找回的录音)时先读取文件补算, 读取的开销远小于转写
+ *
+ * 设备条件只在领取新任务前检查, 已开始的任务执行完毕
+ *
+ * 依赖都通过构造参数传入(队列DAO、转写器、设备状态、时钟), 可以在JVM上用假引擎测试
+ */
+class TranscriptionScheduler(
+    private val queue: TranscriptionJobQueue,
+    private val recordingRepository: RecordingRepository,
+    private val fileStore: RecordingFileStore,
+    private val transcriber: RecordingTranscriber,
+    private val conditions: DeviceConditions,
+    private val config: TranscriptionSchedulerConfig = TranscriptionSchedulerConfig(),
+    private val cache: TranscriptionCache? = null,
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val debugLogger: com.voicelife.assistant.utils.DebugLogger? = null
+) {
+    companion object {
+        private const val TAG = "TranscriptionScheduler"
+        private const val MIN_WAIT_MS = 1000L
+    }
+
+    private val wakeups = Channel<Unit>(Channel.CONFLATED)
+    private val activeJobIds = ConcurrentHashMap.newKeySet<Long>()
+    private var loopJob: Job? = null
+
+    /**
+     * 启动调度循环
+     */
+    fun start(scope: CoroutineScope) {
+        if (loopJob?.isActive == true) return
+        loopJob = scope.launch(dispatcher) {
+            recoverExpiredLeases(Long.MAX_VALUE)
+            while (isActive) {
+                var waitMs = config.pollIntervalMs
+                try {
+                    recoverExpiredLeases(clock())
+                    if (config.allows(conditions)) {
+                        fillSlots(this)
+                    }
+                    waitMs = getWaitMs()
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.e(TAG, "Scheduling pass failed", e)
+                }
+                withTimeoutOrNull(waitMs) { wakeups.receive() }
+            }
+        }
+        Log.d(TAG, "Scheduler started: $config")
+    }
+
+    /**
+     * 停止调度, 执行中的任务被取消并放弃租约(不计入尝试次数)
+     */
+    suspend fun stop() {
+        loopJob?.cancelAndJoin()
+        loopJob = null
+        Log.d(TAG, "Scheduler stopped")
+    }
+
+    /**
+     * 立即检查队列(新任务入队、设备开始充电等)
+     */
+    fun wakeUp() {
+        wakeups.trySend(Unit)
+    }
+
+    /**
+     * 执行中的任务数
+     */
+    fun getActiveCount(): Int = activeJobIds.size
+
+    private suspend fun fillSlots(scope: CoroutineScope) {
+        while (activeJobIds.size < config.maxConcurrentJobs) {
+            val job = queue.claim(config.leaseMs, clock()) ?: return
+            activeJobIds.add(job.id)
+            scope.launch {
+                try {
+                    runJob(job)
+                } finally {
+                    activeJobIds.remove(job.id)
+                    wakeUp()
+                }
+            }
+        }
+    }
+
+    /**
+     * 下次检查前的等待时间: 有空闲槽位且有排队任务时等到最早的退避到期
+     */
+    private suspend fun getWaitMs(): Long {
+        if (activeJobIds.size >= config.maxConcurrentJobs || !config.allows(conditions)) {
+            return config.pollIntervalMs
+        }
+        val nextAttemptAt = queue.getNextAttemptAt() ?: return config.pollIntervalMs
+        return (nextAttemptAt - clock()).coerceIn(MIN_WAIT_MS, config.pollIntervalMs)
+    }
+
+    /**
+     * 回收租约在expiredBefore之前到期的任务(本进程正在执行的除外)
+     */
+    private suspend fun recoverExpiredLeases(expiredBefore: Long) {
+        val expired = queue.getExpiredLeases(expiredBefore).filter { it.id !in activeJobIds }
+        for (job in expired) {
+            Log.w(TAG, "Recovering expired lease: job ${job.id}, attempt ${job.attempts}/${job.maxAttempts}")
+            onFailure(job, "Lease expired", retryable = true)
+        }
+        if (expired.isNotEmpty()) {
+            debugLogger?.w(TAG, "回收了${expired.size}个中断的转写任务")
+        }
+    }
+
+    private suspend fun runJob(job: TranscriptionJob) = coroutineScope {
+        val heartbeat = launch {
+            while (isActive) {
+                delay(config.leaseMs / 3)
+                if (!queue.renewLease(job, config.leaseMs, clock())) {
+                    Log.w(TAG, "Lease lost: job ${job.id}")
+                    return@launch
+                }
+            }
+        }
+
+        try {
+            execute(job)
+        } catch (e: CancellationException) {
+            withContext(NonCancellable) {
+                queue.release(job, clock())
+                recordingRepository.updateTranscriptionStatus(job.recordingId, TranscriptionStatus.PENDING)
+            }
+            throw e
+        } catch (e: TranscriptionException) {
+            withContext(NonCancellable) { onFailure(job, e.message ?: "Transcription failed", e.retryable) }
+        } catch (e: Exception) {
+            Log.e(TAG, "Job ${job.id} failed", e)
+            withContext(NonCancellable) { onFailure(job, e.toString(), retryable = true) }
+        } finally {
+            heartbeat.cancel()
+        }
+    }
+
+    private suspend fun execute(job: TranscriptionJob) {
+        var recording = recordingRepository.getRecordingById(job.recordingId)
+            ?: throw TranscriptionException("Recording ${job.recordingId} deleted", retryable = false)
+        val file = fileStore.locate(recording.filePath)
+            ?: throw TranscriptionException("File missing: ${recording.filePath}", retryable = false)
+
+        recording = moveRecording(recording, file, RecordingStage.PROCESSING)
+        recordingRepository.updateTranscriptionStatus(recording.id, TranscriptionStatus.PROCESSING)
+
+        // 上次已保存结果但没来得及标记成功时不再转写(流式转写的部分结果不算)
+        if (recordingRepository.getTranscriptionByRecordingId(recording.id)?.isFinal != true) {
+            val contentHash = getContentHash(recording)
+            val cached = contentHash?.let { cache?.get(it, recording.sampleCount, recording.sampleRate, clock()) }
+            if (cached != null) {
+                recordingRepository.saveTranscription(recording.id, cached.text, cached.language, cached.segments)
+                Log.d(TAG, "Reused cached transcription for ${File(recording.filePath).name}: ${cache?.getStats()}")
+                debugLogger?.i(TAG, "♻️ 转写缓存命中: ${File(recording.filePath).name}")
+            } else {
+                val start = clock()
+                val result = transcriber.transcribe(File(recording.filePath), recording.sampleRate)
+                recordingRepository.saveTranscription(recording.id, result.text, result.language, result.getSegmentsJson())
+                Log.d(TAG, "Transcribed ${File(recording.filePath).name} in ${clock() - start}ms")
+                if (contentHash != null) {
+                    cache?.put(contentHash, recording.sampleCount, recording.sampleRate, result, clock())
+                }
+            }
+        } else {
+            recordingRepository.updateTranscriptionStatus(recording.id, TranscriptionStatus.COMPLETED, clock())
+        }
+
+        recording = moveRecording(recording, File(recording.filePath), RecordingStage.COMPLETED)
+        if (!queue.complete(job, clock())) {
+            Log.w(TAG, "Job ${job.id} completed after its lease was recovered")
+        }
+        debugLogger?.i(TAG, "✅ 转写完成: ${File(recording.filePath).name}")
+    }
+
+    /**
+     * 录音的内容哈希, 没有时读取文件计算并保存
+     * 没有缓存或文件无法读取时返回null(照常转写)
+     */
+    private suspend fun getContentHash(recording: Recording): String? {
+        if (cache == null) return null
+        recording.contentHash?.let { return it }
+        return try {
+            val hash = PcmContentHash.ofFile(File(recording.filePath))
+            if (hash.sampleCount != recording.sampleCount) {
+                Log.w(TAG, "Recording ${recording.id}: ${hash.sampleCount} samples in file, ${recording.sampleCount} recorded")
+                return null
+            }
+            hash.getHex().also { recordingRepository.updateContentHash(recording.id, it) }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to hash ${File(recording.filePath).name}", e)
+            null
+        }
+    }
+
+    /**
+     * 失败处理: 还有尝试次数时退避后重新排队, 否则标记为失败
+     * 录音重新读取(路径可能已在执行中更新)
+     */
+    private suspend fun onFailure(job: TranscriptionJob, error: String, retryable: Boolean) {
+        val current = recordingRepository.getRecordingById(job.recordingId)
+        val retry = retryable && job.hasAttemptsLeft()
+        val now = clock()
+
+        try {
+            if (current != null) {
+                val file = fileStore.locate(current.filePath)
+                if (file != null) {
+                    moveRecording(current, file, if (retry) RecordingStage.PENDING else RecordingStage.FAILED)
+                }
+                recordingRepository.updateTranscriptionStatus(
+                    current.id,
+                    if (retry) TranscriptionStatus.PENDING else TranscriptionStatus.FAILED
+                )
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to move recording of job ${job.id}", e)
+        }
+
+        if (retry) {
+            val backoffMs = config.getBackoffMs(job.attempts)
+            queue.retry(job, now + backoffMs, error, now)
+            Log.w(TAG, "Job ${job.id} failed (attempt ${job.attempts}/${job.maxAttempts}), retry in ${backoffMs / 1000}s: $error")
+        } else {
+            queue.fail(job, error, now)
+            Log.e(TAG, "Job ${job.id} failed permanently after ${job.attempts} attempts: $error")
+            debugLogger?.e(TAG, "转写失败: 录音${job.recordingId}, $error")
+        }
+    }
+
+    /**
+     * 移动录音文件并更新数据库中的路径
+     * @return 路径更新后的录音
+     */
+    private suspend fun moveRecording(recording: Recording, file: File, stage: RecordingStage): Recording {
+        val target = fileStore.moveTo(file, stage)
+        if (target.absolutePath == recording.filePath) return recording
+        if (!recordingRepository.moveRecordingFile(recording, target)) {
+            Log.w(TAG, "Recording ${recording.id} changed while moving ${target.name}")
+        }
+        return recording.copy(filePath = target.absolutePath)
+    }
+}
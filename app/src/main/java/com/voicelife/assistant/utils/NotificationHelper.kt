@@ -9,6 +9,8 @@ import android.content.Intent
 import android.os.Build
 import androidx.core.app.NotificationCompat
 import com.voicelife.assistant.R
+import com.voicelife.assistant.recorder.CaptureHealth
+import com.voicelife.assistant.recorder.DegradationLevel
 import com.voicelife.assistant.ui.main.MainActivity
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -75,7 +77,7 @@ class NotificationHelper @Inject constructor(
             is ServiceState.Recording -> "正在录音 ${formatDuration(state.durationSeconds)}"
             is ServiceState.Processing -> "处理中 (队列: ${state.queueSize})"
             is ServiceState.Error -> "错误: ${state.message}"
-        }
+        } + formatHealth(state.health)
 
         return NotificationCompat.Builder(context, CHANNEL_ID)
             .setContentTitle("语音助手正在监听")
@@ -127,6 +129,18 @@ class NotificationHelper @Inject constructor(
         return String.format("%02d:%02d", minutes, secs)
     }
 
+    /**
+     * 采集异常时附加在通知末尾
+     */
+    private fun formatHealth(health: CaptureHealth?): String {
+        if (health == null || !health.isImpaired()) return ""
+        val parts = ArrayList<String>()
+        if (health.level != DegradationLevel.NORMAL) parts.add("负载过高")
+        if (health.lostMs > 0) parts.add("丢失${health.lostMs}ms")
+        if (health.droppedFrames > 0) parts.add("丢帧${health.droppedFrames}")
+        return " · ${parts.joinToString(", ")}"
+    }
+
     /**
      * 获取通知ID
      */
@@ -135,16 +149,23 @@ class NotificationHelper @Inject constructor(
 
 /**
  * 服务状态
+ * health为采集健康状况(降级级别、丢失音频、各环节耗时), 未在采集时为null
  */
 sealed class ServiceState {
-    object Idle : ServiceState()
+    open val health: CaptureHealth? get() = null
+
+    data class Idle(
+        override val health: CaptureHealth? = null
+    ) : ServiceState()
 
     data class Recording(
-        val durationSeconds: Int
+        val durationSeconds: Int,
+        override val health: CaptureHealth? = null
     ) : ServiceState()
 
     data class Processing(
-        val queueSize: Int
+        val queueSize: Int,
+        override val health: CaptureHealth? = null
     ) : ServiceState()
 
     data class Error(
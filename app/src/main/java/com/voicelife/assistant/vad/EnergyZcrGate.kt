@@ -0,0 +1,174 @@
+package com.voicelife.assistant.vad
+
+/**
+ * 能量/过零率预门限
+ * 在ONNX VAD之前做一级廉价筛选, 只有可能包含人声的帧才送去推理
+ *
+ * 判定策略:
+ * - 自适应噪声底: 静音帧上快降慢升地跟踪帧能量; 候选帧经模型判定为非人声后也缓慢抬升噪声底,
+ *   背景噪声阶跃变大(空调、风扇启动)时所有帧都成了候选帧, 只靠静音帧更新噪声底会让门限一直打开
+ * - 候选帧: 能量高于噪声底openRatio倍, 或高于weakRatio倍且过零率落在浊音区间
+ * - 滞回: 候选帧打开门限后, 至少保持hangoverFrames帧才关闭
+ * - 抽检: 关门期间每auditInterval帧仍推理一次, 用于估算门限带来的漏检率
+ *
+ * 非线程安全, 只应在音频处理线程中调用
+ */
+class EnergyZcrGate(
+    private val openRatio: Float = 3.0f,
+    private val weakRatio: Float = 1.5f,
+    private val minVoicedZcr: Float = 0.01f,
+    private val maxVoicedZcr: Float = 0.25f,
+    private val hangoverFrames: Int = 15,       // 约0.5秒
+    private val resetAfterGatedFrames: Int = 30, // 关门约1秒后重新打开时重置LSTM
+    private val auditInterval: Int = 100
+) {
+    /**
+     * 门限判定结果
+     */
+    enum class Decision {
+        /** 正常推理 */
+        INFER,
+        /** 关门期间重新打开, 推理前应重置LSTM状态 */
+        INFER_AFTER_RESET,
+        /** 关门期间的抽检帧, 推理结果用于统计漏检 */
+        AUDIT,
+        /** 跳过推理 */
+        SKIP
+    }
+
+    private var noiseFloor = 0f
+    private var candidateEnergy = NO_CANDIDATE  // 最近一个候选帧的能量, 等待recordInference
+    private var hangoverRemaining = 0
+    private var gatedFrames = 0
+
+    // 统计
+    private var totalFrames = 0L
+    private var skippedFrames = 0L
+    private var auditedFrames = 0L
+    private var missedFrames = 0L
+
+    companion object {
+        private const val MIN_NOISE_FLOOR = 1e-7f
+        private const val FLOOR_ATTACK = 0.1f   // 能量低于噪声底时快速下降
+        private const val FLOOR_RELEASE = 0.002f // 能量高于噪声底时缓慢上升
+        private const val NO_CANDIDATE = -1f
+    }
+
+    /**
+     * 评估一帧音频
+     * @param audioFrame 值域[-1.0, 1.0]的音频帧
+     */
+    fun evaluate(audioFrame: FloatArray): Decision {
+        totalFrames++
+
+        var energy = 0f
+        var crossings = 0
+        var previous = audioFrame[0]
+        for (sample in audioFrame) {
+            energy += sample * sample
+            if ((sample >= 0f) != (previous >= 0f)) {
+                crossings++
+            }
+            previous = sample
+        }
+        energy /= audioFrame.size
+        val zcr = crossings.toFloat() / audioFrame.size
+
+        if (noiseFloor == 0f) {
+            noiseFloor = energy.coerceAtLeast(MIN_NOISE_FLOOR)
+        }
+
+        val loud = energy >= noiseFloor * openRatio
+        val weakVoiced = energy >= noiseFloor * weakRatio && zcr in minVoicedZcr..maxVoicedZcr
+        val candidate = loud || weakVoiced
+
+        if (!candidate) {
+            updateNoiseFloor(energy)
+        }
+        candidateEnergy = if (candidate) energy else NO_CANDIDATE
+
+        if (candidate) {
+            hangoverRemaining = hangoverFrames
+            val wasGatedLong = gatedFrames >= resetAfterGatedFrames
+            gatedFrames = 0
+            return if (wasGatedLong) Decision.INFER_AFTER_RESET else Decision.INFER
+        }
+
+        if (hangoverRemaining > 0) {
+            hangoverRemaining--
+            return Decision.INFER
+        }
+
+        gatedFrames++
+        if (auditInterval > 0 && gatedFrames % auditInterval == 0) {
+            auditedFrames++
+            return Decision.AUDIT
+        }
+
+        skippedFrames++
+        return Decision.SKIP
+    }
+
+    /**
+     * 记录抽检结果
+     * @param isVoice 模型是否判定为人声(即门限漏掉了人声)
+     */
+    fun recordAudit(isVoice: Boolean) {
+        if (isVoice) {
+            missedFrames++
+        }
+    }
+
+    /**
+     * 记录本帧(evaluate返回INFER/INFER_AFTER_RESET)的推理结果
+     * 候选帧被判定为非人声时用其能量更新噪声底(高于噪声底时只缓慢上升)
+     * @param isVoice 模型是否判定为人声
+     */
+    fun recordInference(isVoice: Boolean) {
+        if (candidateEnergy != NO_CANDIDATE && !isVoice) {
+            updateNoiseFloor(candidateEnergy)
+        }
+        candidateEnergy = NO_CANDIDATE
+    }
+
+    private fun updateNoiseFloor(energy: Float) {
+        val alpha = if (energy < noiseFloor) FLOOR_ATTACK else FLOOR_RELEASE
+        noiseFloor = (noiseFloor + alpha * (energy - noiseFloor)).coerceAtLeast(MIN_NOISE_FLOOR)
+    }
+
+    /**
+     * 获取统计信息
+     */
+    fun getStats(): GateStats = GateStats(
+        totalFrames = totalFrames,
+        skippedFrames = skippedFrames,
+        auditedFrames = auditedFrames,
+        missedFrames = missedFrames
+    )
+
+    /**
+     * 重置门限状态(保留统计)
+     */
+    fun reset() {
+        noiseFloor = 0f
+        candidateEnergy = NO_CANDIDATE
+        hangoverRemaining = 0
+        gatedFrames = 0
+    }
+}
+
+/**
+ * 预门限统计信息
+ */
+data class GateStats(
+    val totalFrames: Long,
+    val skippedFrames: Long,
+    val auditedFrames: Long,
+    val missedFrames: Long
+) {
+    /** 跳过推理的帧占比 */
+    fun getSkipRatio(): Float = if (totalFrames > 0) skippedFrames.toFloat() / totalFrames else 0f
+
+    /** 抽检帧中被门限误判为静音的比例 */
+    fun getMissRate(): Float = if (auditedFrames > 0) missedFrames.toFloat() / auditedFrames else 0f
+}
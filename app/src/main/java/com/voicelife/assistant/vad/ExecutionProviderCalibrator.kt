@@ -0,0 +1,124 @@
+package com.voicelife.assistant.vad
+
+/**
+ * 推理后端(Execution Provider)校准器
+ * 对每个候选配置做若干次预热推理后计时, 选出单帧推理最快的配置
+ *
+ * 对这类小模型, NNAPI的单次调度开销往往超过计算本身, 因此不能默认启用,
+ * 需要在设备上实测决定
+ *
+ * 不依赖Android和ONNX Runtime: 推理由Probe提供, 计时源可注入,
+ * 便于在JVM上使用CPU后端和假时钟验证选择逻辑
+ */
+class ExecutionProviderCalibrator(
+    private val warmupRuns: Int = 10,
+    private val measuredRuns: Int = 30,
+    private val clock: () -> Long = System::nanoTime
+) {
+    /**
+     * 单个候选配置的推理探针
+     */
+    interface Probe : AutoCloseable {
+        /** 执行一次完整的单帧推理 */
+        fun runOnce()
+    }
+
+    /**
+     * 依次校准所有候选配置
+     * @param candidates 候选配置, 创建失败的配置会被跳过
+     * @param probeFactory 按配置创建推理探针, 抛出异常表示该配置不可用
+     * @return 校准结果; 所有候选都不可用时返回默认CPU配置
+     */
+    fun calibrate(
+        candidates: List<EpConfig>,
+        probeFactory: (EpConfig) -> Probe
+    ): CalibrationResult {
+        val timings = LinkedHashMap<EpConfig, Long>()
+
+        for (config in candidates) {
+            val medianNanos = try {
+                probeFactory(config).use { probe -> measure(probe) }
+            } catch (e: Exception) {
+                null
+            }
+            if (medianNanos != null) {
+                timings[config] = medianNanos
+            }
+        }
+
+        val best = timings.minByOrNull { it.value }?.key ?: EpConfig.DEFAULT
+        return CalibrationResult(best, timings)
+    }
+
+    /**
+     * 预热后计时, 返回单次推理耗时的中位数(纳秒)
+     */
+    private fun measure(probe: Probe): Long {
+        repeat(warmupRuns) { probe.runOnce() }
+
+        val samples = LongArray(measuredRuns)
+        for (i in 0 until measuredRuns) {
+            val start = clock()
+            probe.runOnce()
+            samples[i] = clock() - start
+        }
+        samples.sort()
+        return samples[measuredRuns / 2]
+    }
+}
+
+/**
+ * 推理后端类型
+ */
+enum class ExecutionProvider {
+    CPU,
+    XNNPACK,
+    NNAPI
+}
+
+/**
+ * 推理后端配置
+ * @param threads 算子内线程数
+ */
+data class EpConfig(
+    val provider: ExecutionProvider,
+    val threads: Int
+) {
+    /** 持久化用的字符串形式, 如 "CPU:1" */
+    fun toKey(): String = "${provider.name}:$threads"
+
+    companion object {
+        val DEFAULT = EpConfig(ExecutionProvider.CPU, 1)
+
+        /** 默认的候选配置集合 */
+        val CANDIDATES = listOf(
+            EpConfig(ExecutionProvider.CPU, 1),
+            EpConfig(ExecutionProvider.CPU, 2),
+            EpConfig(ExecutionProvider.XNNPACK, 1),
+            EpConfig(ExecutionProvider.XNNPACK, 2),
+            EpConfig(ExecutionProvider.NNAPI, 1)
+        )
+
+        /**
+         * 解析持久化的配置, 格式不正确时返回null
+         */
+        fun fromKey(key: String?): EpConfig? {
+            val parts = key?.split(":") ?: return null
+            if (parts.size != 2) return null
+            val provider = ExecutionProvider.values().firstOrNull { it.name == parts[0] } ?: return null
+            val threads = parts[1].toIntOrNull()?.takeIf { it > 0 } ?: return null
+            return EpConfig(provider, threads)
+        }
+    }
+}
+
+/**
+ * 校准结果
+ * @param timings 每个可用配置的单帧推理耗时中位数(纳秒)
+ */
+data class CalibrationResult(
+    val best: EpConfig,
+    val timings: Map<EpConfig, Long>
+) {
+    fun getBestMicros(): Long = (timings[best] ?: 0L) / 1000
+}
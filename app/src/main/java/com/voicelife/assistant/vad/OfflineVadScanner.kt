@@ -0,0 +1,194 @@
+package com.voicelife.assistant.vad
+
+import com.voicelife.assistant.recorder.AudioFileReader
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * 离线VAD批量扫描器
+ * 对已有的录音(WAV/FLAC)重新运行VAD, 输出人声段的样本偏移
+ *
+ * 用途: 裁剪静音、计算人声占比、调优阈值
+ *
+ * 并行策略:
+ * - 工作线程数默认等于CPU核数
+ * - 每个工作线程独占一个VadEngine(一个ONNX会话, 一份LSTM状态), 文件之间重置状态
+ * - 文件通过共享队列分发, 处理快的线程自动多领任务
+ *
+ * 文件末尾不足一帧的样本补零后推理, 人声段和人声占比按实际样本数计算
+ *
+ * 引擎由engineFactory创建, 在纯JVM上可使用SileroVadEngine.fromModelFile
+ */
+class OfflineVadScanner(
+    private val engineFactory: () -> VadEngine,
+    private val workers: Int = Runtime.getRuntime().availableProcessors(),
+    private val stateMachineFactory: () -> VadStateMachine = { VadStateMachine() }
+) {
+    /**
+     * 扫描多个文件
+     * @return 每个文件的扫描结果(顺序与输入一致)和整体吞吐统计
+     */
+    fun scan(files: List<File>): BatchScanResult {
+        val startNanos = System.nanoTime()
+        val queue = ConcurrentLinkedQueue(files.withIndex().toList())
+        val results = arrayOfNulls<FileScanResult>(files.size)
+        val workerCount = workers.coerceIn(1, files.size.coerceAtLeast(1))
+
+        val executor = Executors.newFixedThreadPool(workerCount)
+        try {
+            val futures = ArrayList<Future<*>>(workerCount)
+            repeat(workerCount) {
+                futures += executor.submit {
+                    val engine = engineFactory()
+                    engine.init()
+                    try {
+                        val stateMachine = stateMachineFactory()
+                        while (true) {
+                            val (index, file) = queue.poll() ?: break
+                            results[index] = scanFile(file, engine, stateMachine)
+                        }
+                    } finally {
+                        engine.release()
+                    }
+                }
+            }
+            futures.forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+
+        return BatchScanResult(
+            files = results.map { it!! },
+            wallNanos = System.nanoTime() - startNanos,
+            workers = workerCount
+        )
+    }
+
+    /**
+     * 扫描单个文件
+     * 读取错误记录在结果中, 不影响其他文件
+     */
+    fun scanFile(file: File, engine: VadEngine, stateMachine: VadStateMachine): FileScanResult {
+        val startNanos = System.nanoTime()
+        val frameSize = engine.frameSize
+        val pcm = ShortArray(frameSize)
+        val frame = FloatArray(frameSize)
+        val segments = ArrayList<SpeechSegment>()
+
+        engine.reset()
+        stateMachine.reset()
+
+        var totalSamples = 0L
+        var sampleRate = engine.sampleRate
+        try {
+            AudioFileReader.open(file).use { reader ->
+                sampleRate = reader.sampleRate
+                require(sampleRate == engine.sampleRate) {
+                    "Sample rate $sampleRate != ${engine.sampleRate}"
+                }
+
+                val frameMs = frameSize * 1000L / sampleRate
+                var frameIndex = 0L
+                var segmentStart = -1L
+                while (true) {
+                    val read = readFrame(reader, pcm)
+                    if (read == 0) break
+                    for (i in 0 until read) {
+                        frame[i] = pcm[i] / 32768.0f
+                    }
+                    // 末尾不足一帧时补零
+                    frame.fill(0f, read, frameSize)
+                    totalSamples += read
+
+                    val frameEnd = (frameIndex + 1) * frameSize
+                    when (stateMachine.update(engine.process(frame), frameMs)) {
+                        VadStateMachine.Transition.VOICE_START -> {
+                            // 开始事件在人声持续minVoiceMs时触发, 回溯到第一个人声帧
+                            segmentStart = frameEnd - stateMachine.getVoiceMs() * sampleRate / 1000
+                        }
+                        VadStateMachine.Transition.VOICE_END -> {
+                            // 结束事件在静音持续minSilenceMs时触发, 回溯到第一个静音帧(不超过文件末尾)
+                            val end = frameEnd - stateMachine.getSilenceMs() * sampleRate / 1000
+                            segments += SpeechSegment(segmentStart, end.coerceAtMost(totalSamples))
+                            segmentStart = -1
+                        }
+                        VadStateMachine.Transition.NONE -> Unit
+                    }
+
+                    frameIndex++
+                }
+
+                if (segmentStart >= 0) {
+                    segments += SpeechSegment(segmentStart, totalSamples)
+                }
+            }
+        } catch (e: Exception) {
+            return FileScanResult(file, sampleRate, totalSamples, segments, System.nanoTime() - startNanos, e)
+        }
+
+        return FileScanResult(file, sampleRate, totalSamples, segments, System.nanoTime() - startNanos)
+    }
+
+    /**
+     * 读满一帧, 只有文件结束时才返回不足一帧的样本数
+     */
+    private fun readFrame(reader: AudioFileReader, pcm: ShortArray): Int {
+        var filled = 0
+        while (filled < pcm.size) {
+            val read = reader.read(pcm, filled, pcm.size - filled)
+            if (read <= 0) break
+            filled += read
+        }
+        return filled
+    }
+}
+
+/**
+ * 人声段
+ * @param startSample 起始样本偏移(含)
+ * @param endSample 结束样本偏移(不含)
+ */
+data class SpeechSegment(
+    val startSample: Long,
+    val endSample: Long
+) {
+    val length: Long get() = endSample - startSample
+}
+
+/**
+ * 单个文件的扫描结果
+ */
+data class FileScanResult(
+    val file: File,
+    val sampleRate: Int,
+    val totalSamples: Long,
+    val segments: List<SpeechSegment>,
+    val processingNanos: Long,
+    val error: Exception? = null
+) {
+    /** 人声样本占比 */
+    fun getSpeechRatio(): Double =
+        if (totalSamples > 0) segments.sumOf { it.length }.toDouble() / totalSamples else 0.0
+
+    /** 音频时长(秒) */
+    fun getDurationSeconds(): Double = if (sampleRate > 0) totalSamples.toDouble() / sampleRate else 0.0
+
+    /** 单线程实时倍率(音频时长 / 处理耗时) */
+    fun getRealTimeFactor(): Double =
+        if (processingNanos > 0) getDurationSeconds() / (processingNanos / 1e9) else 0.0
+}
+
+/**
+ * 批量扫描结果
+ */
+data class BatchScanResult(
+    val files: List<FileScanResult>,
+    val wallNanos: Long,
+    val workers: Int
+) {
+    /** 整体实时倍率(全部音频时长 / 墙钟耗时) */
+    fun getRealTimeFactor(): Double =
+        if (wallNanos > 0) files.sumOf { it.getDurationSeconds() } / (wallNanos / 1e9) else 0.0
+}
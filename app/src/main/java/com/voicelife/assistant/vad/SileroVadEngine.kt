@@ -3,6 +3,9 @@ package com.voicelife.assistant.vad
 import ai.onnxruntime.*
 import android.content.Context
 import android.util.Log
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.nio.FloatBuffer
 import java.nio.LongBuffer
 
@@ -15,83 +18,368 @@ import java.nio.LongBuffer
  * - 采样率: 16kHz
  * - 帧大小: 512样本
  * - 输出: 人声概率 [0.0, 1.0]
+ *
+ * 零分配推理(本类代码):
+ * - 输入/状态/输出均使用预分配的直接缓冲区, 张量只在初始化时创建一次
+ * - 输出通过pinned outputs直接写入预分配张量, 推理后将hn/cn拷回h/c
+ * - 诊断日志只在Log.isLoggable(TAG, DEBUG)时输出, 关闭时不拼接字符串
+ * - OrtSession.run本身每次调用仍会在ORT的Java层分配Result等对象(约600字节), 无法在外部消除;
+ *   SileroVadEngineAllocationTest用ThreadMXBean验证process()除此之外不再分配
+ *
+ * 快速启动:
+ * - 模型由VadModelStore解出到私有目录, ORT按文件路径加载
+ * - CPU后端首次启动保存优化后的图, 之后直接加载并跳过图优化;
+ *   XNNPACK/NNAPI的图含有后端编译的节点, ORT无法保存, 每次启动都做图优化
+ *
+ * 推理后端:
+ * - 首次启动时对CPU/XNNPACK/NNAPI及不同线程数做微基准测试, 选择最快的
+ * - 结果按模型哈希和设备保存, 模型变化后才重新校准
+ * - 选中的后端创建会话失败时退回单线程CPU, 并保存该结果
  */
-class SileroVadEngine(private val context: Context) {
+class SileroVadEngine private constructor(
+    private val context: Context?,
+    private val modelFile: File?
+) : VadEngine {
+
+    constructor(context: Context) : this(context, null)
     private var ortSession: OrtSession? = null
     private var ortEnvironment: OrtEnvironment? = null
 
-    private val sampleRate = 16000
-    private val frameSize = 512  // 样本数
+    override val sampleRate = 16000
+    override val frameSize = 512  // 样本数
+
+    // 预分配的直接缓冲区(与ORT张量共享内存)
+    private val inputBuffer = allocateFloats(frameSize)
+    private val h = allocateFloats(STATE_SIZE)
+    private val c = allocateFloats(STATE_SIZE)
+    private val sr = allocateLongs(1)
+    private val outputBuffer = allocateFloats(1)
+    private val hOutBuffer = allocateFloats(STATE_SIZE)
+    private val cOutBuffer = allocateFloats(STATE_SIZE)
+
+    // 复用的张量和输入/输出映射
+    private var inputTensor: OnnxTensor? = null
+    private var hTensor: OnnxTensor? = null
+    private var cTensor: OnnxTensor? = null
+    private var srTensor: OnnxTensor? = null
+    private var outputTensor: OnnxTensor? = null
+    private var hOutTensor: OnnxTensor? = null
+    private var cOutTensor: OnnxTensor? = null
+    private val inputs = HashMap<String, OnnxTensor>(8)
+    private val pinnedOutputs = HashMap<String, OnnxValue>(4)
 
-    // 模型状态 (LSTM hidden states)
-    private var h: FloatBuffer? = null
-    private var c: FloatBuffer? = null
-    private var sr: LongBuffer? = null
-    
     // 诊断计数器
     private var frameCount = 0L
+    private var debugLogging = false
+
+    // 启动耗时统计
+    private var initStats: VadInitStats? = null
 
     companion object {
         private const val TAG = "SileroVadEngine"
         private const val MODEL_FILENAME = "silero_vad.onnx"
+
+        // h和c状态: [2, 1, 64]
+        private const val STATE_SIZE = 2 * 64
+        private val STATE_SHAPE = longArrayOf(2, 1, 64)
+
+        /**
+         * 直接从模型文件创建引擎, 不依赖Context
+         * 用于离线批处理等非服务场景: 固定使用单线程CPU后端, 不读写优化缓存和校准结果
+         */
+        fun fromModelFile(modelFile: File): SileroVadEngine = SileroVadEngine(null, modelFile)
+
+        private fun allocateFloats(size: Int): FloatBuffer =
+            ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+
+        private fun allocateLongs(size: Int): LongBuffer =
+            ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder()).asLongBuffer()
     }
 
     /**
      * 初始化VAD引擎
      * @throws Exception 如果模型加载失败
      */
-    fun init() {
+    override fun init() {
         try {
             Log.d(TAG, "开始初始化VAD引擎...")
+            val startTime = nowMs()
             
+            debugLogging = Log.isLoggable(TAG, Log.DEBUG)
             ortEnvironment = OrtEnvironment.getEnvironment()
             Log.d(TAG, "ORT环境创建成功")
 
-            // 从assets加载模型
-            Log.d(TAG, "正在加载模型文件: $MODEL_FILENAME")
-            val modelBytes = context.assets.open(MODEL_FILENAME).use { it.readBytes() }
-            Log.d(TAG, "模型文件加载成功，大小: ${modelBytes.size / 1024}KB")
-
-            val sessionOptions = OrtSession.SessionOptions()
-            sessionOptions.setIntraOpNumThreads(1)  // 单线程推理
-            Log.d(TAG, "会话选项配置完成")
-
-            // 尝试使用NNAPI硬件加速
-            try {
-                sessionOptions.addNnapi()
-                Log.d(TAG, "NNAPI acceleration enabled")
-            } catch (e: Exception) {
-                Log.w(TAG, "NNAPI not available, using CPU")
+            val stats = if (modelFile != null) {
+                openSessionFromFile(modelFile, startTime)
+            } else {
+                openSessionFromAssets(context!!, startTime)
             }
 
-            Log.d(TAG, "正在创建ONNX会话...")
-            ortSession = ortEnvironment!!.createSession(modelBytes, sessionOptions)
-            Log.d(TAG, "ONNX会话创建成功")
-
-            // 初始化LSTM状态
+            // 创建复用张量并初始化LSTM状态
+            createTensors()
             initializeState()
             Log.d(TAG, "LSTM状态初始化完成")
 
-            Log.i(TAG, "✅ Silero VAD initialized successfully")
+            val endTime = nowMs()
+            initStats = stats.copy(totalMs = endTime - startTime)
+
+            Log.i(TAG, "✅ Silero VAD initialized successfully in ${endTime - startTime}ms (cache: ${stats.usedOptimizedCache})")
         } catch (e: Exception) {
             Log.e(TAG, "❌ Failed to initialize Silero VAD: ${e.javaClass.simpleName}: ${e.message}", e)
             throw e
         }
     }
 
+    /**
+     * 从assets中的模型创建会话
+     * 使用优化缓存和推理后端校准结果
+     */
+    private fun openSessionFromAssets(context: Context, startTime: Long): VadInitStats {
+        // 模型从私有目录按文件加载, 不再整体读入Java堆
+        val modelStore = VadModelStore(context, MODEL_FILENAME)
+        modelStore.prepare()
+        val prepareTime = nowMs()
+        Log.d(TAG, "模型文件就绪: ${modelStore.modelFile.length() / 1024}KB")
+
+        // 选择推理后端: 优先使用已保存的校准结果, 模型或设备变化后重新校准
+        var calibrated = false
+        var epConfig = modelStore.loadCalibratedConfig() ?: run {
+            calibrated = true
+            calibrateExecutionProvider(modelStore)
+        }
+        val calibrateTime = nowMs()
+        Log.d(TAG, "推理后端: ${epConfig.toKey()} (本次校准: $calibrated)")
+
+        Log.d(TAG, "正在创建ONNX会话...")
+        var usedCache = false
+        if (isCacheable(epConfig) && modelStore.hasOptimizedModel(epConfig)) {
+            try {
+                // 已优化的图无需再做图优化
+                ortSession = createSession(
+                    modelStore.getOptimizedModelFile(epConfig).absolutePath,
+                    epConfig,
+                    OrtSession.SessionOptions.OptLevel.NO_OPT,
+                    optimizedOutputPath = null
+                )
+                usedCache = true
+            } catch (e: Exception) {
+                Log.w(TAG, "Optimized model cache unusable, rebuilding: ${e.message}")
+                modelStore.invalidateOptimizedModel(epConfig)
+            }
+        }
+        if (ortSession == null) {
+            // 首次启动: 完整优化, CPU后端将结果写入缓存
+            ortSession = try {
+                createFullyOptimizedSession(modelStore, epConfig)
+            } catch (e: Exception) {
+                if (epConfig == EpConfig.DEFAULT) throw e
+                Log.w(TAG, "Execution provider ${epConfig.toKey()} unusable, falling back to CPU: ${e.message}")
+                epConfig = EpConfig.DEFAULT
+                modelStore.saveCalibratedConfig(epConfig)
+                createFullyOptimizedSession(modelStore, epConfig)
+            }
+        }
+        Log.d(TAG, "ONNX会话创建成功")
+
+        val endTime = nowMs()
+        return VadInitStats(
+            totalMs = endTime - startTime,
+            modelPrepareMs = prepareTime - startTime,
+            calibrationMs = calibrateTime - prepareTime,
+            sessionCreateMs = endTime - calibrateTime,
+            usedOptimizedCache = usedCache,
+            executionProvider = epConfig.toKey()
+        )
+    }
+
+    /**
+     * 完整图优化创建会话, 可缓存的后端同时输出优化后的图
+     */
+    private fun createFullyOptimizedSession(modelStore: VadModelStore, epConfig: EpConfig): OrtSession =
+        createSession(
+            modelStore.modelFile.absolutePath,
+            epConfig,
+            OrtSession.SessionOptions.OptLevel.ALL_OPT,
+            optimizedOutputPath = if (isCacheable(epConfig)) {
+                modelStore.getOptimizedModelFile(epConfig).absolutePath
+            } else {
+                null
+            }
+        )
+
+    /**
+     * 优化后的图能否保存: ORT不能输出含有XNNPACK/NNAPI编译节点的图
+     */
+    private fun isCacheable(epConfig: EpConfig): Boolean = epConfig.provider == ExecutionProvider.CPU
+
+    /**
+     * 直接从模型文件创建会话
+     */
+    private fun openSessionFromFile(file: File, startTime: Long): VadInitStats {
+        val epConfig = EpConfig.DEFAULT
+        ortSession = createSession(
+            file.absolutePath,
+            epConfig,
+            OrtSession.SessionOptions.OptLevel.ALL_OPT,
+            optimizedOutputPath = null
+        )
+        Log.d(TAG, "ONNX会话创建成功: ${file.name}")
+
+        val endTime = nowMs()
+        return VadInitStats(
+            totalMs = endTime - startTime,
+            modelPrepareMs = 0,
+            calibrationMs = 0,
+            sessionCreateMs = endTime - startTime,
+            usedOptimizedCache = false,
+            executionProvider = epConfig.toKey()
+        )
+    }
+
+    /**
+     * 创建ONNX会话
+     * @param optimizedOutputPath 非空时ORT会把优化后的图写到该路径
+     */
+    private fun createSession(
+        modelPath: String,
+        epConfig: EpConfig,
+        optLevel: OrtSession.SessionOptions.OptLevel,
+        optimizedOutputPath: String?
+    ): OrtSession {
+        val sessionOptions = OrtSession.SessionOptions()
+        sessionOptions.setOptimizationLevel(optLevel)
+        optimizedOutputPath?.let { sessionOptions.setOptimizedModelFilePath(it) }
+
+        when (epConfig.provider) {
+            ExecutionProvider.CPU -> sessionOptions.setIntraOpNumThreads(epConfig.threads)
+            ExecutionProvider.XNNPACK -> {
+                // XNNPACK使用自己的线程池, ORT线程池保持单线程
+                sessionOptions.setIntraOpNumThreads(1)
+                sessionOptions.addXnnpack(mapOf("intra_op_num_threads" to epConfig.threads.toString()))
+            }
+            ExecutionProvider.NNAPI -> {
+                sessionOptions.setIntraOpNumThreads(1)
+                sessionOptions.addNnapi()
+            }
+        }
+
+        return ortEnvironment!!.createSession(modelPath, sessionOptions)
+    }
+
+    /**
+     * 对所有候选推理后端做微基准测试, 选出最快的并保存
+     */
+    private fun calibrateExecutionProvider(modelStore: VadModelStore): EpConfig {
+        val result = calibrate(modelStore.modelFile)
+
+        result.timings.forEach { (config, nanos) ->
+            Log.d(TAG, "校准 ${config.toKey()}: ${nanos / 1000}µs/帧")
+        }
+        Log.i(TAG, "选择推理后端: ${result.best.toKey()} (${result.getBestMicros()}µs/帧)")
+
+        modelStore.saveCalibratedConfig(result.best)
+        return result.best
+    }
+
+    /**
+     * 用真实的ORT会话校准候选推理后端, 不依赖Context
+     * 每个候选单独创建会话和张量, 用完即关闭; 不可用的候选被跳过
+     * @param calibrator 可注入预热/计时次数和计时源
+     */
+    fun calibrate(
+        modelFile: File,
+        candidates: List<EpConfig> = EpConfig.CANDIDATES,
+        calibrator: ExecutionProviderCalibrator = ExecutionProviderCalibrator()
+    ): CalibrationResult {
+        if (ortEnvironment == null) {
+            ortEnvironment = OrtEnvironment.getEnvironment()
+        }
+        val modelPath = modelFile.absolutePath
+        return calibrator.calibrate(candidates) { config -> SessionProbe(modelPath, config) }
+    }
+
+    /**
+     * 校准用推理探针
+     * 使用静音输入和独立状态, 不影响正式会话
+     * 先创建张量再创建会话, 任何一步失败都关闭已创建的部分
+     */
+    private inner class SessionProbe(modelPath: String, config: EpConfig) : ExecutionProviderCalibrator.Probe {
+        private val probeInputs = HashMap<String, OnnxTensor>(8)
+        private val session: OrtSession
+
+        init {
+            try {
+                val env = ortEnvironment!!
+                probeInputs["input"] =
+                    OnnxTensor.createTensor(env, allocateFloats(frameSize), longArrayOf(1, frameSize.toLong()))
+                probeInputs["h"] = OnnxTensor.createTensor(env, allocateFloats(STATE_SIZE), STATE_SHAPE)
+                probeInputs["c"] = OnnxTensor.createTensor(env, allocateFloats(STATE_SIZE), STATE_SHAPE)
+                probeInputs["sr"] =
+                    OnnxTensor.createTensor(env, allocateLongs(1).apply { put(0, sampleRate.toLong()) }, longArrayOf(1))
+                session = createSession(modelPath, config, OrtSession.SessionOptions.OptLevel.ALL_OPT, null)
+            } catch (e: Exception) {
+                probeInputs.values.forEach { it.close() }
+                throw e
+            }
+        }
+
+        override fun runOnce() {
+            session.run(probeInputs).close()
+        }
+
+        override fun close() {
+            probeInputs.values.forEach { it.close() }
+            session.close()
+        }
+    }
+
+    // 使用单调时钟计时, 离线场景下不依赖Android框架
+    private fun nowMs(): Long = System.nanoTime() / 1_000_000
+
+    /**
+     * 获取最近一次初始化的耗时统计
+     */
+    fun getInitStats(): VadInitStats? = initStats
+
+    /**
+     * 创建复用张量
+     * 直接缓冲区创建的张量与缓冲区共享内存, 之后只需改写缓冲区内容
+     */
+    private fun createTensors() {
+        val env = ortEnvironment!!
+
+        inputTensor = OnnxTensor.createTensor(env, inputBuffer, longArrayOf(1, frameSize.toLong()))
+        hTensor = OnnxTensor.createTensor(env, h, STATE_SHAPE)
+        cTensor = OnnxTensor.createTensor(env, c, STATE_SHAPE)
+        srTensor = OnnxTensor.createTensor(env, sr, longArrayOf(1))
+
+        outputTensor = OnnxTensor.createTensor(env, outputBuffer, longArrayOf(1, 1))
+        hOutTensor = OnnxTensor.createTensor(env, hOutBuffer, STATE_SHAPE)
+        cOutTensor = OnnxTensor.createTensor(env, cOutBuffer, STATE_SHAPE)
+
+        inputs.clear()
+        inputs["input"] = inputTensor!!
+        inputs["h"] = hTensor!!
+        inputs["c"] = cTensor!!
+        inputs["sr"] = srTensor!!
+
+        pinnedOutputs.clear()
+        pinnedOutputs["output"] = outputTensor!!
+        pinnedOutputs["hn"] = hOutTensor!!
+        pinnedOutputs["cn"] = cOutTensor!!
+    }
+
     /**
      * 初始化LSTM状态
      */
     private fun initializeState() {
-        // h和c状态: [2, 1, 64]
-        h = FloatBuffer.allocate(2 * 64)
-        c = FloatBuffer.allocate(2 * 64)
+        for (i in 0 until STATE_SIZE) {
+            h.put(i, 0f)
+            c.put(i, 0f)
+        }
 
         // 采样率参数
-        sr = LongBuffer.allocate(1).apply {
-            put(sampleRate.toLong())
-            rewind()
-        }
+        sr.put(0, sampleRate.toLong())
     }
 
     /**
@@ -99,91 +387,46 @@ class SileroVadEngine(private val context: Context) {
      * @param audioFrame 音频数据,长度必须为512,值域为[-1.0, 1.0]
      * @return 人声概率 [0.0, 1.0], 值越高表示人声可能性越大
      */
-    fun process(audioFrame: FloatArray): Float {
+    override fun process(audioFrame: FloatArray): Float {
         require(audioFrame.size == frameSize) {
             "Audio frame size must be $frameSize, got ${audioFrame.size}"
         }
 
+        val session = ortSession ?: return 0f
+
         try {
-            // 诊断：检查音频数据统计
-            val max = audioFrame.maxOrNull() ?: 0f
-            val min = audioFrame.minOrNull() ?: 0f
-            val avg = audioFrame.average().toFloat()
-            val rms = kotlin.math.sqrt(audioFrame.map { it * it }.average()).toFloat()
-            
-            if (frameCount % 100 == 0L) {
-                Log.d(TAG, "音频统计 - Max: $max, Min: $min, Avg: $avg, RMS: $rms")
+            // 诊断：检查音频数据统计(仅在打印日志的帧上计算)
+            if (debugLogging && frameCount % 100 == 0L) {
+                logFrameStats(audioFrame)
             }
             frameCount++
-            // 准备输入张量
-            val inputTensor = OnnxTensor.createTensor(
-                ortEnvironment,
-                FloatBuffer.wrap(audioFrame),
-                longArrayOf(1, audioFrame.size.toLong())
-            )
-
-            val hTensor = OnnxTensor.createTensor(
-                ortEnvironment,
-                h,
-                longArrayOf(2, 1, 64)
-            )
-
-            val cTensor = OnnxTensor.createTensor(
-                ortEnvironment,
-                c,
-                longArrayOf(2, 1, 64)
-            )
-
-            val srTensor = OnnxTensor.createTensor(
-                ortEnvironment,
-                sr,
-                longArrayOf(1)
-            )
-
-            // 执行推理
-            val inputs = mapOf(
-                "input" to inputTensor,
-                "h" to hTensor,
-                "c" to cTensor,
-                "sr" to srTensor
-            )
-
-            val output = ortSession!!.run(inputs)
+
+            // 写入输入缓冲区(张量共享该内存)
+            inputBuffer.clear()
+            inputBuffer.put(audioFrame)
+            inputBuffer.rewind()
+
+            // 执行推理, 输出直接写入预分配张量
+            session.run(inputs, pinnedOutputs).close()
 
             // 获取输出概率 [1, 1]
-            val probability = (output[0].value as Array<*>)[0] as FloatArray
-            val vadProb = probability[0]
+            val vadProb = outputBuffer.get(0)
             
             // 诊断：记录VAD概率
-            if (frameCount % 50 == 0L) {
+            if (debugLogging && frameCount % 50 == 0L) {
                 Log.d(TAG, "VAD推理成功 - 概率: $vadProb, 帧数: $frameCount")
             }
 
-            // 更新LSTM状态 - 处理多维数组输出
-            val hOutput = output[1].value as Array<Array<FloatArray>>  // [2, 1, 64]
-            val cOutput = output[2].value as Array<Array<FloatArray>>  // [2, 1, 64]
-            
-            // 展平为一维数组并转换为FloatBuffer
-            h = FloatBuffer.allocate(2 * 64)
-            c = FloatBuffer.allocate(2 * 64)
-            
-            var idx = 0
-            for (i in 0 until 2) {
-                for (j in 0 until 64) {
-                    h!!.put(idx, hOutput[i][0][j])
-                    c!!.put(idx, cOutput[i][0][j])
-                    idx++
-                }
-            }
-            h!!.rewind()
-            c!!.rewind()
+            // 更新LSTM状态 - hn/cn拷回h/c
+            h.clear()
+            h.put(hOutBuffer)
+            h.rewind()
+            hOutBuffer.rewind()
 
-            // 清理资源
-            output.close()
-            inputTensor.close()
-            hTensor.close()
-            cTensor.close()
-            srTensor.close()
+            c.clear()
+            c.put(cOutBuffer)
+            c.rewind()
+            cOutBuffer.rewind()
 
             return vadProb
         } catch (e: Exception) {
@@ -192,11 +435,30 @@ class SileroVadEngine(private val context: Context) {
         }
     }
 
+    /**
+     * 计算并打印音频统计(单次遍历, 无装箱)
+     */
+    private fun logFrameStats(audioFrame: FloatArray) {
+        var max = Float.NEGATIVE_INFINITY
+        var min = Float.POSITIVE_INFINITY
+        var sum = 0.0
+        var sumSquares = 0.0
+        for (sample in audioFrame) {
+            if (sample > max) max = sample
+            if (sample < min) min = sample
+            sum += sample
+            sumSquares += sample * sample
+        }
+        val avg = (sum / audioFrame.size).toFloat()
+        val rms = kotlin.math.sqrt(sumSquares / audioFrame.size).toFloat()
+        Log.d(TAG, "音频统计 - Max: $max, Min: $min, Avg: $avg, RMS: $rms")
+    }
+
     /**
      * 重置VAD状态
      * 在开始新的检测会话时调用
      */
-    fun reset() {
+    override fun reset() {
         initializeState()
         Log.d(TAG, "VAD state reset")
     }
@@ -204,18 +466,44 @@ class SileroVadEngine(private val context: Context) {
     /**
      * 释放资源
      */
-    fun release() {
+    override fun release() {
         try {
+            inputs.clear()
+            pinnedOutputs.clear()
+            inputTensor?.close()
+            hTensor?.close()
+            cTensor?.close()
+            srTensor?.close()
+            outputTensor?.close()
+            hOutTensor?.close()
+            cOutTensor?.close()
+            inputTensor = null
+            hTensor = null
+            cTensor = null
+            srTensor = null
+            outputTensor = null
+            hOutTensor = null
+            cOutTensor = null
+
             ortSession?.close()
             ortEnvironment?.close()
             ortSession = null
             ortEnvironment = null
-            h = null
-            c = null
-            sr = null
             Log.d(TAG, "VAD engine released")
         } catch (e: Exception) {
             Log.e(TAG, "Error releasing VAD engine", e)
         }
     }
 }
+
+/**
+ * VAD引擎初始化耗时统计
+ */
+data class VadInitStats(
+    val totalMs: Long,
+    val modelPrepareMs: Long,
+    val calibrationMs: Long,
+    val sessionCreateMs: Long,
+    val usedOptimizedCache: Boolean,
+    val executionProvider: String
+)
@@ -0,0 +1,270 @@
+package com.voicelife.assistant.vad
+
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 统计模型VAD引擎
+ * 参考WebRTC VAD: 子带能量 + 高斯混合模型(GMM)的似然比检验
+ *
+ * 算法:
+ * 1. 6个带通双二阶滤波器将音频分成子带(80Hz ~ 4kHz), 计算每个子带的对数能量
+ * 2. 每个子带各有一个噪声GMM和一个人声GMM(各2个高斯分量)
+ * 3. 按子带计算对数似然比, 加权求和后与阈值比较, 映射为[0, 1]概率
+ * 4. 判定为静音的帧用于更新噪声模型, 人声帧用于更新人声模型
+ *
+ * 特点:
+ * - 纯Kotlin实现, 无原生依赖, 无需初始化模型文件
+ * - 每帧约数千次乘加, CPU开销远低于ONNX推理
+ * - 处理过程中不分配内存
+ */
+class StatisticalVadEngine : VadEngine {
+    override val sampleRate = 16000
+    override val frameSize = 512
+
+    // 子带滤波器系数与状态
+    private val b0 = FloatArray(NUM_BANDS)
+    private val a1 = FloatArray(NUM_BANDS)
+    private val a2 = FloatArray(NUM_BANDS)
+    private val z1 = FloatArray(NUM_BANDS)
+    private val z2 = FloatArray(NUM_BANDS)
+
+    // 每帧子带对数能量(dB)
+    private val features = FloatArray(NUM_BANDS)
+
+    // GMM参数, 下标为 band * NUM_COMPONENTS + k
+    private val noiseMeans = FloatArray(NUM_BANDS * NUM_COMPONENTS)
+    private val noiseStds = FloatArray(NUM_BANDS * NUM_COMPONENTS)
+    private val speechMeans = FloatArray(NUM_BANDS * NUM_COMPONENTS)
+    private val speechStds = FloatArray(NUM_BANDS * NUM_COMPONENTS)
+
+    private var frameCount = 0L
+
+    companion object {
+        private const val NUM_BANDS = 6
+        private const val NUM_COMPONENTS = 2
+        private val BAND_EDGES = floatArrayOf(80f, 250f, 500f, 1000f, 2000f, 3000f, 4000f)
+        private val BAND_WEIGHTS = floatArrayOf(0.10f, 0.15f, 0.20f, 0.20f, 0.20f, 0.15f)
+
+        // 初始模型(dB, 相对满幅)
+        private val INIT_NOISE_MEANS = floatArrayOf(-75f, -65f)
+        private val INIT_SPEECH_MEANS = floatArrayOf(-45f, -35f)
+        private const val INIT_NOISE_STD = 6f
+        private const val INIT_SPEECH_STD = 10f
+
+        // 判决阈值(自然对数似然比)
+        private const val GLOBAL_THRESHOLD = 3.0f
+        private const val LOCAL_THRESHOLD = 6.0f
+
+        // 模型自适应
+        private const val NOISE_LR_UP = 0.02f
+        private const val NOISE_LR_DOWN = 0.1f
+        private const val SPEECH_LR = 0.01f
+        private const val STARTUP_FRAMES = 50  // 启动阶段噪声模型加速收敛
+        private const val MIN_STD = 2f
+        private const val MAX_STD = 20f
+        private const val MIN_SPEECH_NOISE_GAP = 6f
+
+        private const val MIN_FRAME_ENERGY = 1e-8f  // 低于此能量直接判为静音
+        private const val ENERGY_EPSILON = 1e-10f
+        private val HALF_LOG_2PI = (0.5 * ln(2.0 * PI)).toFloat()
+        private val LOG_COMPONENT_WEIGHT = ln(1f / NUM_COMPONENTS)
+    }
+
+    /**
+     * 初始化引擎
+     * 计算子带滤波器系数并加载初始模型
+     */
+    override fun init() {
+        for (band in 0 until NUM_BANDS) {
+            val low = BAND_EDGES[band]
+            val high = BAND_EDGES[band + 1]
+            val center = sqrt(low * high)
+            val q = center / (high - low)
+
+            // RBJ带通滤波器(峰值增益0dB), 已按a0归一化
+            val w0 = 2.0 * PI * center / sampleRate
+            val alpha = sin(w0) / (2.0 * q)
+            val a0 = 1.0 + alpha
+            b0[band] = (alpha / a0).toFloat()
+            a1[band] = (-2.0 * cos(w0) / a0).toFloat()
+            a2[band] = ((1.0 - alpha) / a0).toFloat()
+        }
+
+        resetModels()
+        reset()
+    }
+
+    /**
+     * 处理音频帧
+     * @param audioFrame 音频数据,长度必须为512,值域为[-1.0, 1.0]
+     * @return 人声概率 [0.0, 1.0]
+     */
+    override fun process(audioFrame: FloatArray): Float {
+        require(audioFrame.size == frameSize) {
+            "Audio frame size must be $frameSize, got ${audioFrame.size}"
+        }
+        frameCount++
+
+        var frameEnergy = 0f
+        for (sample in audioFrame) {
+            frameEnergy += sample * sample
+        }
+        frameEnergy /= frameSize
+
+        computeBandFeatures(audioFrame)
+
+        if (frameEnergy < MIN_FRAME_ENERGY) {
+            adapt(noiseMeans, noiseStds, noiseLearningRate())
+            return 0f
+        }
+
+        // 逐子带对数似然比
+        var totalLlr = 0f
+        var maxLlr = Float.NEGATIVE_INFINITY
+        for (band in 0 until NUM_BANDS) {
+            val x = features[band]
+            val llr = logLikelihood(x, speechMeans, speechStds, band) -
+                    logLikelihood(x, noiseMeans, noiseStds, band)
+            totalLlr += BAND_WEIGHTS[band] * llr
+            if (llr > maxLlr) maxLlr = llr
+        }
+
+        val probability = maxOf(
+            sigmoid(totalLlr - GLOBAL_THRESHOLD),
+            sigmoid(maxLlr - LOCAL_THRESHOLD)
+        )
+
+        if (probability > 0.5f) {
+            adapt(speechMeans, speechStds, SPEECH_LR)
+        } else {
+            adapt(noiseMeans, noiseStds, noiseLearningRate())
+        }
+        enforceSpeechNoiseGap()
+
+        return probability
+    }
+
+    /**
+     * 子带滤波并计算对数能量(dB)
+     */
+    private fun computeBandFeatures(audioFrame: FloatArray) {
+        for (band in 0 until NUM_BANDS) {
+            val gain = b0[band]
+            val fa1 = a1[band]
+            val fa2 = a2[band]
+            var s1 = z1[band]
+            var s2 = z2[band]
+            var energy = 0f
+
+            // 转置直接II型: b1 = 0, b2 = -b0
+            for (sample in audioFrame) {
+                val y = gain * sample + s1
+                s1 = s2 - fa1 * y
+                s2 = -gain * sample - fa2 * y
+                energy += y * y
+            }
+
+            z1[band] = s1
+            z2[band] = s2
+            features[band] = 10f * log10(energy / frameSize + ENERGY_EPSILON)
+        }
+    }
+
+    /**
+     * 某子带GMM的对数似然
+     */
+    private fun logLikelihood(x: Float, means: FloatArray, stds: FloatArray, band: Int): Float {
+        val base = band * NUM_COMPONENTS
+        var maxLog = Float.NEGATIVE_INFINITY
+        for (k in 0 until NUM_COMPONENTS) {
+            val l = componentLog(x, means[base + k], stds[base + k])
+            if (l > maxLog) maxLog = l
+        }
+        var sum = 0f
+        for (k in 0 until NUM_COMPONENTS) {
+            sum += exp(componentLog(x, means[base + k], stds[base + k]) - maxLog)
+        }
+        return maxLog + ln(sum)
+    }
+
+    private fun componentLog(x: Float, mean: Float, std: Float): Float {
+        val z = (x - mean) / std
+        return LOG_COMPONENT_WEIGHT - 0.5f * z * z - ln(std) - HALF_LOG_2PI
+    }
+
+    /**
+     * 按后验责任度更新模型均值和标准差
+     */
+    private fun adapt(means: FloatArray, stds: FloatArray, learningRate: Float) {
+        for (band in 0 until NUM_BANDS) {
+            val x = features[band]
+            val base = band * NUM_COMPONENTS
+            val total = logLikelihood(x, means, stds, band)
+
+            for (k in 0 until NUM_COMPONENTS) {
+                val i = base + k
+                val responsibility = exp(componentLog(x, means[i], stds[i]) - total)
+                val diff = x - means[i]
+                // 噪声跟踪: 能量下降时更快收敛
+                val rate = if (means === noiseMeans && diff < 0f) maxOf(learningRate, NOISE_LR_DOWN) else learningRate
+                means[i] += rate * responsibility * diff
+                stds[i] = (stds[i] + rate * responsibility * (abs(diff) - stds[i]))
+                    .coerceIn(MIN_STD, MAX_STD)
+            }
+        }
+    }
+
+    /**
+     * 保持人声模型均值高于噪声模型, 防止两个模型重合
+     */
+    private fun enforceSpeechNoiseGap() {
+        for (i in speechMeans.indices) {
+            val minSpeech = noiseMeans[i] + MIN_SPEECH_NOISE_GAP
+            if (speechMeans[i] < minSpeech) {
+                speechMeans[i] = minSpeech
+            }
+        }
+    }
+
+    private fun noiseLearningRate(): Float =
+        if (frameCount < STARTUP_FRAMES) NOISE_LR_DOWN else NOISE_LR_UP
+
+    private fun sigmoid(x: Float): Float = 1f / (1f + exp(-x))
+
+    private fun resetModels() {
+        for (band in 0 until NUM_BANDS) {
+            for (k in 0 until NUM_COMPONENTS) {
+                val i = band * NUM_COMPONENTS + k
+                noiseMeans[i] = INIT_NOISE_MEANS[k]
+                noiseStds[i] = INIT_NOISE_STD
+                speechMeans[i] = INIT_SPEECH_MEANS[k]
+                speechStds[i] = INIT_SPEECH_STD
+            }
+        }
+        frameCount = 0
+    }
+
+    /**
+     * 重置检测状态
+     * 只清空滤波器状态, 已学习的噪声/人声模型代表环境特征, 予以保留
+     */
+    override fun reset() {
+        z1.fill(0f)
+        z2.fill(0f)
+    }
+
+    /**
+     * 释放资源
+     */
+    override fun release() {
+        reset()
+        resetModels()
+    }
+}
@@ -13,29 +13,36 @@ import kotlinx.coroutines.*
  *
  * 工作流程:
  * 1. 持续录制音频 (16kHz, MONO, 16bit PCM)
- * 2. 将音频帧送入VAD引擎分析
+ * 2. 将音频帧送入VAD引擎分析(Silero模型或省电的统计模型)
  * 3. 使用状态机处理检测结果(防抖动)
  * 4. 通过回调通知人声活动状态
  *
- * 防抖动策略:
- * - 连续3帧检测到人声才触发onVoiceStart
- * - 连续30帧(约2秒)静音才触发onVoiceEnd
+ * 防抖动策略(按时长计算, 见VadStateMachine):
+ * - 人声持续约96ms(3帧)才触发onVoiceStart
+ * - 静音持续约1秒(30帧)才触发onVoiceEnd
+ *
+ * 预门限:
+ * - 启用时先经过EnergyZcrGate, 明显静音的帧直接按静音处理, 不调用ONNX模型
+ *
+ * 功耗档位(powerProfile):
+ * - 非PERFORMANCE时由VadDutyCycle在长时间静音后降低推理频率, 未推理的帧按静音处理
+ * - 人声开始的检测延迟最多增加powerProfile.maxOnsetDelayMs, 录音会话的预缓冲需相应加长
  */
 class VadDetector(
     private val context: Context,
-    private val callback: VadCallback
+    private val callback: VadCallback,
+    private val engineType: VadEngineType = VadEngineType.SILERO,
+    enablePreGate: Boolean = true,
+    powerProfile: VadPowerProfile = VadPowerProfile.PERFORMANCE
 ) {
-    private var vadEngine: SileroVadEngine? = null
+    private var vadEngine: VadEngine? = null
+    private val preGate: EnergyZcrGate? = if (enablePreGate) EnergyZcrGate() else null
 
-    // VAD参数
-    private val voiceThreshold = 0.5f  // 人声概率阈值
-    private val minVoiceFrames = 3     // 连续3帧才触发开始
-    private val minSilenceFrames = 30  // 约2秒静音才结束
+    // 状态机(默认: 人声约96ms开始, 静音约1秒结束)
+    private val stateMachine = VadStateMachine()
 
-    // 状态机
-    private var consecutiveVoiceFrames = 0
-    private var consecutiveSilenceFrames = 0
-    private var isVoiceActive = false
+    private val dutyCycle: VadDutyCycle? =
+        if (powerProfile != VadPowerProfile.PERFORMANCE) VadDutyCycle(powerProfile, stateMachine.frameMs) else null
 
     companion object {
         private const val TAG = "VadDetector"
@@ -48,10 +55,13 @@ class VadDetector(
     fun init() {
         try {
             // 初始化VAD引擎
-            vadEngine = SileroVadEngine(context)
+            vadEngine = when (engineType) {
+                VadEngineType.SILERO -> SileroVadEngine(context)
+                VadEngineType.STATISTICAL -> StatisticalVadEngine()
+            }
             vadEngine?.init()
 
-            Log.d(TAG, "VAD Detector initialized")
+            Log.d(TAG, "VAD Detector initialized (engine: $engineType)")
         } catch (e: Exception) {
             Log.e(TAG, "Failed to initialize VAD Detector", e)
             callback.onError(e)
@@ -64,18 +74,93 @@ class VadDetector(
      * 由外部AudioRecorder调用
      */
     fun processFrame(audioFrame: FloatArray): Float {
+        val duty = dutyCycle ?: return evaluateFrame(audioFrame, true)
+        val scheduled = duty.evaluate(audioFrame)
+        val probability = evaluateFrame(audioFrame, scheduled)
+        duty.onResult(probability)
+        return probability
+    }
+
+    /**
+     * 预门限和推理
+     * @param scheduled 占空比是否安排本帧推理; 为false时预门限照常评估(保持噪声底跟踪), 但不推理
+     */
+    private fun evaluateFrame(audioFrame: FloatArray, scheduled: Boolean): Float {
         return try {
             if (vadEngine == null) {
                 Log.e(TAG, "VAD引擎未初始化！")
                 return 0f
             }
-            vadEngine?.process(audioFrame) ?: 0f
+            val gate = preGate ?: return inferScheduled(audioFrame, scheduled)
+
+            when (gate.evaluate(audioFrame)) {
+                EnergyZcrGate.Decision.SKIP -> 0f
+                EnergyZcrGate.Decision.INFER -> {
+                    val probability = inferScheduled(audioFrame, scheduled)
+                    if (scheduled) gate.recordInference(probability > stateMachine.voiceThreshold)
+                    probability
+                }
+                EnergyZcrGate.Decision.INFER_AFTER_RESET -> {
+                    // 长时间关门后重新打开: 能量明显上升, 恢复逐帧推理; LSTM状态已过时, 从干净状态开始
+                    dutyCycle?.wake()
+                    vadEngine?.reset()
+                    val probability = vadEngine?.process(audioFrame) ?: 0f
+                    gate.recordInference(probability > stateMachine.voiceThreshold)
+                    probability
+                }
+                EnergyZcrGate.Decision.AUDIT -> {
+                    val probability = vadEngine?.process(audioFrame) ?: 0f
+                    gate.recordAudit(probability > stateMachine.voiceThreshold)
+                    logGateStats(gate)
+                    probability
+                }
+            }
         } catch (e: Exception) {
             Log.e(TAG, "Error processing frame: ${e.message}", e)
             0f
         }
     }
 
+    /**
+     * 占空比未安排的帧不推理, 计为省下的推理
+     */
+    private fun inferScheduled(audioFrame: FloatArray, scheduled: Boolean): Float {
+        if (!scheduled) {
+            dutyCycle?.recordSaved()
+            return 0f
+        }
+        return vadEngine?.process(audioFrame) ?: 0f
+    }
+
+    /**
+     * 定期输出预门限统计
+     */
+    private fun logGateStats(gate: EnergyZcrGate) {
+        val stats = gate.getStats()
+        if (stats.auditedFrames % 10 == 0L) {
+            Log.d(
+                TAG,
+                "预门限 - 跳过率: ${String.format("%.3f", stats.getSkipRatio())}, " +
+                        "漏检率: ${String.format("%.3f", stats.getMissRate())}"
+            )
+        }
+    }
+
+    /**
+     * 获取预门限统计(未启用时返回null)
+     */
+    fun getGateStats(): GateStats? = preGate?.getStats()
+
+    /**
+     * 获取占空比统计(PERFORMANCE档位时返回null)
+     */
+    fun getDutyCycleStats(): DutyCycleStats? = dutyCycle?.getStats()
+
+    /**
+     * 获取VAD引擎初始化耗时统计
+     */
+    fun getEngineInitStats(): VadInitStats? = (vadEngine as? SileroVadEngine)?.getInitStats()
+
     /**
      * 处理VAD结果
      * 由外部AudioRecorder调用
@@ -89,28 +174,18 @@ class VadDetector(
      * @param probability 人声概率 [0.0, 1.0]
      */
     private fun processVadResult(probability: Float) {
-        if (probability > voiceThreshold) {
-            // 检测到人声
-            consecutiveVoiceFrames++
-            consecutiveSilenceFrames = 0
-
-            if (!isVoiceActive && consecutiveVoiceFrames >= minVoiceFrames) {
+        when (stateMachine.update(probability)) {
+            VadStateMachine.Transition.VOICE_START -> {
                 // 触发人声开始
-                isVoiceActive = true
                 callback.onVoiceStart()
                 Log.d(TAG, "Voice activity started (prob: $probability)")
             }
-        } else {
-            // 静音
-            consecutiveSilenceFrames++
-            consecutiveVoiceFrames = 0
-
-            if (isVoiceActive && consecutiveSilenceFrames >= minSilenceFrames) {
+            VadStateMachine.Transition.VOICE_END -> {
                 // 触发人声结束
-                isVoiceActive = false
                 callback.onVoiceEnd()
                 Log.d(TAG, "Voice activity ended (prob: $probability)")
             }
+            VadStateMachine.Transition.NONE -> Unit
         }
     }
 
@@ -118,9 +193,9 @@ class VadDetector(
      * 重置状态
      */
     fun reset() {
-        consecutiveVoiceFrames = 0
-        consecutiveSilenceFrames = 0
-        isVoiceActive = false
+        stateMachine.reset()
+        preGate?.reset()
+        dutyCycle?.reset()
         vadEngine?.reset()
         Log.d(TAG, "VAD state reset")
     }
@@ -0,0 +1,199 @@
+package com.voicelife.assistant.vad
+
+/**
+ * VAD功耗档位
+ * 长时间无人声时降低推理频率, 代价是人声开始的检测延迟最多增加maxOnsetDelayMs
+ *
+ * @param idleAfterMs 连续无人声多久后进入空闲(降频)模式
+ * @param maxOnsetDelayMs 空闲模式下人声开始检测延迟的上限, 决定推理间隔
+ */
+enum class VadPowerProfile(
+    val idleAfterMs: Long,
+    val maxOnsetDelayMs: Long
+) {
+    /** 每帧推理 */
+    PERFORMANCE(Long.MAX_VALUE, 0),
+
+    /** 10秒无人声后每6帧推理一次, 开始延迟最多160ms */
+    BALANCED(10_000, 160),
+
+    /** 5秒无人声后每16帧推理一次, 开始延迟最多480ms */
+    POWER_SAVER(5_000, 480);
+
+    /**
+     * 空闲模式下的推理间隔(帧), 间隔内跳过的帧数乘帧长不超过maxOnsetDelayMs
+     */
+    fun getStride(frameMs: Long): Int = (1 + maxOnsetDelayMs / frameMs).toInt()
+}
+
+/**
+ * VAD推理占空比控制
+ * 长时间静音时只对每stride帧中的一帧推理, 能量或概率上升时立即恢复逐帧推理
+ *
+ * 唤醒条件:
+ * - 帧能量高于空闲期能量底riseRatio倍(每帧都计算, 开销只有一次平方和):
+ *   立即逐帧推理energyHoldFrames帧, 期间没有出现人声则直接回到降频, 不重新等待idleAfterMs
+ * - 推理帧的人声概率达到wakeProbability(低于判定阈值, 提前恢复): 退出空闲模式
+ *
+ * 跳过的帧仍然正常进入录音会话的预缓冲, 只是不做推理, 所以不会丢失音频;
+ * 调用方需保证预缓冲至少比原来多maxOnsetDelayMs
+ *
+ * 非线程安全, 只应在音频处理线程中调用
+ */
+class VadDutyCycle(
+    val profile: VadPowerProfile,
+    private val frameMs: Long = 32,
+    private val wakeProbability: Float = 0.3f,
+    private val riseRatio: Float = 3.0f,
+    private val energyHoldFrames: Int = 8
+) {
+    companion object {
+        private const val MIN_ENERGY_FLOOR = 1e-7f
+        private const val FLOOR_ATTACK = 0.1f
+        private const val FLOOR_RELEASE = 0.002f
+    }
+
+    private val stride = profile.getStride(frameMs)
+
+    private var quietMs = 0L
+    private var idle = false
+    private var framesSinceInference = 0
+    private var holdRemaining = 0
+    private var energyFloor = 0f
+
+    // 统计
+    private var totalFrames = 0L
+    private var idleFrames = 0L
+    private var savedInferences = 0L
+    private var energyWakeups = 0L
+    private var probabilityWakeups = 0L
+
+    /** 当前是否处于空闲(降频)模式 */
+    val isIdle: Boolean get() = idle
+
+    /**
+     * 每帧调用一次
+     * @return 本帧是否应推理
+     */
+    fun evaluate(audioFrame: FloatArray): Boolean {
+        totalFrames++
+
+        var energy = 0f
+        for (sample in audioFrame) {
+            energy += sample * sample
+        }
+        energy /= audioFrame.size
+
+        if (energyFloor == 0f) {
+            energyFloor = energy.coerceAtLeast(MIN_ENERGY_FLOOR)
+        }
+        val rising = energy >= energyFloor * riseRatio
+        // 能量底快降慢升; 持续变大的稳定噪声几秒后被吸收, 不会一直触发唤醒
+        val alpha = if (energy < energyFloor) FLOOR_ATTACK else FLOOR_RELEASE
+        energyFloor = (energyFloor + alpha * (energy - energyFloor)).coerceAtLeast(MIN_ENERGY_FLOOR)
+
+        if (!idle) return true
+        idleFrames++
+
+        if (rising) {
+            if (holdRemaining == 0) energyWakeups++
+            holdRemaining = energyHoldFrames
+        }
+        if (holdRemaining > 0) {
+            holdRemaining--
+            framesSinceInference = 0
+            return true
+        }
+
+        framesSinceInference++
+        if (framesSinceInference >= stride) {
+            framesSinceInference = 0
+            return true
+        }
+        return false
+    }
+
+    /**
+     * 记录一帧因降频而未推理(evaluate返回false且原本会推理)
+     */
+    fun recordSaved() {
+        savedInferences++
+    }
+
+    /**
+     * 每帧的最终结果(未推理的帧传0)
+     */
+    fun onResult(probability: Float) {
+        if (probability >= wakeProbability) {
+            if (idle) {
+                probabilityWakeups++
+                wake()
+            }
+            quietMs = 0
+            return
+        }
+
+        quietMs += frameMs
+        if (!idle && quietMs >= profile.idleAfterMs) {
+            idle = true
+            framesSinceInference = 0
+        }
+    }
+
+    /**
+     * 立即恢复逐帧推理(如预门限在长时间关闭后重新打开)
+     */
+    fun wake() {
+        idle = false
+        quietMs = 0
+        framesSinceInference = 0
+        holdRemaining = 0
+    }
+
+    /**
+     * 获取统计
+     */
+    fun getStats(): DutyCycleStats = DutyCycleStats(
+        profile = profile,
+        stride = stride,
+        totalFrames = totalFrames,
+        idleFrames = idleFrames,
+        savedInferences = savedInferences,
+        energyWakeups = energyWakeups,
+        probabilityWakeups = probabilityWakeups
+    )
+
+    /**
+     * 重置状态(保留统计)
+     */
+    fun reset() {
+        quietMs = 0
+        idle = false
+        framesSinceInference = 0
+        holdRemaining = 0
+        energyFloor = 0f
+    }
+}
+
+/**
+ * 占空比统计
+ * @param idleFrames 处于空闲模式的帧数
+ * @param savedInferences 因降频而省下的推理次数
+ */
+data class DutyCycleStats(
+    val profile: VadPowerProfile,
+    val stride: Int,
+    val totalFrames: Long,
+    val idleFrames: Long,
+    val savedInferences: Long,
+    val energyWakeups: Long,
+    val probabilityWakeups: Long
+) {
+    /** 省下的推理占总帧数的比例 */
+    fun getSavedRatio(): Double = if (totalFrames > 0) savedInferences.toDouble() / totalFrames else 0.0
+
+    override fun toString(): String =
+        "VAD占空比($profile, 间隔$stride): 省下 $savedInferences/$totalFrames 次推理 " +
+                "(${String.format("%.1f", getSavedRatio() * 100)}%), " +
+                "能量唤醒 $energyWakeups, 概率唤醒 $probabilityWakeups"
+}
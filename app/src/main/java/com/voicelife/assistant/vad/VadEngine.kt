@@ -0,0 +1,51 @@
+package com.voicelife.assistant.vad
+
+/**
+ * VAD引擎接口
+ * 将VadDetector与具体的检测算法解耦
+ *
+ * 实现:
+ * - SileroVadEngine: ONNX神经网络模型, 准确率高
+ * - StatisticalVadEngine: 子带能量GMM统计模型, 纯Kotlin实现, 耗电极低
+ */
+interface VadEngine {
+    /** 采样率(Hz) */
+    val sampleRate: Int
+
+    /** 每帧样本数 */
+    val frameSize: Int
+
+    /**
+     * 初始化引擎
+     * @throws Exception 如果初始化失败
+     */
+    fun init()
+
+    /**
+     * 处理音频帧
+     * @param audioFrame 长度为frameSize的音频数据,值域为[-1.0, 1.0]
+     * @return 人声概率 [0.0, 1.0]
+     */
+    fun process(audioFrame: FloatArray): Float
+
+    /**
+     * 重置检测状态
+     */
+    fun reset()
+
+    /**
+     * 释放资源
+     */
+    fun release()
+}
+
+/**
+ * VAD引擎类型
+ */
+enum class VadEngineType {
+    /** Silero神经网络模型(默认) */
+    SILERO,
+
+    /** 统计模型(省电模式) */
+    STATISTICAL
+}
@@ -0,0 +1,130 @@
+package com.voicelife.assistant.vad
+
+import android.content.Context
+import android.os.Build
+import android.util.Log
+import java.io.File
+import java.security.DigestInputStream
+import java.security.MessageDigest
+
+/**
+ * VAD模型文件管理
+ * 将assets中的模型解出到应用私有目录, 供ONNX Runtime按文件路径加载
+ *
+ * 目录结构 (filesDir/vad/):
+ * - silero_vad.onnx             从assets解出的原始模型
+ * - silero_vad.opt.<后端>.onnx  首次启动时ORT输出的优化后图(按推理后端区分)
+ * - model.stamp                 生成上述文件时的APK更新时间, 不一致则全部重建
+ * - model.sha256                原始模型的哈希, 用作校准结果的键
+ *
+ * 按文件路径加载避免了把整个模型读入Java堆, 也让优化后的图可以跨重启复用
+ */
+class VadModelStore(
+    private val context: Context,
+    private val modelFilename: String
+) {
+    private val modelDir = File(context.filesDir, "vad")
+    private val stampFile = File(modelDir, "model.stamp")
+    private val hashFile = File(modelDir, "model.sha256")
+    private val modelBaseName = modelFilename.removeSuffix(".onnx")
+
+    /** 原始模型文件 */
+    val modelFile = File(modelDir, modelFilename)
+
+    companion object {
+        private const val TAG = "VadModelStore"
+        private const val PREFS_NAME = "vad_calibration"
+    }
+
+    /**
+     * 确保模型文件存在且与当前APK中的版本一致
+     * APK更新后会重新解出模型并删除旧的优化缓存
+     */
+    fun prepare() {
+        modelDir.mkdirs()
+
+        val currentStamp = getApkStamp()
+        val savedStamp = if (stampFile.exists()) stampFile.readText().trim() else null
+
+        if (savedStamp == currentStamp && modelFile.exists() && modelFile.length() > 0 && hashFile.exists()) {
+            return
+        }
+
+        Log.d(TAG, "Extracting model from assets (stamp: $savedStamp -> $currentStamp)")
+        modelDir.listFiles()?.forEach { file ->
+            if (file.name.startsWith("$modelBaseName.opt.")) {
+                file.delete()
+            }
+        }
+
+        // 先写临时文件再重命名, 避免中途被杀留下残缺模型
+        val tmpFile = File(modelDir, "$modelFilename.tmp")
+        val digest = MessageDigest.getInstance("SHA-256")
+        DigestInputStream(context.assets.open(modelFilename), digest).use { input ->
+            tmpFile.outputStream().use { output -> input.copyTo(output) }
+        }
+        if (!tmpFile.renameTo(modelFile)) {
+            modelFile.delete()
+            tmpFile.renameTo(modelFile)
+        }
+        hashFile.writeText(digest.digest().joinToString("") { "%02x".format(it) })
+        stampFile.writeText(currentStamp)
+    }
+
+    /**
+     * 获取模型哈希(需先调用prepare)
+     */
+    fun getModelHash(): String = if (hashFile.exists()) hashFile.readText().trim() else ""
+
+    /**
+     * 指定推理后端对应的优化后模型文件
+     */
+    fun getOptimizedModelFile(config: EpConfig): File =
+        File(modelDir, "$modelBaseName.opt.${config.provider.name.lowercase()}${config.threads}.onnx")
+
+    /**
+     * 优化缓存是否可用
+     */
+    fun hasOptimizedModel(config: EpConfig): Boolean {
+        val file = getOptimizedModelFile(config)
+        return file.exists() && file.length() > 0
+    }
+
+    /**
+     * 丢弃优化缓存(加载失败时调用)
+     */
+    fun invalidateOptimizedModel(config: EpConfig) {
+        getOptimizedModelFile(config).delete()
+    }
+
+    /**
+     * 读取已保存的推理后端选择
+     * 仅当模型哈希和设备都一致时有效
+     */
+    fun loadCalibratedConfig(): EpConfig? {
+        val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        return EpConfig.fromKey(prefs.getString(getCalibrationKey(), null))
+    }
+
+    /**
+     * 保存推理后端选择
+     */
+    fun saveCalibratedConfig(config: EpConfig) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            .edit()
+            .clear()  // 旧模型/旧系统的结果不再需要
+            .putString(getCalibrationKey(), config.toKey())
+            .apply()
+    }
+
+    private fun getCalibrationKey(): String = "${getModelHash()}|${Build.FINGERPRINT}"
+
+    private fun getApkStamp(): String {
+        return try {
+            val info = context.packageManager.getPackageInfo(context.packageName, 0)
+            info.lastUpdateTime.toString()
+        } catch (e: Exception) {
+            "unknown"
+        }
+    }
+}
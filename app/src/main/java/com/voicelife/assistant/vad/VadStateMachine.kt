@@ -0,0 +1,86 @@
+package com.voicelife.assistant.vad
+
+/**
+ * VAD防抖动状态机
+ * 将逐帧的人声概率转换为人声开始/结束事件
+ *
+ * 防抖动策略:
+ * - 人声概率持续超过阈值minVoiceMs才判定人声开始
+ * - 持续低于阈值minSilenceMs才判定人声结束
+ *
+ * 阈值按时长而不是帧数计算, 每次update传入该结果代表的时长;
+ * 帧长改变或降低推理频率(VadDutyCycle)时防抖动的实际时长不变
+ *
+ * 不依赖Android, 实时检测(VadDetector)和离线扫描(OfflineVadScanner)共用
+ *
+ * @param frameMs update()默认代表的时长(16kHz下512样本为32ms)
+ */
+class VadStateMachine(
+    val voiceThreshold: Float = 0.5f,  // 人声概率阈值
+    val minVoiceMs: Long = 96,         // 约3帧才触发开始
+    val minSilenceMs: Long = 960,      // 约1秒静音才结束
+    val frameMs: Long = 32
+) {
+    /**
+     * 状态转换
+     */
+    enum class Transition {
+        NONE,
+        VOICE_START,
+        VOICE_END
+    }
+
+    private var voiceMs = 0L
+    private var silenceMs = 0L
+
+    /** 当前是否处于人声状态 */
+    var isVoiceActive = false
+        private set
+
+    /**
+     * 输入一帧的人声概率
+     * @param elapsedMs 本次结果代表的时长
+     * @return 本帧触发的状态转换
+     */
+    fun update(probability: Float, elapsedMs: Long = frameMs): Transition {
+        if (probability > voiceThreshold) {
+            // 检测到人声
+            voiceMs += elapsedMs
+            silenceMs = 0
+
+            if (!isVoiceActive && voiceMs >= minVoiceMs) {
+                isVoiceActive = true
+                return Transition.VOICE_START
+            }
+        } else {
+            // 静音
+            silenceMs += elapsedMs
+            voiceMs = 0
+
+            if (isVoiceActive && silenceMs >= minSilenceMs) {
+                isVoiceActive = false
+                return Transition.VOICE_END
+            }
+        }
+        return Transition.NONE
+    }
+
+    /**
+     * 当前连续人声时长(VOICE_START时即人声已持续的时长)
+     */
+    fun getVoiceMs(): Long = voiceMs
+
+    /**
+     * 当前连续静音时长(VOICE_END时即静音已持续的时长)
+     */
+    fun getSilenceMs(): Long = silenceMs
+
+    /**
+     * 重置状态
+     */
+    fun reset() {
+        voiceMs = 0
+        silenceMs = 0
+        isVoiceActive = false
+    }
+}
@@ -0,0 +1,229 @@
+package com.voicelife.assistant.data.database
+
+import com.voicelife.assistant.data.model.JobState
+import com.voicelife.assistant.data.model.Recording
+import com.voicelife.assistant.data.model.Transcription
+import com.voicelife.assistant.data.model.TranscriptionJob
+import com.voicelife.assistant.data.model.TranscriptionStatus
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOf
+
+/**
+ * 内存中的DAO, 按各@Query的语义实现, 供JVM测试使用
+ */
+class FakeRecordingDao : RecordingDao {
+    val recordings = LinkedHashMap<Long, Recording>()
+    private var nextId = 1L
+
+    override suspend fun insert(recording: Recording): Long {
+        val id = nextId++
+        recordings[id] = recording.copy(id = id)
+        return id
+    }
+
+    override suspend fun insertAll(recordings: List<Recording>): List<Long> = recordings.map { insert(it) }
+
+    override suspend fun update(recording: Recording) {
+        if (recording.id in recordings) recordings[recording.id] = recording
+    }
+
+    override suspend fun delete(recording: Recording) {
+        recordings.remove(recording.id)
+    }
+
+    override suspend fun getById(id: Long): Recording? = recordings[id]
+
+    override suspend fun getExistingPaths(paths: List<String>): List<String> =
+        recordings.values.filter { it.filePath in paths && it.transcriptionStatus != TranscriptionStatus.STREAMING }
+            .map { it.filePath }
+
+    override suspend fun getBySession(sessionId: String): List<Recording> =
+        recordings.values.filter { it.sessionId == sessionId }.sortedBy { it.chunkIndex }
+
+    override fun getAllFlow(): Flow<List<Recording>> = flowOf(recordings.values.sortedByDescending { it.createdAt })
+
+    override suspend fun getByStatus(status: TranscriptionStatus): List<Recording> =
+        recordings.values.filter { it.transcriptionStatus == status }.sortedBy { it.createdAt }
+
+    override suspend fun getExpiredRecordings(timestamp: Long): List<Recording> =
+        recordings.values.filter { it.deleteAt < timestamp }
+
+    override suspend fun deleteExpired(timestamp: Long): Int = removeWhere { it.deleteAt < timestamp }
+
+    override suspend fun deleteByStatus(status: TranscriptionStatus): Int = removeWhere { it.transcriptionStatus == status }
+
+    override suspend fun updateRecorded(
+        id: Long,
+        sampleCount: Long,
+        duration: Int,
+        fileSize: Long,
+        contentHash: String?,
+        status: TranscriptionStatus,
+        transcribedAt: Long?
+    ): Int = modify(id) {
+        it.copy(
+            sampleCount = sampleCount,
+            duration = duration,
+            fileSize = fileSize,
+            contentHash = contentHash,
+            transcriptionStatus = status,
+            transcribedAt = transcribedAt
+        )
+    }
+
+    override suspend fun updateContentHash(id: Long, contentHash: String): Int = modify(id) { it.copy(contentHash = contentHash) }
+
+    override suspend fun getArchiveCandidates(status: TranscriptionStatus, limit: Int): List<Recording> =
+        recordings.values.filter { it.transcriptionStatus == status && it.archivedAt == null }
+            .sortedBy { it.createdAt }.take(limit)
+
+    override suspend fun replaceWithArchive(id: Long, oldPath: String, newPath: String, newSize: Long, archivedAt: Long): Int {
+        val recording = recordings[id]?.takeIf { it.filePath == oldPath } ?: return 0
+        recordings[id] = recording.copy(
+            filePath = newPath,
+            originalFileSize = recording.fileSize,
+            fileSize = newSize,
+            archivedAt = archivedAt
+        )
+        return 1
+    }
+
+    override suspend fun updateFilePath(id: Long, oldPath: String, newPath: String): Int {
+        val recording = recordings[id]?.takeIf { it.filePath == oldPath } ?: return 0
+        recordings[id] = recording.copy(filePath = newPath)
+        return 1
+    }
+
+    override suspend fun getArchivedCount(): Int = recordings.values.count { it.archivedAt != null }
+
+    override suspend fun getArchiveSavedBytes(): Long =
+        recordings.values.filter { it.archivedAt != null }.sumOf { it.originalFileSize - it.fileSize }
+
+    private fun modify(id: Long, change: (Recording) -> Recording): Int {
+        val recording = recordings[id] ?: return 0
+        recordings[id] = change(recording)
+        return 1
+    }
+
+    private fun removeWhere(predicate: (Recording) -> Boolean): Int {
+        val ids = recordings.values.filter(predicate).map { it.id }
+        ids.forEach { recordings.remove(it) }
+        return ids.size
+    }
+}
+
+class FakeTranscriptionDao(private val recordingDao: FakeRecordingDao) : TranscriptionDao {
+    val transcriptions = LinkedHashMap<Long, Transcription>()
+    private var nextId = 1L
+
+    override suspend fun insert(transcription: Transcription): Long {
+        val id = nextId++
+        transcriptions[id] = transcription.copy(id = id)
+        return id
+    }
+
+    override suspend fun upsert(transcription: Transcription): Long {
+        if (transcription.id != 0L && transcription.id in transcriptions) {
+            transcriptions[transcription.id] = transcription
+            return -1
+        }
+        return insert(transcription)
+    }
+
+    override suspend fun deletePartial(recordingId: Long): Int = removeWhere { it.recordingId == recordingId && !it.isFinal }
+
+    override suspend fun deleteByRecordingStatus(status: TranscriptionStatus): Int =
+        removeWhere { recordingDao.recordings[it.recordingId]?.transcriptionStatus == status }
+
+    override suspend fun getByRecordingId(recordingId: Long): Transcription? =
+        transcriptions.values.firstOrNull { it.recordingId == recordingId }
+
+    override fun searchByKeyword(keyword: String): Flow<List<Transcription>> =
+        flowOf(transcriptions.values.filter { keyword in it.text }.sortedByDescending { it.createdAt })
+
+    override suspend fun getByDateRange(startTime: Long, endTime: Long): List<Transcription> =
+        transcriptions.values.filter { it.createdAt in startTime..endTime }.sortedByDescending { it.createdAt }
+
+    private fun removeWhere(predicate: (Transcription) -> Boolean): Int {
+        val ids = transcriptions.values.filter(predicate).map { it.id }
+        ids.forEach { transcriptions.remove(it) }
+        return ids.size
+    }
+}
+
+class FakeTranscriptionJobDao(private val recordingDao: FakeRecordingDao) : TranscriptionJobDao {
+    val jobs = LinkedHashMap<Long, TranscriptionJob>()
+    private var nextId = 1L
+
+    override suspend fun insert(job: TranscriptionJob): Long {
+        if (jobs.values.any { it.recordingId == job.recordingId }) return -1
+        val id = if (job.id != 0L) job.id else nextId++
+        nextId = maxOf(nextId, id + 1)
+        jobs[id] = job.copy(id = id)
+        return id
+    }
+
+    override suspend fun insertAll(jobs: List<TranscriptionJob>): List<Long> = jobs.map { insert(it) }
+
+    override suspend fun getUnscheduledRecordingIds(): List<Long> =
+        recordingDao.recordings.values
+            .filter { it.transcriptionStatus == TranscriptionStatus.PENDING && jobs.values.none { job -> job.recordingId == it.id } }
+            .map { it.id }
+
+    override suspend fun claimNext(leaseOwner: String, leaseExpiresAt: Long, now: Long): Int {
+        val next = jobs.values
+            .filter { it.state == JobState.QUEUED && it.notBefore <= now }
+            .sortedWith(compareByDescending<TranscriptionJob> { it.priority }.thenBy { it.createdAt }.thenBy { it.id })
+            .firstOrNull() ?: return 0
+        jobs[next.id] = next.copy(
+            state = JobState.RUNNING,
+            leaseOwner = leaseOwner,
+            leaseExpiresAt = leaseExpiresAt,
+            attempts = next.attempts + 1,
+            updatedAt = now
+        )
+        return 1
+    }
+
+    override suspend fun getByLease(leaseOwner: String): TranscriptionJob? = jobs.values.firstOrNull { it.leaseOwner == leaseOwner }
+
+    override suspend fun renewLease(id: Long, leaseOwner: String, leaseExpiresAt: Long, now: Long): Int {
+        val job = running(id, leaseOwner) ?: return 0
+        jobs[id] = job.copy(leaseExpiresAt = leaseExpiresAt, updatedAt = now)
+        return 1
+    }
+
+    override suspend fun finish(
+        id: Long,
+        leaseOwner: String,
+        state: JobState,
+        notBefore: Long,
+        error: String?,
+        attemptsDelta: Int,
+        now: Long
+    ): Int {
+        val job = running(id, leaseOwner) ?: return 0
+        jobs[id] = job.copy(
+            state = state,
+            notBefore = notBefore,
+            lastError = error,
+            attempts = job.attempts + attemptsDelta,
+            leaseOwner = null,
+            leaseExpiresAt = null,
+            updatedAt = now
+        )
+        return 1
+    }
+
+    override suspend fun getExpiredLeases(expiredBefore: Long): List<TranscriptionJob> =
+        jobs.values.filter { it.state == JobState.RUNNING && (it.leaseExpiresAt ?: Long.MAX_VALUE) < expiredBefore }
+
+    override suspend fun getNextAttemptAt(): Long? = jobs.values.filter { it.state == JobState.QUEUED }.minOfOrNull { it.notBefore }
+
+    override suspend fun getCount(states: List<JobState>): Int = jobs.values.count { it.state in states }
+
+    override suspend fun getByRecordingId(recordingId: Long): TranscriptionJob? = jobs.values.firstOrNull { it.recordingId == recordingId }
+
+    private fun running(id: Long, leaseOwner: String): TranscriptionJob? =
+        jobs[id]?.takeIf { it.leaseOwner == leaseOwner && it.state == JobState.RUNNING }
+}
@@ -0,0 +1,201 @@
+package com.voicelife.assistant.features
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.log10
+import kotlin.math.sin
+
+/**
+ * 对数梅尔谱特征提取基准
+ * 纯JVM代码, 不依赖设备
+ *
+ * - 吞吐: 每个线程一个提取器处理合成音频, 统计每核每秒帧数和实时倍数
+ * - 精度: 与双精度的参考实现(逐点DFT + 稠密滤波器矩阵, 按Whisper的log_mel_spectrogram逐步计算)比较
+ */
+class LogMelBenchmark(
+    private val clock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val CHUNK_SIZE = 1600  // 16kHz下100ms
+    }
+
+    /**
+     * 测量吞吐
+     * @param seconds 每个线程处理的音频时长
+     * @param threads 并行线程数, 每个线程独立的提取器
+     */
+    fun measureThroughput(
+        config: LogMelConfig = LogMelConfig.WHISPER,
+        seconds: Int = 60,
+        threads: Int = 1
+    ): LogMelThroughput {
+        val random = java.util.Random(1)
+        val input = ShortArray(CHUNK_SIZE) { (random.nextGaussian() * 3000).toInt().toShort() }
+        val chunks = seconds.toLong() * config.sampleRate / CHUNK_SIZE
+
+        fun run(extractor: LogMelSpectrogram, count: Long) {
+            extractor.reset()
+            for (i in 0 until count) {
+                extractor.write(input, 0, input.size)
+            }
+            extractor.finish()
+        }
+
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val tasks = List(threads) {
+                Callable {
+                    val extractor = LogMelSpectrogram(config) { _, _ -> }
+                    // 预热
+                    run(extractor, 500)
+                    val start = clock()
+                    run(extractor, chunks)
+                    FrameTiming(extractor.frameCount, clock() - start)
+                }
+            }
+            val timings = executor.invokeAll(tasks).map { it.get() }
+            return LogMelThroughput(
+                config = config,
+                threads = threads,
+                audioSeconds = chunks * CHUNK_SIZE.toDouble() / config.sampleRate,
+                frames = timings.sumOf { it.frames },
+                threadNanos = timings.sumOf { it.nanos }
+            )
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    /**
+     * 与参考实现比较
+     * 参考实现的STFT和滤波器组全部用double计算, 不共享本模块的FFT和稀疏滤波器组
+     */
+    fun compareWithReference(samples: ShortArray, config: LogMelConfig = LogMelConfig.WHISPER): LogMelAccuracy {
+        val actual = LogMelSpectrogram.compute(samples, config)
+        val expected = reference(samples, config)
+        require(actual.size == expected.size) { "Frame count mismatch: ${actual.size} vs ${expected.size}" }
+
+        var maxLogError = 0.0
+        for (i in actual.indices) {
+            maxLogError = maxOf(maxLogError, abs(actual[i] - expected[i]))
+        }
+
+        val normalizedActual = actual.copyOf()
+        LogMelSpectrogram.normalizeWhisper(normalizedActual)
+        val normalizedExpected = FloatArray(expected.size) { expected[it].toFloat() }
+        LogMelSpectrogram.normalizeWhisper(normalizedExpected)
+        var maxNormalizedError = 0.0
+        for (i in actual.indices) {
+            maxNormalizedError = maxOf(maxNormalizedError, abs(normalizedActual[i] - normalizedExpected[i]).toDouble())
+        }
+
+        return LogMelAccuracy(actual.size / config.melBins, maxLogError, maxNormalizedError)
+    }
+
+    private class FrameTiming(val frames: Long, val nanos: Long)
+
+    /**
+     * Whisper: stft(center=True, reflect) -> 去掉最后一帧 -> |X|² -> 滤波器 -> log10(max(x, 1e-10))
+     */
+    private fun reference(samples: ShortArray, config: LogMelConfig): DoubleArray {
+        val n = config.fftSize
+        val pad = n / 2
+        val length = samples.size + config.trailingZeros
+        val x = DoubleArray(length) { if (it < samples.size) samples[it] / 32768.0 else 0.0 }
+        // numpy.pad(mode="reflect"), 音频短于pad时多次反射
+        val period = 2 * (length - 1).coerceAtLeast(1)
+        val padded = DoubleArray(length + 2 * pad) { p ->
+            val i = Math.floorMod(p - pad, period)
+            if (length == 1) x[0] else x[if (i < length) i else period - i]
+        }
+        val window = DoubleArray(n) { 0.5 - 0.5 * cos(2 * PI * it / n) }
+        val filters = referenceFilters(config)
+
+        val frames = length / config.hopLength
+        val bins = n / 2 + 1
+        val power = DoubleArray(bins)
+        val output = DoubleArray(frames * config.melBins)
+        for (t in 0 until frames) {
+            val base = t * config.hopLength
+            for (k in 0 until bins) {
+                var re = 0.0
+                var im = 0.0
+                for (j in 0 until n) {
+                    val v = padded[base + j] * window[j]
+                    val angle = 2 * PI * (k.toLong() * j % n) / n
+                    re += v * cos(angle)
+                    im -= v * sin(angle)
+                }
+                power[k] = re * re + im * im
+            }
+            for (m in 0 until config.melBins) {
+                var sum = 0.0
+                for (k in 0 until bins) {
+                    sum += filters[m][k] * power[k]
+                }
+                output[t * config.melBins + m] = log10(maxOf(sum, 1e-10))
+            }
+        }
+        return output
+    }
+
+    /**
+     * librosa.filters.mel(sr, n_fft, n_mels), slaney刻度和归一化
+     */
+    private fun referenceFilters(config: LogMelConfig): Array<DoubleArray> {
+        val bins = config.fftSize / 2 + 1
+        val maxMel = MelFilterbank.hzToMel(config.sampleRate / 2.0)
+        val melHz = DoubleArray(config.melBins + 2) {
+            MelFilterbank.melToHz(maxMel * it / (config.melBins + 1))
+        }
+        return Array(config.melBins) { m ->
+            DoubleArray(bins) { k ->
+                val hz = config.sampleRate / 2.0 * k / (bins - 1)
+                val lower = (hz - melHz[m]) / (melHz[m + 1] - melHz[m])
+                val upper = (melHz[m + 2] - hz) / (melHz[m + 2] - melHz[m + 1])
+                maxOf(0.0, minOf(lower, upper)) * 2.0 / (melHz[m + 2] - melHz[m])
+            }
+        }
+    }
+}
+
+/**
+ * 吞吐结果
+ * @param threadNanos 各线程计时之和
+ */
+data class LogMelThroughput(
+    val config: LogMelConfig,
+    val threads: Int,
+    val audioSeconds: Double,
+    val frames: Long,
+    val threadNanos: Long
+) {
+    /** 每核每秒帧数 */
+    fun getFramesPerSecondPerCore(): Double = if (threadNanos > 0) frames * 1e9 / threadNanos else 0.0
+
+    /** 单核实时倍数(每秒帧数 / 每秒音频帧数) */
+    fun getRealtimeFactor(): Double = getFramesPerSecondPerCore() * config.hopLength / config.sampleRate
+
+    override fun toString(): String =
+        "${config.fftSize}点/${config.melBins}滤波器, $threads 线程: " +
+                "${String.format("%.0f", getFramesPerSecondPerCore())} 帧/秒/核, " +
+                "${String.format("%.0f", getRealtimeFactor())}倍实时"
+}
+
+/**
+ * 精度比较结果
+ * @param maxLogError log10梅尔能量的最大绝对误差
+ * @param maxNormalizedError Whisper归一化后的最大绝对误差
+ */
+data class LogMelAccuracy(
+    val frames: Int,
+    val maxLogError: Double,
+    val maxNormalizedError: Double
+) {
+    override fun toString(): String =
+        "$frames 帧: log10最大误差 ${String.format("%.2e", maxLogError)}, " +
+                "归一化后最大误差 ${String.format("%.2e", maxNormalizedError)}"
+}
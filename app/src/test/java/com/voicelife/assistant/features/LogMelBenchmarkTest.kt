@@ -0,0 +1,56 @@
+package com.voicelife.assistant.features
+
+import com.voicelife.assistant.vad.SyntheticSpeech
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 对数梅尔谱与双精度参考实现的误差, 以及吞吐
+ * 误差上限按float计算的实测值(约3e-5)留出余量
+ */
+class LogMelBenchmarkTest {
+
+    companion object {
+        private const val MAX_LOG_ERROR = 1e-4
+        private const val MAX_NORMALIZED_ERROR = 1e-4
+    }
+
+    private val benchmark = LogMelBenchmark()
+
+    private fun assertWithinTolerance(name: String, samples: ShortArray) {
+        val accuracy = benchmark.compareWithReference(samples)
+        println("$name: $accuracy")
+
+        assertTrue("$name: $accuracy", accuracy.frames > 0)
+        assertTrue("$name: $accuracy", accuracy.maxLogError <= MAX_LOG_ERROR)
+        assertTrue("$name: $accuracy", accuracy.maxNormalizedError <= MAX_NORMALIZED_ERROR)
+    }
+
+    @Test
+    fun `speech matches the reference`() {
+        assertWithinTolerance("speech", SyntheticSpeech.toPcm(SyntheticSpeech.voiced(16000, seed = 1)))
+    }
+
+    @Test
+    fun `speech after near-silence matches the reference`() {
+        val samples = SyntheticSpeech.toPcm(
+            SyntheticSpeech.noise(8000, seed = 2),
+            SyntheticSpeech.voiced(8000, seed = 2)
+        )
+        assertWithinTolerance("noise+speech", samples)
+    }
+
+    @Test
+    fun `clip shorter than the padding matches the reference`() {
+        // 短于n_fft/2(200)时reflect填充要反射多次, 仍够一帧
+        assertWithinTolerance("short", SyntheticSpeech.toPcm(SyntheticSpeech.voiced(180, seed = 3)))
+    }
+
+    @Test
+    fun `report throughput`() {
+        val result = benchmark.measureThroughput(seconds = 30)
+        println(result)
+
+        assertTrue(result.toString(), result.getRealtimeFactor() > 1.0)
+    }
+}
@@ -0,0 +1,49 @@
+package com.voicelife.assistant.recorder
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 采集中断(音频服务断开)在健康快照中的记录
+ */
+class CaptureHealthMonitorTest {
+
+    private val ms = 1_000_000L
+
+    @Test
+    fun `capture loss is published immediately and outage is accumulated`() {
+        val monitor = CaptureHealthMonitor(sampleRate = 16000, bufferFrames = 2048)
+        monitor.start(0)
+        assertFalse(monitor.getHealth().isImpaired())
+
+        monitor.onCaptureLost(100 * ms)
+        val down = monitor.getHealth()
+        assertTrue(down.captureDown)
+        assertEquals(1, down.captureFailures)
+        assertTrue(down.isImpaired())
+
+        monitor.onCaptureRestored(400 * ms)
+        val restored = monitor.getHealth()
+        assertFalse(restored.captureDown)
+        assertEquals(1, restored.captureRestarts)
+        assertEquals(300L, restored.outageMs)
+    }
+
+    @Test
+    fun `outage gap is not counted as lost audio`() {
+        val monitor = CaptureHealthMonitor(sampleRate = 16000, bufferFrames = 2048)
+        monitor.start(0)
+        monitor.onRead(0, 32 * ms, 512)
+        monitor.onCaptureLost(40 * ms)
+        monitor.onCaptureRestored(3000 * ms)
+        monitor.onRead(3000 * ms, 3032 * ms, 512)
+        monitor.evaluate(3032 * ms, -1, 0, 0, PipelineStats(emptyList(), emptyList(), 0, 0))
+
+        val health = monitor.getHealth()
+        assertEquals(0L, health.lostMs)
+        assertEquals(DegradationLevel.NORMAL, health.level)
+        assertEquals(2960L, health.outageMs)
+    }
+}
@@ -0,0 +1,86 @@
+package com.voicelife.assistant.recorder
+
+import java.io.File
+
+/**
+ * FLAC编码基准
+ * 纯JVM代码, 不依赖设备; 按录音会话的用法逐帧(512样本)写入, 统计编码的CPU占用和压缩率
+ *
+ * - 编码耗时取FlacFileWriter.getEncodeNanos(), 不含写盘
+ * - 总耗时为start到stop的挂钟时间
+ * - 占实时的比例即单核CPU占用
+ */
+class FlacBenchmark(
+    private val clock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val SAMPLE_RATE = 16000
+    }
+
+    /**
+     * 编码一段音频
+     * @param dir 写入临时文件的目录
+     * @param audio 16kHz单声道样本
+     * @param blockSize 每帧样本数
+     * @param maxLpcOrder LPC最高阶数
+     */
+    fun measure(dir: File, audio: ShortArray, blockSize: Int = 4096, maxLpcOrder: Int = 8): FlacEncodeResult {
+        // 预热后重新计时
+        encode(File(dir, "warmup.flac"), audio, blockSize, maxLpcOrder)
+        return encode(File(dir, "benchmark.flac"), audio, blockSize, maxLpcOrder)
+    }
+
+    private fun encode(file: File, audio: ShortArray, blockSize: Int, maxLpcOrder: Int): FlacEncodeResult {
+        val writer = FlacFileWriter(file, blockSize = blockSize, maxLpcOrder = maxLpcOrder)
+        val start = clock()
+        writer.start()
+        var offset = 0
+        while (offset < audio.size) {
+            val n = minOf(FRAME_SIZE, audio.size - offset)
+            writer.write(audio, offset, n)
+            offset += n
+        }
+        writer.stop()
+        val totalNanos = clock() - start
+
+        return FlacEncodeResult(
+            blockSize = blockSize,
+            maxLpcOrder = maxLpcOrder,
+            audioSeconds = audio.size.toDouble() / SAMPLE_RATE,
+            encodeNanos = writer.getEncodeNanos(),
+            totalNanos = totalNanos,
+            pcmBytes = audio.size * 2L,
+            fileBytes = file.length()
+        )
+    }
+}
+
+/**
+ * 编码结果
+ * @param encodeNanos 帧编码耗时(不含写盘)
+ * @param totalNanos start到stop的总耗时
+ */
+data class FlacEncodeResult(
+    val blockSize: Int,
+    val maxLpcOrder: Int,
+    val audioSeconds: Double,
+    val encodeNanos: Long,
+    val totalNanos: Long,
+    val pcmBytes: Long,
+    val fileBytes: Long
+) {
+    /** 编码占实时的比例(单核CPU占用) */
+    fun getEncodeRealtimeFraction(): Double = if (audioSeconds > 0) encodeNanos / 1e9 / audioSeconds else 0.0
+
+    /** 含写盘的总耗时占实时的比例 */
+    fun getTotalRealtimeFraction(): Double = if (audioSeconds > 0) totalNanos / 1e9 / audioSeconds else 0.0
+
+    /** 文件大小占PCM的比例 */
+    fun getCompressionRatio(): Double = if (pcmBytes > 0) fileBytes.toDouble() / pcmBytes else 0.0
+
+    override fun toString(): String =
+        "块 $blockSize, LPC $maxLpcOrder 阶: 编码 ${String.format("%.2f", getEncodeRealtimeFraction() * 100)}% CPU, " +
+                "含写盘 ${String.format("%.2f", getTotalRealtimeFraction() * 100)}%, " +
+                "大小 ${String.format("%.1f", getCompressionRatio() * 100)}% PCM"
+}
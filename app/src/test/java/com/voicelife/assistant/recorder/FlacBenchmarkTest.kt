@@ -0,0 +1,44 @@
+package com.voicelife.assistant.recorder
+
+import com.voicelife.assistant.vad.SyntheticSpeech
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * FLAC编码的CPU占用和压缩率
+ * 预算为单核的几个百分点; JVM上比手机快, 这里按5%断言上限, 具体数值打印到标准输出
+ */
+class FlacBenchmarkTest {
+
+    companion object {
+        private const val MAX_CPU_FRACTION = 0.05
+    }
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    /** 一分钟的人声和静音交替 */
+    private fun conversation(): ShortArray {
+        val parts = ArrayList<FloatArray>()
+        for (i in 0 until 10) {
+            parts += SyntheticSpeech.voiced(16000 * 4, seed = i)
+            parts += SyntheticSpeech.noise(16000 * 2, seed = i)
+        }
+        return SyntheticSpeech.toPcm(*parts.toTypedArray())
+    }
+
+    @Test
+    fun `encoding stays within the CPU budget`() {
+        val audio = conversation()
+        val benchmark = FlacBenchmark()
+        for (maxLpcOrder in listOf(8, 12)) {
+            val result = benchmark.measure(temp.root, audio, maxLpcOrder = maxLpcOrder)
+            println(result)
+
+            assertTrue(result.toString(), result.getEncodeRealtimeFraction() < MAX_CPU_FRACTION)
+            assertTrue(result.toString(), result.getCompressionRatio() < 1.0)
+        }
+    }
+}
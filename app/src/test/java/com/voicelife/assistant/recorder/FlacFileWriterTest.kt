@@ -0,0 +1,230 @@
+package com.voicelife.assistant.recorder
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * FlacFileWriter写入、FlacFileReader读回, 逐样本比较
+ * STREAMINFO和SEEKTABLE按规范直接解析文件字节检查, 不经过FlacFileReader,
+ * 编码器和解码器共有的错误也会在MD5或seek点上暴露
+ */
+class FlacFileWriterTest {
+
+    companion object {
+        private const val BLOCK_SIZE = 4096
+        private const val STREAMINFO_OFFSET = 8
+        private const val SEEKTABLE_OFFSET = 8 + 34 + 4
+        private const val SEEK_POINTS = 128
+        private const val METADATA_SIZE = SEEKTABLE_OFFSET + SEEK_POINTS * 18
+    }
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private fun encode(
+        audio: ShortArray,
+        name: String = "test.flac",
+        chunk: Int = 512,
+        writer: (File) -> FlacFileWriter = { FlacFileWriter(it) }
+    ): File {
+        val file = File(temp.root, name)
+        val flac = writer(file)
+        flac.start()
+        var offset = 0
+        while (offset < audio.size) {
+            val n = minOf(chunk, audio.size - offset)
+            flac.write(audio, offset, n)
+            offset += n
+        }
+        flac.stop()
+        return file
+    }
+
+    private fun decode(file: File): ShortArray = FlacFileReader(file).use { reader ->
+        val out = ShortArray(reader.totalSamples.toInt())
+        var count = 0
+        while (count < out.size) {
+            val n = reader.read(out, count, out.size - count)
+            if (n <= 0) break
+            count += n
+        }
+        assertEquals("trailing samples", 0, reader.read(ShortArray(16)))
+        out.copyOf(count)
+    }
+
+    private fun md5(audio: ShortArray): ByteArray {
+        val bytes = ByteArray(audio.size * 2)
+        for (i in audio.indices) {
+            bytes[2 * i] = audio[i].toByte()
+            bytes[2 * i + 1] = (audio[i].toInt() shr 8).toByte()
+        }
+        return MessageDigest.getInstance("MD5").digest(bytes)
+    }
+
+    /**
+     * 往返一致, 且STREAMINFO的总样本数和MD5与输入一致
+     * @return 编码后的帧字节数
+     */
+    private fun assertRoundTrip(audio: ShortArray, name: String = "test.flac"): Long {
+        val file = encode(audio, name)
+        assertArrayEquals(name, audio, decode(file))
+
+        val header = ByteBuffer.wrap(file.readBytes(), 0, METADATA_SIZE)
+        assertEquals(0x664C6143, header.getInt(0))
+        val info = header.getLong(STREAMINFO_OFFSET + 10)
+        assertEquals(16000L, info ushr 44)
+        assertEquals(0L, (info ushr 41) and 0x7)      // 单声道
+        assertEquals(15L, (info ushr 36) and 0x1F)    // 16bit
+        assertEquals(audio.size.toLong(), info and 0xFFFFFFFFFL)
+        val digest = ByteArray(16).also { header.position(STREAMINFO_OFFSET + 18); header.get(it) }
+        assertArrayEquals("$name MD5", md5(audio), digest)
+
+        return file.length() - METADATA_SIZE
+    }
+
+    private fun sine(samples: Int, hz: Double, amplitude: Double) =
+        ShortArray(samples) { (amplitude * sin(2 * PI * hz * it / 16000)).toInt().toShort() }
+
+    @Test
+    fun `silence uses constant subframes`() {
+        val frames = 10
+        val bytes = assertRoundTrip(ShortArray(BLOCK_SIZE * frames))
+        // CONSTANT子帧: 帧头约7字节 + 子帧3字节 + CRC 2字节
+        assertTrue("$bytes bytes", bytes <= frames * 16L)
+
+        assertRoundTrip(ShortArray(BLOCK_SIZE * 2) { -1234 }, "dc.flac")
+    }
+
+    @Test
+    fun `sine compresses with fixed or LPC prediction`() {
+        val audio = sine(BLOCK_SIZE * 8, 440.0, 8000.0)
+        val bytes = assertRoundTrip(audio)
+        assertTrue("$bytes bytes of ${audio.size * 2}", bytes < audio.size * 2 / 3)
+
+        // 多个频率叠加, 需要更高阶的预测
+        val mixed = ShortArray(BLOCK_SIZE * 8) { i ->
+            (3000 * sin(2 * PI * 220 * i / 16000) + 2000 * sin(2 * PI * 1330 * i / 16000) +
+                    1000 * sin(2 * PI * 3100 * i / 16000)).toInt().toShort()
+        }
+        assertRoundTrip(mixed, "mixed.flac")
+    }
+
+    @Test
+    fun `white noise falls back to verbatim`() {
+        val random = Random(7)
+        val frames = 6
+        val audio = ShortArray(BLOCK_SIZE * frames) { random.nextInt(-32768, 32768).toShort() }
+        val bytes = assertRoundTrip(audio)
+        // VERBATIM: 原始数据 + 每帧十几字节的头尾
+        assertTrue("$bytes bytes", bytes <= audio.size * 2L + frames * 16L)
+    }
+
+    @Test
+    fun `full scale samples survive`() {
+        val square = ShortArray(BLOCK_SIZE * 2) { if ((it / 37) % 2 == 0) Short.MAX_VALUE else Short.MIN_VALUE }
+        assertRoundTrip(square, "square.flac")
+
+        val alternating = ShortArray(BLOCK_SIZE) { if (it % 2 == 0) Short.MAX_VALUE else Short.MIN_VALUE }
+        assertRoundTrip(alternating, "alternating.flac")
+
+        // 饱和削波的正弦: 残差在削波处跳变
+        val clipped = ShortArray(BLOCK_SIZE * 3) { i ->
+            (60000 * sin(2 * PI * 150 * i / 16000)).toInt().coerceIn(-32768, 32767).toShort()
+        }
+        assertRoundTrip(clipped, "clipped.flac")
+
+        val random = Random(3)
+        val extremes = ShortArray(BLOCK_SIZE * 2) {
+            when (random.nextInt(4)) {
+                0 -> Short.MAX_VALUE
+                1 -> Short.MIN_VALUE
+                2 -> 0
+                else -> random.nextInt(-32768, 32768).toShort()
+            }
+        }
+        assertRoundTrip(extremes, "extremes.flac")
+    }
+
+    @Test
+    fun `last block shorter than the block size`() {
+        // 末块分别用8位块大小码、16位块大小码, 以及只有1个样本
+        for (tail in listOf(1, 200, 256, 1000, 4095)) {
+            val audio = sine(BLOCK_SIZE * 2 + tail, 300.0 + tail, 5000.0)
+            assertRoundTrip(audio, "tail$tail.flac")
+        }
+        assertRoundTrip(sine(777, 500.0, 5000.0), "short.flac")
+        assertRoundTrip(ShortArray(0), "empty.flac")
+    }
+
+    @Test
+    fun `seek points ascend and land on matching frames`() {
+        // 初始间隔等于一帧, 200帧超过128个预留点, 经过一次减半
+        val frames = 200
+        val audio = sine(BLOCK_SIZE * frames, 250.0, 6000.0)
+        val file = encode(audio, writer = { FlacFileWriter(it, seekPointIntervalMs = 256) })
+        assertArrayEquals(audio, decode(file))
+
+        val bytes = file.readBytes()
+        val table = ByteBuffer.wrap(bytes)
+        assertEquals((0x80 or 3) shl 24 or SEEK_POINTS * 18, table.getInt(SEEKTABLE_OFFSET - 4))
+
+        var previousSample = -1L
+        var previousOffset = -1L
+        var points = 0
+        var placeholders = 0
+        for (i in 0 until SEEK_POINTS) {
+            val position = SEEKTABLE_OFFSET + i * 18
+            val sample = table.getLong(position)
+            if (sample == -1L) {
+                placeholders++
+                continue
+            }
+            assertEquals("placeholders must come last", 0, placeholders)
+            val offset = table.getLong(position + 8)
+            val frameSamples = table.getShort(position + 16).toInt() and 0xFFFF
+            assertTrue(sample > previousSample)
+            assertTrue(offset > previousOffset)
+            assertEquals(0L, sample % BLOCK_SIZE)
+            assertEquals(BLOCK_SIZE, frameSamples)
+
+            // 按规范解析目标帧头: 同步码和UTF-8帧号
+            val frame = METADATA_SIZE + offset.toInt()
+            assertEquals(0xFF, bytes[frame].toInt() and 0xFF)
+            assertEquals(0xF8, bytes[frame + 1].toInt() and 0xFF)
+            assertEquals(sample / BLOCK_SIZE, utf8FrameNumber(bytes, frame + 4))
+
+            previousSample = sample
+            previousOffset = offset
+            points++
+        }
+        assertTrue("$points points", points in 64 until SEEK_POINTS)
+        assertEquals(0L, table.getLong(SEEKTABLE_OFFSET))
+    }
+
+    private fun utf8FrameNumber(bytes: ByteArray, position: Int): Long {
+        val first = bytes[position].toInt() and 0xFF
+        val (extra, mask) = when {
+            first < 0x80 -> 0 to 0x7F
+            first < 0xE0 -> 1 to 0x1F
+            first < 0xF0 -> 2 to 0x0F
+            first < 0xF8 -> 3 to 0x07
+            first < 0xFC -> 4 to 0x03
+            else -> 5 to 0x01
+        }
+        var value = (first and mask).toLong()
+        for (i in 1..extra) {
+            value = (value shl 6) or (bytes[position + i].toLong() and 0x3F)
+        }
+        return value
+    }
+}
@@ -0,0 +1,178 @@
+package com.voicelife.assistant.recorder
+
+import com.voicelife.assistant.vad.VadBenchmark
+import com.voicelife.assistant.vad.VadEngine
+import com.voicelife.assistant.vad.VadStateMachine
+import kotlin.math.PI
+import kotlin.math.sin
+
+/**
+ * 预处理基准
+ * 纯JVM代码, 不依赖设备
+ *
+ * - 耗时: 各环节每帧(512样本)的微秒数
+ * - VAD: 同一组标注音频分别不经处理和经过预处理送入VAD, 比较逐帧一致率和误触发次数
+ *   (误触发 = 状态机的VOICE_START落在标注人声段之外)
+ */
+class PreprocessBenchmark(
+    private val threshold: Float = 0.5f
+) {
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val SAMPLE_RATE = 16000
+    }
+
+    /**
+     * 测量每帧耗时
+     * 输入为带低频嗡声和白噪声的合成音频
+     */
+    fun measureFrameCost(config: PreprocessConfig = PreprocessConfig(), seconds: Int = 60): PreprocessStats {
+        val random = java.util.Random(1)
+        val frame = AudioFrame(FRAME_SIZE)
+        val sink = FrameSink { }
+
+        fun run(frames: Int): SpeechPreprocessStage {
+            val stage = SpeechPreprocessStage(config)
+            stage.configure(FrameFormat(SAMPLE_RATE, FRAME_SIZE), FramePool())
+            var index = 0L
+            repeat(frames) {
+                for (i in 0 until FRAME_SIZE) {
+                    val hum = 3000 * sin(2 * PI * 50 * (index + i) / SAMPLE_RATE)
+                    frame.samples[i] = (hum + random.nextGaussian() * 500).toInt().toShort()
+                }
+                frame.length = FRAME_SIZE
+                frame.samplesChanged()
+                stage.process(frame, sink)
+                index += FRAME_SIZE
+            }
+            return stage
+        }
+
+        // 预热后重新计时
+        run(500)
+        return run(seconds * SAMPLE_RATE / FRAME_SIZE).getStats()
+    }
+
+    /**
+     * 比较原始音频和预处理后音频的VAD结果
+     * 引擎需已初始化, 每个文件的每条路径开始前调用reset
+     */
+    fun compareVad(
+        engine: VadEngine,
+        samples: List<VadBenchmark.LabeledAudio>,
+        config: PreprocessConfig = PreprocessConfig()
+    ): PreprocessComparison {
+        require(engine.sampleRate == SAMPLE_RATE) { "Engine must run at 16kHz" }
+        // 降噪输出延迟一个FFT长度
+        val shift = if (config.noiseSuppression) FRAME_SIZE else 0
+
+        var frames = 0L
+        var rawAgreed = 0L
+        var processedAgreed = 0L
+        var rawFalseStarts = 0
+        var processedFalseStarts = 0
+
+        for (sample in samples) {
+            val raw = readAll(sample)
+            val processed = preprocessAll(raw, config)
+
+            val rawResult = detect(engine, raw, 0, sample)
+            val processedResult = detect(engine, processed, shift, sample)
+            val count = minOf(rawResult.decisions.size, processedResult.decisions.size)
+
+            for (i in 0 until count) {
+                val labeled = isSpeech(sample, i.toLong() * engine.frameSize + engine.frameSize / 2)
+                if (rawResult.decisions[i] == labeled) rawAgreed++
+                if (processedResult.decisions[i] == labeled) processedAgreed++
+            }
+            frames += count
+            rawFalseStarts += rawResult.falseStarts
+            processedFalseStarts += processedResult.falseStarts
+        }
+
+        return PreprocessComparison(frames, rawAgreed, processedAgreed, rawFalseStarts, processedFalseStarts)
+    }
+
+    private class Detection(val decisions: BooleanArray, val falseStarts: Int)
+
+    private fun isSpeech(sample: VadBenchmark.LabeledAudio, position: Long): Boolean =
+        sample.speechRanges.any { position in it }
+
+    private fun detect(engine: VadEngine, audio: ShortArray, skip: Int, sample: VadBenchmark.LabeledAudio): Detection {
+        engine.reset()
+        val stateMachine = VadStateMachine(voiceThreshold = threshold)
+        val frameSize = engine.frameSize
+        val frame = FloatArray(frameSize)
+        val frames = ((audio.size - skip) / frameSize).coerceAtLeast(0)
+        var falseStarts = 0
+
+        val decisions = BooleanArray(frames) { f ->
+            val base = skip + f * frameSize
+            for (i in 0 until frameSize) {
+                frame[i] = audio[base + i] / 32768.0f
+            }
+            val probability = engine.process(frame)
+            val transition = stateMachine.update(probability)
+            if (transition == VadStateMachine.Transition.VOICE_START &&
+                !isSpeech(sample, f.toLong() * frameSize + frameSize / 2)
+            ) {
+                falseStarts++
+            }
+            probability > threshold
+        }
+        return Detection(decisions, falseStarts)
+    }
+
+    private fun preprocessAll(input: ShortArray, config: PreprocessConfig): ShortArray {
+        val stage = SpeechPreprocessStage(config.copy(storeProcessed = true))
+        stage.configure(FrameFormat(SAMPLE_RATE, FRAME_SIZE), FramePool())
+        val output = ShortArray(input.size)
+        val frame = AudioFrame(FRAME_SIZE)
+        var offset = 0
+        val sink = FrameSink { processed ->
+            System.arraycopy(processed.samples, 0, output, offset, processed.length)
+        }
+        while (offset < input.size) {
+            val n = minOf(FRAME_SIZE, input.size - offset)
+            System.arraycopy(input, offset, frame.samples, 0, n)
+            frame.length = n
+            frame.samplesChanged()
+            stage.process(frame, sink)
+            offset += n
+        }
+        return output
+    }
+
+    private fun readAll(sample: VadBenchmark.LabeledAudio): ShortArray {
+        AudioFileReader.open(sample.file).use { reader ->
+            require(reader.sampleRate == SAMPLE_RATE) { "${sample.file.name}: expected 16kHz" }
+            val out = ShortArray(reader.totalSamples.toInt())
+            var count = 0
+            while (count < out.size) {
+                val n = reader.read(out, count, out.size - count)
+                if (n <= 0) break
+                count += n
+            }
+            return out.copyOf(count)
+        }
+    }
+}
+
+/**
+ * 预处理前后的VAD比较结果
+ * @param rawFalseStarts 原始音频上落在非人声段的VOICE_START次数
+ */
+data class PreprocessComparison(
+    val frames: Long,
+    val rawAgreedFrames: Long,
+    val processedAgreedFrames: Long,
+    val rawFalseStarts: Int,
+    val processedFalseStarts: Int
+) {
+    fun getRawAccuracy(): Double = if (frames > 0) rawAgreedFrames.toDouble() / frames else 0.0
+    fun getProcessedAccuracy(): Double = if (frames > 0) processedAgreedFrames.toDouble() / frames else 0.0
+
+    override fun toString(): String =
+        "原始: 一致率 ${String.format("%.3f", getRawAccuracy())}, 误触发 $rawFalseStarts; " +
+                "预处理: 一致率 ${String.format("%.3f", getProcessedAccuracy())}, 误触发 $processedFalseStarts"
+}
@@ -0,0 +1,48 @@
+package com.voicelife.assistant.recorder
+
+import com.voicelife.assistant.vad.SileroVadEngine
+import com.voicelife.assistant.vad.SyntheticSpeech
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 预处理的每帧耗时和对VAD的影响
+ * 耗时只检查远低于32ms的帧间隔, 具体数值打印到标准输出
+ */
+class PreprocessBenchmarkTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val benchmark = PreprocessBenchmark()
+
+    @Test
+    fun `report per-frame cost`() {
+        val stats = benchmark.measureFrameCost(seconds = 30)
+        println(stats)
+
+        assertTrue(stats.toString(), stats.frames > 0)
+        assertTrue(stats.toString(), stats.getTotalMicrosPerFrame() < 3_200.0)
+    }
+
+    @Test
+    fun `preprocessing does not regress VAD on labeled audio`() {
+        val samples = listOf(
+            SyntheticSpeech.writeLabeledWav(temp.newFile("a.wav"), seed = 1),
+            SyntheticSpeech.writeLabeledWav(temp.newFile("b.wav"), seed = 2)
+        )
+        val engine = SileroVadEngine.fromModelFile(File("src/main/assets/silero_vad.onnx")).also { it.init() }
+        try {
+            val comparison = benchmark.compareVad(engine, samples)
+            println(comparison)
+
+            assertTrue(comparison.toString(), comparison.getProcessedAccuracy() >= comparison.getRawAccuracy() - 0.01)
+            assertTrue(comparison.toString(), comparison.processedFalseStarts <= comparison.rawFalseStarts)
+        } finally {
+            engine.release()
+        }
+    }
+}
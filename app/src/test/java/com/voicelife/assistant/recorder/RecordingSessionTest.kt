@@ -0,0 +1,135 @@
+package com.voicelife.assistant.recorder
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * 按样本时钟推进的录音会话
+ * 用512样本的帧模拟一段33秒的对话, 不需要等待真实时间
+ * 样本值等于其在输入流中的位置(模30000), 用来检查写入文件的是哪一段音频
+ */
+class RecordingSessionTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val completed = ArrayList<CompletedRecording>()
+    private lateinit var session: RecordingSession
+
+    companion object {
+        private const val SAMPLE_RATE = 16000
+        private const val FRAME_SIZE = 512
+        private const val POST_ROLL_SAMPLES = 3 * SAMPLE_RATE
+        private const val GAP_SAMPLES = 10 * SAMPLE_RATE
+        private const val PRE_ROLL_SAMPLES = SAMPLE_RATE
+    }
+
+    @Before
+    fun setUp() {
+        session = RecordingSession(temp.root) { completed += it }
+    }
+
+    private fun ms(value: Int): Long = value.toLong() * SAMPLE_RATE / 1000
+
+    /**
+     * 按帧喂入totalMs的音频, 人声开始/结束事件在所处的帧之前触发
+     * @return 每个事件实际触发的样本位置
+     */
+    private fun simulate(totalMs: Int, vararg events: Pair<Int, Boolean>): List<Long> {
+        val fired = ArrayList<Long>()
+        var next = 0
+        val frame = ShortArray(FRAME_SIZE)
+        var position = 0L
+        while (position < ms(totalMs)) {
+            while (next < events.size && ms(events[next].first) <= position) {
+                if (events[next].second) session.onVoiceStart() else session.onVoiceEnd()
+                fired += position
+                next++
+            }
+            for (i in frame.indices) frame[i] = ((position + i) % 30000).toInt().toShort()
+            session.writeAudioData(frame)
+            position += FRAME_SIZE
+        }
+        return fired
+    }
+
+    private fun readAll(recording: CompletedRecording): ShortArray =
+        AudioFileReader.open(recording.file).use { reader ->
+            val samples = ShortArray(reader.totalSamples.toInt())
+            var offset = 0
+            while (offset < samples.size) {
+                val count = reader.read(samples, offset, samples.size - offset)
+                if (count <= 0) break
+                offset += count
+            }
+            samples
+        }
+
+    @Test
+    fun `33 second conversation becomes one recording with exact pre-roll, gap and post-roll`() {
+        val startNanos = System.nanoTime()
+        // 2秒静音, 说5秒, 停顿4秒(不到静音间隔), 再说6秒, 之后16秒静音
+        val fired = simulate(
+            33_000,
+            2_000 to true,
+            7_000 to false,
+            11_000 to true,
+            17_000 to false
+        )
+        val elapsedMs = (System.nanoTime() - startNanos) / 1_000_000
+
+        val recording = completed.single()
+        val voiceStart = fired[0]
+        val voiceEnd = fired[3]
+        val expected = PRE_ROLL_SAMPLES + (voiceEnd - voiceStart) + GAP_SAMPLES + POST_ROLL_SAMPLES
+        assertEquals(expected, recording.sampleCount)
+        assertEquals(44 + 2 * expected, recording.file.length())
+        assertEquals(RecordingSession.State.IDLE, session.getState())
+        assertFalse(session.isRecording())
+
+        // 文件从人声开始前1秒开始, 中间不缺样本, 后缓冲在精确位置截止
+        val samples = readAll(recording)
+        val firstSample = voiceStart - PRE_ROLL_SAMPLES
+        for (i in samples.indices step 997) {
+            assertEquals(((firstSample + i) % 30000).toInt(), samples[i].toInt())
+        }
+        assertEquals(((firstSample + expected - 1) % 30000).toInt(), samples.last().toInt())
+
+        assertTrue("simulation took ${elapsedMs}ms", elapsedMs < 3_000)
+    }
+
+    @Test
+    fun `voice during post-roll continues the same recording`() {
+        // 说3秒, 静音11秒(进入后缓冲1秒), 再说2秒, 之后静音
+        val fired = simulate(
+            40_000,
+            1_000 to true,
+            4_000 to false,
+            15_000 to true,
+            17_000 to false
+        )
+
+        val recording = completed.single()
+        assertEquals(PRE_ROLL_SAMPLES + (fired[3] - fired[0]) + GAP_SAMPLES + POST_ROLL_SAMPLES, recording.sampleCount)
+    }
+
+    @Test
+    fun `silence longer than the gap splits into two recordings`() {
+        val fired = simulate(
+            50_000,
+            1_000 to true,
+            3_000 to false,
+            20_000 to true,
+            22_000 to false
+        )
+
+        assertEquals(2, completed.size)
+        assertEquals(PRE_ROLL_SAMPLES + (fired[1] - fired[0]) + GAP_SAMPLES + POST_ROLL_SAMPLES, completed[0].sampleCount)
+        assertEquals(PRE_ROLL_SAMPLES + (fired[3] - fired[2]) + GAP_SAMPLES + POST_ROLL_SAMPLES, completed[1].sampleCount)
+    }
+}
@@ -0,0 +1,266 @@
+package com.voicelife.assistant.recorder
+
+import com.voicelife.assistant.vad.VadBenchmark
+import com.voicelife.assistant.vad.VadEngine
+import kotlin.math.PI
+import kotlin.math.log10
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 重采样器基准
+ * 纯JVM代码, 不依赖设备, 用于选择tapsPerPhase并确认原生采样率路径不降低VAD准确率
+ *
+ * - 吞吐: 每秒音频的处理耗时
+ * - 扫频: 逐个频率输入正弦波, 统计增益; 高于输出奈奎斯特频率的正弦波输出即为混叠
+ * - VAD: 16kHz标注音频先升到原生采样率模拟采集, 再经重采样阶段降回16kHz, 与直接路径比较
+ */
+class ResamplerBenchmark(
+    private val clock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val CHUNK_SIZE = 1536  // 48kHz下32ms
+        private const val TONE_AMPLITUDE = 16000.0
+    }
+
+    /**
+     * 测量吞吐
+     * @param seconds 输入音频时长
+     */
+    fun measureThroughput(inputRate: Int, outputRate: Int, tapsPerPhase: Int, seconds: Int = 60): ThroughputResult {
+        val resampler = PolyphaseResampler(inputRate, outputRate, tapsPerPhase)
+        val random = java.util.Random(1)
+        val input = ShortArray(CHUNK_SIZE) { (random.nextGaussian() * 3000).toInt().toShort() }
+        val output = ShortArray(resampler.maxOutputSamples(CHUNK_SIZE))
+
+        // 预热
+        repeat(200) { resampler.process(input, 0, input.size, output, 0) }
+        resampler.reset()
+
+        val chunks = seconds.toLong() * inputRate / CHUNK_SIZE
+        val start = clock()
+        for (i in 0 until chunks) {
+            resampler.process(input, 0, input.size, output, 0)
+        }
+        val elapsed = clock() - start
+
+        return ThroughputResult(
+            inputRate = inputRate,
+            outputRate = outputRate,
+            tapsPerPhase = tapsPerPhase,
+            audioSeconds = chunks * CHUNK_SIZE.toDouble() / inputRate,
+            totalNanos = elapsed
+        )
+    }
+
+    /**
+     * 扫频测量频率响应和混叠
+     * 每个频率输入0.5秒正弦波, 跳过群延迟后比较输入输出的RMS
+     *
+     * @param stepHz 扫频步长
+     */
+    fun sweep(inputRate: Int, outputRate: Int, tapsPerPhase: Int, stepHz: Int = 100): SweepResult {
+        val resampler = PolyphaseResampler(inputRate, outputRate, tapsPerPhase)
+        val length = inputRate / 2
+        val input = ShortArray(length)
+        val output = ShortArray(resampler.maxOutputSamples(length))
+        val settle = resampler.outputDelaySamples.toInt() * 2 + 1
+
+        val points = ArrayList<SweepPoint>()
+        var frequency = stepHz
+        while (frequency < inputRate / 2) {
+            for (i in 0 until length) {
+                input[i] = (TONE_AMPLITUDE * sin(2 * PI * frequency * i / inputRate)).toInt().toShort()
+            }
+            resampler.reset()
+            val count = resampler.process(input, 0, length, output, 0)
+
+            var energy = 0.0
+            for (i in settle until count) {
+                energy += output[i].toDouble() * output[i]
+            }
+            val rms = sqrt(energy / (count - settle).coerceAtLeast(1))
+            val gainDb = 20 * log10((rms / (TONE_AMPLITUDE / sqrt(2.0))).coerceAtLeast(1e-9))
+            points.add(SweepPoint(frequency, gainDb))
+            frequency += stepHz
+        }
+
+        return SweepResult(inputRate, outputRate, tapsPerPhase, points)
+    }
+
+    /**
+     * 比较直接16kHz路径和原生采样率+重采样路径的VAD结果
+     * 引擎需已初始化, 每个文件的每条路径开始前调用reset
+     *
+     * 注意: 原生采样率的音频由本类升采样得到, 不包含真实HAL的特性, 只用于发现重采样引入的回退
+     */
+    fun compareVad(
+        engine: VadEngine,
+        samples: List<VadBenchmark.LabeledAudio>,
+        nativeRate: Int = 48000,
+        tapsPerPhase: Int = 192,
+        threshold: Float = 0.5f
+    ): VadComparison {
+        require(engine.sampleRate == 16000) { "Engine must run at 16kHz" }
+        var frames = 0L
+        var directAgreed = 0L
+        var resampledAgreed = 0L
+        var pathsAgreed = 0L
+
+        for (sample in samples) {
+            val direct = readAll(sample)
+            val native = resampleAll(direct, 16000, nativeRate, tapsPerPhase)
+            val roundTrip = resampleThroughStage(native, nativeRate, engine.frameSize, tapsPerPhase)
+
+            // 两次滤波的总群延迟, 对齐到直接路径
+            val delay = PolyphaseResampler(16000, nativeRate, tapsPerPhase).outputDelaySamples * 16000 / nativeRate +
+                    PolyphaseResampler(nativeRate, 16000, tapsPerPhase).outputDelaySamples
+            val shift = delay.toInt()
+
+            val directDecisions = detect(engine, direct, 0, threshold)
+            val resampledDecisions = detect(engine, roundTrip, shift, threshold)
+            val count = minOf(directDecisions.size, resampledDecisions.size)
+
+            for (i in 0 until count) {
+                val center = i.toLong() * engine.frameSize + engine.frameSize / 2
+                val labeled = sample.speechRanges.any { center in it }
+                if (directDecisions[i] == labeled) directAgreed++
+                if (resampledDecisions[i] == labeled) resampledAgreed++
+                if (directDecisions[i] == resampledDecisions[i]) pathsAgreed++
+            }
+            frames += count
+        }
+
+        return VadComparison(frames, directAgreed, resampledAgreed, pathsAgreed)
+    }
+
+    private fun readAll(sample: VadBenchmark.LabeledAudio): ShortArray {
+        AudioFileReader.open(sample.file).use { reader ->
+            require(reader.sampleRate == 16000) { "${sample.file.name}: expected 16kHz" }
+            val out = ShortArray(reader.totalSamples.toInt())
+            var count = 0
+            while (count < out.size) {
+                val n = reader.read(out, count, out.size - count)
+                if (n <= 0) break
+                count += n
+            }
+            return out.copyOf(count)
+        }
+    }
+
+    private fun resampleAll(input: ShortArray, fromRate: Int, toRate: Int, tapsPerPhase: Int): ShortArray {
+        val resampler = PolyphaseResampler(fromRate, toRate, tapsPerPhase)
+        val output = ShortArray(resampler.maxOutputSamples(input.size))
+        val count = resampler.process(input, 0, input.size, output, 0)
+        return output.copyOf(count)
+    }
+
+    /**
+     * 按采集帧大小送入ResamplerStage, 收集输出帧
+     */
+    private fun resampleThroughStage(input: ShortArray, inputRate: Int, frameSize: Int, tapsPerPhase: Int): ShortArray {
+        val stage = ResamplerStage(inputRate, 16000, frameSize, tapsPerPhase)
+        val captureFrameSize = frameSize * inputRate / 16000
+        stage.configure(FrameFormat(inputRate, captureFrameSize), FramePool())
+
+        val output = ShortArray(input.size.toLong().times(16000).div(inputRate).toInt() + frameSize)
+        var written = 0
+        val sink = FrameSink { frame ->
+            System.arraycopy(frame.samples, 0, output, written, frame.length)
+            written += frame.length
+        }
+
+        val frame = AudioFrame(captureFrameSize)
+        var offset = 0
+        while (offset < input.size) {
+            val n = minOf(captureFrameSize, input.size - offset)
+            System.arraycopy(input, offset, frame.samples, 0, n)
+            frame.length = n
+            stage.process(frame, sink)
+            offset += n
+        }
+        return output.copyOf(written)
+    }
+
+    private fun detect(engine: VadEngine, audio: ShortArray, skip: Int, threshold: Float): BooleanArray {
+        engine.reset()
+        val frameSize = engine.frameSize
+        val frame = FloatArray(frameSize)
+        val frames = ((audio.size - skip) / frameSize).coerceAtLeast(0)
+        return BooleanArray(frames) { f ->
+            val base = skip + f * frameSize
+            for (i in 0 until frameSize) {
+                frame[i] = audio[base + i] / 32768.0f
+            }
+            engine.process(frame) > threshold
+        }
+    }
+}
+
+/**
+ * 吞吐结果
+ */
+data class ThroughputResult(
+    val inputRate: Int,
+    val outputRate: Int,
+    val tapsPerPhase: Int,
+    val audioSeconds: Double,
+    val totalNanos: Long
+) {
+    /** 每秒音频的处理耗时(微秒) */
+    fun getMicrosPerSecond(): Double = totalNanos / 1000.0 / audioSeconds
+
+    /** 占实时的比例 */
+    fun getRealtimeFraction(): Double = totalNanos / 1e9 / audioSeconds
+}
+
+/**
+ * 扫频中的一个频率点
+ */
+data class SweepPoint(
+    val frequencyHz: Int,
+    val gainDb: Double
+)
+
+/**
+ * 扫频结果
+ */
+data class SweepResult(
+    val inputRate: Int,
+    val outputRate: Int,
+    val tapsPerPhase: Int,
+    val points: List<SweepPoint>
+) {
+    /**
+     * 通带(passbandEdgeHz以下)增益的最大偏差(dB)
+     */
+    fun getPassbandRippleDb(passbandEdgeHz: Int): Double =
+        points.filter { it.frequencyHz <= passbandEdgeHz }.maxOfOrNull { kotlin.math.abs(it.gainDb) } ?: 0.0
+
+    /**
+     * 高于输出奈奎斯特频率的输入产生的最大输出(dB), 即最坏混叠
+     */
+    fun getWorstAliasingDb(): Double =
+        points.filter { it.frequencyHz >= outputRate / 2 }.maxOfOrNull { it.gainDb } ?: Double.NEGATIVE_INFINITY
+}
+
+/**
+ * VAD路径比较结果
+ * @param pathsAgreedFrames 两条路径判决相同的帧数
+ */
+data class VadComparison(
+    val frames: Long,
+    val directAgreedFrames: Long,
+    val resampledAgreedFrames: Long,
+    val pathsAgreedFrames: Long
+) {
+    fun getDirectAccuracy(): Double = if (frames > 0) directAgreedFrames.toDouble() / frames else 0.0
+    fun getResampledAccuracy(): Double = if (frames > 0) resampledAgreedFrames.toDouble() / frames else 0.0
+    fun getPathAgreement(): Double = if (frames > 0) pathsAgreedFrames.toDouble() / frames else 0.0
+
+    /**
+     * 重采样路径的准确率不低于直接路径(允许tolerance的误差)
+     */
+    fun isNotRegressed(tolerance: Double = 0.005): Boolean =
+        getResampledAccuracy() >= getDirectAccuracy() - tolerance
+}
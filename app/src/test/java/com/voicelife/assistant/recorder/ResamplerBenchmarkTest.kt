@@ -0,0 +1,65 @@
+package com.voicelife.assistant.recorder
+
+import com.voicelife.assistant.vad.SileroVadEngine
+import com.voicelife.assistant.vad.SyntheticSpeech
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 原生采样率路径的重采样质量
+ * 扫频检查混叠和通带, VAD比较检查重采样不降低准确率; 吞吐只打印不断言
+ */
+class ResamplerBenchmarkTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val benchmark = ResamplerBenchmark()
+
+    @Test
+    fun `swept sine stays below the aliasing bound`() {
+        for (inputRate in listOf(48000, 44100)) {
+            val result = benchmark.sweep(inputRate, 16000, tapsPerPhase = 192, stepHz = 250)
+            val aliasing = result.getWorstAliasingDb()
+            val ripple = result.getPassbandRippleDb(6500)
+            println("$inputRate->16000: worst aliasing ${"%.1f".format(aliasing)} dB, ripple ${"%.3f".format(ripple)} dB")
+
+            assertTrue("aliasing $aliasing dB at $inputRate", aliasing <= -75.0)
+            assertTrue("passband ripple $ripple dB at $inputRate", ripple <= 0.1)
+        }
+    }
+
+    @Test
+    fun `resampled path does not regress VAD accuracy`() {
+        val samples = listOf(
+            SyntheticSpeech.writeLabeledWav(temp.newFile("a.wav"), seed = 1),
+            SyntheticSpeech.writeLabeledWav(temp.newFile("b.wav"), seed = 2)
+        )
+        val engine = SileroVadEngine.fromModelFile(File("src/main/assets/silero_vad.onnx")).also { it.init() }
+        try {
+            val comparison = benchmark.compareVad(engine, samples)
+            println(
+                "VAD direct ${"%.3f".format(comparison.getDirectAccuracy())}, " +
+                        "resampled ${"%.3f".format(comparison.getResampledAccuracy())}, " +
+                        "path agreement ${"%.3f".format(comparison.getPathAgreement())}"
+            )
+
+            assertTrue(comparison.toString(), comparison.isNotRegressed())
+            assertTrue(comparison.toString(), comparison.getPathAgreement() >= 0.97)
+        } finally {
+            engine.release()
+        }
+    }
+
+    @Test
+    fun `report throughput`() {
+        val result = benchmark.measureThroughput(48000, 16000, tapsPerPhase = 192, seconds = 10)
+        println(
+            "48000->16000 x192: ${"%.0f".format(result.getMicrosPerSecond())} us per audio second " +
+                    "(${"%.4f".format(result.getRealtimeFraction())} of realtime)"
+        )
+    }
+}
@@ -0,0 +1,207 @@
+package com.voicelife.assistant.recorder
+
+import java.lang.management.ManagementFactory
+
+/**
+ * 预缓冲环形缓冲区基准
+ * 纯JVM代码, 不依赖设备; 对比当前的RingBuffer和改写前的逐样本实现(LegacyRingBuffer)
+ *
+ * 模拟录音会话的用法: 每帧512样本写入, 每隔drainEvery帧(一次人声开始)把预缓冲全部取出
+ * - 写入: 每帧耗时
+ * - 取出: 每次耗时(含写入接收端)和堆分配(ThreadMXBean统计当前线程)
+ * - 校验和: 取出的样本按顺序累计, 两种实现必须一致
+ */
+class RingBufferBenchmark(
+    private val clock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val WARMUP_FRAMES = 20_000
+    }
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    /** 统计调用自身的分配(装箱等), 从每次取出的结果中扣除 */
+    private val measurementBytes: Long by lazy {
+        (0 until 10).minOf { allocatedBytes() - allocatedBytes() }.let { -it }
+    }
+
+    private fun allocatedBytes(): Long = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+
+    /**
+     * 改写前的实现: 逐样本复制并对容量取模, read()每次分配新数组
+     */
+    class LegacyRingBuffer(private val capacity: Int) {
+        private val buffer = ShortArray(capacity)
+        private var writePos = 0
+        private var size = 0
+
+        fun write(data: ShortArray) {
+            for (sample in data) {
+                buffer[writePos] = sample
+                writePos = (writePos + 1) % capacity
+
+                if (size < capacity) {
+                    size++
+                }
+            }
+        }
+
+        fun read(): ShortArray {
+            if (size == 0) return ShortArray(0)
+
+            val result = ShortArray(size)
+
+            if (size < capacity) {
+                System.arraycopy(buffer, 0, result, 0, size)
+            } else {
+                val firstPart = capacity - writePos
+                System.arraycopy(buffer, writePos, result, 0, firstPart)
+                System.arraycopy(buffer, 0, result, firstPart, writePos)
+            }
+
+            return result
+        }
+
+        fun clear() {
+            writePos = 0
+            size = 0
+        }
+    }
+
+    /**
+     * 按顺序累计样本的接收端, 用于比较两种实现的输出
+     */
+    private class ChecksumSink : PcmSink {
+        var checksum = 0L
+        var samples = 0L
+
+        override fun write(audioData: ShortArray, offset: Int, length: Int) {
+            for (i in offset until offset + length) {
+                checksum = checksum * 31 + audioData[i]
+            }
+            samples += length
+        }
+    }
+
+    /**
+     * 对比两种实现
+     * @param capacity 预缓冲容量(样本数)
+     * @param frames 写入的帧数
+     * @param drainEvery 每隔多少帧取出一次
+     */
+    fun compare(capacity: Int, frames: Int = 60 * 16000 / FRAME_SIZE, drainEvery: Int = 97): RingBufferComparison {
+        val input = Array(16) { f -> ShortArray(FRAME_SIZE) { i -> ((f * 7919 + i * 31) % 65536 - 32768).toShort() } }
+
+        // 预热后重新计时
+        runLegacy(capacity, WARMUP_FRAMES, drainEvery, input)
+        runCurrent(capacity, WARMUP_FRAMES, drainEvery, input)
+        return RingBufferComparison(
+            legacy = runLegacy(capacity, frames, drainEvery, input),
+            current = runCurrent(capacity, frames, drainEvery, input)
+        )
+    }
+
+    private fun runLegacy(capacity: Int, frames: Int, drainEvery: Int, input: Array<ShortArray>): RingBufferResult {
+        val ring = LegacyRingBuffer(capacity)
+        val sink = ChecksumSink()
+        var writeNanos = 0L
+        var drainNanos = 0L
+        var drainBytes = 0L
+        var drains = 0
+
+        for (f in 0 until frames) {
+            val start = clock()
+            ring.write(input[f % input.size])
+            writeNanos += clock() - start
+
+            if ((f + 1) % drainEvery == 0) {
+                // 分配统计放在计时内侧, 不计入clock()的装箱
+                val drainStart = clock()
+                val bytesBefore = allocatedBytes()
+                val data = ring.read()
+                ring.clear()
+                sink.write(data, 0, data.size)
+                drainBytes += allocatedBytes() - bytesBefore - measurementBytes
+                drainNanos += clock() - drainStart
+                drains++
+            }
+        }
+        return RingBufferResult("legacy", capacity, frames.toLong(), writeNanos, drains, drainNanos, drainBytes, sink.checksum, sink.samples)
+    }
+
+    private fun runCurrent(capacity: Int, frames: Int, drainEvery: Int, input: Array<ShortArray>): RingBufferResult {
+        val ring = RingBuffer(capacity)
+        val sink = ChecksumSink()
+        var writeNanos = 0L
+        var drainNanos = 0L
+        var drainBytes = 0L
+        var drains = 0
+
+        for (f in 0 until frames) {
+            val start = clock()
+            ring.write(input[f % input.size])
+            writeNanos += clock() - start
+
+            if ((f + 1) % drainEvery == 0) {
+                val drainStart = clock()
+                val bytesBefore = allocatedBytes()
+                ring.drainTo(sink)
+                drainBytes += allocatedBytes() - bytesBefore - measurementBytes
+                drainNanos += clock() - drainStart
+                drains++
+            }
+        }
+        return RingBufferResult("current", capacity, frames.toLong(), writeNanos, drains, drainNanos, drainBytes, sink.checksum, sink.samples)
+    }
+}
+
+/**
+ * 单个实现的基准结果
+ * @param drainAllocatedBytes 所有取出操作的堆分配字节数
+ * @param checksum 取出样本的顺序校验和
+ */
+data class RingBufferResult(
+    val name: String,
+    val capacity: Int,
+    val frames: Long,
+    val writeNanos: Long,
+    val drains: Int,
+    val drainNanos: Long,
+    val drainAllocatedBytes: Long,
+    val checksum: Long,
+    val drainedSamples: Long
+) {
+    /** 每帧写入耗时(纳秒) */
+    fun getNanosPerWrite(): Double = if (frames > 0) writeNanos.toDouble() / frames else 0.0
+
+    /** 每次取出耗时(微秒) */
+    fun getMicrosPerDrain(): Double = if (drains > 0) drainNanos / 1000.0 / drains else 0.0
+
+    /** 每次取出的堆分配(字节) */
+    fun getBytesPerDrain(): Double = if (drains > 0) drainAllocatedBytes.toDouble() / drains else 0.0
+
+    override fun toString(): String =
+        "$name(容量 $capacity): 写入 ${String.format("%.0f", getNanosPerWrite())}ns/帧, " +
+                "取出 ${String.format("%.1f", getMicrosPerDrain())}µs/次, " +
+                "分配 ${String.format("%.0f", getBytesPerDrain())}B/次"
+}
+
+/**
+ * 新旧实现的对比
+ */
+data class RingBufferComparison(
+    val legacy: RingBufferResult,
+    val current: RingBufferResult
+) {
+    /** 两种实现取出的样本序列相同 */
+    fun isEquivalent(): Boolean =
+        legacy.checksum == current.checksum && legacy.drainedSamples == current.drainedSamples
+
+    /** 写入加速比 */
+    fun getWriteSpeedup(): Double =
+        if (current.writeNanos > 0) legacy.writeNanos.toDouble() / current.writeNanos else 0.0
+
+    override fun toString(): String =
+        "$legacy\n$current\n写入加速 ${String.format("%.1f", getWriteSpeedup())}倍"
+}
@@ -0,0 +1,33 @@
+package com.voicelife.assistant.recorder
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 对比当前RingBuffer和改写前的实现
+ * 断言输出一致且取出不分配; 耗时打印到标准输出, 不断言
+ */
+class RingBufferBenchmarkTest {
+
+    private val benchmark = RingBufferBenchmark()
+
+    private fun check(capacity: Int) {
+        val comparison = benchmark.compare(capacity)
+        println(comparison)
+
+        assertTrue(comparison.toString(), comparison.current.drains > 0)
+        assertTrue(comparison.toString(), comparison.isEquivalent())
+        assertEquals(comparison.toString(), 0L, comparison.current.drainAllocatedBytes)
+    }
+
+    @Test
+    fun `1s pre-roll wraps and matches the legacy buffer`() {
+        check(16000)
+    }
+
+    @Test
+    fun `30s pre-roll matches the legacy buffer`() {
+        check(16000 * 30)
+    }
+}
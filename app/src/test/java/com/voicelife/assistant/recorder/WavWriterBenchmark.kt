@@ -0,0 +1,172 @@
+package com.voicelife.assistant.recorder
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * WAV写入基准
+ * 纯JVM代码, 不依赖设备; 对比当前的WavFileWriter和改写前逐帧写盘的实现(LegacyWavWriter)
+ *
+ * 按录音会话的用法逐帧(512样本)写入一段音频:
+ * - 耗时: start到stop的总耗时按帧平均
+ * - 系统调用: 读/proc/thread-self/io的syscw(write/pwrite次数), 读不到时为-1
+ * - 两种实现写出的文件必须逐字节相同
+ */
+class WavWriterBenchmark(
+    private val clock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val SAMPLE_RATE = 16000
+        private const val WARMUP_SECONDS = 30
+        private val PROC_IO = File("/proc/thread-self/io")
+    }
+
+    /**
+     * 改写前的实现: 每帧分配一个堆ByteBuffer并直接写FileOutputStream, 结束时重新打开文件更新WAV头
+     */
+    class LegacyWavWriter(private val outputFile: File) {
+        private var fileOutputStream: FileOutputStream? = null
+        private var dataSize = 0L
+
+        fun start() {
+            outputFile.parentFile?.mkdirs()
+            fileOutputStream = FileOutputStream(outputFile)
+            val header = ByteBuffer.allocate(44)
+            WavFileWriter.fillHeader(header, 0)
+            fileOutputStream?.write(header.array())
+            dataSize = 0
+        }
+
+        fun write(audioData: ShortArray, offset: Int, length: Int) {
+            val byteBuffer = ByteBuffer.allocate(length * 2)
+            byteBuffer.order(ByteOrder.LITTLE_ENDIAN)
+
+            for (i in offset until offset + length) {
+                byteBuffer.putShort(audioData[i])
+            }
+
+            fileOutputStream?.write(byteBuffer.array())
+            dataSize += length * 2L
+        }
+
+        fun stop() {
+            fileOutputStream?.close()
+            fileOutputStream = null
+
+            RandomAccessFile(outputFile, "rw").use { raf ->
+                val field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                raf.seek(4)
+                raf.write(field.putInt(0, (36 + dataSize).toInt()).array())
+                raf.seek(40)
+                raf.write(field.putInt(0, dataSize.toInt()).array())
+            }
+        }
+    }
+
+    /**
+     * 对比两种实现
+     * @param dir 写入临时文件的目录
+     * @param seconds 写入的音频时长
+     */
+    fun compare(dir: File, seconds: Int = 60): WavWriterComparison {
+        val input = Array(16) { f -> ShortArray(FRAME_SIZE) { i -> ((f * 7919 + i * 31) % 65536 - 32768).toShort() } }
+
+        // 预热后重新计时
+        runLegacy(File(dir, "warmup-legacy.wav"), WARMUP_SECONDS, input)
+        runCurrent(File(dir, "warmup-current.wav"), WARMUP_SECONDS, input)
+
+        val legacyFile = File(dir, "legacy.wav")
+        val currentFile = File(dir, "current.wav")
+        return WavWriterComparison(
+            legacy = runLegacy(legacyFile, seconds, input),
+            current = runCurrent(currentFile, seconds, input),
+            identicalOutput = legacyFile.readBytes().contentEquals(currentFile.readBytes())
+        )
+    }
+
+    private fun runLegacy(file: File, seconds: Int, input: Array<ShortArray>): WavWriterResult {
+        val frames = seconds * SAMPLE_RATE / FRAME_SIZE
+        val writer = LegacyWavWriter(file)
+        val syscallsBefore = writeSyscalls()
+        val start = clock()
+        writer.start()
+        for (f in 0 until frames) {
+            writer.write(input[f % input.size], 0, FRAME_SIZE)
+        }
+        writer.stop()
+        val nanos = clock() - start
+        return WavWriterResult("legacy", frames.toLong(), frames * FRAME_SIZE.toDouble() / SAMPLE_RATE, nanos, syscallDelta(syscallsBefore))
+    }
+
+    private fun runCurrent(file: File, seconds: Int, input: Array<ShortArray>): WavWriterResult {
+        val frames = seconds * SAMPLE_RATE / FRAME_SIZE
+        val writer = WavFileWriter(file)
+        val syscallsBefore = writeSyscalls()
+        val start = clock()
+        writer.start()
+        for (f in 0 until frames) {
+            writer.write(input[f % input.size], 0, FRAME_SIZE)
+        }
+        writer.stop()
+        val nanos = clock() - start
+        return WavWriterResult("current", frames.toLong(), frames * FRAME_SIZE.toDouble() / SAMPLE_RATE, nanos, syscallDelta(syscallsBefore))
+    }
+
+    private fun syscallDelta(before: Long): Long {
+        if (before < 0) return -1
+        val after = writeSyscalls()
+        return if (after < 0) -1 else after - before
+    }
+
+    /**
+     * 当前线程累计的write类系统调用次数, 读不到时返回-1
+     */
+    private fun writeSyscalls(): Long {
+        return try {
+            PROC_IO.readLines()
+                .firstOrNull { it.startsWith("syscw:") }
+                ?.substringAfter(':')?.trim()?.toLong() ?: -1
+        } catch (e: Exception) {
+            -1
+        }
+    }
+}
+
+/**
+ * 单个实现的基准结果
+ * @param writeSyscalls write类系统调用次数, -1表示无法统计
+ */
+data class WavWriterResult(
+    val name: String,
+    val frames: Long,
+    val audioSeconds: Double,
+    val totalNanos: Long,
+    val writeSyscalls: Long
+) {
+    /** 每帧耗时(微秒) */
+    fun getMicrosPerFrame(): Double = if (frames > 0) totalNanos / 1000.0 / frames else 0.0
+
+    /** 每分钟音频的系统调用次数 */
+    fun getSyscallsPerMinute(): Double =
+        if (writeSyscalls >= 0 && audioSeconds > 0) writeSyscalls * 60.0 / audioSeconds else -1.0
+
+    override fun toString(): String =
+        "$name: ${String.format("%.2f", getMicrosPerFrame())}µs/帧, " +
+                "系统调用 ${String.format("%.0f", getSyscallsPerMinute())}次/分钟"
+}
+
+/**
+ * 新旧实现的对比
+ * @param identicalOutput 两种实现写出的文件逐字节相同
+ */
+data class WavWriterComparison(
+    val legacy: WavWriterResult,
+    val current: WavWriterResult,
+    val identicalOutput: Boolean
+) {
+    override fun toString(): String = "$legacy\n$current\n输出相同: $identicalOutput"
+}
@@ -0,0 +1,34 @@
+package com.voicelife.assistant.recorder
+
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+/**
+ * 对比当前WavFileWriter和改写前逐帧写盘的实现
+ * 断言输出相同和系统调用次数; 耗时打印到标准输出, 不断言
+ */
+class WavWriterBenchmarkTest {
+
+    companion object {
+        // 每秒一次写盘, 每5秒刷新WAV头(两次定位写), 另加开始和结束的几次
+        private const val MAX_SYSCALLS_PER_MINUTE = 100.0
+    }
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `buffered writer matches legacy output with far fewer syscalls`() {
+        val comparison = WavWriterBenchmark().compare(temp.root)
+        println(comparison)
+
+        assertTrue(comparison.toString(), comparison.identicalOutput)
+
+        assumeTrue("/proc/thread-self/io unavailable", comparison.current.writeSyscalls >= 0)
+        assertTrue(comparison.toString(), comparison.current.getSyscallsPerMinute() <= MAX_SYSCALLS_PER_MINUTE)
+        assertTrue(comparison.toString(), comparison.legacy.getSyscallsPerMinute() >= 10 * comparison.current.getSyscallsPerMinute())
+    }
+}
@@ -0,0 +1,122 @@
+package com.voicelife.assistant.storage
+
+import com.voicelife.assistant.data.database.FakeRecordingDao
+import com.voicelife.assistant.data.database.FakeTranscriptionDao
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.recorder.FlacFileReader
+import com.voicelife.assistant.recorder.FlacFileWriter
+import com.voicelife.assistant.vad.SyntheticSpeech
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 进程被杀后FLAC录音的启动扫描
+ * "被杀"即写盘后不调用stop(): 元数据中的总样本数停在最近一次刷新(不足5秒时为0)
+ */
+class PendingRecordingRecoveryTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    companion object {
+        private const val METADATA_SIZE = 4 + 4 + 34 + 4 + 128 * 18  // fLaC + STREAMINFO + SEEKTABLE
+    }
+
+    private val recordingDao = FakeRecordingDao()
+    private val recovery = PendingRecordingRecovery(RecordingRepository(recordingDao, FakeTranscriptionDao(recordingDao)))
+
+    private fun speech(seconds: Int): ShortArray = SyntheticSpeech.toPcm(SyntheticSpeech.voiced(16000 * seconds, seed = seconds))
+
+    /**
+     * 写入后只写盘不结束, 返回写盘的样本数(整块)
+     */
+    private fun writeKilled(file: File, audio: ShortArray): Long {
+        val writer = FlacFileWriter(file)
+        writer.start()
+        writer.write(audio)
+        writer.flush()
+        return audio.size / 4096 * 4096L
+    }
+
+    private fun decodeAll(file: File): ShortArray = FlacFileReader(file).use { reader ->
+        val out = ShortArray(reader.totalSamples.toInt())
+        var count = 0
+        while (count < out.size) {
+            val n = reader.read(out, count, out.size - count)
+            if (n <= 0) break
+            count += n
+        }
+        assertEquals(0, reader.read(ShortArray(1)))
+        out.copyOf(count)
+    }
+
+    @Test
+    fun `short FLAC with an unknown total is decoded not deleted`() = runBlocking {
+        val file = File(temp.root, "voice_20260101_120000.flac")
+        val audio = speech(3)
+        val flushed = writeKilled(file, audio)
+        assertEquals(0L, FlacFileReader(file).use { it.totalSamples })
+
+        val result = recovery.recover(temp.root, null)
+
+        assertEquals(RecoveryResult(1, 0), result)
+        assertTrue(file.exists())
+        val recording = recordingDao.recordings.values.single()
+        assertEquals(flushed, recording.sampleCount)
+        assertArrayEquals(audio.copyOf(flushed.toInt()), decodeAll(file))
+    }
+
+    @Test
+    fun `stale total is corrected and the half frame is cut off`() = runBlocking {
+        val file = File(temp.root, "voice_20260101_120000_1.flac")
+        val audio = speech(8)
+        val flushed = writeKilled(file, audio)
+        val headerTotal = FlacFileReader(file).use { it.totalSamples }
+        assertTrue("header $headerTotal of $flushed", headerTotal < flushed)
+
+        // 写了一半的帧: 复制第一帧的前100字节(帧头完整, 子帧截断)
+        val complete = file.length()
+        file.appendBytes(file.readBytes().copyOfRange(METADATA_SIZE, METADATA_SIZE + 100))
+
+        val result = recovery.recover(temp.root, null)
+
+        assertEquals(RecoveryResult(1, 0), result)
+        assertEquals(complete, file.length())
+        assertEquals(flushed, recordingDao.recordings.values.single().sampleCount)
+        assertEquals(1, recordingDao.recordings.values.single().chunkIndex)
+        assertArrayEquals(audio.copyOf(flushed.toInt()), decodeAll(file))
+    }
+
+    @Test
+    fun `FLAC without any frame is deleted`() = runBlocking {
+        val file = File(temp.root, "voice_20260101_120000.flac")
+        writeKilled(file, ShortArray(1000))
+
+        val result = recovery.recover(temp.root, null)
+
+        assertEquals(RecoveryResult(0, 1), result)
+        assertFalse(file.exists())
+    }
+
+    @Test
+    fun `repair leaves a finished file untouched`() {
+        val file = File(temp.root, "done.flac")
+        val audio = speech(3)
+        FlacFileWriter(file).apply {
+            start()
+            write(audio)
+            stop()
+        }
+        val before = file.readBytes()
+
+        assertEquals(audio.size.toLong(), FlacFileWriter.repair(file))
+        assertArrayEquals(before, file.readBytes())
+    }
+}
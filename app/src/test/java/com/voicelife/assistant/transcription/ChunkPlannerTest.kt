@@ -0,0 +1,104 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.vad.SpeechSegment
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 分块规划和分块内偏移到录音位置的映射
+ * 以样本为单位, 采样率取1000方便换算(1样本 = 1毫秒)
+ */
+class ChunkPlannerTest {
+
+    private val planner = ChunkPlanner(maxChunkSamples = 30_000, paddingSamples = 200, maxMergedSilenceSamples = 2_000)
+
+    @Test
+    fun `without segments the whole file is split into equal chunks`() {
+        val chunks = planner.plan(70_000, null)
+
+        assertEquals(3, chunks.size)
+        assertEquals(listOf(0, 1, 2), chunks.map { it.index })
+        assertEquals(0L, chunks.first().startSample)
+        assertEquals(70_000L, chunks.last().endSample)
+        for ((previous, next) in chunks.zipWithNext()) {
+            assertEquals(previous.endSample, next.startSample)
+        }
+        assertTrue(chunks.all { it.length <= 30_000 })
+    }
+
+    @Test
+    fun `no speech means no chunks`() {
+        assertTrue(planner.plan(70_000, emptyList()).isEmpty())
+        assertTrue(planner.plan(0, null).isEmpty())
+    }
+
+    @Test
+    fun `segments are padded within the file`() {
+        val chunk = planner.plan(10_000, listOf(SpeechSegment(100, 2_000), SpeechSegment(9_000, 9_950))).single()
+
+        assertEquals(listOf(SpeechSegment(0, 2_200), SpeechSegment(8_800, 10_000)), chunk.spans)
+    }
+
+    @Test
+    fun `short pauses are merged and long silences are skipped`() {
+        val segments = listOf(
+            SpeechSegment(1_000, 3_000),
+            SpeechSegment(4_500, 6_000),   // 补白后间隔1100, 合并
+            SpeechSegment(20_000, 21_000)  // 补白后间隔13600, 不送入引擎
+        )
+        val chunk = planner.plan(60_000, segments).single()
+
+        assertEquals(listOf(SpeechSegment(800, 6_200), SpeechSegment(19_800, 21_200)), chunk.spans)
+        assertEquals(5_400L + 1_400L, chunk.length)
+    }
+
+    @Test
+    fun `spans that do not fit start a new chunk`() {
+        val segments = listOf(
+            SpeechSegment(1_000, 21_000),
+            SpeechSegment(30_000, 45_000),
+            SpeechSegment(60_000, 65_000)
+        )
+        val chunks = planner.plan(100_000, segments)
+
+        assertEquals(2, chunks.size)
+        assertEquals(listOf(SpeechSegment(800, 21_200)), chunks[0].spans)
+        assertEquals(listOf(SpeechSegment(29_800, 45_200), SpeechSegment(59_800, 65_200)), chunks[1].spans)
+    }
+
+    @Test
+    fun `overlong speech is split into equal pieces`() {
+        val chunks = planner.plan(100_000, listOf(SpeechSegment(0, 80_000)))
+
+        assertEquals(3, chunks.size)
+        assertTrue(chunks.all { it.length <= 30_000 })
+        assertEquals(80_200L, chunks.sumOf { it.length })
+        assertTrue(chunks.maxOf { it.length } - chunks.minOf { it.length } <= 1)
+    }
+
+    @Test
+    fun `chunk offsets map back to absolute samples`() {
+        val chunk = AudioChunk(0, listOf(SpeechSegment(1_000, 2_000), SpeechSegment(5_000, 5_500)))
+
+        assertEquals(1_000L, chunk.toAbsoluteSample(0))
+        assertEquals(1_999L, chunk.toAbsoluteSample(999))
+        assertEquals(5_000L, chunk.toAbsoluteSample(1_000))
+        assertEquals(5_499L, chunk.toAbsoluteSample(1_499))
+        assertEquals(5_500L, chunk.toAbsoluteSample(1_500))
+        assertEquals(5_500L, chunk.toAbsoluteSample(9_999))
+        assertEquals(1_000L, chunk.toAbsoluteSample(-5))
+    }
+
+    @Test
+    fun `end offsets on a span boundary stay in the earlier span`() {
+        val chunk = AudioChunk(0, listOf(SpeechSegment(1_000, 2_000), SpeechSegment(5_000, 5_500)))
+
+        // 恰好在区间边界的结束位置属于前一个区间, 不会跳过中间被省略的静音
+        assertEquals(2_000L, chunk.toAbsoluteSample(1_000, isEnd = true))
+        assertEquals(5_000L, chunk.toAbsoluteSample(1_000, isEnd = false))
+        assertEquals(1_500L, chunk.toAbsoluteSample(500, isEnd = true))
+        assertEquals(5_500L, chunk.toAbsoluteSample(1_500, isEnd = true))
+        assertEquals(1_000L, chunk.toAbsoluteSample(0, isEnd = true))
+    }
+}
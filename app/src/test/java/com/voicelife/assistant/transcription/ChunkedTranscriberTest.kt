@@ -0,0 +1,119 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.recorder.WavFileWriter
+import com.voicelife.assistant.vad.SpeechSegment
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.Collections
+
+/**
+ * 分块转写的样本组装和结果拼接
+ * 录音中每个样本的值等于其所在的10ms序号, 假引擎据此检查收到的样本是否来自正确的位置
+ */
+class ChunkedTranscriberTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private lateinit var file: File
+
+    companion object {
+        private const val SAMPLE_RATE = 16000
+        private const val SAMPLES_PER_TICK = SAMPLE_RATE / 100
+    }
+
+    private val received: MutableList<ShortArray> = Collections.synchronizedList(ArrayList())
+
+    // 补白200ms后为[1.8s, 3.2s)和[9.8s, 11.2s), 间隔6.6秒不合并
+    private val source = SpeechSegmentSource {
+        listOf(SpeechSegment(2 * 16000L, 3 * 16000L), SpeechSegment(10 * 16000L, 11 * 16000L))
+    }
+
+    /**
+     * 返回覆盖整个分块的一个分段, 文本为收到的第一个样本的10ms序号
+     */
+    private inner class TickEngine : TranscriptionEngine {
+        override suspend fun transcribe(samples: ShortArray, sampleRate: Int): TranscriptionResult {
+            received += samples.copyOf()
+            val endMs = samples.size * 1000L / sampleRate
+            return TranscriptionResult("t${samples[0]}", "en", listOf(TranscriptSegment(0, endMs, "t${samples[0]}")))
+        }
+    }
+
+    @Before
+    fun setUp() {
+        file = temp.newFile("ticks.wav")
+        WavFileWriter(file).apply {
+            start()
+            write(ShortArray(20 * SAMPLE_RATE) { (it / SAMPLES_PER_TICK).toShort() })
+            stop()
+        }
+    }
+
+    @Test
+    fun `segments on a span boundary map to the end of the earlier span`() = runBlocking {
+        val engine = object : TranscriptionEngine {
+            override suspend fun transcribe(samples: ShortArray, sampleRate: Int): TranscriptionResult {
+                received += samples.copyOf()
+                // 第一个分段恰好结束在两个区间的拼接处(1400ms), 第二个从拼接处开始
+                return TranscriptionResult(
+                    "a b",
+                    "en",
+                    listOf(TranscriptSegment(0, 1400, "a"), TranscriptSegment(1400, 2800, "b"))
+                )
+            }
+        }
+        val transcriber = ChunkedTranscriber({ engine }, source, workers = 2)
+
+        val result = transcriber.transcribe(file, SAMPLE_RATE)
+
+        val chunk = received.single()
+        assertEquals(2800 * SAMPLE_RATE / 1000, chunk.size)
+        assertEquals(180, chunk[0].toInt())
+        assertEquals(319, chunk[1400 * SAMPLE_RATE / 1000 - 1].toInt())
+        assertEquals(980, chunk[1400 * SAMPLE_RATE / 1000].toInt())
+        assertEquals(1119, chunk.last().toInt())
+
+        assertEquals(
+            listOf(TranscriptSegment(1800, 3200, "a"), TranscriptSegment(9800, 11200, "b")),
+            result.segments
+        )
+        assertEquals("a b", result.text)
+    }
+
+    @Test
+    fun `parallel chunks are stitched in recording order`() = runBlocking {
+        // 1秒分块: 两个1.4秒的区间各等分为两块
+        val transcriber = ChunkedTranscriber({ TickEngine() }, source, maxChunkSeconds = 1, workers = 4)
+
+        val result = transcriber.transcribe(file, SAMPLE_RATE)
+
+        assertEquals(4, received.size)
+        assertEquals("t180 t250 t980 t1050", result.text)
+        assertEquals(
+            listOf(
+                TranscriptSegment(1800, 2500, "t180"),
+                TranscriptSegment(2500, 3200, "t250"),
+                TranscriptSegment(9800, 10500, "t980"),
+                TranscriptSegment(10500, 11200, "t1050")
+            ),
+            result.segments
+        )
+        assertEquals("en", result.language)
+    }
+
+    @Test
+    fun `without segment source the whole recording is transcribed`() = runBlocking {
+        val transcriber = ChunkedTranscriber({ TickEngine() }, segmentSource = null, maxChunkSeconds = 30, workers = 2)
+
+        val result = transcriber.transcribe(file, SAMPLE_RATE)
+
+        assertEquals(20 * SAMPLE_RATE, received.single().size)
+        assertEquals(listOf(TranscriptSegment(0, 20_000, "t0")), result.segments)
+    }
+}
@@ -0,0 +1,287 @@
+package com.voicelife.assistant.transcription
+
+import com.voicelife.assistant.data.database.FakeRecordingDao
+import com.voicelife.assistant.data.database.FakeTranscriptionDao
+import com.voicelife.assistant.data.database.FakeTranscriptionJobDao
+import com.voicelife.assistant.data.model.JobState
+import com.voicelife.assistant.data.model.TranscriptionJob
+import com.voicelife.assistant.data.model.TranscriptionStatus
+import com.voicelife.assistant.data.repository.RecordingRepository
+import com.voicelife.assistant.storage.RecordingFileStore
+import com.voicelife.assistant.storage.RecordingStage
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 调度器的领取、续期、退避、崩溃恢复和停止
+ * DAO、转写器和设备状态都是假的, 时钟取测试调度器的虚拟时间
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+class TranscriptionSchedulerTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val recordingDao = FakeRecordingDao()
+    private val jobDao = FakeTranscriptionJobDao(recordingDao)
+    private val repository = RecordingRepository(recordingDao, FakeTranscriptionDao(recordingDao))
+    private val queue = TranscriptionJobQueue(jobDao)
+    private val conditions = FakeConditions()
+    private lateinit var fileStore: RecordingFileStore
+
+    private val config = TranscriptionSchedulerConfig(
+        leaseMs = 30_000,
+        baseBackoffMs = 60_000,
+        pollIntervalMs = 10_000
+    )
+
+    private class FakeConditions(var charging: Boolean = true) : DeviceConditions {
+        override fun isCharging(): Boolean = charging
+        override fun isIdle(): Boolean = true
+        override fun getBatteryPercent(): Int = 20
+    }
+
+    /**
+     * 第n次调用(从1开始)的行为由behavior决定
+     */
+    private class FakeTranscriber(
+        private val behavior: suspend (Int) -> TranscriptionResult = { RESULT }
+    ) : RecordingTranscriber {
+        var calls = 0
+
+        override suspend fun transcribe(file: File, sampleRate: Int): TranscriptionResult = behavior(++calls)
+    }
+
+    companion object {
+        private val RESULT = TranscriptionResult("你好", "zh", listOf(TranscriptSegment(0, 1000, "你好")))
+    }
+
+    @Before
+    fun setUp() {
+        fileStore = RecordingFileStore(temp.root)
+    }
+
+    private fun TestScope.scheduler(transcriber: RecordingTranscriber) = TranscriptionScheduler(
+        queue = queue,
+        recordingRepository = repository,
+        fileStore = fileStore,
+        transcriber = transcriber,
+        conditions = conditions,
+        config = config,
+        dispatcher = StandardTestDispatcher(testScheduler),
+        clock = { testScheduler.currentTime }
+    )
+
+    private suspend fun addRecording(name: String, stage: RecordingStage = RecordingStage.PENDING): Long {
+        val file = File(fileStore.getDir(stage), name)
+        file.parentFile?.mkdirs()
+        file.writeBytes(ByteArray(44))
+        return repository.saveRecording(file, sampleCount = 16000)
+    }
+
+    private fun job(recordingId: Long): TranscriptionJob = jobDao.jobs.values.single { it.recordingId == recordingId }
+
+    private fun stageOf(recordingId: Long): String = File(recordingDao.recordings[recordingId]!!.filePath).parentFile!!.name
+
+    private fun TestScope.advanceTo(timeMs: Long) {
+        advanceTimeBy(timeMs - testScheduler.currentTime)
+        runCurrent()
+    }
+
+    @Test
+    fun `claims a queued job and completes it`() = runTest {
+        val id = addRecording("a.wav")
+        queue.enqueue(id, now = 0)
+        val transcriber = FakeTranscriber()
+        val scheduler = scheduler(transcriber)
+
+        scheduler.start(this)
+        runCurrent()
+
+        assertEquals(1, transcriber.calls)
+        assertEquals(JobState.SUCCEEDED, job(id).state)
+        assertEquals(1, job(id).attempts)
+        assertNull(job(id).leaseOwner)
+        assertEquals(TranscriptionStatus.COMPLETED, recordingDao.recordings[id]!!.transcriptionStatus)
+        assertEquals("你好", repository.getTranscriptionByRecordingId(id)!!.text)
+        assertEquals(RecordingStage.COMPLETED.dirName, stageOf(id))
+        scheduler.stop()
+    }
+
+    @Test
+    fun `waits for device conditions before claiming`() = runTest {
+        val id = addRecording("a.wav")
+        queue.enqueue(id, now = 0)
+        conditions.charging = false
+        val transcriber = FakeTranscriber()
+        val scheduler = scheduler(transcriber)
+
+        scheduler.start(this)
+        advanceTo(30_000)
+        assertEquals(0, transcriber.calls)
+        assertEquals(JobState.QUEUED, job(id).state)
+
+        conditions.charging = true
+        scheduler.wakeUp()
+        runCurrent()
+        assertEquals(1, transcriber.calls)
+        assertEquals(JobState.SUCCEEDED, job(id).state)
+        scheduler.stop()
+    }
+
+    @Test
+    fun `renews the lease while a long job runs`() = runTest {
+        val id = addRecording("long.wav")
+        queue.enqueue(id, now = 0)
+        val transcriber = FakeTranscriber {
+            delay(70_000)
+            RESULT
+        }
+        val scheduler = scheduler(transcriber)
+
+        scheduler.start(this)
+        runCurrent()
+        assertEquals(30_000L, job(id).leaseExpiresAt)
+
+        // 每1/3租约(10秒)续期一次
+        advanceTo(25_000)
+        assertEquals(JobState.RUNNING, job(id).state)
+        assertEquals(50_000L, job(id).leaseExpiresAt)
+
+        // 超过最初的租约也不会被当作过期回收
+        advanceTo(80_000)
+        assertEquals(1, transcriber.calls)
+        assertEquals(JobState.SUCCEEDED, job(id).state)
+        assertEquals(1, job(id).attempts)
+        scheduler.stop()
+    }
+
+    @Test
+    fun `retries failed jobs with exponential backoff`() = runTest {
+        val id = addRecording("flaky.wav")
+        queue.enqueue(id, now = 0)
+        val transcriber = FakeTranscriber { call ->
+            if (call <= 2) throw TranscriptionException("engine crashed #$call")
+            RESULT
+        }
+        val scheduler = scheduler(transcriber)
+
+        scheduler.start(this)
+        runCurrent()
+        assertEquals(1, transcriber.calls)
+        assertEquals(JobState.QUEUED, job(id).state)
+        assertEquals(60_000L, job(id).notBefore)
+        assertEquals("engine crashed #1", job(id).lastError)
+        assertEquals(TranscriptionStatus.PENDING, recordingDao.recordings[id]!!.transcriptionStatus)
+        assertEquals(RecordingStage.PENDING.dirName, stageOf(id))
+
+        advanceTo(59_000)
+        assertEquals(1, transcriber.calls)
+
+        // 第二次失败后退避翻倍
+        advanceTo(61_000)
+        assertEquals(2, transcriber.calls)
+        assertEquals(60_000L + 120_000L, job(id).notBefore)
+
+        advanceTo(179_000)
+        assertEquals(2, transcriber.calls)
+        advanceTo(181_000)
+        assertEquals(3, transcriber.calls)
+        assertEquals(JobState.SUCCEEDED, job(id).state)
+        assertEquals(3, job(id).attempts)
+        assertEquals(RecordingStage.COMPLETED.dirName, stageOf(id))
+        scheduler.stop()
+    }
+
+    @Test
+    fun `non-retryable failure fails the job immediately`() = runTest {
+        val id = addRecording("broken.wav")
+        queue.enqueue(id, now = 0)
+        val scheduler = scheduler(FakeTranscriber { throw TranscriptionException("corrupt file", retryable = false) })
+
+        scheduler.start(this)
+        runCurrent()
+
+        assertEquals(JobState.FAILED, job(id).state)
+        assertEquals(TranscriptionStatus.FAILED, recordingDao.recordings[id]!!.transcriptionStatus)
+        assertEquals(RecordingStage.FAILED.dirName, stageOf(id))
+        scheduler.stop()
+    }
+
+    @Test
+    fun `recovers leases left behind by a crashed process`() = runTest {
+        // 上个进程领取后崩溃: 任务仍是RUNNING, 文件在processing/
+        val retried = addRecording("retried.wav", RecordingStage.PROCESSING)
+        val exhausted = addRecording("exhausted.wav", RecordingStage.PROCESSING)
+        for ((id, attempts) in listOf(retried to 1, exhausted to TranscriptionJob.DEFAULT_MAX_ATTEMPTS)) {
+            repository.updateTranscriptionStatus(id, TranscriptionStatus.PROCESSING)
+            jobDao.insert(
+                TranscriptionJob(
+                    recordingId = id,
+                    state = JobState.RUNNING,
+                    attempts = attempts,
+                    leaseOwner = "crashed-$id",
+                    leaseExpiresAt = 5_000,
+                    createdAt = 0,
+                    updatedAt = 0
+                )
+            )
+        }
+        val transcriber = FakeTranscriber()
+        val scheduler = scheduler(transcriber)
+
+        scheduler.start(this)
+        runCurrent()
+
+        // 回收按一次失败处理: 还有次数的退避后重试, 用完的直接失败
+        assertEquals(0, transcriber.calls)
+        assertEquals(JobState.QUEUED, job(retried).state)
+        assertEquals("Lease expired", job(retried).lastError)
+        assertEquals(60_000L, job(retried).notBefore)
+        assertEquals(RecordingStage.PENDING.dirName, stageOf(retried))
+        assertEquals(JobState.FAILED, job(exhausted).state)
+        assertEquals(RecordingStage.FAILED.dirName, stageOf(exhausted))
+
+        advanceTo(61_000)
+        assertEquals(1, transcriber.calls)
+        assertEquals(JobState.SUCCEEDED, job(retried).state)
+        assertEquals(2, job(retried).attempts)
+        scheduler.stop()
+    }
+
+    @Test
+    fun `stop releases the running job without counting the attempt`() = runTest {
+        val id = addRecording("a.wav")
+        queue.enqueue(id, now = 0)
+        val scheduler = scheduler(FakeTranscriber { awaitCancellation() })
+
+        scheduler.start(this)
+        advanceTo(15_000)
+        assertEquals(JobState.RUNNING, job(id).state)
+        assertEquals(1, job(id).attempts)
+        assertEquals(TranscriptionStatus.PROCESSING, recordingDao.recordings[id]!!.transcriptionStatus)
+
+        scheduler.stop()
+
+        assertEquals(JobState.QUEUED, job(id).state)
+        assertEquals(0, job(id).attempts)
+        assertNull(job(id).leaseOwner)
+        assertEquals(15_000L, job(id).notBefore)
+        assertEquals(TranscriptionStatus.PENDING, recordingDao.recordings[id]!!.transcriptionStatus)
+        assertEquals(0, scheduler.getActiveCount())
+        assertEquals(1, queue.getPendingCount())
+    }
+}
@@ -0,0 +1,84 @@
+package com.voicelife.assistant.vad
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * 预门限的噪声底跟踪
+ * 模型用固定结果代替: 噪声帧判定为非人声
+ */
+class EnergyZcrGateTest {
+
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val FRAMES_PER_SECOND = 31  // 32ms一帧
+    }
+
+    private val random = Random(42)
+
+    /** 白噪声, 过零率约0.5, 不落在浊音区间 */
+    private fun noise(amplitude: Float) = FloatArray(FRAME_SIZE) { (random.nextFloat() * 2f - 1f) * amplitude }
+
+    /** 200Hz正弦, 过零率约0.025, 落在浊音区间 */
+    private fun voiced(amplitude: Float) = FloatArray(FRAME_SIZE) { i ->
+        (amplitude * sin(2.0 * PI * 200.0 * i / 16000.0)).toFloat()
+    }
+
+    /**
+     * 送入一帧, 推理帧按isVoice回报结果
+     */
+    private fun EnergyZcrGate.feed(frame: FloatArray, isVoice: Boolean): EnergyZcrGate.Decision {
+        val decision = evaluate(frame)
+        when (decision) {
+            EnergyZcrGate.Decision.INFER, EnergyZcrGate.Decision.INFER_AFTER_RESET -> recordInference(isVoice)
+            EnergyZcrGate.Decision.AUDIT -> recordAudit(isVoice)
+            EnergyZcrGate.Decision.SKIP -> Unit
+        }
+        return decision
+    }
+
+    @Test
+    fun `gate closes again after a sustained noise step-up`() {
+        val gate = EnergyZcrGate()
+        repeat(5 * FRAMES_PER_SECOND) { gate.feed(noise(0.01f), isVoice = false) }
+        assertEquals(EnergyZcrGate.Decision.SKIP, gate.evaluate(noise(0.01f)))
+
+        // 噪声能量阶跃变大10倍(幅度约3.2倍), 模型判定为非人声
+        var firstSkip = -1
+        for (i in 0 until 30 * FRAMES_PER_SECOND) {
+            if (gate.feed(noise(0.032f), isVoice = false) == EnergyZcrGate.Decision.SKIP) {
+                firstSkip = i
+                break
+            }
+        }
+        assertTrue("noise step never absorbed", firstSkip >= 0)
+        assertTrue("took ${firstSkip / FRAMES_PER_SECOND}s to absorb", firstSkip < 15 * FRAMES_PER_SECOND)
+    }
+
+    @Test
+    fun `candidate frames scored as speech do not raise the floor`() {
+        val gate = EnergyZcrGate()
+        repeat(5 * FRAMES_PER_SECOND) { gate.feed(noise(0.01f), isVoice = false) }
+
+        // 长时间人声, 模型判定为人声: 噪声底不动, 门限一直打开
+        repeat(30 * FRAMES_PER_SECOND) {
+            val decision = gate.feed(voiced(0.05f), isVoice = true)
+            assertTrue(decision == EnergyZcrGate.Decision.INFER || decision == EnergyZcrGate.Decision.INFER_AFTER_RESET)
+        }
+    }
+
+    @Test
+    fun `speech still opens the gate after the floor adapted`() {
+        val gate = EnergyZcrGate()
+        repeat(5 * FRAMES_PER_SECOND) { gate.feed(noise(0.01f), isVoice = false) }
+        repeat(30 * FRAMES_PER_SECOND) { gate.feed(noise(0.032f), isVoice = false) }
+        repeat(2 * FRAMES_PER_SECOND) { gate.feed(noise(0.032f), isVoice = false) }
+
+        val decision = gate.feed(voiced(0.2f), isVoice = true)
+        assertEquals(EnergyZcrGate.Decision.INFER_AFTER_RESET, decision)
+    }
+}
@@ -0,0 +1,144 @@
+package com.voicelife.assistant.vad
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+
+/**
+ * 校准器的选择逻辑
+ * 假时钟只在探针执行推理时前进, 每个探针的单帧耗时由测试指定;
+ * 最后一个用例用打包的模型创建真实的CPU会话, 只有计时来自假时钟
+ */
+class ExecutionProviderCalibratorTest {
+
+    private var now = 0L
+
+    private inner class FakeProbe(
+        private val costs: () -> Long,
+        private val failOnRun: Boolean = false
+    ) : ExecutionProviderCalibrator.Probe {
+        var runs = 0
+        var closed = false
+
+        override fun runOnce() {
+            if (failOnRun) throw IllegalStateException("provider crashed")
+            runs++
+            now += costs()
+        }
+
+        override fun close() {
+            closed = true
+        }
+    }
+
+    private fun calibrator(warmupRuns: Int = 2, measuredRuns: Int = 5) =
+        ExecutionProviderCalibrator(warmupRuns, measuredRuns) { now }
+
+    private val cpu1 = EpConfig(ExecutionProvider.CPU, 1)
+    private val cpu2 = EpConfig(ExecutionProvider.CPU, 2)
+    private val xnnpack = EpConfig(ExecutionProvider.XNNPACK, 1)
+    private val nnapi = EpConfig(ExecutionProvider.NNAPI, 1)
+
+    @Test
+    fun `picks the provider with the lowest median`() {
+        val costs = mapOf(cpu1 to 300_000L, cpu2 to 200_000L, xnnpack to 150_000L, nnapi to 900_000L)
+        val result = calibrator().calibrate(costs.keys.toList()) { config -> FakeProbe({ costs.getValue(config) }) }
+
+        assertEquals(xnnpack, result.best)
+        assertEquals(costs, result.timings)
+        assertEquals(150L, result.getBestMicros())
+    }
+
+    @Test
+    fun `median ignores a single slow outlier`() {
+        // cpu1平时100µs, 但有一次被调度打断用了50ms
+        var calls = 0
+        val outlier = FakeProbe({ if (++calls == 4) 50_000_000L else 100_000L })
+        val steady = FakeProbe({ 120_000L })
+        val result = calibrator(warmupRuns = 0).calibrate(listOf(cpu1, cpu2)) { config ->
+            if (config == cpu1) outlier else steady
+        }
+
+        assertEquals(cpu1, result.best)
+        assertEquals(100_000L, result.timings[cpu1])
+    }
+
+    @Test
+    fun `warmup runs are executed but not timed`() {
+        var calls = 0
+        // 前3次(预热)很慢, 之后稳定
+        val probe = FakeProbe({ if (++calls <= 3) 10_000_000L else 80_000L })
+        val result = calibrator(warmupRuns = 3, measuredRuns = 7).calibrate(listOf(cpu1)) { probe }
+
+        assertEquals(10, probe.runs)
+        assertEquals(80_000L, result.timings[cpu1])
+    }
+
+    @Test
+    fun `providers that fail to create or run are skipped and closed`() {
+        val failing = FakeProbe({ 1L }, failOnRun = true)
+        val working = FakeProbe({ 500_000L })
+        val result = calibrator().calibrate(listOf(nnapi, xnnpack, cpu1)) { config ->
+            when (config) {
+                nnapi -> throw UnsupportedOperationException("NNAPI not available")
+                xnnpack -> failing
+                else -> working
+            }
+        }
+
+        assertEquals(cpu1, result.best)
+        assertEquals(setOf(cpu1), result.timings.keys)
+        assertTrue(failing.closed)
+        assertTrue(working.closed)
+    }
+
+    @Test
+    fun `falls back to single threaded CPU when nothing works`() {
+        val result = calibrator().calibrate(listOf(xnnpack, nnapi)) { throw IllegalStateException("no provider") }
+
+        assertEquals(EpConfig.DEFAULT, result.best)
+        assertTrue(result.timings.isEmpty())
+        assertEquals(0L, result.getBestMicros())
+    }
+
+    @Test
+    fun `config keys round trip and reject malformed input`() {
+        for (config in EpConfig.CANDIDATES) {
+            assertEquals(config, EpConfig.fromKey(config.toKey()))
+        }
+        assertNull(EpConfig.fromKey(null))
+        assertNull(EpConfig.fromKey("CPU"))
+        assertNull(EpConfig.fromKey("GPU:1"))
+        assertNull(EpConfig.fromKey("CPU:0"))
+        assertNull(EpConfig.fromKey("CPU:x"))
+    }
+
+    @Test
+    fun `calibrates real CPU sessions with an injected clock`() {
+        val measuredRuns = 5
+        val costs = longArrayOf(300_000L, 200_000L)  // 按成功创建的顺序: cpu1, cpu2
+        var clockCalls = 0
+        // 每次计时调用两次时钟, 结束时按当前候选前进
+        val clock = {
+            val candidate = clockCalls / (2 * measuredRuns)
+            if (clockCalls++ % 2 == 1) now += costs[candidate]
+            now
+        }
+        val engine = SileroVadEngine.fromModelFile(File("src/main/assets/silero_vad.onnx"))
+
+        // 桌面版ORT没有NNAPI, 创建会话失败后被跳过
+        val result = engine.calibrate(
+            File("src/main/assets/silero_vad.onnx"),
+            listOf(nnapi, cpu1, cpu2),
+            ExecutionProviderCalibrator(warmupRuns = 2, measuredRuns = measuredRuns, clock = clock)
+        )
+
+        assertEquals(2 * 2 * measuredRuns, clockCalls)
+        assertEquals(mapOf(cpu1 to 300_000L, cpu2 to 200_000L), result.timings)
+        assertEquals(cpu2, result.best)
+        assertEquals(result.best, EpConfig.fromKey(result.best.toKey()))
+        assertEquals("CPU:2", result.best.toKey())
+    }
+}
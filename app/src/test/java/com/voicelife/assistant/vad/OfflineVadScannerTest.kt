@@ -0,0 +1,93 @@
+package com.voicelife.assistant.vad
+
+import com.voicelife.assistant.recorder.WavFileWriter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 离线扫描器在纯JVM上用打包的Silero模型运行
+ * 工作目录为app/, 模型从src/main/assets读取
+ */
+class OfflineVadScannerTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val modelFile = File("src/main/assets/silero_vad.onnx")
+    private val scanner = OfflineVadScanner({ SileroVadEngine.fromModelFile(modelFile) }, workers = 2)
+
+    private fun wav(name: String, pcm: ShortArray): File {
+        val file = temp.newFile(name)
+        WavFileWriter(file).apply {
+            start()
+            write(pcm)
+            stop()
+        }
+        return file
+    }
+
+    private fun seconds(value: Double) = (value * 16000).toInt()
+
+    @Test
+    fun `finds the speech segment in a recording`() {
+        val pcm = SyntheticSpeech.toPcm(
+            SyntheticSpeech.noise(seconds(1.0)),
+            SyntheticSpeech.voiced(seconds(2.0)),
+            SyntheticSpeech.noise(seconds(2.0), seed = 3)
+        )
+        val result = scanner.scan(listOf(wav("speech.wav", pcm))).files.single()
+
+        assertNull(result.error)
+        assertEquals(pcm.size.toLong(), result.totalSamples)
+        val segment = result.segments.single()
+        assertTrue("start ${segment.startSample}", segment.startSample in seconds(0.8)..seconds(1.3))
+        assertTrue("end ${segment.endSample}", segment.endSample in seconds(2.8)..seconds(3.4))
+        assertEquals(0.4, result.getSpeechRatio(), 0.06)
+    }
+
+    @Test
+    fun `trailing partial frame is scanned and counted`() {
+        // 人声一直持续到文件末尾, 最后一帧只有300个样本
+        val pcm = SyntheticSpeech.toPcm(
+            SyntheticSpeech.noise(seconds(1.0)),
+            SyntheticSpeech.voiced(seconds(2.0) + 300)
+        )
+        assertTrue(pcm.size % 512 != 0)
+        val result = scanner.scan(listOf(wav("tail.wav", pcm))).files.single()
+
+        assertNull(result.error)
+        assertEquals(pcm.size.toLong(), result.totalSamples)
+        assertEquals(pcm.size.toLong(), result.segments.last().endSample)
+        assertTrue(result.getSpeechRatio() <= 1.0)
+    }
+
+    @Test
+    fun `files shorter than one frame are not dropped`() {
+        val pcm = SyntheticSpeech.toPcm(SyntheticSpeech.noise(200))
+        val result = scanner.scan(listOf(wav("short.wav", pcm))).files.single()
+
+        assertNull(result.error)
+        assertEquals(200L, result.totalSamples)
+        assertTrue(result.segments.isEmpty())
+    }
+
+    @Test
+    fun `results keep input order across workers`() {
+        val silent = wav("silent.wav", SyntheticSpeech.toPcm(SyntheticSpeech.noise(seconds(2.0))))
+        val speech = wav(
+            "voiced.wav",
+            SyntheticSpeech.toPcm(SyntheticSpeech.noise(seconds(0.5)), SyntheticSpeech.voiced(seconds(2.0)))
+        )
+        val batch = scanner.scan(listOf(silent, speech, silent))
+
+        assertEquals(listOf(silent, speech, silent), batch.files.map { it.file })
+        assertTrue(batch.files[0].segments.isEmpty())
+        assertEquals(1, batch.files[1].segments.size)
+        assertTrue(batch.files[2].segments.isEmpty())
+    }
+}
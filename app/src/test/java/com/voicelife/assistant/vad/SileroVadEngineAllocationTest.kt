@@ -0,0 +1,135 @@
+package com.voicelife.assistant.vad
+
+import ai.onnxruntime.OnnxTensor
+import ai.onnxruntime.OnnxValue
+import ai.onnxruntime.OrtEnvironment
+import ai.onnxruntime.OrtSession
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.LongBuffer
+import java.util.Random
+
+/**
+ * process()稳态下的堆分配
+ * 用ThreadMXBean统计当前线程的分配字节数
+ *
+ * OrtSession.run每次调用都会在ORT的Java层分配Result、数组等对象, 这部分无法在外部消除;
+ * 因此同时测量同样输入下裸调用run(inputs, pinnedOutputs)的分配作为基线:
+ * - process()超出基线的部分(本类代码)必须为0
+ * - 总分配不超过MAX_BYTES_PER_FRAME, ORT升级后Result变大时这里会提醒
+ * 预热后分几轮测量取最小值, 排除JIT编译完成前的分配
+ */
+class SileroVadEngineAllocationTest {
+
+    companion object {
+        private const val FRAME_SIZE = 512
+        private const val WARMUP_FRAMES = 5000
+        private const val MEASURED_FRAMES = 2000
+        private const val ROUNDS = 5
+        private const val MAX_BYTES_PER_FRAME = 1024L
+    }
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    private val modelFile = File("src/main/assets/silero_vad.onnx")
+    private lateinit var engine: SileroVadEngine
+    private lateinit var frames: Array<FloatArray>
+
+    @Before
+    fun setUp() {
+        engine = SileroVadEngine.fromModelFile(modelFile)
+        engine.init()
+        val random = Random(1)
+        frames = Array(16) { FloatArray(FRAME_SIZE) { (random.nextGaussian() * 0.1).toFloat() } }
+    }
+
+    @After
+    fun tearDown() {
+        engine.release()
+    }
+
+    @Test
+    fun `process allocates nothing beyond OrtSession run`() {
+        repeat(WARMUP_FRAMES) { engine.process(frames[it % frames.size]) }
+        val engineBytes = minAllocatedBytes {
+            for (i in 0 until MEASURED_FRAMES) engine.process(frames[i % frames.size])
+        }
+
+        val ortBytes = measureBareOrtRun()
+        val enginePerFrame = engineBytes.toDouble() / MEASURED_FRAMES
+        val ortPerFrame = ortBytes.toDouble() / MEASURED_FRAMES
+        println("process(): ${"%.1f".format(enginePerFrame)} B/frame, bare OrtSession.run: ${"%.1f".format(ortPerFrame)} B/frame")
+
+        assertTrue(
+            "process() allocates ${engineBytes - ortBytes} bytes over $MEASURED_FRAMES frames beyond OrtSession.run",
+            engineBytes <= ortBytes
+        )
+        assertTrue(
+            "OrtSession.run allocates ${"%.0f".format(enginePerFrame)} B/frame, ceiling $MAX_BYTES_PER_FRAME",
+            enginePerFrame <= MAX_BYTES_PER_FRAME
+        )
+    }
+
+    /**
+     * 与SileroVadEngine相同的张量和pinned outputs, 只调用run(...).close()
+     */
+    private fun measureBareOrtRun(): Long {
+        val env = OrtEnvironment.getEnvironment()
+        val shape = longArrayOf(2, 1, 64)
+        val input = floats(FRAME_SIZE)
+        val tensors = listOf(
+            OnnxTensor.createTensor(env, input, longArrayOf(1, FRAME_SIZE.toLong())),
+            OnnxTensor.createTensor(env, floats(128), shape),
+            OnnxTensor.createTensor(env, floats(128), shape),
+            OnnxTensor.createTensor(env, longs(1).apply { put(0, 16000) }, longArrayOf(1)),
+            OnnxTensor.createTensor(env, floats(1), longArrayOf(1, 1)),
+            OnnxTensor.createTensor(env, floats(128), shape),
+            OnnxTensor.createTensor(env, floats(128), shape)
+        )
+        val inputs = HashMap<String, OnnxTensor>(8).apply {
+            put("input", tensors[0]); put("h", tensors[1]); put("c", tensors[2]); put("sr", tensors[3])
+        }
+        val outputs = HashMap<String, OnnxValue>(4).apply {
+            put("output", tensors[4]); put("hn", tensors[5]); put("cn", tensors[6])
+        }
+        val options = OrtSession.SessionOptions().apply { setIntraOpNumThreads(1) }
+        try {
+            env.createSession(modelFile.absolutePath, options).use { session ->
+                fun run(i: Int) {
+                    input.clear()
+                    input.put(frames[i % frames.size])
+                    input.rewind()
+                    session.run(inputs, outputs).close()
+                }
+                repeat(WARMUP_FRAMES) { run(it) }
+                return minAllocatedBytes { for (i in 0 until MEASURED_FRAMES) run(i) }
+            }
+        } finally {
+            tensors.forEach { it.close() }
+            options.close()
+        }
+    }
+
+    private inline fun minAllocatedBytes(block: () -> Unit): Long {
+        val threadId = Thread.currentThread().id
+        var min = Long.MAX_VALUE
+        repeat(ROUNDS) {
+            val before = threadBean.getThreadAllocatedBytes(threadId)
+            block()
+            min = minOf(min, threadBean.getThreadAllocatedBytes(threadId) - before)
+        }
+        return min
+    }
+
+    private fun floats(size: Int): FloatBuffer =
+        ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer()
+
+    private fun longs(size: Int): LongBuffer =
+        ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder()).asLongBuffer()
+}
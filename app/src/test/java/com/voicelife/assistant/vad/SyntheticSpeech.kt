@@ -0,0 +1,117 @@
+package com.voicelife.assistant.vad
+
+import com.voicelife.assistant.recorder.WavFileWriter
+import java.io.File
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * 测试用合成语音
+ * 带抖动的声门脉冲串(约130Hz)经过三个共振峰滤波, 每150ms换一个元音, 按4Hz音节节奏调幅;
+ * Silero VAD对其给出的人声概率与真实语音相当, 测试不需要附带录音文件
+ */
+object SyntheticSpeech {
+
+    private val VOWEL_FORMANTS = arrayOf(
+        doubleArrayOf(730.0, 1090.0, 2440.0),  // a
+        doubleArrayOf(270.0, 2290.0, 3010.0),  // i
+        doubleArrayOf(300.0, 870.0, 2240.0),   // u
+        doubleArrayOf(530.0, 1840.0, 2480.0)   // e
+    )
+
+    /**
+     * 生成合成语音, 峰值约为peak
+     */
+    fun voiced(samples: Int, seed: Int = 1, peak: Float = 0.3f, sampleRate: Int = 16000): FloatArray {
+        val random = Random(seed)
+        val out = FloatArray(samples)
+        val y1 = DoubleArray(3)
+        val y2 = DoubleArray(3)
+        val vowelSamples = sampleRate * 150 / 1000
+        var formants = VOWEL_FORMANTS[0]
+        var phase = 0.0
+        var max = 1e-9
+
+        for (i in 0 until samples) {
+            val t = i.toDouble() / sampleRate
+            if (i % vowelSamples == 0) formants = VOWEL_FORMANTS[random.nextInt(VOWEL_FORMANTS.size)]
+
+            val f0 = 130 + 20 * sin(2 * PI * 0.7 * t) + random.nextDouble(-2.0, 2.0)
+            phase += f0 / sampleRate
+            var excitation = random.nextDouble(-0.02, 0.02)
+            if (phase >= 1.0) {
+                phase -= 1.0
+                excitation += 1.0
+            }
+
+            var sum = 0.0
+            for (k in 0 until 3) {
+                val r = exp(-PI * (80.0 + 40 * k) / sampleRate)
+                val y = excitation + 2 * r * cos(2 * PI * formants[k] / sampleRate) * y1[k] - r * r * y2[k]
+                y2[k] = y1[k]
+                y1[k] = y
+                sum += y / (k + 1)
+            }
+            val value = sum * (0.5 + 0.5 * sin(2 * PI * 4.0 * t))
+            out[i] = value.toFloat()
+            if (abs(value) > max) max = abs(value)
+        }
+
+        val scale = (peak / max).toFloat()
+        for (i in out.indices) out[i] *= scale
+        return out
+    }
+
+    /**
+     * 低电平白噪声, 作为静音背景
+     */
+    fun noise(samples: Int, seed: Int = 2, amplitude: Float = 0.003f): FloatArray {
+        val random = Random(seed)
+        return FloatArray(samples) { (random.nextFloat() * 2f - 1f) * amplitude }
+    }
+
+    /**
+     * 转为16bit PCM
+     */
+    fun toPcm(vararg parts: FloatArray): ShortArray {
+        val out = ShortArray(parts.sumOf { it.size })
+        var offset = 0
+        for (part in parts) {
+            for (sample in part) {
+                out[offset++] = (sample.coerceIn(-1f, 1f) * 32767f).toInt().toShort()
+            }
+        }
+        return out
+    }
+
+    /**
+     * 写入静音和人声交替的16kHz WAV, 人声段作为标注
+     * 四段2秒人声, 之间的静音从1.5秒起逐段加长0.5秒
+     */
+    fun writeLabeledWav(file: File, seed: Int): VadBenchmark.LabeledAudio {
+        val parts = ArrayList<FloatArray>()
+        val ranges = ArrayList<LongRange>()
+        var position = 0L
+        for (i in 0 until 4) {
+            val silence = noise(16000 * (3 + i) / 2, seed = seed * 10 + i)
+            val speech = voiced(16000 * 2, seed = seed * 10 + i)
+            parts += silence
+            position += silence.size
+            parts += speech
+            ranges += position until position + speech.size
+            position += speech.size
+        }
+        parts += noise(16000 * 3 / 2, seed = seed)
+
+        WavFileWriter(file).apply {
+            start()
+            write(toPcm(*parts.toTypedArray()))
+            stop()
+        }
+        return VadBenchmark.LabeledAudio(file, ranges)
+    }
+}
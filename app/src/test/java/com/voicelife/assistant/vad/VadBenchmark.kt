@@ -0,0 +1,110 @@
+package com.voicelife.assistant.vad
+
+import com.voicelife.assistant.recorder.AudioFileReader
+import java.io.File
+
+/**
+ * VAD引擎对比基准
+ * 在带标注的录音文件上运行多个VadEngine, 统计每帧耗时与标注的一致率
+ *
+ * 标注以样本区间表示人声段, 帧中心落在任一区间内即视为人声帧
+ */
+class VadBenchmark(
+    private val threshold: Float = 0.5f,
+    private val clock: () -> Long = System::nanoTime
+) {
+    /**
+     * 带标注的音频
+     * @param speechRanges 人声段的样本区间
+     */
+    data class LabeledAudio(
+        val file: File,
+        val speechRanges: List<LongRange>
+    )
+
+    /**
+     * 对单个引擎运行基准测试
+     * 引擎需已初始化, 每个文件开始前会调用reset
+     */
+    fun run(name: String, engine: VadEngine, samples: List<LabeledAudio>): VadBenchmarkResult {
+        val pcm = ShortArray(engine.frameSize)
+        val frame = FloatArray(engine.frameSize)
+
+        var frames = 0L
+        var totalNanos = 0L
+        var agreed = 0L
+        var falseAccepts = 0L
+        var falseRejects = 0L
+
+        for (sample in samples) {
+            engine.reset()
+            AudioFileReader.open(sample.file).use { reader ->
+                require(reader.sampleRate == engine.sampleRate) {
+                    "${sample.file.name}: sample rate ${reader.sampleRate} != ${engine.sampleRate}"
+                }
+
+                var offset = 0L
+                while (reader.read(pcm) == engine.frameSize) {
+                    for (i in pcm.indices) {
+                        frame[i] = pcm[i] / 32768.0f
+                    }
+
+                    val start = clock()
+                    val probability = engine.process(frame)
+                    totalNanos += clock() - start
+
+                    val detected = probability > threshold
+                    val center = offset + engine.frameSize / 2
+                    val labeled = sample.speechRanges.any { center in it }
+                    when {
+                        detected == labeled -> agreed++
+                        detected -> falseAccepts++
+                        else -> falseRejects++
+                    }
+
+                    frames++
+                    offset += engine.frameSize
+                }
+            }
+        }
+
+        return VadBenchmarkResult(
+            engineName = name,
+            frames = frames,
+            totalNanos = totalNanos,
+            agreedFrames = agreed,
+            falseAccepts = falseAccepts,
+            falseRejects = falseRejects
+        )
+    }
+
+    /**
+     * 对多个引擎运行同一组样本
+     */
+    fun compare(engines: Map<String, VadEngine>, samples: List<LabeledAudio>): List<VadBenchmarkResult> {
+        return engines.map { (name, engine) -> run(name, engine, samples) }
+    }
+}
+
+/**
+ * VAD基准结果
+ */
+data class VadBenchmarkResult(
+    val engineName: String,
+    val frames: Long,
+    val totalNanos: Long,
+    val agreedFrames: Long,
+    val falseAccepts: Long,
+    val falseRejects: Long
+) {
+    /** 每帧平均耗时(微秒) */
+    fun getMicrosPerFrame(): Double = if (frames > 0) totalNanos / 1000.0 / frames else 0.0
+
+    /** 与标注一致的帧占比 */
+    fun getAgreement(): Double = if (frames > 0) agreedFrames.toDouble() / frames else 0.0
+
+    override fun toString(): String =
+        "$engineName: ${String.format("%.1f", getMicrosPerFrame())}µs/帧, " +
+                "一致率 ${String.format("%.3f", getAgreement())}, " +
+                "误报 $falseAccepts, 漏报 $falseRejects"
+}
@@ -0,0 +1,39 @@
+package com.voicelife.assistant.vad
+
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+/**
+ * 在合成的标注录音上对比Silero和统计模型引擎
+ * 结果打印到标准输出; 断言只检查一致率的下限, 不检查耗时
+ */
+class VadBenchmarkTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `compare engines on labeled audio`() {
+        val samples = listOf(
+            SyntheticSpeech.writeLabeledWav(temp.newFile("a.wav"), seed = 1),
+            SyntheticSpeech.writeLabeledWav(temp.newFile("b.wav"), seed = 2)
+        )
+        val silero = SileroVadEngine.fromModelFile(File("src/main/assets/silero_vad.onnx")).also { it.init() }
+        val statistical = StatisticalVadEngine().also { it.init() }
+        try {
+            val results = VadBenchmark().compare(mapOf("silero" to silero, "statistical" to statistical), samples)
+            results.forEach { println(it) }
+
+            val sileroResult = results.first { it.engineName == "silero" }
+            assertTrue("silero: $sileroResult", sileroResult.getAgreement() >= 0.9)
+            val statisticalResult = results.first { it.engineName == "statistical" }
+            assertTrue("statistical: $statisticalResult", statisticalResult.getAgreement() >= 0.9)
+        } finally {
+            silero.release()
+            statistical.release()
+        }
+    }
+}